@@ -0,0 +1,612 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the child nodes in an array sorted by the upper-bound of each child
+ * interval, searched by binary search. Just like in {@link ChildNodeTreeMap},
+ * intervals are not allowed to intersect, so a child can be looked up by
+ * comparing an interval's <em>lower-bound</em> with the existing interval's
+ * <em>upper-bounds</em>.
+ * <p/>
+ * Most nodes only have a few children, for which a tree map costs an entry
+ * object per child on top of the map itself, while this map only needs an
+ * array slot. As insertion and removal move the following children, the
+ * children of a node are kept in a {@link ChildNodeChunkMap} once there are more
+ * than {@link #MAX_SIZE}, and moved back when less than {@link #MIN_TREE_SIZE}
+ * remain, see {@link #resize(ChildNodeMap)}. Nodes without children share
+ * {@link ChildNodeTreeMap#EMPTY}.
+ * <p/>
+ * Next to every child, this map keeps running totals of the number of nodes in the subtrees of the children and of
+ * their sizes, up to and including that child, so that both can be summed over any range of children with two binary
+ * searches. The node counts are kept up to date by every modification; the sizes are only computed when first
+ * needed, as not every interval supports {@link Interval#size()}.
+ * <p/>
+ * This map equals any other map with the same children, so nodes compare equal
+ * regardless of how their children are kept.
+ */
+final class ChildNodeArrayMap<K extends Interval<K>, V> extends AbstractMap<K, InternalNode<K, V>> implements ChildNodeMap<K, V> {
+
+    /*
+     * Above this number of children, a node keeps its children in a ChildNodeChunkMap.
+     */
+    static final int MAX_SIZE = 128;
+
+    /*
+     * Below this number of children, a node keeps its children in a ChildNodeArrayMap. Lower than MAX_SIZE, so
+     * alternately adding and removing a child does not convert the children every time.
+     */
+    static final int MIN_TREE_SIZE = 32;
+
+    private static final InternalNode<?, ?>[] NO_NODES = new InternalNode<?, ?>[0];
+    private static final int[] NO_COUNTS = new int[0];
+
+    private InternalNode<K, V>[] nodes;
+    // the number of nodes in the subtrees of the children up to and including each child
+    private int[] nodeCountEnds;
+    private int size;
+    // number of times children were inserted or removed, so views can fail fast
+    private int modCount;
+    /*
+     * The total size of the children up to and including each child, computed on first use and discarded when a
+     * child is added or removed. Never modified once computed, and volatile, as the readers of a
+     * ConcurrentNestedIntervalMap may compute it for a level they share.
+     */
+    private volatile BigInteger[] coverageEnds;
+
+    ChildNodeArrayMap() {
+        this(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    ChildNodeArrayMap(int capacity) {
+        this.nodes = (InternalNode<K, V>[]) (capacity == 0 ? NO_NODES : new InternalNode<?, ?>[capacity]);
+        this.nodeCountEnds = capacity == 0 ? NO_COUNTS : new int[capacity];
+    }
+
+    /**
+     * @return a new {@link ChildNodeArrayMap} sharing the child nodes of <code>source</code>, with room for one more.
+     */
+    static <K extends Interval<K>, V> ChildNodeArrayMap<K, V> shallowCopyOf(ChildNodeMap<K, V> source) {
+        return copyOf(source, source.size() + 1);
+    }
+
+    private static <K extends Interval<K>, V> ChildNodeArrayMap<K, V> copyOf(ChildNodeMap<K, V> source, int capacity) {
+        ChildNodeArrayMap<K, V> result = new ChildNodeArrayMap<>(capacity);
+        for (InternalNode<K, V> node : source.values()) {
+            result.nodes[result.size++] = node;
+        }
+        result.updateNodeCountEnds(0);
+        if (source instanceof ChildNodeArrayMap) {
+            result.coverageEnds = ((ChildNodeArrayMap<K, V>) source).coverageEnds;
+        }
+        return result;
+    }
+
+    /**
+     * @return a new map sharing the child nodes of <code>source</code>, kept the way a node with that many children
+     * keeps them.
+     */
+    static <K extends Interval<K>, V> ChildNodeMap<K, V> modifiableCopyOf(ChildNodeMap<K, V> source) {
+        if (source.size() >= MAX_SIZE) {
+            return ChildNodeChunkMap.copyOf(source);
+        }
+        return shallowCopyOf(source);
+    }
+
+    /**
+     * @return <code>children</code>, or a map with the same child nodes if a node with that many children keeps them
+     * differently.
+     */
+    static <K extends Interval<K>, V> ChildNodeMap<K, V> resize(ChildNodeMap<K, V> children) {
+        int size = children.size();
+        if (size == 0) {
+            return ChildNodeTreeMap.empty();
+        } else if (children instanceof ChildNodeArrayMap) {
+            return size > MAX_SIZE ? ChildNodeChunkMap.copyOf(children) : children;
+        } else if (size < MIN_TREE_SIZE) {
+            return copyOf(children, size);
+        }
+        return children;
+    }
+
+    /*
+     * Index of the first child with an upper-bound not below the upper-bound of range, or size if there is none.
+     */
+    private int ceilingIndex(K range) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nodes[mid].getInterval().compareUpperBound(range) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Index of the first child with an upper-bound above the upper-bound of range, or size if there is none.
+     */
+    private int higherIndex(K range) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nodes[mid].getInterval().compareUpperBound(range) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Index of the first child ending at or after the lower-bound of range, which is the first child that can
+     * intersect range.
+     */
+    private int lowerBoundIndex(K range) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (range.compareLowerBoundToUpperBound(nodes[mid].getInterval()) > 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insert(int index, InternalNode<K, V> node) {
+        if (size == nodes.length) {
+            grow(Math.max(2, size + (size >> 1)));
+        }
+        System.arraycopy(nodes, index, nodes, index + 1, size - index);
+        nodes[index] = node;
+        size++;
+        modCount++;
+        updateNodeCountEnds(index);
+        coverageEnds = null;
+    }
+
+    private void grow(int capacity) {
+        nodes = Arrays.copyOf(nodes, capacity);
+        nodeCountEnds = Arrays.copyOf(nodeCountEnds, capacity);
+    }
+
+    /*
+     * Replaces the children from index from up to index to by replacement, which must be in ascending order.
+     */
+    private void replace(int from, int to, Collection<InternalNode<K, V>> replacement) {
+        int newSize = size - (to - from) + replacement.size();
+        if (newSize > nodes.length) {
+            grow(newSize);
+        }
+        System.arraycopy(nodes, to, nodes, from + replacement.size(), size - to);
+        int index = from;
+        for (InternalNode<K, V> node : replacement) {
+            nodes[index++] = node;
+        }
+        Arrays.fill(nodes, newSize, Math.max(size, newSize), null);
+        size = newSize;
+        modCount++;
+        updateNodeCountEnds(from);
+        coverageEnds = null;
+    }
+
+    /*
+     * Recounts the nodes in the subtrees of the children from index from.
+     */
+    private void updateNodeCountEnds(int from) {
+        int count = nodeCountBefore(from);
+        for (int i = from; i < size; i++) {
+            count += 1 + nodes[i].getChildren().nodeCount();
+            nodeCountEnds[i] = count;
+        }
+    }
+
+    private int nodeCountBefore(int index) {
+        return index == 0 ? 0 : nodeCountEnds[index - 1];
+    }
+
+    /*
+     * Adjusts the node count of the child at index for a node added to or removed from its subtree.
+     */
+    private void adjustNodeCountAt(int index, int delta) {
+        for (int i = index; i < size; i++) {
+            nodeCountEnds[i] += delta;
+        }
+    }
+
+    @Override
+    public InternalNode<K, V> put(K key, InternalNode<K, V> node) {
+        int index = ceilingIndex(key);
+        if (index < size && nodes[index].getInterval().compareUpperBound(key) == 0) {
+            InternalNode<K, V> previous = nodes[index];
+            nodes[index] = node;
+            updateNodeCountEnds(index);
+            if (!previous.getInterval().equals(key)) {
+                coverageEnds = null;
+            }
+            return previous;
+        }
+        insert(index, node);
+        return null;
+    }
+
+    /*
+     * Looks up a child by upper-bound, just like ChildNodeTreeMap does.
+     */
+    @Override
+    public InternalNode<K, V> get(Object key) {
+        @SuppressWarnings("unchecked")
+        K range = (K) key;
+        int index = ceilingIndex(range);
+        if (index < size && nodes[index].getInterval().compareUpperBound(range) == 0) {
+            return nodes[index];
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+        modCount++;
+        coverageEnds = null;
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCountBefore(size);
+    }
+
+    @Override
+    public int nodeCountEndingWithin(K range) {
+        return nodeCountBefore(higherIndex(range)) - nodeCountBefore(lowerBoundIndex(range));
+    }
+
+    @Override
+    public BigInteger coverage() {
+        return coverageBefore(coverageEnds(), size);
+    }
+
+    @Override
+    public BigInteger coverageEndingWithin(K range) {
+        BigInteger[] ends = coverageEnds();
+        return coverageBefore(ends, higherIndex(range)).subtract(coverageBefore(ends, lowerBoundIndex(range)));
+    }
+
+    private BigInteger[] coverageEnds() {
+        BigInteger[] result = coverageEnds;
+        if (result == null) {
+            result = new BigInteger[size];
+            BigInteger total = BigInteger.ZERO;
+            for (int i = 0; i < size; i++) {
+                total = total.add(nodes[i].getInterval().size());
+                result[i] = total;
+            }
+            coverageEnds = result;
+        }
+        return result;
+    }
+
+    private static BigInteger coverageBefore(BigInteger[] ends, int index) {
+        return index == 0 ? BigInteger.ZERO : ends[index - 1];
+    }
+
+    @Override
+    public void adjustNodeCount(K range, int delta) {
+        adjustNodeCountAt(ceilingIndex(range), delta);
+    }
+
+    @Override
+    public V addChild(InternalNode<K, V> nodeToAdd) {
+        K range = nodeToAdd.getInterval();
+        int upperIndex = ceilingIndex(range);
+        if (upperIndex < size && nodes[upperIndex].getInterval().contains(range)) {
+            V previousValue = nodes[upperIndex].addChild(nodeToAdd);
+            if (previousValue == null) {
+                adjustNodeCountAt(upperIndex, 1);
+            }
+            return previousValue;
+        }
+
+        int lowerIndex = lowerBoundIndex(range);
+        List<K> intersections = Collections.emptyList();
+        if (lowerIndex < size && intersectsButNotContained(range, nodes[lowerIndex].getInterval())) {
+            intersections = new ArrayList<>(intersections);
+            intersections.add(nodes[lowerIndex].getInterval());
+        }
+        if (upperIndex < size && intersectsButNotContained(range, nodes[upperIndex].getInterval())) {
+            intersections = new ArrayList<>(intersections);
+            intersections.add(nodes[upperIndex].getInterval());
+        }
+        if (!intersections.isEmpty()) {
+            throw new IntersectingIntervalException(range, intersections);
+        }
+
+        int end = lowerIndex;
+        for (; end < size && range.contains(nodes[end].getInterval()); end++) {
+            nodeToAdd.addChild(nodes[end]);
+        }
+        replace(lowerIndex, end, Collections.singletonList(nodeToAdd));
+        return null;
+    }
+
+    private boolean intersectsButNotContained(K left, K right) {
+        return left.intersects(right) && !left.contains(right) && !right.contains(left);
+    }
+
+    @Override
+    public V removeChild(K interval) {
+        int index = ceilingIndex(interval);
+        if (index == size || !nodes[index].getInterval().contains(interval)) {
+            return null;
+        }
+
+        InternalNode<K, V> containing = nodes[index];
+        if (interval.equals(containing.getInterval())) {
+            replace(index, index + 1, containing.getChildren().values());
+            return containing.getValue();
+        } else {
+            V removedValue = containing.removeChild(interval);
+            if (removedValue != null) {
+                adjustNodeCountAt(index, -1);
+            }
+            return removedValue;
+        }
+    }
+
+    @Override
+    public InternalNode<K, V> getChildContaining(K range) {
+        int index = ceilingIndex(range);
+        if (index < size && nodes[index].getInterval().contains(range)) {
+            return nodes[index];
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<InternalNode<K, V>> valuesEndingWithin(K range) {
+        return new Children(lowerBoundIndex(range), higherIndex(range));
+    }
+
+    @Override
+    public InternalNode<K, V> getChildEndingAfter(K range) {
+        int index = higherIndex(range);
+        return index < size ? nodes[index] : null;
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(List<InternalNode<K, V>> result, K range) {
+        InternalNode<K, V> node = getChildContaining(range);
+        if (node != null) {
+            result.add(node);
+            node.getChildren().findExactAndAllLessSpecific(result, range);
+        }
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(List<InternalNode<K, V>> result, K range) {
+        for (int i = lowerBoundIndex(range); i < size; i++) {
+            InternalNode<K, V> node = nodes[i];
+            if (range.contains(node.getInterval())) {
+                result.add(node);
+                node.getChildren().addAllChildrenToList(result);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findExactAndAllMoreSpecific(result, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(List<InternalNode<K, V>> result, K range) {
+        for (int i = lowerBoundIndex(range); i < size; i++) {
+            InternalNode<K, V> node = nodes[i];
+            if (range.contains(node.getInterval())) {
+                result.add(node);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findFirstMoreSpecific(result, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void addAllChildrenToList(List<InternalNode<K, V>> list) {
+        for (int i = 0; i < size; i++) {
+            list.add(nodes[i]);
+            nodes[i].getChildren().addAllChildrenToList(list);
+        }
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(Consumer<? super V> action, K range) {
+        for (int i = lowerBoundIndex(range); i < size; i++) {
+            InternalNode<K, V> node = nodes[i];
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+                node.getChildren().forEachValue(action);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findExactAndAllMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(Consumer<? super V> action, K range) {
+        for (int i = lowerBoundIndex(range); i < size; i++) {
+            InternalNode<K, V> node = nodes[i];
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findFirstMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(nodes[i].getValue());
+            nodes[i].getChildren().forEachValue(action);
+        }
+    }
+
+    @Override
+    public Collection<InternalNode<K, V>> values() {
+        return new Children(0, size);
+    }
+
+    /*
+     * Only used to compare and print maps, so entries are created on the fly.
+     */
+    @Override
+    public Set<Map.Entry<K, InternalNode<K, V>>> entrySet() {
+        return new AbstractSet<Map.Entry<K, InternalNode<K, V>>>() {
+            @Override
+            public Iterator<Map.Entry<K, InternalNode<K, V>>> iterator() {
+                return new Iterator<Map.Entry<K, InternalNode<K, V>>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Map.Entry<K, InternalNode<K, V>> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        InternalNode<K, V> node = nodes[index++];
+                        return new SimpleImmutableEntry<>(node.getInterval(), node);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /*
+     * Unmodifiable view of the children from index from up to index to. Like the views of a TreeMap, it fails fast
+     * if children are inserted or removed after it was created. AbstractList has a modCount of its own, so the one of
+     * the map is qualified.
+     */
+    private final class Children extends AbstractList<InternalNode<K, V>> implements RandomAccess {
+        private final int from;
+        private final int to;
+        private final int expectedModCount = ChildNodeArrayMap.this.modCount;
+
+        private Children(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public InternalNode<K, V> get(int index) {
+            if (ChildNodeArrayMap.this.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+            }
+            return nodes[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public Spliterator<InternalNode<K, V>> spliterator() {
+            return new ChildSpliterator(from, to, expectedModCount);
+        }
+    }
+
+    private final class ChildSpliterator implements Spliterator<InternalNode<K, V>> {
+        private int index;
+        private final int fence;
+        private final int expectedModCount;
+
+        private ChildSpliterator(int index, int fence, int expectedModCount) {
+            this.index = index;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super InternalNode<K, V>> action) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index < fence) {
+                action.accept(nodes[index++]);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<InternalNode<K, V>> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if (index >= mid) {
+                return null;
+            }
+            ChildSpliterator prefix = new ChildSpliterator(index, mid, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+}
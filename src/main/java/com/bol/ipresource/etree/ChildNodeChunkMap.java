@@ -0,0 +1,825 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the child nodes in a tree of immutable chunks, sorted by the upper-bound of each child interval, like a
+ * B+tree. Just like in {@link ChildNodeArrayMap}, intervals are not allowed to intersect, so a child can be looked up
+ * by comparing an interval's <em>lower-bound</em> with the existing interval's <em>upper-bounds</em>.
+ * <p/>
+ * Modifications never change a chunk, but copy the chunks on the path to the modified child instead, so a copy made
+ * with {@link #copyOf(ChildNodeMap)} shares all chunks with its source and takes constant time, and a modification
+ * of either copies O(log n) chunks of at most {@link #CHUNK_SIZE} entries. This is what the root level and other
+ * large sibling levels are kept in, so {@link ConcurrentNestedIntervalMap}, which copies the levels on the path of
+ * every modification, copies little of them.
+ * <p/>
+ * Every chunk also keeps running totals of the number of nodes in the subtrees of the children below it, and caches
+ * their total size once computed, so that both can be summed over any range of children in O(log n). A child whose
+ * subtree changes is counted again by copying the chunks on the path to it, see
+ * {@link #adjustNodeCount(Interval, int)}.
+ * <p/>
+ * The views of this map are snapshots: they keep iterating the chunks they were created from.
+ */
+final class ChildNodeChunkMap<K extends Interval<K>, V> extends AbstractMap<K, InternalNode<K, V>> implements ChildNodeMap<K, V> {
+
+    /*
+     * The maximum number of entries in a chunk. Chunks below the root have at least half of that.
+     */
+    static final int CHUNK_SIZE = 32;
+
+    private static final Chunk<?, ?> EMPTY_CHUNK = emptyChunk();
+
+    private Chunk<K, V> root;
+
+    @SuppressWarnings("unchecked")
+    ChildNodeChunkMap() {
+        this.root = (Chunk<K, V>) EMPTY_CHUNK;
+    }
+
+    /**
+     * @return a new {@link ChildNodeChunkMap} sharing the child nodes of <code>source</code>, which only takes
+     * constant time if <code>source</code> is a {@link ChildNodeChunkMap} too.
+     */
+    static <K extends Interval<K>, V> ChildNodeChunkMap<K, V> copyOf(ChildNodeMap<K, V> source) {
+        ChildNodeChunkMap<K, V> result = new ChildNodeChunkMap<>();
+        if (source instanceof ChildNodeChunkMap) {
+            ChildNodeChunkMap<K, V> chunks = (ChildNodeChunkMap<K, V>) source;
+            result.root = chunks.root;
+        } else {
+            result.root = build(source.values());
+        }
+        return result;
+    }
+
+    /*
+     * Builds the chunks from nodes in ascending order, level by level, spreading the entries evenly over the chunks of
+     * a level so none is less than half full.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K extends Interval<K>, V> Chunk<K, V> build(Collection<InternalNode<K, V>> nodes) {
+        if (nodes.isEmpty()) {
+            return (Chunk<K, V>) EMPTY_CHUNK;
+        }
+        InternalNode<K, V>[] all = nodes.toArray(ChildNodeChunkMap.<K, V>newNodeArray(nodes.size()));
+        int count = chunkCount(all.length);
+        Chunk<K, V>[] level = newChunkArray(count);
+        for (int i = 0; i < count; i++) {
+            level[i] = new Chunk<>(Arrays.copyOfRange(all, (int) ((long) all.length * i / count), (int) ((long) all.length * (i + 1) / count)));
+        }
+        while (level.length > 1) {
+            count = chunkCount(level.length);
+            Chunk<K, V>[] above = newChunkArray(count);
+            for (int i = 0; i < count; i++) {
+                above[i] = new Chunk<>(Arrays.copyOfRange(level, level.length * i / count, level.length * (i + 1) / count));
+            }
+            level = above;
+        }
+        return level[0];
+    }
+
+    private static int chunkCount(int entries) {
+        return (entries + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private static <K extends Interval<K>, V> Chunk<K, V> emptyChunk() {
+        return new Chunk<>(ChildNodeChunkMap.<K, V>newNodeArray(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Interval<K>, V> InternalNode<K, V>[] newNodeArray(int length) {
+        return (InternalNode<K, V>[]) new InternalNode<?, ?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Interval<K>, V> Chunk<K, V>[] newChunkArray(int length) {
+        return (Chunk<K, V>[]) new Chunk<?, ?>[length];
+    }
+
+    private static final int CEILING = 0;
+    private static final int HIGHER = 1;
+    private static final int LOWER_BOUND = 2;
+
+    /*
+     * Whether child comes at or after the index searched for: the first child with an upper-bound not below the
+     * upper-bound of range (CEILING), above it (HIGHER), or not below the lower-bound of range (LOWER_BOUND).
+     */
+    private static <K extends Interval<K>> boolean isAtOrAfter(int search, K range, K child) {
+        switch (search) {
+            case CEILING:
+                return child.compareUpperBound(range) >= 0;
+            case HIGHER:
+                return child.compareUpperBound(range) > 0;
+            default:
+                return range.compareLowerBoundToUpperBound(child) <= 0;
+        }
+    }
+
+    /*
+     * Index of the first child found by search, or size if there is none.
+     */
+    private int indexOf(int search, K range) {
+        int result = 0;
+        Chunk<K, V> chunk = root;
+        while (chunk.chunks != null) {
+            int low = 0;
+            int high = chunk.chunks.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isAtOrAfter(search, range, chunk.chunks[mid].last)) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            if (low == chunk.chunks.length) {
+                return result + chunk.size;
+            }
+            result += chunk.start(low);
+            chunk = chunk.chunks[low];
+        }
+
+        int low = 0;
+        int high = chunk.nodes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (isAtOrAfter(search, range, chunk.nodes[mid].getInterval())) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return result + low;
+    }
+
+    private InternalNode<K, V> nodeAt(int index) {
+        return index < root.size ? root.get(index) : null;
+    }
+
+    private void insert(int index, InternalNode<K, V> node) {
+        Chunk<K, V>[] parts = root.insert(index, node);
+        root = parts.length == 1 ? parts[0] : new Chunk<>(parts);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeAt(int index) {
+        Chunk<K, V> result = root.remove(index);
+        while (result.chunks != null && result.chunks.length == 1) {
+            result = result.chunks[0];
+        }
+        root = result.size == 0 ? (Chunk<K, V>) EMPTY_CHUNK : result;
+    }
+
+    @Override
+    public InternalNode<K, V> put(K key, InternalNode<K, V> node) {
+        int index = indexOf(CEILING, key);
+        InternalNode<K, V> previous = nodeAt(index);
+        if (previous != null && previous.getInterval().compareUpperBound(key) == 0) {
+            root = root.set(index, node);
+        } else {
+            previous = null;
+            insert(index, node);
+        }
+        return previous;
+    }
+
+    /*
+     * Looks up a child by upper-bound, just like ChildNodeTreeMap does.
+     */
+    @Override
+    public InternalNode<K, V> get(Object key) {
+        @SuppressWarnings("unchecked")
+        K range = (K) key;
+        InternalNode<K, V> node = nodeAt(indexOf(CEILING, range));
+        return node != null && node.getInterval().compareUpperBound(range) == 0 ? node : null;
+    }
+
+    @Override
+    public int size() {
+        return root.size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void clear() {
+        root = (Chunk<K, V>) EMPTY_CHUNK;
+    }
+
+    @Override
+    public int nodeCount() {
+        return root.nodeCount();
+    }
+
+    @Override
+    public int nodeCountEndingWithin(K range) {
+        return root.nodeCountBefore(indexOf(HIGHER, range)) - root.nodeCountBefore(indexOf(LOWER_BOUND, range));
+    }
+
+    @Override
+    public BigInteger coverage() {
+        return root.coverage();
+    }
+
+    @Override
+    public BigInteger coverageEndingWithin(K range) {
+        return root.coverageBefore(indexOf(HIGHER, range)).subtract(root.coverageBefore(indexOf(LOWER_BOUND, range)));
+    }
+
+    @Override
+    public void adjustNodeCount(K range, int delta) {
+        root = root.adjustNodeCount(indexOf(CEILING, range), delta);
+    }
+
+    @Override
+    public V addChild(InternalNode<K, V> nodeToAdd) {
+        K range = nodeToAdd.getInterval();
+        int upperIndex = indexOf(CEILING, range);
+        InternalNode<K, V> upper = nodeAt(upperIndex);
+        if (upper != null && upper.getInterval().contains(range)) {
+            V previousValue = upper.addChild(nodeToAdd);
+            if (previousValue == null) {
+                root = root.adjustNodeCount(upperIndex, 1);
+            }
+            return previousValue;
+        }
+
+        int lowerIndex = indexOf(LOWER_BOUND, range);
+        InternalNode<K, V> lower = nodeAt(lowerIndex);
+        List<K> intersections = Collections.emptyList();
+        if (lower != null && intersectsButNotContained(range, lower.getInterval())) {
+            intersections = new ArrayList<>(intersections);
+            intersections.add(lower.getInterval());
+        }
+        if (upper != null && intersectsButNotContained(range, upper.getInterval())) {
+            intersections = new ArrayList<>(intersections);
+            intersections.add(upper.getInterval());
+        }
+        if (!intersections.isEmpty()) {
+            throw new IntersectingIntervalException(range, intersections);
+        }
+
+        for (InternalNode<K, V> node; (node = nodeAt(lowerIndex)) != null && range.contains(node.getInterval()); ) {
+            nodeToAdd.addChild(node);
+            removeAt(lowerIndex);
+        }
+        insert(lowerIndex, nodeToAdd);
+        return null;
+    }
+
+    private boolean intersectsButNotContained(K left, K right) {
+        return left.intersects(right) && !left.contains(right) && !right.contains(left);
+    }
+
+    @Override
+    public V removeChild(K interval) {
+        int index = indexOf(CEILING, interval);
+        InternalNode<K, V> containing = nodeAt(index);
+        if (containing == null || !containing.getInterval().contains(interval)) {
+            return null;
+        }
+
+        if (interval.equals(containing.getInterval())) {
+            removeAt(index);
+            for (InternalNode<K, V> node : containing.getChildren().values()) {
+                insert(index++, node);
+            }
+            return containing.getValue();
+        } else {
+            V removedValue = containing.removeChild(interval);
+            if (removedValue != null) {
+                root = root.adjustNodeCount(index, -1);
+            }
+            return removedValue;
+        }
+    }
+
+    @Override
+    public InternalNode<K, V> getChildContaining(K range) {
+        InternalNode<K, V> node = nodeAt(indexOf(CEILING, range));
+        return node != null && node.getInterval().contains(range) ? node : null;
+    }
+
+    @Override
+    public Collection<InternalNode<K, V>> valuesEndingWithin(K range) {
+        return new Children<>(root, indexOf(LOWER_BOUND, range), indexOf(HIGHER, range));
+    }
+
+    @Override
+    public InternalNode<K, V> getChildEndingAfter(K range) {
+        return nodeAt(indexOf(HIGHER, range));
+    }
+
+    /*
+     * Children from the first one that can intersect range.
+     */
+    private Iterable<InternalNode<K, V>> valuesFromLowerBound(K range) {
+        return new Children<>(root, indexOf(LOWER_BOUND, range), root.size);
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(List<InternalNode<K, V>> result, K range) {
+        InternalNode<K, V> node = getChildContaining(range);
+        if (node != null) {
+            result.add(node);
+            node.getChildren().findExactAndAllLessSpecific(result, range);
+        }
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(List<InternalNode<K, V>> result, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                result.add(node);
+                node.getChildren().addAllChildrenToList(result);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findExactAndAllMoreSpecific(result, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(List<InternalNode<K, V>> result, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                result.add(node);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findFirstMoreSpecific(result, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void addAllChildrenToList(List<InternalNode<K, V>> list) {
+        for (InternalNode<K, V> node : values()) {
+            list.add(node);
+            node.getChildren().addAllChildrenToList(list);
+        }
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(Consumer<? super V> action, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+                node.getChildren().forEachValue(action);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findExactAndAllMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(Consumer<? super V> action, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findFirstMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        for (InternalNode<K, V> node : values()) {
+            action.accept(node.getValue());
+            node.getChildren().forEachValue(action);
+        }
+    }
+
+    @Override
+    public Collection<InternalNode<K, V>> values() {
+        return new Children<>(root, 0, root.size);
+    }
+
+    /*
+     * Only used to compare and print maps, so entries are created on the fly.
+     */
+    @Override
+    public Set<Map.Entry<K, InternalNode<K, V>>> entrySet() {
+        final Collection<InternalNode<K, V>> values = values();
+        return new AbstractSet<Map.Entry<K, InternalNode<K, V>>>() {
+            @Override
+            public Iterator<Map.Entry<K, InternalNode<K, V>>> iterator() {
+                final Iterator<InternalNode<K, V>> nodes = values.iterator();
+                return new Iterator<Map.Entry<K, InternalNode<K, V>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return nodes.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, InternalNode<K, V>> next() {
+                        InternalNode<K, V> node = nodes.next();
+                        return new SimpleImmutableEntry<>(node.getInterval(), node);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    /*
+     * Immutable node of the chunk tree: either a leaf with child nodes, or a branch with chunks below it.
+     */
+    private static final class Chunk<K extends Interval<K>, V> {
+        // the child nodes in a leaf, null in a branch
+        private final InternalNode<K, V>[] nodes;
+        // the chunks below a branch, null in a leaf
+        private final Chunk<K, V>[] chunks;
+        // the number of child nodes in a branch up to and including each chunk below it
+        private final int[] ends;
+        private final int size;
+        // the interval of the last child node, null if there is none
+        private final K last;
+        // the number of nodes in the subtrees of the child nodes up to and including each child node or chunk below
+        private final int[] nodeCountEnds;
+        /*
+         * The total size of the child nodes, computed on first use. As BigInteger is immutable, a racy read of this
+         * field sees either null or a complete value.
+         */
+        private BigInteger coverage;
+
+        private Chunk(InternalNode<K, V>[] nodes) {
+            this.nodes = nodes;
+            this.chunks = null;
+            this.ends = null;
+            this.size = nodes.length;
+            this.last = nodes.length == 0 ? null : nodes[nodes.length - 1].getInterval();
+            this.nodeCountEnds = new int[nodes.length];
+            int count = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                count += 1 + nodes[i].getChildren().nodeCount();
+                nodeCountEnds[i] = count;
+            }
+        }
+
+        private Chunk(Chunk<K, V>[] chunks) {
+            this.nodes = null;
+            this.chunks = chunks;
+            this.ends = new int[chunks.length];
+            this.nodeCountEnds = new int[chunks.length];
+            int total = 0;
+            int count = 0;
+            for (int i = 0; i < chunks.length; i++) {
+                total += chunks[i].size;
+                ends[i] = total;
+                count += chunks[i].nodeCount();
+                nodeCountEnds[i] = count;
+            }
+            this.size = total;
+            this.last = chunks[chunks.length - 1].last;
+        }
+
+        private Chunk(Chunk<K, V> source, Chunk<K, V>[] chunks, int[] nodeCountEnds) {
+            this.nodes = source.nodes;
+            this.chunks = chunks;
+            this.ends = source.ends;
+            this.size = source.size;
+            this.last = source.last;
+            this.nodeCountEnds = nodeCountEnds;
+            this.coverage = source.coverage;
+        }
+
+        private int nodeCount() {
+            return nodeCountEnds.length == 0 ? 0 : nodeCountEnds[nodeCountEnds.length - 1];
+        }
+
+        /*
+         * The number of nodes in the subtrees of the child nodes before index.
+         */
+        private int nodeCountBefore(int index) {
+            int result = 0;
+            Chunk<K, V> chunk = this;
+            while (chunk.nodes == null) {
+                int i = chunk.chunkIndex(index);
+                result += i == 0 ? 0 : chunk.nodeCountEnds[i - 1];
+                index -= chunk.start(i);
+                chunk = chunk.chunks[i];
+            }
+            return result + (index == 0 ? 0 : chunk.nodeCountEnds[index - 1]);
+        }
+
+        /*
+         * Returns the chunk with the node count of the child node at index adjusted for a node added to or removed
+         * from its subtree, sharing the child nodes and all chunks below it that are not on the path to index.
+         */
+        private Chunk<K, V> adjustNodeCount(int index, int delta) {
+            int from = index;
+            Chunk<K, V>[] adjusted = null;
+            if (nodes == null) {
+                from = chunkIndex(index);
+                adjusted = chunks.clone();
+                adjusted[from] = chunks[from].adjustNodeCount(index - start(from), delta);
+            }
+            int[] counts = nodeCountEnds.clone();
+            for (int i = from; i < counts.length; i++) {
+                counts[i] += delta;
+            }
+            return new Chunk<>(this, adjusted, counts);
+        }
+
+        private BigInteger coverage() {
+            BigInteger result = coverage;
+            if (result == null) {
+                result = coverageBefore(size);
+                coverage = result;
+            }
+            return result;
+        }
+
+        /*
+         * The total size of the child nodes before index, adding up the cached totals of the chunks before the path
+         * to index.
+         */
+        private BigInteger coverageBefore(int index) {
+            BigInteger result = BigInteger.ZERO;
+            Chunk<K, V> chunk = this;
+            while (chunk.nodes == null) {
+                int i = chunk.chunkIndex(index);
+                for (int j = 0; j < i; j++) {
+                    result = result.add(chunk.chunks[j].coverage());
+                }
+                if (index == chunk.size) {
+                    return result.add(chunk.chunks[i].coverage());
+                }
+                index -= chunk.start(i);
+                chunk = chunk.chunks[i];
+            }
+            for (int j = 0; j < index; j++) {
+                result = result.add(chunk.nodes[j].getInterval().size());
+            }
+            return result;
+        }
+
+        private int width() {
+            return nodes != null ? nodes.length : chunks.length;
+        }
+
+        private int start(int chunk) {
+            return chunk == 0 ? 0 : ends[chunk - 1];
+        }
+
+        /*
+         * Index of the chunk below this branch holding the child at index, or the last chunk for an index past the end.
+         */
+        private int chunkIndex(int index) {
+            int low = 0;
+            int high = chunks.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private InternalNode<K, V> get(int index) {
+            Chunk<K, V> chunk = this;
+            while (chunk.nodes == null) {
+                int i = chunk.chunkIndex(index);
+                index -= chunk.start(i);
+                chunk = chunk.chunks[i];
+            }
+            return chunk.nodes[index];
+        }
+
+        private Chunk<K, V> set(int index, InternalNode<K, V> node) {
+            if (nodes != null) {
+                InternalNode<K, V>[] result = nodes.clone();
+                result[index] = node;
+                return new Chunk<>(result);
+            }
+            int i = chunkIndex(index);
+            Chunk<K, V>[] result = chunks.clone();
+            result[i] = chunks[i].set(index - start(i), node);
+            return new Chunk<>(result);
+        }
+
+        /*
+         * Returns the chunk with node inserted at index, split in two if it became too large.
+         */
+        @SuppressWarnings("unchecked")
+        private Chunk<K, V>[] insert(int index, InternalNode<K, V> node) {
+            if (nodes != null) {
+                return split(splice(nodes, index, index, node));
+            }
+            int i = chunkIndex(index);
+            return split(splice(chunks, i, i + 1, chunks[i].insert(index - start(i), node)));
+        }
+
+        /*
+         * Returns the chunk with the child at index removed. A chunk below it that becomes less than half full is
+         * merged with its neighbour, and split again if that becomes too large. The result may be empty.
+         */
+        @SuppressWarnings("unchecked")
+        private Chunk<K, V> remove(int index) {
+            if (nodes != null) {
+                return new Chunk<>(splice(nodes, index, index + 1));
+            }
+            int i = chunkIndex(index);
+            Chunk<K, V> child = chunks[i].remove(index - start(i));
+            if (child.size == 0) {
+                return chunks.length == 1 ? child : new Chunk<>(splice(chunks, i, i + 1));
+            }
+            if (child.width() >= CHUNK_SIZE / 2 || chunks.length == 1) {
+                return new Chunk<>(splice(chunks, i, i + 1, child));
+            }
+            int left = i == 0 ? 0 : i - 1;
+            Chunk<K, V> first = left == i ? child : chunks[left];
+            Chunk<K, V> second = left == i ? chunks[i + 1] : child;
+            Chunk<K, V> merged = child.nodes != null
+                    ? new Chunk<>(concat(first.nodes, second.nodes))
+                    : new Chunk<>(concat(first.chunks, second.chunks));
+            Chunk<K, V>[] parts = merged.nodes != null ? split(merged.nodes) : split(merged.chunks);
+            return new Chunk<>(splice(chunks, left, left + 2, parts));
+        }
+
+        private static <K extends Interval<K>, V> Chunk<K, V>[] split(InternalNode<K, V>[] nodes) {
+            if (nodes.length <= CHUNK_SIZE) {
+                Chunk<K, V>[] result = newChunkArray(1);
+                result[0] = new Chunk<>(nodes);
+                return result;
+            }
+            int half = nodes.length >>> 1;
+            Chunk<K, V>[] result = newChunkArray(2);
+            result[0] = new Chunk<>(Arrays.copyOfRange(nodes, 0, half));
+            result[1] = new Chunk<>(Arrays.copyOfRange(nodes, half, nodes.length));
+            return result;
+        }
+
+        private static <K extends Interval<K>, V> Chunk<K, V>[] split(Chunk<K, V>[] chunks) {
+            if (chunks.length <= CHUNK_SIZE) {
+                Chunk<K, V>[] result = newChunkArray(1);
+                result[0] = new Chunk<>(chunks);
+                return result;
+            }
+            int half = chunks.length >>> 1;
+            Chunk<K, V>[] result = newChunkArray(2);
+            result[0] = new Chunk<>(Arrays.copyOfRange(chunks, 0, half));
+            result[1] = new Chunk<>(Arrays.copyOfRange(chunks, half, chunks.length));
+            return result;
+        }
+
+        /*
+         * Copy of array with the elements from index from up to index to replaced by replacement.
+         */
+        @SafeVarargs
+        @SuppressWarnings("varargs")
+        private static <T> T[] splice(T[] array, int from, int to, T... replacement) {
+            T[] result = Arrays.copyOf(array, array.length - (to - from) + replacement.length);
+            System.arraycopy(replacement, 0, result, from, replacement.length);
+            System.arraycopy(array, to, result, from + replacement.length, array.length - to);
+            return result;
+        }
+
+        private static <T> T[] concat(T[] first, T[] second) {
+            T[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+    }
+
+    /*
+     * Unmodifiable view of the children from index from up to index to of a root chunk.
+     */
+    private static final class Children<K extends Interval<K>, V> extends AbstractCollection<InternalNode<K, V>> {
+        private final Chunk<K, V> root;
+        private final int from;
+        private final int to;
+
+        private Children(Chunk<K, V> root, int from, int to) {
+            this.root = root;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<InternalNode<K, V>> iterator() {
+            final ChildSpliterator<K, V> nodes = new ChildSpliterator<>(root, from, to);
+            return new Iterator<InternalNode<K, V>>() {
+                private InternalNode<K, V> next;
+                private final Consumer<InternalNode<K, V>> setNext = node -> next = node;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null || nodes.tryAdvance(setNext);
+                }
+
+                @Override
+                public InternalNode<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    InternalNode<K, V> result = next;
+                    next = null;
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public Spliterator<InternalNode<K, V>> spliterator() {
+            return new ChildSpliterator<>(root, from, to);
+        }
+    }
+
+    /*
+     * Walks the leaves of a root chunk, descending from the root again for every next leaf.
+     */
+    private static final class ChildSpliterator<K extends Interval<K>, V> implements Spliterator<InternalNode<K, V>> {
+        private final Chunk<K, V> root;
+        private int index;
+        private final int fence;
+        private InternalNode<K, V>[] leaf;
+        private int leafIndex;
+
+        private ChildSpliterator(Chunk<K, V> root, int index, int fence) {
+            this.root = root;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super InternalNode<K, V>> action) {
+            if (index >= fence) {
+                return false;
+            }
+            if (leaf == null || leafIndex == leaf.length) {
+                findLeaf();
+            }
+            index++;
+            action.accept(leaf[leafIndex++]);
+            return true;
+        }
+
+        private void findLeaf() {
+            int offset = index;
+            Chunk<K, V> chunk = root;
+            while (chunk.nodes == null) {
+                int i = chunk.chunkIndex(offset);
+                offset -= chunk.start(i);
+                chunk = chunk.chunks[i];
+            }
+            leaf = chunk.nodes;
+            leafIndex = offset;
+        }
+
+        @Override
+        public Spliterator<InternalNode<K, V>> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if (index >= mid) {
+                return null;
+            }
+            ChildSpliterator<K, V> prefix = new ChildSpliterator<>(root, index, mid);
+            index = mid;
+            leaf = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+}
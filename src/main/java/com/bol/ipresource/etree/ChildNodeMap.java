@@ -2,8 +2,10 @@ package com.bol.ipresource.etree;
 
 import com.bol.ipresource.ip.Interval;
 
+import java.math.BigInteger;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Internal interface to represent a collection of non-intersecting nodes (where
@@ -18,6 +20,20 @@ interface ChildNodeMap<K extends Interval<K>, V> {
 
     V removeChild(K interval);
 
+    /**
+     * Puts <code>node</code> as a child without checking for intersections, replacing the child with the same
+     * upper-bound, if any.
+     *
+     * @return the replaced child, or <code>null</code>
+     */
+    InternalNode<K, V> put(K key, InternalNode<K, V> node);
+
+    InternalNode<K, V> getChildContaining(K range);
+
+    Collection<InternalNode<K, V>> valuesEndingWithin(K range);
+
+    InternalNode<K, V> getChildEndingAfter(K range);
+
     void findExactAndAllLessSpecific(List<InternalNode<K, V>> list, K interval);
 
     void findExactAndAllMoreSpecific(List<InternalNode<K, V>> list, K interval);
@@ -26,6 +42,41 @@ interface ChildNodeMap<K extends Interval<K>, V> {
 
     void addAllChildrenToList(List<InternalNode<K, V>> list);
 
+    void findExactAndAllMoreSpecific(Consumer<? super V> action, K interval);
+
+    void findFirstMoreSpecific(Consumer<? super V> action, K interval);
+
+    void forEachValue(Consumer<? super V> action);
+
+    /**
+     * @return the number of nodes in the subtrees of all children, including the children themselves
+     */
+    int nodeCount();
+
+    /**
+     * @return the total size of the child intervals, which do not intersect and so never cover a point twice
+     */
+    BigInteger coverage();
+
+    /**
+     * @return the number of nodes in the subtrees of the children returned by {@link #valuesEndingWithin(Interval)},
+     * including those children themselves
+     */
+    int nodeCountEndingWithin(K range);
+
+    /**
+     * @return the total size of the children returned by {@link #valuesEndingWithin(Interval)}
+     */
+    BigInteger coverageEndingWithin(K range);
+
+    /**
+     * Adjusts the node count of the child containing <code>range</code> for a node added to or removed from its
+     * subtree, such as when a concurrent map modifies a copy of a child after putting it.
+     */
+    void adjustNodeCount(K range, int delta);
+
+    int size();
+
     boolean isEmpty();
 
     void clear();
@@ -2,13 +2,16 @@ package com.bol.ipresource.etree;
 
 import com.bol.ipresource.ip.Interval;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * Keeps a sorted map of child nodes ordered by the upper-bound of each child
@@ -17,6 +20,14 @@ import java.util.TreeMap;
  * insert siblings with intersecting intervals). This allows quick lookup of
  * matching intervals by comparing an interval's <em>lower-bound</em> with the
  * existing interval's <em>upper-bounds</em>.
+ * <p/>
+ * The number of nodes in the subtrees of the children and the total size of the
+ * children are kept up to date by {@link #put(Interval, InternalNode)} and
+ * {@link #remove(Object)}, and by {@link #addChild(InternalNode)} and
+ * {@link #removeChild(Interval)} for changes further down the tree. They are
+ * summed over a range of children by visiting those children, so large levels
+ * of a {@link NestedIntervalMap} are kept in a {@link ChildNodeChunkMap}
+ * instead, which sums them in O(log n).
  */
 class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode<K, V>> implements ChildNodeMap<K, V> {
 
@@ -46,6 +57,14 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
         }
     };
 
+    private static final int MAX_WALK = 16;
+
+    private int nodeCount;
+    /*
+     * Total size of the children, computed on first use and discarded when a child is added or removed.
+     */
+    private BigInteger coverage;
+
     ChildNodeTreeMap() {
         super(UPPER_BOUND_COMPARATOR);
     }
@@ -57,12 +76,100 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
         }
     }
 
+    @Override
+    public InternalNode<K, V> put(K key, InternalNode<K, V> node) {
+        InternalNode<K, V> previous = super.put(key, node);
+        if (previous != null) {
+            subtract(previous);
+        }
+        add(node);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends InternalNode<K, V>> map) {
+        for (Map.Entry<? extends K, ? extends InternalNode<K, V>> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public InternalNode<K, V> remove(Object key) {
+        InternalNode<K, V> removed = super.remove(key);
+        if (removed != null) {
+            subtract(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        nodeCount = 0;
+        coverage = null;
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public BigInteger coverage() {
+        BigInteger result = coverage;
+        if (result == null) {
+            result = BigInteger.ZERO;
+            for (InternalNode<K, V> node : values()) {
+                result = result.add(node.getInterval().size());
+            }
+            coverage = result;
+        }
+        return result;
+    }
+
+    @Override
+    public int nodeCountEndingWithin(K range) {
+        int result = 0;
+        for (InternalNode<K, V> node : valuesEndingWithin(range)) {
+            result += 1 + node.getChildren().nodeCount();
+        }
+        return result;
+    }
+
+    @Override
+    public BigInteger coverageEndingWithin(K range) {
+        BigInteger result = BigInteger.ZERO;
+        for (InternalNode<K, V> node : valuesEndingWithin(range)) {
+            result = result.add(node.getInterval().size());
+        }
+        return result;
+    }
+
+    @Override
+    public void adjustNodeCount(K range, int delta) {
+        nodeCount += delta;
+    }
+
+    private void add(InternalNode<K, V> node) {
+        nodeCount += 1 + node.getChildren().nodeCount();
+        coverage = null;
+    }
+
+    private void subtract(InternalNode<K, V> node) {
+        nodeCount -= 1 + node.getChildren().nodeCount();
+        coverage = null;
+    }
+
     @Override
     public V addChild(InternalNode<K, V> nodeToAdd) {
         K range = nodeToAdd.getInterval();
         InternalNode<K, V> containingChild = getChildContaining(range);
         if (containingChild != null) {
-            return containingChild.addChild(nodeToAdd);
+            V previousValue = containingChild.addChild(nodeToAdd);
+            if (previousValue == null) {
+                nodeCount++;
+            }
+            return previousValue;
         }
 
         List<K> intersections = getIntersectingChildren(range);
@@ -79,11 +186,12 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
 
     private void transferChildNodes(InternalNode<K, V> nodeToAdd) {
         K range = nodeToAdd.getInterval();
-        for (Iterator<InternalNode<K, V>> it = tailMap(range.singletonIntervalAtLowerBound()).values().iterator(); it.hasNext(); ) {
+        for (Iterator<InternalNode<K, V>> it = valuesFromLowerBound(range).iterator(); it.hasNext(); ) {
             InternalNode<K, V> child = it.next();
             if (range.contains(child.getInterval())) {
                 nodeToAdd.addChild(child);
                 it.remove();
+                subtract(child);
             } else {
                 break;
             }
@@ -105,13 +213,17 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
             if (removed != null) return removed.getValue();
             return null;
         } else {
-            return containing.removeChild(interval);
+            V removedValue = containing.removeChild(interval);
+            if (removedValue != null) {
+                nodeCount--;
+            }
+            return removedValue;
         }
     }
 
     private List<K> getIntersectingChildren(K range) {
         List<K> result = Collections.emptyList();
-        K lowerCandidate = ceilingKey(range.singletonIntervalAtLowerBound());
+        K lowerCandidate = lowerBoundKey(range);
         if (lowerCandidate != null && intersectsButNotContained(range, lowerCandidate)) {
             result = new ArrayList<>(result);
             result.add(lowerCandidate);
@@ -128,15 +240,69 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
         return left.intersects(right) && !left.contains(right) && !right.contains(left);
     }
 
-    private InternalNode<K, V> getChildContaining(K range) {
-        Entry<K, InternalNode<K, V>> entry = ceilingEntry(range.singletonIntervalAtLowerBound());
-        if (entry != null && entry.getKey().contains(range)) {
-            return entry.getValue();
+    /*
+     * Siblings never intersect, so the only child that can contain range is the first child with an upper-bound not
+     * below the upper-bound of range. Looking it up by range itself avoids allocating a probe interval.
+     */
+    @Override
+    public InternalNode<K, V> getChildContaining(K range) {
+        K candidate = ceilingKey(range);
+        if (candidate != null && candidate.contains(range)) {
+            return get(candidate);
         } else {
             return null;
         }
     }
 
+    /*
+     * Children with an upper-bound within range, ascending. These all intersect range, and all but the first are
+     * contained in it.
+     */
+    @Override
+    public Collection<InternalNode<K, V>> valuesEndingWithin(K range) {
+        K from = lowerBoundKey(range);
+        if (from == null || from.compareUpperBound(range) > 0) {
+            return Collections.emptyList();
+        }
+        return subMap(from, true, range, true).values();
+    }
+
+    /*
+     * The first child with an upper-bound not below the lower-bound of range, which is the first child that can
+     * intersect range, or null. The children between it and the ceiling of range end within range, and are visited by
+     * the callers anyway, so it is found by walking back from that ceiling, comparing bounds without allocating a
+     * probe interval. Only after MAX_WALK steps a probe is allocated to search for it directly.
+     */
+    private K lowerBoundKey(K range) {
+        K result = ceilingKey(range);
+        K candidate = result == null ? (isEmpty() ? null : lastKey()) : lowerKey(result);
+        for (int steps = 0; candidate != null && range.compareLowerBoundToUpperBound(candidate) <= 0; steps++) {
+            if (steps == MAX_WALK) {
+                return ceilingKey(range.singletonIntervalAtLowerBound());
+            }
+            result = candidate;
+            candidate = lowerKey(candidate);
+        }
+        return result;
+    }
+
+    private Collection<InternalNode<K, V>> valuesFromLowerBound(K range) {
+        K from = lowerBoundKey(range);
+        if (from == null) {
+            return Collections.emptyList();
+        }
+        return tailMap(from, true).values();
+    }
+
+    /*
+     * The first child with an upper-bound above the upper-bound of range, or null.
+     */
+    @Override
+    public InternalNode<K, V> getChildEndingAfter(K range) {
+        Map.Entry<K, InternalNode<K, V>> entry = higherEntry(range);
+        return entry == null ? null : entry.getValue();
+    }
+
     @Override
     public void findExactAndAllLessSpecific(List<InternalNode<K, V>> result, K range) {
         InternalNode<K, V> node = getChildContaining(range);
@@ -148,7 +314,7 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
 
     @Override
     public void findExactAndAllMoreSpecific(List<InternalNode<K, V>> result, K range) {
-        for (InternalNode<K, V> node : tailMap(range.singletonIntervalAtLowerBound()).values()) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
             if (range.contains(node.getInterval())) {
                 result.add(node);
                 node.getChildren().addAllChildrenToList(result);
@@ -162,7 +328,7 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
 
     @Override
     public void findFirstMoreSpecific(List<InternalNode<K, V>> result, K range) {
-        for (InternalNode<K, V> node : tailMap(range.singletonIntervalAtLowerBound()).values()) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
             if (range.contains(node.getInterval())) {
                 result.add(node);
             } else if (range.intersects(node.getInterval())) {
@@ -181,6 +347,41 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
         }
     }
 
+    @Override
+    public void findExactAndAllMoreSpecific(Consumer<? super V> action, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+                node.getChildren().forEachValue(action);
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findExactAndAllMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(Consumer<? super V> action, K range) {
+        for (InternalNode<K, V> node : valuesFromLowerBound(range)) {
+            if (range.contains(node.getInterval())) {
+                action.accept(node.getValue());
+            } else if (range.intersects(node.getInterval())) {
+                node.getChildren().findFirstMoreSpecific(action, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        for (InternalNode<K, V> node : values()) {
+            action.accept(node.getValue());
+            node.getChildren().forEachValue(action);
+        }
+    }
+
     private static final class Empty extends TreeMap implements ChildNodeMap {
         private static final long serialVersionUID = 1L;
 
@@ -194,6 +395,26 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public InternalNode put(Interval key, InternalNode node) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InternalNode getChildContaining(Interval range) {
+            return null;
+        }
+
+        @Override
+        public Collection valuesEndingWithin(Interval range) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public InternalNode getChildEndingAfter(Interval range) {
+            return null;
+        }
+
         @Override
         public void findExactAndAllLessSpecific(List list, Interval range) {
         }
@@ -209,6 +430,43 @@ class ChildNodeTreeMap<K extends Interval<K>, V> extends TreeMap<K, InternalNode
         @Override
         public void addAllChildrenToList(List list) {
         }
+
+        @Override
+        public void findExactAndAllMoreSpecific(Consumer action, Interval range) {
+        }
+
+        @Override
+        public void findFirstMoreSpecific(Consumer action, Interval range) {
+        }
+
+        @Override
+        public void forEachValue(Consumer action) {
+        }
+
+        @Override
+        public int nodeCount() {
+            return 0;
+        }
+
+        @Override
+        public int nodeCountEndingWithin(Interval range) {
+            return 0;
+        }
+
+        @Override
+        public void adjustNodeCount(Interval range, int delta) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BigInteger coverage() {
+            return BigInteger.ZERO;
+        }
+
+        @Override
+        public BigInteger coverageEndingWithin(Interval range) {
+            return BigInteger.ZERO;
+        }
     }
 
 }
@@ -0,0 +1,292 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+import com.bol.ipresource.util.CollectionHelper;
+import com.bol.ipresource.util.Validate;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe {@link NestedIntervalMap} of which the readers never block.
+ * <p/>
+ * Readers query an immutable version of the tree, published through a single volatile reference. Writers are
+ * serialized, and never modify a published version: they copy the nodes on the path from the root to the modified
+ * node, together with the sibling maps containing them, and then publish the new version. Nodes outside of that path
+ * are shared between versions. Every operation therefore sees the effect of all modifications that completed before
+ * it started.
+ * <p/>
+ * The root level and other levels of many siblings are kept in {@link ChildNodeChunkMap}s, of which a copy shares all
+ * chunks with the original, so a modification only copies O(log n) chunks per large level on the path rather than all
+ * siblings; levels of few siblings are copied as a whole. This implementation still suits read-mostly workloads best.
+ * If a modification fails (for example with an {@link IntersectingIntervalException}), the map is left untouched.
+ *
+ * @param <K> the type of the interval (must implement {@link Interval}).
+ * @param <V> the type of the values to store.
+ */
+public final class ConcurrentNestedIntervalMap<K extends Interval<K>, V> implements IntervalMap<K, V> {
+    private volatile NestedIntervalMap<K, V> current;
+
+    /**
+     * Construct an empty {@link ConcurrentNestedIntervalMap}.
+     */
+    public ConcurrentNestedIntervalMap() {
+        this.current = new NestedIntervalMap<>();
+    }
+
+    /**
+     * Construct a new {@link ConcurrentNestedIntervalMap} with (key, values) of
+     * <code>source</code> copied.
+     *
+     * @param source the source to copy.
+     */
+    public ConcurrentNestedIntervalMap(NestedIntervalMap<K, V> source) {
+        Validate.notNull(source);
+        this.current = new NestedIntervalMap<>(source);
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        Modification<K, V> modification = put(current, key, value);
+        current = modification.version;
+        return modification.previousValue;
+    }
+
+    @Override
+    public synchronized V remove(K key) {
+        Modification<K, V> modification = remove(current, key);
+        current = modification.version;
+        return modification.previousValue;
+    }
+
+    @Override
+    public synchronized void remove(K key, V value) {
+        Validate.notNull(key);
+        Validate.notNull(value);
+
+        if (value.equals(CollectionHelper.uniqueResult(current.findExact(key)))) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        current = new NestedIntervalMap<>();
+    }
+
+    /**
+     * @return a new version of <code>version</code> with <code>key</code> mapped to <code>value</code>, sharing all
+     * nodes outside of the path to <code>key</code> with <code>version</code>, which is left untouched
+     */
+    static <K extends Interval<K>, V> Modification<K, V> put(NestedIntervalMap<K, V> version, K key, V value) {
+        Validate.notNull(key);
+        Validate.notNull(value);
+
+        ChildNodeMap<K, V> root = ChildNodeChunkMap.copyOf(version.getChildren());
+        List<ChildNodeMap<K, V>> path = new ArrayList<>();
+        ChildNodeMap<K, V> level = root;
+        V previousValue;
+        while (true) {
+            InternalNode<K, V> containing = level.getChildContaining(key);
+            if (containing == null) {
+                previousValue = level.addChild(new InternalNode<>(key, value));
+                break;
+            }
+            if (containing.getInterval().equals(key)) {
+                level.put(key, new InternalNode<>(key, value, containing.getChildren()));
+                previousValue = containing.getValue();
+                break;
+            }
+            path.add(level);
+            level = copyPathNode(level, containing);
+        }
+        if (previousValue == null) {
+            adjustNodeCount(path, key, 1);
+        }
+
+        return new Modification<>(new NestedIntervalMap<>(root), previousValue);
+    }
+
+    /**
+     * @return a new version of <code>version</code> without <code>key</code>, sharing all nodes outside of the path to
+     * <code>key</code> with <code>version</code>, which is left untouched; or <code>version</code> itself if it does
+     * not contain <code>key</code>
+     */
+    static <K extends Interval<K>, V> Modification<K, V> remove(NestedIntervalMap<K, V> version, K key) {
+        Validate.notNull(key);
+        if (version.findExact(key).isEmpty()) {
+            return new Modification<>(version, null);
+        }
+
+        ChildNodeMap<K, V> root = ChildNodeChunkMap.copyOf(version.getChildren());
+        List<ChildNodeMap<K, V>> path = new ArrayList<>();
+        ChildNodeMap<K, V> parentLevel = null;
+        InternalNode<K, V> parent = null;
+        ChildNodeMap<K, V> level = root;
+        for (InternalNode<K, V> containing; !(containing = level.getChildContaining(key)).getInterval().equals(key); ) {
+            path.add(level);
+            parentLevel = level;
+            parent = containing;
+            level = copyPathNode(level, containing);
+        }
+
+        V removedValue = level.removeChild(key);
+        adjustNodeCount(path, key, -1);
+        if (parent != null && level.isEmpty()) {
+            parentLevel.put(parent.getInterval(), new InternalNode<>(parent.getInterval(), parent.getValue(), ChildNodeTreeMap.<K, V>empty()));
+        }
+
+        return new Modification<>(new NestedIntervalMap<>(root), removedValue);
+    }
+
+    /*
+     * The copied path nodes, which all contain key, were counted when they were put, before their children were
+     * modified.
+     */
+    private static <K extends Interval<K>, V> void adjustNodeCount(List<ChildNodeMap<K, V>> path, K key, int delta) {
+        for (ChildNodeMap<K, V> level : path) {
+            level.adjustNodeCount(key, delta);
+        }
+    }
+
+    /*
+     * Replaces node in level by a copy of which the children can be modified, and returns those children.
+     */
+    private static <K extends Interval<K>, V> ChildNodeMap<K, V> copyPathNode(ChildNodeMap<K, V> level, InternalNode<K, V> node) {
+        ChildNodeMap<K, V> children = ChildNodeArrayMap.modifiableCopyOf(node.getChildren());
+        level.put(node.getInterval(), new InternalNode<>(node.getInterval(), node.getValue(), children));
+        return children;
+    }
+
+    /**
+     * @return the number of mappings in this map
+     * @see NestedIntervalMap#size()
+     */
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * @see NestedIntervalMap#countAllMoreSpecific(Interval)
+     */
+    public int countAllMoreSpecific(K key) {
+        return current.countAllMoreSpecific(key);
+    }
+
+    /**
+     * @see NestedIntervalMap#coveredAddressCount(Interval)
+     */
+    public BigInteger coveredAddressCount(K key) {
+        return current.coveredAddressCount(key);
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(K key) {
+        return current.findFirstLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(K key) {
+        return current.findAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(K key) {
+        return current.findExactAndAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExact(K key) {
+        return current.findExact(key);
+    }
+
+    @Override
+    public List<V> findExactOrFirstLessSpecific(K key) {
+        return current.findExactOrFirstLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(K key) {
+        return current.findFirstMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(K key) {
+        return current.findAllMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(K key) {
+        return current.findExactAndAllMoreSpecific(key);
+    }
+
+    @Override
+    public void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        current.findFirstLessSpecific(key, action);
+    }
+
+    @Override
+    public void findAllLessSpecific(K key, Consumer<? super V> action) {
+        current.findAllLessSpecific(key, action);
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        current.findExactAndAllLessSpecific(key, action);
+    }
+
+    @Override
+    public void findExact(K key, Consumer<? super V> action) {
+        current.findExact(key, action);
+    }
+
+    @Override
+    public void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        current.findExactOrFirstLessSpecific(key, action);
+    }
+
+    @Override
+    public void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        current.findFirstMoreSpecific(key, action);
+    }
+
+    @Override
+    public void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        current.findAllMoreSpecific(key, action);
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        current.findExactAndAllMoreSpecific(key, action);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj != null && getClass() == obj.getClass() && current.equals(((ConcurrentNestedIntervalMap<?, ?>) obj).current);
+    }
+
+    @Override
+    public int hashCode() {
+        return current.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return current.toString();
+    }
+
+    /**
+     * The new version of a map after a modification, and the value the modification replaced or removed.
+     */
+    static final class Modification<K extends Interval<K>, V> {
+        final NestedIntervalMap<K, V> version;
+        final V previousValue;
+
+        Modification(NestedIntervalMap<K, V> version, V previousValue) {
+            this.version = version;
+            this.previousValue = previousValue;
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+import com.bol.ipresource.ip.Ipv4Interval;
+import com.bol.ipresource.ip.Ipv6Interval;
+import com.bol.ipresource.util.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read-only snapshot of a {@link NestedIntervalMap}, flattened into contiguous arrays.
+ * <p/>
+ * Nodes are laid out breadth-first, so the children of every node occupy a consecutive slice of the arrays, ordered by
+ * upper-bound just like in {@link ChildNodeTreeMap}. Every level of a lookup is a binary search over such a slice
+ * instead of a descent through a red-black tree, which keeps the memory accessed during a lookup small and adjacent.
+ * <p/>
+ * If all keys are {@link Ipv4Interval}s or all keys are {@link Ipv6Interval}s, their bounds are kept in a primitive
+ * array, so a lookup compares numbers next to each other in memory and never dereferences a key. Keys of other
+ * interval types are kept as objects.
+ * <p/>
+ * All query methods of {@link IntervalMap} are supported and return the same results as the source map did at the time
+ * of the copy. Mutating methods throw {@link UnsupportedOperationException}. Instances are immutable and thus safe to
+ * share between threads without synchronization.
+ *
+ * @param <K> the type of the interval (must implement {@link Interval}).
+ * @param <V> the type of the values to store.
+ */
+public final class ImmutableNestedIntervalMap<K extends Interval<K>, V> implements IntervalMap<K, V> {
+    private static final int ROOT = -1;
+
+    private final KeyColumns<K> keys;
+    private final Object[] values;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final int rootCount;
+
+    private ImmutableNestedIntervalMap(ChildNodeMap<K, V> root) {
+        List<InternalNode<K, V>> nodes = new ArrayList<>(root.values());
+        rootCount = nodes.size();
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.addAll(nodes.get(i).getChildren().values());
+        }
+
+        int size = nodes.size();
+        keys = KeyColumns.of(nodes);
+        values = new Object[size];
+        firstChild = new int[size];
+        childCount = new int[size];
+
+        int next = rootCount;
+        for (int i = 0; i < size; i++) {
+            InternalNode<K, V> node = nodes.get(i);
+            values[i] = node.getValue();
+            firstChild[i] = next;
+            childCount[i] = node.getChildren().values().size();
+            next += childCount[i];
+        }
+    }
+
+    /**
+     * Creates an immutable snapshot of <code>source</code>. Later modifications of <code>source</code> are not
+     * reflected in the snapshot.
+     *
+     * @param source the map to copy
+     * @return a read-only, array-backed copy of <code>source</code>
+     */
+    public static <K extends Interval<K>, V> ImmutableNestedIntervalMap<K, V> copyOf(NestedIntervalMap<K, V> source) {
+        Validate.notNull(source);
+        return new ImmutableNestedIntervalMap<>(source.getChildren());
+    }
+
+    /**
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(K key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(K key) {
+        Validate.notNull(key);
+        return mapToValues(findFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public List<V> findExact(K key) {
+        Validate.notNull(key);
+        return mapToValues(findExactIndex(key));
+    }
+
+    @Override
+    public void findExact(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findExactIndex(key));
+    }
+
+    @Override
+    public List<V> findExactOrFirstLessSpecific(K key) {
+        Validate.notNull(key);
+        return mapToValues(findExactOrFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findExactOrFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findAllLessSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT && !keys.equals(node, key); ) {
+            action.accept(value(node));
+            from = firstChild[node];
+            count = childCount[node];
+        }
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findExactAndAllLessSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT; ) {
+            action.accept(value(node));
+            from = firstChild[node];
+            count = childCount[node];
+        }
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findFirstMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int container = findExactOrFirstLessSpecificIndex(key);
+        addFirstMoreSpecific(action, container, key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findAllMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int container = findExactOrFirstLessSpecificIndex(key);
+        addExactAndAllMoreSpecific(action, container, key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findExactAndAllMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int container = findExactOrFirstLessSpecificIndex(key);
+        if (container != ROOT && keys.equals(container, key)) {
+            action.accept(value(container));
+        }
+        addExactAndAllMoreSpecific(action, container, key);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < rootCount; i++) {
+            if (i > 0) builder.append(", ");
+            appendNode(builder, i);
+        }
+        return builder.append('}').toString();
+    }
+
+    private void appendNode(StringBuilder builder, int node) {
+        K interval = keys.interval(node);
+        builder.append(interval).append("=Node(").append(interval).append(", ").append(values[node]).append(", {");
+        for (int i = 0; i < childCount[node]; i++) {
+            if (i > 0) builder.append(", ");
+            appendNode(builder, firstChild[node] + i);
+        }
+        builder.append("})");
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int node) {
+        return (V) values[node];
+    }
+
+    private List<V> mapToValues(int node) {
+        if (node == ROOT) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(value(node));
+    }
+
+    private void acceptValue(Consumer<? super V> action, int node) {
+        if (node != ROOT) {
+            action.accept(value(node));
+        }
+    }
+
+    private int findFirstLessSpecificIndex(K key) {
+        int result = ROOT;
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT && !keys.equals(node, key); ) {
+            result = node;
+            from = firstChild[node];
+            count = childCount[node];
+        }
+        return result;
+    }
+
+    private int findExactIndex(K key) {
+        int node = findExactOrFirstLessSpecificIndex(key);
+        return node != ROOT && keys.equals(node, key) ? node : ROOT;
+    }
+
+    private int findExactOrFirstLessSpecificIndex(K key) {
+        int result = ROOT;
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT; ) {
+            result = node;
+            from = firstChild[node];
+            count = childCount[node];
+        }
+        return result;
+    }
+
+    /*
+     * Siblings never intersect, so the only candidate that can contain range is the first sibling with an upper-bound
+     * not below the upper-bound of range.
+     */
+    private int findChildContaining(int from, int count, K range) {
+        int candidate = ceiling(from, from + count, range);
+        if (candidate < from + count && keys.contains(candidate, range)) {
+            return candidate;
+        }
+        return ROOT;
+    }
+
+    /*
+     * Returns the first index in [from, to) of which the interval has an upper-bound not below the upper-bound of
+     * probe, or 'to' if no such index exists.
+     */
+    private int ceiling(int from, int to, K probe) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.compareEnd(mid, probe) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Returns the first index in [from, to) of which the interval has an upper-bound not below the lower-bound of
+     * range, or 'to' if no such index exists.
+     */
+    private int lowerBoundCeiling(int from, int to, K range) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.compareEndToBegin(mid, range) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addFirstMoreSpecific(Consumer<? super V> result, int parent, K range) {
+        int from = parent == ROOT ? 0 : firstChild[parent];
+        int to = from + (parent == ROOT ? rootCount : childCount[parent]);
+        for (int node = lowerBoundCeiling(from, to, range); node < to; node++) {
+            if (keys.isContainedIn(node, range)) {
+                result.accept(value(node));
+            } else if (keys.intersects(node, range)) {
+                addFirstMoreSpecific(result, node, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void addExactAndAllMoreSpecific(Consumer<? super V> result, int parent, K range) {
+        int from = parent == ROOT ? 0 : firstChild[parent];
+        int to = from + (parent == ROOT ? rootCount : childCount[parent]);
+        for (int node = lowerBoundCeiling(from, to, range); node < to; node++) {
+            if (keys.isContainedIn(node, range)) {
+                result.accept(value(node));
+                addAllChildren(result, node);
+            } else if (keys.intersects(node, range)) {
+                addExactAndAllMoreSpecific(result, node, range);
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void addAllChildren(Consumer<? super V> result, int parent) {
+        int from = firstChild[parent];
+        int to = from + childCount[parent];
+        for (int node = from; node < to; node++) {
+            result.accept(value(node));
+            addAllChildren(result, node);
+        }
+    }
+
+    /*
+     * The keys of the nodes by index, and comparison of those keys against interval objects.
+     */
+    private abstract static class KeyColumns<K extends Interval<K>> {
+
+        @SuppressWarnings("unchecked")
+        static <K extends Interval<K>> KeyColumns<K> of(List<? extends InternalNode<K, ?>> nodes) {
+            boolean ipv4 = !nodes.isEmpty();
+            boolean ipv6 = !nodes.isEmpty();
+            for (InternalNode<K, ?> node : nodes) {
+                ipv4 &= node.getInterval() instanceof Ipv4Interval;
+                ipv6 &= node.getInterval() instanceof Ipv6Interval;
+            }
+            if (ipv4) {
+                return (KeyColumns<K>) (KeyColumns<?>) new Ipv4Columns(nodes);
+            } else if (ipv6) {
+                return (KeyColumns<K>) (KeyColumns<?>) new Ipv6Columns(nodes);
+            }
+            return new ObjectColumns<>(nodes);
+        }
+
+        abstract K interval(int node);
+
+        abstract boolean equals(int node, K key);
+
+        // whether the key of node contains key
+        abstract boolean contains(int node, K key);
+
+        // whether key contains the key of node
+        abstract boolean isContainedIn(int node, K key);
+
+        abstract boolean intersects(int node, K key);
+
+        // upper-bound of the key of node compared to the upper-bound of key
+        abstract int compareEnd(int node, K key);
+
+        // upper-bound of the key of node compared to the lower-bound of key
+        abstract int compareEndToBegin(int node, K key);
+    }
+
+    /*
+     * The bounds of every node at index 2 * node, as unsigned ints.
+     */
+    private static final class Ipv4Columns extends KeyColumns<Ipv4Interval> {
+        private final int[] bounds;
+
+        Ipv4Columns(List<? extends InternalNode<?, ?>> nodes) {
+            bounds = new int[2 * nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                Ipv4Interval interval = (Ipv4Interval) nodes.get(i).getInterval();
+                bounds[2 * i] = (int) interval.begin();
+                bounds[2 * i + 1] = (int) interval.end();
+            }
+        }
+
+        @Override
+        Ipv4Interval interval(int node) {
+            return new Ipv4Interval(Integer.toUnsignedLong(bounds[2 * node]), Integer.toUnsignedLong(bounds[2 * node + 1]));
+        }
+
+        @Override
+        boolean equals(int node, Ipv4Interval key) {
+            return bounds[2 * node] == (int) key.begin() && bounds[2 * node + 1] == (int) key.end();
+        }
+
+        @Override
+        boolean contains(int node, Ipv4Interval key) {
+            return Integer.compareUnsigned(bounds[2 * node], (int) key.begin()) <= 0 && compareEnd(node, key) >= 0;
+        }
+
+        @Override
+        boolean isContainedIn(int node, Ipv4Interval key) {
+            return Integer.compareUnsigned(bounds[2 * node], (int) key.begin()) >= 0 && compareEnd(node, key) <= 0;
+        }
+
+        @Override
+        boolean intersects(int node, Ipv4Interval key) {
+            return Integer.compareUnsigned(bounds[2 * node], (int) key.end()) <= 0 && compareEndToBegin(node, key) >= 0;
+        }
+
+        @Override
+        int compareEnd(int node, Ipv4Interval key) {
+            return Integer.compareUnsigned(bounds[2 * node + 1], (int) key.end());
+        }
+
+        @Override
+        int compareEndToBegin(int node, Ipv4Interval key) {
+            return Integer.compareUnsigned(bounds[2 * node + 1], (int) key.begin());
+        }
+    }
+
+    /*
+     * The bounds of every node at index 4 * node: the most and least significant bits of the lower-bound, then those
+     * of the upper-bound.
+     */
+    private static final class Ipv6Columns extends KeyColumns<Ipv6Interval> {
+        private final long[] bounds;
+
+        Ipv6Columns(List<? extends InternalNode<?, ?>> nodes) {
+            bounds = new long[4 * nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                Ipv6Interval interval = (Ipv6Interval) nodes.get(i).getInterval();
+                bounds[4 * i] = interval.beginMsb();
+                bounds[4 * i + 1] = interval.beginLsb();
+                bounds[4 * i + 2] = interval.endMsb();
+                bounds[4 * i + 3] = interval.endLsb();
+            }
+        }
+
+        @Override
+        Ipv6Interval interval(int node) {
+            return new Ipv6Interval(bounds[4 * node], bounds[4 * node + 1], bounds[4 * node + 2], bounds[4 * node + 3]);
+        }
+
+        @Override
+        boolean equals(int node, Ipv6Interval key) {
+            return bounds[4 * node] == key.beginMsb() && bounds[4 * node + 1] == key.beginLsb()
+                    && bounds[4 * node + 2] == key.endMsb() && bounds[4 * node + 3] == key.endLsb();
+        }
+
+        @Override
+        boolean contains(int node, Ipv6Interval key) {
+            return compareBegin(node, key) <= 0 && compareEnd(node, key) >= 0;
+        }
+
+        @Override
+        boolean isContainedIn(int node, Ipv6Interval key) {
+            return compareBegin(node, key) >= 0 && compareEnd(node, key) <= 0;
+        }
+
+        @Override
+        boolean intersects(int node, Ipv6Interval key) {
+            return Ipv6Interval.compare(bounds[4 * node], bounds[4 * node + 1], key.endMsb(), key.endLsb()) <= 0 && compareEndToBegin(node, key) >= 0;
+        }
+
+        private int compareBegin(int node, Ipv6Interval key) {
+            return Ipv6Interval.compare(bounds[4 * node], bounds[4 * node + 1], key.beginMsb(), key.beginLsb());
+        }
+
+        @Override
+        int compareEnd(int node, Ipv6Interval key) {
+            return Ipv6Interval.compare(bounds[4 * node + 2], bounds[4 * node + 3], key.endMsb(), key.endLsb());
+        }
+
+        @Override
+        int compareEndToBegin(int node, Ipv6Interval key) {
+            return Ipv6Interval.compare(bounds[4 * node + 2], bounds[4 * node + 3], key.beginMsb(), key.beginLsb());
+        }
+    }
+
+    /*
+     * Keys of any other interval type, compared through the Interval interface.
+     */
+    private static final class ObjectColumns<K extends Interval<K>> extends KeyColumns<K> {
+        private final Object[] intervals;
+
+        ObjectColumns(List<? extends InternalNode<K, ?>> nodes) {
+            intervals = new Object[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                intervals[i] = nodes.get(i).getInterval();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        K interval(int node) {
+            return (K) intervals[node];
+        }
+
+        @Override
+        boolean equals(int node, K key) {
+            return interval(node).equals(key);
+        }
+
+        @Override
+        boolean contains(int node, K key) {
+            return interval(node).contains(key);
+        }
+
+        @Override
+        boolean isContainedIn(int node, K key) {
+            return key.contains(interval(node));
+        }
+
+        @Override
+        boolean intersects(int node, K key) {
+            return key.intersects(interval(node));
+        }
+
+        @Override
+        int compareEnd(int node, K key) {
+            return interval(node).compareUpperBound(key);
+        }
+
+        @Override
+        int compareEndToBegin(int node, K key) {
+            return -key.compareLowerBoundToUpperBound(interval(node));
+        }
+    }
+}
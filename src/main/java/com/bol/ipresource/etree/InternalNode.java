@@ -19,7 +19,24 @@ final class InternalNode<K extends Interval<K>, V> {
     public InternalNode(InternalNode<K, V> source) {
         this.interval = source.interval;
         this.value = source.value;
-        this.children = source.children == ChildNodeTreeMap.EMPTY ? ChildNodeTreeMap.<K, V>empty() : new ChildNodeTreeMap<>(source.children);
+        this.children = source.children.isEmpty() ? ChildNodeTreeMap.<K, V>empty() : ChildNodeArrayMap.resize(deepCopyOf(source.children));
+    }
+
+    /**
+     * @return a {@link ChildNodeArrayMap} with copies of the child nodes of <code>source</code>, and of their
+     * children, recursively
+     */
+    static <K extends Interval<K>, V> ChildNodeArrayMap<K, V> deepCopyOf(ChildNodeMap<K, V> source) {
+        ChildNodeArrayMap<K, V> result = new ChildNodeArrayMap<>(source.size());
+        for (InternalNode<K, V> node : source.values()) {
+            result.put(node.getInterval(), new InternalNode<>(node));
+        }
+        return result;
+    }
+
+    public InternalNode(K interval, V value, ChildNodeMap<K, V> children) {
+        this(interval, value);
+        this.children = children;
     }
 
     public K getInterval() {
@@ -76,9 +93,11 @@ final class InternalNode<K extends Interval<K>, V> {
             throw new IllegalArgumentException(nodeToAdd.getInterval() + " not properly contained in " + interval);
         } else {
             if (children == ChildNodeTreeMap.EMPTY) {
-                children = new ChildNodeTreeMap<>();
+                children = new ChildNodeArrayMap<>();
             }
-            return children.addChild(nodeToAdd);
+            V previousValue = children.addChild(nodeToAdd);
+            children = ChildNodeArrayMap.resize(children);
+            return previousValue;
         }
     }
 
@@ -88,9 +107,7 @@ final class InternalNode<K extends Interval<K>, V> {
         }
         if (children != ChildNodeTreeMap.EMPTY) {
             V value = children.removeChild(range);
-            if (children.isEmpty()) {
-                children = ChildNodeTreeMap.empty();
-            }
+            children = ChildNodeArrayMap.resize(children);
             return value;
         } else {
             return null;
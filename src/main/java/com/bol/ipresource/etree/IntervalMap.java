@@ -3,6 +3,7 @@ package com.bol.ipresource.etree;
 import com.bol.ipresource.ip.Interval;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A map with intervals as keys. Intervals are only allowed to intersect if they
@@ -163,4 +164,101 @@ public interface IntervalMap<K extends Interval<?>, V> {
      *         intervals.
      */
     List<V> findExactAndAllMoreSpecific(K key);
+
+    /**
+     * Passes the value of {@link #findFirstLessSpecific(Interval)}, if any, to
+     * <code>action</code>. Implementations may override this to perform the
+     * lookup without allocating a result list.
+     *
+     * @param key    the key to find the closest enclosing interval for
+     * @param action receives the matching value
+     */
+    default void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        findFirstLessSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the value of {@link #findExact(Interval)}, if any, to
+     * <code>action</code>. Implementations may override this to perform the
+     * lookup without allocating a result list.
+     *
+     * @param key    the key to find the mapping for
+     * @param action receives the matching value
+     */
+    default void findExact(K key, Consumer<? super V> action) {
+        findExact(key).forEach(action);
+    }
+
+    /**
+     * Passes the value of {@link #findExactOrFirstLessSpecific(Interval)}, if
+     * any, to <code>action</code>. Implementations may override this to
+     * perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find the mapping for
+     * @param action receives the matching value
+     */
+    default void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        findExactOrFirstLessSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the values of {@link #findAllLessSpecific(Interval)} to
+     * <code>action</code>, in the same order. Implementations may override
+     * this to perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find all containing intervals for
+     * @param action receives the matching values
+     */
+    default void findAllLessSpecific(K key, Consumer<? super V> action) {
+        findAllLessSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the values of {@link #findExactAndAllLessSpecific(Interval)} to
+     * <code>action</code>, in the same order. Implementations may override
+     * this to perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find all containing intervals for
+     * @param action receives the matching values
+     */
+    default void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        findExactAndAllLessSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the values of {@link #findFirstMoreSpecific(Interval)} to
+     * <code>action</code>, in the same order. Implementations may override
+     * this to perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find the first level more specific values for
+     * @param action receives the matching values
+     */
+    default void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        findFirstMoreSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the values of {@link #findAllMoreSpecific(Interval)} to
+     * <code>action</code>, in the same order. Implementations may override
+     * this to perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find all levels more specific values for
+     * @param action receives the matching values
+     */
+    default void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        findAllMoreSpecific(key).forEach(action);
+    }
+
+    /**
+     * Passes the values of {@link #findExactAndAllMoreSpecific(Interval)} to
+     * <code>action</code>, in the same order. Implementations may override
+     * this to perform the lookup without allocating a result list.
+     *
+     * @param key    the key to find the exact and all levels more specific
+     *               values for
+     * @param action receives the matching values
+     */
+    default void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        findExactAndAllMoreSpecific(key).forEach(action);
+    }
 }
@@ -12,7 +12,16 @@ public final class MultiValueIntervalMap<K extends Interval<K>, V> implements In
     private final IntervalMap<K, SortedSet<V>> wrapped;
 
     public MultiValueIntervalMap() {
-        this.wrapped = new NestedIntervalMap<>();
+        this(false);
+    }
+
+    /**
+     * @param exactIndex whether to index the values by interval, which speeds up {@link #put(Interval, Object)} and
+     *                   {@link #remove(Interval, Object)}
+     * @see NestedIntervalMap#NestedIntervalMap(boolean)
+     */
+    public MultiValueIntervalMap(boolean exactIndex) {
+        this.wrapped = new NestedIntervalMap<>(exactIndex);
     }
 
     @Override
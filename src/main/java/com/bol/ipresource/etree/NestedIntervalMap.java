@@ -4,10 +4,25 @@ import com.bol.ipresource.ip.Interval;
 import com.bol.ipresource.util.CollectionHelper;
 import com.bol.ipresource.util.Validate;
 
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A map with intervals as keys. Intervals are only allowed to intersect if they
@@ -27,35 +42,162 @@ import java.util.List;
  */
 public final class NestedIntervalMap<K extends Interval<K>, V> implements IntervalMap<K, V> {
     private final ChildNodeMap<K, V> children;
+    // the nodes by interval, or null if exact lookups walk the tree
+    private final Map<K, InternalNode<K, V>> exactIndex;
 
     /**
      * Construct an empty {@link NestedIntervalMap}.
      */
     public NestedIntervalMap() {
-        this.children = new ChildNodeTreeMap<>();
+        this(false);
+    }
+
+    /**
+     * Construct an empty {@link NestedIntervalMap}, optionally with an index of the nodes by interval.
+     * <p/>
+     * With the index, {@link #findExact(Interval)} and {@link #remove(Interval, Object)} take constant time instead of
+     * walking the tree from the root, and so do the lookups starting from the exact interval if it is in the map, such
+     * as {@link #findExactOrFirstLessSpecific(Interval)} and the more specific lookups. The index is kept up to date by
+     * {@link #put(Interval, Object)} and {@link #remove(Interval)}, and costs a hash map entry per mapping: about 50
+     * bytes on a 64-bit JVM with compressed references, on top of the about 60 bytes the tree takes per mapping.
+     *
+     * @param exactIndex whether to index the nodes by interval
+     */
+    public NestedIntervalMap(boolean exactIndex) {
+        this.children = new ChildNodeChunkMap<>();
+        this.exactIndex = exactIndex ? new HashMap<K, InternalNode<K, V>>() : null;
     }
 
     /**
      * Construct a new {@link NestedIntervalMap} with (key, values) of
-     * <code>source</code> copied.
+     * <code>source</code> copied. The copy has an index of the nodes by interval if <code>source</code> has one.
      *
      * @param source the source to copy.
      */
     public NestedIntervalMap(NestedIntervalMap<K, V> source) {
-        this.children = new ChildNodeTreeMap<>(source.children);
+        this.children = ChildNodeChunkMap.copyOf(InternalNode.deepCopyOf(source.children));
+        this.exactIndex = source.exactIndex == null ? null : indexOf(children);
+    }
+
+    /**
+     * Builds a {@link NestedIntervalMap} from <code>entries</code> in O(n log n), which is cheaper than calling
+     * {@link #put(Interval, Object)} for every entry, as that descends from the root every time.
+     * <p/>
+     * The entries are sorted so that every interval comes before the intervals it contains, after which the nesting is
+     * built in a single pass. If the same key occurs more than once, the last value wins, just like with subsequent
+     * calls to {@link #put(Interval, Object)}.
+     *
+     * @param entries the (key, value) mappings to load, in any order
+     * @return a new map containing all mappings
+     * @throws IllegalArgumentException      if a key or value is <code>null</code>
+     * @throws IntersectingIntervalException if two keys intersect, but neither contains the other
+     */
+    public static <K extends Interval<K> & Comparable<? super K>, V> NestedIntervalMap<K, V> bulkLoad(Iterator<? extends Map.Entry<K, V>> entries) {
+        Validate.notNull(entries);
+        List<Map.Entry<K, V>> sorted = new ArrayList<>();
+        while (entries.hasNext()) {
+            Map.Entry<K, V> entry = entries.next();
+            Validate.notNull(entry.getKey());
+            sorted.add(entry);
+        }
+        // stable, so the last of equal keys is also the last one to be loaded
+        Collections.sort(sorted, new Comparator<Map.Entry<K, V>>() {
+            @Override
+            public int compare(Map.Entry<K, V> o1, Map.Entry<K, V> o2) {
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        return bulkLoadSorted(sorted.iterator());
+    }
+
+    /**
+     * Builds a {@link NestedIntervalMap} from <code>entries</code> that are already sorted like
+     * {@link #bulkLoad(Iterator)} sorts them, which is the order of a pre-order traversal of the map. The entries are
+     * consumed one by one, keeping only the path of intervals that may still get children, so this takes O(n) time
+     * and no memory beyond the map itself.
+     *
+     * @param entries the (key, value) mappings to load, every key not less than the key before it
+     * @return a new map containing all mappings
+     * @throws IllegalArgumentException      if a key or value is <code>null</code>, or a key is less than the key
+     *                                       before it
+     * @throws IntersectingIntervalException if two keys intersect, but neither contains the other
+     */
+    public static <K extends Interval<K> & Comparable<? super K>, V> NestedIntervalMap<K, V> bulkLoadSorted(Iterator<? extends Map.Entry<K, V>> entries) {
+        Validate.notNull(entries);
+        ChildNodeArrayMap<K, V> root = new ChildNodeArrayMap<>();
+        Deque<BulkLoadNode<K, V>> open = new ArrayDeque<>();
+        K previous = null;
+        while (entries.hasNext()) {
+            Map.Entry<K, V> entry = entries.next();
+            K key = entry.getKey();
+            Validate.notNull(key);
+            Validate.notNull(entry.getValue());
+            Validate.isTrue(previous == null || previous.compareTo(key) <= 0, "Not sorted: ", key);
+            previous = key;
+
+            List<K> intersections = Collections.emptyList();
+            while (!open.isEmpty() && !open.peek().key.contains(key)) {
+                BulkLoadNode<K, V> closed = open.pop();
+                if (closed.key.intersects(key)) {
+                    intersections = new ArrayList<>(intersections);
+                    intersections.add(closed.key);
+                }
+                closed.addTo(open.isEmpty() ? root : open.peek().children());
+            }
+            if (!intersections.isEmpty()) {
+                throw new IntersectingIntervalException(key, intersections);
+            }
+
+            if (!open.isEmpty() && open.peek().key.equals(key)) {
+                open.peek().value = entry.getValue();
+            } else {
+                open.push(new BulkLoadNode<>(key, entry.getValue()));
+            }
+        }
+        while (!open.isEmpty()) {
+            BulkLoadNode<K, V> closed = open.pop();
+            closed.addTo(open.isEmpty() ? root : open.peek().children());
+        }
+
+        return new NestedIntervalMap<>(ChildNodeChunkMap.copyOf(root));
+    }
+
+    NestedIntervalMap(ChildNodeMap<K, V> children) {
+        this.children = children;
+        this.exactIndex = null;
+    }
+
+    private static <K extends Interval<K>, V> Map<K, InternalNode<K, V>> indexOf(ChildNodeMap<K, V> children) {
+        List<InternalNode<K, V>> nodes = new ArrayList<>(children.nodeCount());
+        children.addAllChildrenToList(nodes);
+        Map<K, InternalNode<K, V>> result = new HashMap<>(Math.max(16, (int) (nodes.size() / 0.75f) + 1));
+        for (InternalNode<K, V> node : nodes) {
+            result.put(node.getInterval(), node);
+        }
+        return result;
     }
 
     @Override
     public V put(K key, V value) {
         Validate.notNull(key);
         Validate.notNull(value);
-        return children.addChild(new InternalNode<>(key, value));
+        InternalNode<K, V> node = new InternalNode<>(key, value);
+        V previousValue = children.addChild(node);
+        // an existing node gets the new value instead of being replaced, so only new nodes need to be indexed
+        if (exactIndex != null && previousValue == null) {
+            exactIndex.put(key, node);
+        }
+        return previousValue;
     }
 
     @Override
     public V remove(K key) {
         Validate.notNull(key);
-        return children.removeChild(key);
+        V removedValue = children.removeChild(key);
+        if (exactIndex != null && removedValue != null) {
+            exactIndex.remove(key);
+        }
+        return removedValue;
     }
 
     @Override
@@ -118,12 +260,359 @@ public final class NestedIntervalMap<K extends Interval<K>, V> implements Interv
         return mapToValues(internalFindExactAndAllMoreSpecific(key));
     }
 
+    @Override
+    public void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> node = internalFindFirstLessSpecific(key);
+        if (node != null) {
+            action.accept(node.getValue());
+        }
+    }
+
+    @Override
+    public void findExact(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> node = internalFindExact(key);
+        if (node != null) {
+            action.accept(node.getValue());
+        }
+    }
+
+    @Override
+    public void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> node = internalFindExactOrFirstLessSpecific(key);
+        if (node != null) {
+            action.accept(node.getValue());
+        }
+    }
+
+    @Override
+    public void findAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        for (InternalNode<K, V> node = children.getChildContaining(key); node != null && !node.getInterval().equals(key); node = node.getChildren().getChildContaining(key)) {
+            action.accept(node.getValue());
+        }
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        for (InternalNode<K, V> node = children.getChildContaining(key); node != null; node = node.getChildren().getChildContaining(key)) {
+            action.accept(node.getValue());
+        }
+    }
+
+    @Override
+    public void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> container = internalFindExactOrFirstLessSpecific(key);
+        (container == null ? children : container.getChildren()).findFirstMoreSpecific(action, key);
+    }
+
+    @Override
+    public void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> container = internalFindExactOrFirstLessSpecific(key);
+        (container == null ? children : container.getChildren()).findExactAndAllMoreSpecific(action, key);
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        InternalNode<K, V> container = internalFindExactOrFirstLessSpecific(key);
+        if (container == null) {
+            children.findExactAndAllMoreSpecific(action, key);
+        } else {
+            if (container.getInterval().equals(key)) {
+                action.accept(container.getValue());
+            }
+            container.getChildren().findExactAndAllMoreSpecific(action, key);
+        }
+    }
+
+    /**
+     * Finds the mapping of <code>key</code> as an {@link Entry}, from which its less and more specific mappings can be
+     * navigated without searching from the root again.
+     *
+     * @param key the key to find the mapping of
+     * @return the mapping of <code>key</code>, or <code>null</code> if there is none
+     */
+    public Entry<K, V> findExactEntry(K key) {
+        Validate.notNull(key);
+        Entry<K, V> result = findExactOrFirstLessSpecificEntry(key);
+        return result != null && result.getKey().equals(key) ? result : null;
+    }
+
+    /**
+     * Finds the mapping of <code>key</code>, or else of the most specific interval containing it, as an {@link Entry}.
+     *
+     * @param key the key to find the mapping of
+     * @return the mapping of <code>key</code> or its first less specific, or <code>null</code> if there is none
+     * @see #findExactEntry(Interval)
+     */
+    public Entry<K, V> findExactOrFirstLessSpecificEntry(K key) {
+        Validate.notNull(key);
+        Entry<K, V> result = null;
+        for (InternalNode<K, V> node = children.getChildContaining(key); node != null; node = node.getChildren().getChildContaining(key)) {
+            result = new Entry<>(node, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        return children.nodeCount();
+    }
+
+    /**
+     * Counts the intervals contained in, but not equal to, <code>key</code>, without visiting them. This is the size of
+     * {@link #findAllMoreSpecific(Interval)}.
+     * <p/>
+     * Every node keeps track of the size of its subtree, and every level keeps running totals of those sizes, so this
+     * takes O(depth &middot; log n) whether or not <code>key</code> is in the map: the subtrees of a range of siblings
+     * are counted at once, and only the siblings at either end of <code>key</code> are descended into.
+     *
+     * @param key the interval to count more specific intervals of
+     * @return the number of intervals contained in <code>key</code>, excluding <code>key</code> itself
+     */
+    public int countAllMoreSpecific(K key) {
+        Validate.notNull(key);
+        InternalNode<K, V> container = internalFindExactOrFirstLessSpecific(key);
+        if (container != null && container.getInterval().equals(key)) {
+            return container.getChildren().nodeCount();
+        }
+        return countContained(container == null ? children : container.getChildren(), key);
+    }
+
+    /**
+     * Computes the number of points of <code>key</code> covered by the intervals contained in, but not equal to,
+     * <code>key</code>, such as the number of addresses of a prefix that are assigned to more specific prefixes.
+     * Nested intervals are only counted once. Like {@link #countAllMoreSpecific(Interval)}, this does not visit the
+     * more specific intervals, and takes O(depth &middot; log n). The sizes of the intervals are computed once, on the
+     * first call, and only computed again for the levels modified since.
+     *
+     * @param key the interval to compute the coverage of
+     * @return the number of points of <code>key</code> covered by more specific intervals
+     */
+    public BigInteger coveredAddressCount(K key) {
+        Validate.notNull(key);
+        InternalNode<K, V> container = internalFindExactOrFirstLessSpecific(key);
+        if (container != null && container.getInterval().equals(key)) {
+            return container.getChildren().coverage();
+        }
+        return coverageContained(container == null ? children : container.getChildren(), key);
+    }
+
+    /*
+     * Of the children ending within range, only the first can start before range, so the node counts of all of them
+     * are summed at once, and only the first one and the child ending after range are descended into. On every level
+     * below, only one of those two paths continues.
+     */
+    private static <K extends Interval<K>, V> int countContained(ChildNodeMap<K, V> nodes, K range) {
+        int result = 0;
+        Iterator<InternalNode<K, V>> endingWithin = nodes.valuesEndingWithin(range).iterator();
+        if (endingWithin.hasNext()) {
+            result = nodes.nodeCountEndingWithin(range);
+            InternalNode<K, V> first = endingWithin.next();
+            if (!range.contains(first.getInterval())) {
+                result += countContained(first.getChildren(), range) - 1 - first.getChildren().nodeCount();
+            }
+        }
+        InternalNode<K, V> after = nodes.getChildEndingAfter(range);
+        if (after != null && range.intersects(after.getInterval())) {
+            result += countContained(after.getChildren(), range);
+        }
+        return result;
+    }
+
+    private static <K extends Interval<K>, V> BigInteger coverageContained(ChildNodeMap<K, V> nodes, K range) {
+        BigInteger result = BigInteger.ZERO;
+        Iterator<InternalNode<K, V>> endingWithin = nodes.valuesEndingWithin(range).iterator();
+        if (endingWithin.hasNext()) {
+            result = nodes.coverageEndingWithin(range);
+            InternalNode<K, V> first = endingWithin.next();
+            if (!range.contains(first.getInterval())) {
+                result = result.subtract(first.getInterval().size()).add(coverageContained(first.getChildren(), range));
+            }
+        }
+        InternalNode<K, V> after = nodes.getChildEndingAfter(range);
+        if (after != null && range.intersects(after.getInterval())) {
+            result = result.add(coverageContained(after.getChildren(), range));
+        }
+        return result;
+    }
+
+    /**
+     * Performs the given action for each mapping in this map, in pre-order: every interval is visited before the
+     * intervals it contains, and siblings are visited in ascending order. This is the same order in which
+     * {@link #findExactAndAllMoreSpecific(Interval)} returns its values.
+     *
+     * @param action the action to perform for each (key, value) mapping
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Validate.notNull(action);
+        forEach(children, action);
+    }
+
+    private static <K extends Interval<K>, V> void forEach(ChildNodeMap<K, V> nodes, BiConsumer<? super K, ? super V> action) {
+        for (InternalNode<K, V> node : nodes.values()) {
+            action.accept(node.getInterval(), node.getValue());
+            forEach(node.getChildren(), action);
+        }
+    }
+
+    /**
+     * Creates a lazy {@link Spliterator} over all mappings in this map, in the same order as
+     * {@link #forEach(BiConsumer)}. The tree is walked as elements are requested, and splits along sibling subtrees, so
+     * parallel streams can process a large map without copying it first.
+     * <p/>
+     * The spliterator is fail-fast: it throws a {@link java.util.ConcurrentModificationException} on a best-effort basis
+     * if the map is structurally modified during the traversal.
+     *
+     * @return a spliterator over the (key, value) mappings of this map
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return NodeSpliterator.all(children, NestedIntervalMap.<K, V>toEntry());
+    }
+
+    /**
+     * Creates a lazy {@link Spliterator} over the mappings of which the key equals or is contained in
+     * <code>range</code>, in the same order as {@link #findExactAndAllMoreSpecific(Interval)}.
+     *
+     * @param range the range to restrict the mappings to
+     * @return a spliterator over the (key, value) mappings within <code>range</code>
+     * @see #spliterator()
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator(K range) {
+        Validate.notNull(range);
+        return NodeSpliterator.contained(children, internalFindExactOrFirstLessSpecific(range), range, true, NestedIntervalMap.<K, V>toEntry());
+    }
+
+    /**
+     * @return a sequential stream over all mappings in this map, which can be made parallel with
+     * {@link Stream#parallel()}
+     * @see #spliterator()
+     */
+    public Stream<Map.Entry<K, V>> entryStream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @param range the range to restrict the mappings to
+     * @return a sequential stream over the mappings of which the key equals or is contained in <code>range</code>
+     * @see #spliterator(Interval)
+     */
+    public Stream<Map.Entry<K, V>> entryStream(K range) {
+        return StreamSupport.stream(spliterator(range), false);
+    }
+
+    /**
+     * @return a sequential stream over all values in this map, which can be made parallel with
+     * {@link Stream#parallel()}
+     * @see #spliterator()
+     */
+    public Stream<V> stream() {
+        return StreamSupport.stream(NodeSpliterator.all(children, NestedIntervalMap.<K, V>toValue()), false);
+    }
+
+    /**
+     * @param range the range to restrict the values to
+     * @return a sequential stream over the values of which the key equals or is contained in <code>range</code>
+     * @see #spliterator(Interval)
+     */
+    public Stream<V> stream(K range) {
+        Validate.notNull(range);
+        return StreamSupport.stream(NodeSpliterator.contained(children, internalFindExactOrFirstLessSpecific(range), range, true, NestedIntervalMap.<K, V>toValue()), false);
+    }
+
+    /**
+     * Lazy variant of {@link #findAllMoreSpecific(Interval)}: the tree is only walked as far as the returned iterator
+     * is advanced, so the cost of a query depends on the number of values consumed rather than on the size of the
+     * subtree. The iterator does not support removal, and fails on a best-effort basis if the map is structurally
+     * modified during the iteration.
+     *
+     * @param key the key to find more specific values for
+     * @return an iterator over the values of all intervals contained in, but not equal to, <code>key</code>
+     */
+    public Iterator<V> iterateAllMoreSpecific(K key) {
+        Validate.notNull(key);
+        return Spliterators.iterator(NodeSpliterator.contained(children, internalFindExactOrFirstLessSpecific(key), key, false, NestedIntervalMap.<K, V>toValue()));
+    }
+
+    /**
+     * Lazy variant of {@link #findExactAndAllMoreSpecific(Interval)}.
+     *
+     * @param key the key to find the exact and more specific values for
+     * @return an iterator over the values of all intervals equal to or contained in <code>key</code>
+     * @see #iterateAllMoreSpecific(Interval)
+     */
+    public Iterator<V> iterateExactAndAllMoreSpecific(K key) {
+        Validate.notNull(key);
+        return Spliterators.iterator(NodeSpliterator.contained(children, internalFindExactOrFirstLessSpecific(key), key, true, NestedIntervalMap.<K, V>toValue()));
+    }
+
+    /**
+     * Same as {@link #findAllMoreSpecific(Interval)}, but stops after <code>limit</code> values.
+     *
+     * @param key   the key to find more specific values for
+     * @param limit the maximum number of values to return
+     * @return the first <code>limit</code> values of {@link #findAllMoreSpecific(Interval)}
+     * @throws IllegalArgumentException if <code>limit</code> is negative
+     */
+    public List<V> findAllMoreSpecific(K key, int limit) {
+        Validate.isTrue(limit >= 0, "Limit must not be negative");
+        return limit(iterateAllMoreSpecific(key), limit);
+    }
+
+    /**
+     * Same as {@link #findExactAndAllMoreSpecific(Interval)}, but stops after <code>limit</code> values.
+     *
+     * @param key   the key to find the exact and more specific values for
+     * @param limit the maximum number of values to return
+     * @return the first <code>limit</code> values of {@link #findExactAndAllMoreSpecific(Interval)}
+     * @throws IllegalArgumentException if <code>limit</code> is negative
+     */
+    public List<V> findExactAndAllMoreSpecific(K key, int limit) {
+        Validate.isTrue(limit >= 0, "Limit must not be negative");
+        return limit(iterateExactAndAllMoreSpecific(key), limit);
+    }
+
+    private static <V> List<V> limit(Iterator<V> values, int limit) {
+        List<V> result = new ArrayList<>(Math.min(limit, 16));
+        while (result.size() < limit && values.hasNext()) {
+            result.add(values.next());
+        }
+        return result;
+    }
+
+    private static <K extends Interval<K>, V> Function<InternalNode<K, V>, Map.Entry<K, V>> toEntry() {
+        return node -> new AbstractMap.SimpleImmutableEntry<>(node.getInterval(), node.getValue());
+    }
+
+    private static <K extends Interval<K>, V> Function<InternalNode<K, V>, V> toValue() {
+        return InternalNode::getValue;
+    }
+
     /**
      * Clears all values from the map.
      */
     @Override
     public void clear() {
         children.clear();
+        if (exactIndex != null) {
+            exactIndex.clear();
+        }
     }
 
     @Override
@@ -142,6 +631,10 @@ public final class NestedIntervalMap<K extends Interval<K>, V> implements Interv
         return children.toString();
     }
 
+    ChildNodeMap<K, V> getChildren() {
+        return children;
+    }
+
     private List<V> mapToValues(InternalNode<K, V> node) {
         if (node == null) {
             return Collections.emptyList();
@@ -159,17 +652,25 @@ public final class NestedIntervalMap<K extends Interval<K>, V> implements Interv
     }
 
     private InternalNode<K, V> internalFindExactOrFirstLessSpecific(K range) {
-        List<InternalNode<K, V>> list = internalFindExactAndAllLessSpecific(range);
-        return list.isEmpty() ? null : list.get(list.size() - 1);
+        if (exactIndex != null) {
+            InternalNode<K, V> exact = exactIndex.get(range);
+            if (exact != null) {
+                return exact;
+            }
+        }
+        InternalNode<K, V> result = null;
+        for (InternalNode<K, V> node = children.getChildContaining(range); node != null; node = node.getChildren().getChildContaining(range)) {
+            result = node;
+        }
+        return result;
     }
 
     private InternalNode<K, V> internalFindFirstLessSpecific(K range) {
-        List<InternalNode<K, V>> list = internalFindAllLessSpecific(range);
-        if (list.isEmpty()) {
-            return null;
-        } else {
-            return list.get(list.size() - 1);
+        InternalNode<K, V> result = null;
+        for (InternalNode<K, V> node = children.getChildContaining(range); node != null && !node.getInterval().equals(range); node = node.getChildren().getChildContaining(range)) {
+            result = node;
         }
+        return result;
     }
 
     private List<InternalNode<K, V>> internalFindAllLessSpecific(K range) {
@@ -192,13 +693,12 @@ public final class NestedIntervalMap<K extends Interval<K>, V> implements Interv
     }
 
     private InternalNode<K, V> internalFindExact(K range) {
-        List<InternalNode<K, V>> exactAndAllLessSpecific = internalFindExactAndAllLessSpecific(range);
-        if (exactAndAllLessSpecific.isEmpty()) {
-            return null;
+        if (exactIndex != null) {
+            return exactIndex.get(range);
         }
-        InternalNode<K, V> last = exactAndAllLessSpecific.get(exactAndAllLessSpecific.size() - 1);
-        if (last.getInterval().equals(range)) {
-            return last;
+        InternalNode<K, V> node = internalFindExactOrFirstLessSpecific(range);
+        if (node != null && node.getInterval().equals(range)) {
+            return node;
         }
         return null;
     }
@@ -237,6 +737,113 @@ public final class NestedIntervalMap<K extends Interval<K>, V> implements Interv
         return result;
     }
 
+    /*
+     * Node of which the children are still being collected by bulkLoad. Children are only added in ascending order and
+     * never intersect, so they can be put directly into the child map.
+     */
+    private static final class BulkLoadNode<K extends Interval<K>, V> {
+        private final K key;
+        private V value;
+        private ChildNodeArrayMap<K, V> children;
+
+        BulkLoadNode(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        ChildNodeArrayMap<K, V> children() {
+            if (children == null) {
+                children = new ChildNodeArrayMap<>();
+            }
+            return children;
+        }
+
+        void addTo(ChildNodeMap<K, V> siblings) {
+            siblings.put(key, new InternalNode<>(key, value, children == null ? ChildNodeTreeMap.<K, V>empty() : ChildNodeArrayMap.resize(children)));
+        }
+    }
+
+    /**
+     * Handle to a mapping, found by {@link #findExactEntry(Interval)}, that knows the path from the root of the tree to
+     * the mapping. Navigating to the {@link #parent()} therefore takes constant time, and the {@link #children()} are
+     * read directly from the tree, so walking the hierarchy around a mapping does not search from the root again.
+     * <p/>
+     * The value is read from the map, so it reflects later calls to {@link #put(Interval, Object)} for the same key.
+     * The nesting, however, is the nesting at the time the entry was found: after a mapping is added or removed, the
+     * entry should be looked up again.
+     *
+     * @param <K> the type of the interval
+     * @param <V> the type of the value
+     */
+    public static final class Entry<K extends Interval<K>, V> implements Map.Entry<K, V> {
+        private final InternalNode<K, V> node;
+        private final Entry<K, V> parent;
+
+        Entry(InternalNode<K, V> node, Entry<K, V> parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+
+        @Override
+        public K getKey() {
+            return node.getInterval();
+        }
+
+        @Override
+        public V getValue() {
+            return node.getValue();
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, use {@link NestedIntervalMap#put(Interval, Object)}
+         */
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return the mapping of the most specific interval containing this one, or <code>null</code> if there is none
+         */
+        public Entry<K, V> parent() {
+            return parent;
+        }
+
+        /**
+         * @return the mappings of the most specific intervals contained in this one, ordered by interval
+         */
+        public List<Entry<K, V>> children() {
+            Collection<InternalNode<K, V>> nodes = node.getChildren().values();
+            List<Entry<K, V>> result = new ArrayList<>(nodes.size());
+            for (InternalNode<K, V> child : nodes) {
+                result.add(new Entry<>(child, this));
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) obj;
+            return getKey().equals(that.getKey()) && getValue().equals(that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
     public abstract static class Key<K extends Interval<K>> {
         private final K key;
 
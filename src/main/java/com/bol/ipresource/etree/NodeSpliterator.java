@@ -0,0 +1,257 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lazily traverses nodes in pre-order, optionally restricted to the nodes contained in a range.
+ * <p/>
+ * The traversal keeps a stack of levels, each being a spliterator over (part of) the children of a node. Splitting
+ * hands out the deeper levels first, since those precede the rest of the outermost level, and otherwise splits the
+ * outermost level, or splits off its first node, so the work is divided along sibling subtrees without copying the
+ * tree.
+ * <p/>
+ * Each level keeps the number of nodes in the subtrees of its remaining nodes, taken from
+ * {@link ChildNodeMap#nodeCount()}, so the size of a traversal over whole subtrees is known exactly, also after
+ * splitting. Levels of nodes that merely intersect the range count the subtrees of those nodes, which is only an upper
+ * bound.
+ *
+ * @param <K> the type of the interval
+ * @param <V> the type of the values
+ * @param <T> the type of the elements, mapped from the nodes
+ */
+final class NodeSpliterator<K extends Interval<K>, V, T> implements Spliterator<T> {
+    /*
+     * Traversals of fewer nodes are not split, as handing them to another thread costs more than visiting them.
+     */
+    static final int MIN_SPLIT_SIZE = 64;
+
+    private final Deque<Level<K, V>> levels;
+    private final K range;
+    private final Function<InternalNode<K, V>, T> mapper;
+    private final boolean sized;
+
+    private InternalNode<K, V> next;
+    private final Consumer<InternalNode<K, V>> setNext = node -> next = node;
+
+    private NodeSpliterator(Deque<Level<K, V>> levels, K range, Function<InternalNode<K, V>, T> mapper) {
+        this.levels = levels;
+        this.range = range;
+        this.mapper = mapper;
+        this.sized = isExact(levels);
+    }
+
+    private NodeSpliterator(Level<K, V> level, K range, Function<InternalNode<K, V>, T> mapper) {
+        this(singleton(level), range, mapper);
+    }
+
+    /**
+     * @return a spliterator over all nodes below the root <code>children</code>
+     */
+    static <K extends Interval<K>, V, T> Spliterator<T> all(ChildNodeMap<K, V> children, Function<InternalNode<K, V>, T> mapper) {
+        return new NodeSpliterator<>(Level.of(children), null, mapper);
+    }
+
+    /**
+     * @param container    the node that equals or most closely encloses <code>range</code>, or <code>null</code>
+     * @param includeExact whether to include the node equal to <code>range</code>, if any
+     * @return a spliterator over all nodes below the root <code>children</code> contained in <code>range</code>
+     */
+    static <K extends Interval<K>, V, T> Spliterator<T> contained(ChildNodeMap<K, V> children, InternalNode<K, V> container, K range, boolean includeExact, Function<InternalNode<K, V>, T> mapper) {
+        Deque<Level<K, V>> levels = new ArrayDeque<>();
+        if (container != null && container.getInterval().equals(range)) {
+            if (includeExact) {
+                levels.addLast(new Level<>(Collections.singletonList(container).spliterator(), false, 1 + container.getChildren().nodeCount()));
+            } else {
+                levels.addLast(Level.of(container.getChildren()));
+            }
+        } else {
+            pushIntersecting(levels, container == null ? children : container.getChildren(), range);
+        }
+        return new NodeSpliterator<>(levels, range, mapper);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!levels.isEmpty()) {
+            Level<K, V> level = levels.peekLast();
+            if (!level.nodes.tryAdvance(setNext)) {
+                levels.removeLast();
+                continue;
+            }
+
+            InternalNode<K, V> node = next;
+            next = null;
+            level.consumed(node);
+            if (!level.intersecting || range.contains(node.getInterval())) {
+                if (!node.getChildren().isEmpty()) {
+                    levels.addLast(Level.of(node.getChildren()));
+                }
+                action.accept(mapper.apply(node));
+                return true;
+            }
+            pushIntersecting(levels, node.getChildren(), range);
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        while (estimateSize() >= MIN_SPLIT_SIZE) {
+            if (levels.size() > 1) {
+                Level<K, V> outermost = levels.removeFirst();
+                Deque<Level<K, V>> prefix = new ArrayDeque<>(levels);
+                levels.clear();
+                levels.addLast(outermost);
+                return new NodeSpliterator<>(prefix, range, mapper);
+            }
+
+            Level<K, V> level = levels.peekFirst();
+            Spliterator<InternalNode<K, V>> split = level.nodes.trySplit();
+            if (split != null) {
+                return new NodeSpliterator<>(level.splitOff(split), range, mapper);
+            }
+
+            // the level cannot be split, so split off its first node and descend into the children of that node
+            if (!level.nodes.tryAdvance(setNext)) {
+                levels.clear();
+                return null;
+            }
+            InternalNode<K, V> node = next;
+            next = null;
+            level.consumed(node);
+            if (!level.intersecting || range.contains(node.getInterval())) {
+                if (!node.getChildren().isEmpty()) {
+                    levels.addLast(Level.of(node.getChildren()));
+                }
+                return Collections.singletonList(mapper.apply(node)).spliterator();
+            }
+            pushIntersecting(levels, node.getChildren(), range);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        long result = 0;
+        for (Level<K, V> level : levels) {
+            result += level.size();
+        }
+        return result;
+    }
+
+    @Override
+    public int characteristics() {
+        return sized ? ORDERED | NONNULL | SIZED | SUBSIZED : ORDERED | NONNULL;
+    }
+
+    /*
+     * Pushes the children that intersect range. Siblings are ordered by upper-bound, so these are the children ending
+     * within range, and possibly the one ending after it; the latter is pushed first so it is visited last.
+     */
+    private static <K extends Interval<K>, V> void pushIntersecting(Deque<Level<K, V>> levels, ChildNodeMap<K, V> children, K range) {
+        InternalNode<K, V> after = children.getChildEndingAfter(range);
+        if (after != null && range.intersects(after.getInterval())) {
+            levels.addLast(new Level<>(Collections.singletonList(after).spliterator(), true, 1 + after.getChildren().nodeCount()));
+        }
+        if (!children.isEmpty()) {
+            levels.addLast(new Level<>(children.valuesEndingWithin(range), true));
+        }
+    }
+
+    private static <K extends Interval<K>, V> boolean isExact(Deque<Level<K, V>> levels) {
+        for (Level<K, V> level : levels) {
+            if (level.intersecting) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <K extends Interval<K>, V> Deque<Level<K, V>> singleton(Level<K, V> level) {
+        Deque<Level<K, V>> result = new ArrayDeque<>();
+        result.addLast(level);
+        return result;
+    }
+
+    private static final class Level<K extends Interval<K>, V> {
+        private final Spliterator<InternalNode<K, V>> nodes;
+        // nodes may intersect rather than be contained in the range, so need to be checked
+        private final boolean intersecting;
+        // number of nodes in the subtrees of the remaining nodes, or -1 if not counted yet
+        private long size;
+        // the nodes to count when the size is first asked for, so lazy iterators never count them
+        private Collection<InternalNode<K, V>> uncounted;
+
+        private Level(Spliterator<InternalNode<K, V>> nodes, boolean intersecting, long size) {
+            this.nodes = nodes;
+            this.intersecting = intersecting;
+            this.size = size;
+        }
+
+        private Level(Collection<InternalNode<K, V>> nodes, boolean intersecting) {
+            this(nodes.spliterator(), intersecting, -1);
+            this.uncounted = nodes;
+        }
+
+        static <K extends Interval<K>, V> Level<K, V> of(ChildNodeMap<K, V> children) {
+            return new Level<>(children.values().spliterator(), false, children.nodeCount());
+        }
+
+        long size() {
+            if (size < 0) {
+                size = uncounted == null ? nodes.estimateSize() : countSubtrees(uncounted);
+                uncounted = null;
+            }
+            return size;
+        }
+
+        void consumed(InternalNode<K, V> node) {
+            if (uncounted != null) {
+                // the remaining nodes can no longer be told apart from the consumed ones
+                uncounted = null;
+            } else if (size >= 0) {
+                size = Math.max(0, size - 1 - node.getChildren().nodeCount());
+            }
+        }
+
+        /*
+         * Moves the size of the nodes split off from this level to a new level. Their subtrees are counted when this
+         * level is exact, and estimated in proportion to the number of nodes otherwise.
+         */
+        Level<K, V> splitOff(Spliterator<InternalNode<K, V>> split) {
+            long splitSize;
+            if (intersecting) {
+                long total = size();
+                long splitNodes = split.estimateSize();
+                long remainingNodes = nodes.estimateSize();
+                splitSize = splitNodes + remainingNodes == 0 ? 0 : (long) ((double) total * splitNodes / (splitNodes + remainingNodes));
+                size = total - splitSize;
+                return new Level<>(split, true, splitSize);
+            }
+
+            List<InternalNode<K, V>> prefix = new ArrayList<>();
+            split.forEachRemaining(prefix::add);
+            splitSize = countSubtrees(prefix);
+            size -= splitSize;
+            return new Level<>(prefix.spliterator(), false, splitSize);
+        }
+
+        private static <K extends Interval<K>, V> long countSubtrees(Collection<InternalNode<K, V>> nodes) {
+            long result = 0;
+            for (InternalNode<K, V> node : nodes) {
+                result += 1 + node.getChildren().nodeCount();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+import com.bol.ipresource.util.CollectionHelper;
+import com.bol.ipresource.util.Validate;
+
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe {@link NestedIntervalMap} guarded by a {@link StampedLock}, as an alternative to
+ * {@link SynchronizedIntervalMap} for read-mostly workloads.
+ * <p/>
+ * Modifications take the write lock. They never modify the tree that queries may be reading: like
+ * {@link ConcurrentNestedIntervalMap} does, they copy the path to the modified node into a new version of the tree,
+ * sharing all other nodes, and then replace the current version. Queries read the current version with an optimistic
+ * read, which does not write to the lock, and retry once if a modification interfered; after that they take the read
+ * lock to wait for the modification to finish. The query itself then runs on the version it read, without holding the
+ * lock, so it can never observe a tree that is being modified.
+ * <p/>
+ * Unlike {@link SynchronizedIntervalMap}, this does not wrap a map: {@link #stampedMap(NestedIntervalMap)} copies
+ * the mappings of its source, and later changes to the source are not reflected.
+ *
+ * @param <K> the type of the interval (must implement {@link Interval}).
+ * @param <V> the type of the values to store.
+ */
+public final class StampedIntervalMap<K extends Interval<K>, V> implements IntervalMap<K, V> {
+    private static final int OPTIMISTIC_READS = 2;
+
+    private final StampedLock lock = new StampedLock();
+    private NestedIntervalMap<K, V> current;
+
+    /**
+     * @param source the mappings to start with, which are copied
+     * @return a new map holding the mappings of <code>source</code>
+     */
+    public static <K extends Interval<K>, V> IntervalMap<K, V> stampedMap(NestedIntervalMap<K, V> source) {
+        return new StampedIntervalMap<>(source);
+    }
+
+    private StampedIntervalMap(NestedIntervalMap<K, V> source) {
+        Validate.notNull(source);
+        this.current = new NestedIntervalMap<>(source);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            ConcurrentNestedIntervalMap.Modification<K, V> modification = ConcurrentNestedIntervalMap.put(current, key, value);
+            current = modification.version;
+            return modification.previousValue;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        long stamp = lock.writeLock();
+        try {
+            ConcurrentNestedIntervalMap.Modification<K, V> modification = ConcurrentNestedIntervalMap.remove(current, key);
+            current = modification.version;
+            return modification.previousValue;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(K key, V value) {
+        Validate.notNull(key);
+        Validate.notNull(value);
+        long stamp = lock.writeLock();
+        try {
+            if (value.equals(CollectionHelper.uniqueResult(current.findExact(key)))) {
+                current = ConcurrentNestedIntervalMap.remove(current, key).version;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            current = new NestedIntervalMap<>();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A successful validation guarantees that the version read was published by the last completed modification, and
+     * the lock's memory effects make all of its nodes visible.
+     */
+    private NestedIntervalMap<K, V> current() {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            NestedIntervalMap<K, V> result = current;
+            if (stamp != 0 && lock.validate(stamp)) {
+                return result;
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return current;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(K key) {
+        return current().findFirstLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(K key) {
+        return current().findAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(K key) {
+        return current().findExactAndAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExact(K key) {
+        return current().findExact(key);
+    }
+
+    @Override
+    public List<V> findExactOrFirstLessSpecific(K key) {
+        return current().findExactOrFirstLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(K key) {
+        return current().findFirstMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(K key) {
+        return current().findAllMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(K key) {
+        return current().findExactAndAllMoreSpecific(key);
+    }
+
+    @Override
+    public void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        current().findFirstLessSpecific(key, action);
+    }
+
+    @Override
+    public void findAllLessSpecific(K key, Consumer<? super V> action) {
+        current().findAllLessSpecific(key, action);
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        current().findExactAndAllLessSpecific(key, action);
+    }
+
+    @Override
+    public void findExact(K key, Consumer<? super V> action) {
+        current().findExact(key, action);
+    }
+
+    @Override
+    public void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        current().findExactOrFirstLessSpecific(key, action);
+    }
+
+    @Override
+    public void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        current().findFirstMoreSpecific(key, action);
+    }
+
+    @Override
+    public void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        current().findAllMoreSpecific(key, action);
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        current().findExactAndAllMoreSpecific(key, action);
+    }
+}
@@ -0,0 +1,53 @@
+package com.bol.ipresource.ip;
+
+import java.util.Arrays;
+
+/**
+ * Breadth-first order of a tree of which the nodes are given in pre-order, as used by the array based maps of this
+ * package. In breadth-first order the roots, and the children of every node, occupy consecutive positions, in the same
+ * (ascending) order as in the pre-order traversal.
+ */
+final class BreadthFirstLayout {
+    static final int ROOT = -1;
+
+    // order[i] is the pre-order index of the node at breadth-first position i
+    final int[] order;
+    // the children of the node at breadth-first position i are at positions [firstChild[i], firstChild[i + 1])
+    final int[] firstChild;
+    // the roots are at positions [0, rootCount)
+    final int rootCount;
+
+    /**
+     * @param parents the pre-order index of the parent of every node, or {@link #ROOT} for roots
+     * @param size    the number of nodes
+     */
+    BreadthFirstLayout(int[] parents, int size) {
+        // children of pre-order node i, in ascending order: childIndex[childStart[i + 1] .. childStart[i + 2])
+        int[] childStart = new int[size + 2];
+        for (int i = 0; i < size; i++) {
+            childStart[parents[i] + 2]++;
+        }
+        for (int i = 1; i < childStart.length; i++) {
+            childStart[i] += childStart[i - 1];
+        }
+        int[] childIndex = new int[size];
+        int[] fill = Arrays.copyOf(childStart, childStart.length);
+        for (int i = 0; i < size; i++) {
+            childIndex[fill[parents[i] + 1]++] = i;
+        }
+
+        order = new int[size];
+        firstChild = new int[size + 1];
+        rootCount = childStart[1];
+        System.arraycopy(childIndex, 0, order, 0, rootCount);
+        int next = rootCount;
+        for (int i = 0; i < size; i++) {
+            int node = order[i];
+            firstChild[i] = next;
+            for (int child = childStart[node + 1]; child < childStart[node + 2]; child++) {
+                order[next++] = childIndex[child];
+            }
+        }
+        firstChild[size] = next;
+    }
+}
@@ -0,0 +1,416 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntervalMap;
+import com.bol.ipresource.util.CollectionHelper;
+import com.bol.ipresource.util.Validate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Protocol-independent tree with a bounded look-aside cache of address lookups, for workloads where a small part of
+ * the addresses accounts for most of the lookups.
+ * <p/>
+ * {@link #lookup(int)}, {@link #lookup(long, long)} and {@link #findExactOrFirstLessSpecific(IpInterval)} for a single
+ * address first consult the cache, which takes a single probe of an open-addressing table keyed by the primitive
+ * address. A miss queries the wrapped map and caches the result, evicting with the CLOCK policy once full. All other
+ * lookups go to the wrapped map directly.
+ * <p/>
+ * Modifications invalidate exactly the cached addresses contained in the modified interval, as those are the only ones
+ * of which the most specific interval can change. The cached addresses are kept in a sorted index for this. All
+ * modifications of the wrapped map must therefore go through this map, otherwise stale values would be returned.
+ * <p/>
+ * Like {@link IpTree}, this class is not thread-safe, and the wrapped map must associate at most one value with an
+ * interval.
+ *
+ * @param <V> the type of the values to store
+ */
+public final class CachingIpTree<V> implements IntervalMap<IpInterval<?>, V> {
+    static final int MAX_ENTRIES = 1 << 28;
+
+    // cached for addresses not contained in any interval
+    private static final Object NO_MATCH = new Object();
+
+    private final IntervalMap<IpInterval<?>, V> wrapped;
+    private final Ipv4Cache ipv4Cache;
+    private final Ipv6Cache ipv6Cache;
+
+    /**
+     * Construct an empty {@link CachingIpTree} on top of a new {@link IpTree}.
+     *
+     * @param maxEntries the maximum number of addresses to cache, per protocol
+     */
+    public CachingIpTree(int maxEntries) {
+        this(new IpTree<V>(), maxEntries);
+    }
+
+    /**
+     * Construct a {@link CachingIpTree} on top of <code>wrapped</code>, which must only be modified through the new map.
+     *
+     * @param wrapped    the map to cache the lookups of
+     * @param maxEntries the maximum number of addresses to cache, per protocol
+     */
+    public CachingIpTree(IntervalMap<IpInterval<?>, V> wrapped, int maxEntries) {
+        Validate.notNull(wrapped);
+        Validate.isTrue(maxEntries > 0 && maxEntries <= MAX_ENTRIES, "Maximum number of entries not between 1 and 2^28: ", maxEntries);
+        this.wrapped = wrapped;
+        this.ipv4Cache = new Ipv4Cache(maxEntries);
+        this.ipv6Cache = new Ipv6Cache(maxEntries);
+    }
+
+    @Override
+    public V put(IpInterval<?> key, V value) {
+        V result = wrapped.put(key, value);
+        invalidate(key);
+        return result;
+    }
+
+    @Override
+    public V remove(IpInterval<?> key) {
+        V result = wrapped.remove(key);
+        invalidate(key);
+        return result;
+    }
+
+    @Override
+    public void remove(IpInterval<?> key, V value) {
+        wrapped.remove(key, value);
+        invalidate(key);
+    }
+
+    @Override
+    public void clear() {
+        wrapped.clear();
+        ipv4Cache.clear();
+        ipv6Cache.clear();
+    }
+
+    private void invalidate(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) ipv4Cache.invalidate((Ipv4Interval) key);
+        else ipv6Cache.invalidate((Ipv6Interval) key);
+    }
+
+    /**
+     * Finds the value associated with the most specific interval that contains <code>address</code>.
+     *
+     * @param address the IPv4 address, as a signed <code>int</code>
+     * @return the matching value, or <code>null</code> if no interval contains <code>address</code>
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(int address) {
+        Object result = ipv4Cache.get(address);
+        if (result == null) {
+            long number = address & 0xffffffffL;
+            result = valueOrNoMatch(wrapped.findExactOrFirstLessSpecific(new Ipv4Interval(number, number)));
+            ipv4Cache.put(address, result);
+        }
+        return result == NO_MATCH ? null : (V) result;
+    }
+
+    /**
+     * Finds the value associated with the most specific interval that contains the address.
+     *
+     * @param msb the most significant 64 bits of the IPv6 address
+     * @param lsb the least significant 64 bits of the IPv6 address
+     * @return the matching value, or <code>null</code> if no interval contains the address
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(long msb, long lsb) {
+        Object result = ipv6Cache.get(msb, lsb);
+        if (result == null) {
+            result = valueOrNoMatch(wrapped.findExactOrFirstLessSpecific(new Ipv6Interval(msb, lsb, 128)));
+            ipv6Cache.put(msb, lsb, result);
+        }
+        return result == NO_MATCH ? null : (V) result;
+    }
+
+    private static Object valueOrNoMatch(List<?> result) {
+        Object value = CollectionHelper.uniqueResult(result);
+        return value == null ? NO_MATCH : value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The result for a single address is served from the cache, as an unmodifiable list.
+     */
+    @Override
+    public List<V> findExactOrFirstLessSpecific(IpInterval<?> key) {
+        V result;
+        if (key.getClass() == Ipv4Interval.class) {
+            Ipv4Interval ipv4 = (Ipv4Interval) key;
+            if (ipv4.begin() != ipv4.end()) return wrapped.findExactOrFirstLessSpecific(key);
+            result = lookup((int) ipv4.begin());
+        } else {
+            Ipv6Interval ipv6 = (Ipv6Interval) key;
+            if (ipv6.beginMsb() != ipv6.endMsb() || ipv6.beginLsb() != ipv6.endLsb()) return wrapped.findExactOrFirstLessSpecific(key);
+            result = lookup(ipv6.beginMsb(), ipv6.beginLsb());
+        }
+        return result == null ? Collections.<V>emptyList() : Collections.singletonList(result);
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(IpInterval<?> key) {
+        return wrapped.findFirstLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExact(IpInterval<?> key) {
+        return wrapped.findExact(key);
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(IpInterval<?> key) {
+        return wrapped.findAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(IpInterval<?> key) {
+        return wrapped.findExactAndAllLessSpecific(key);
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(IpInterval<?> key) {
+        return wrapped.findFirstMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(IpInterval<?> key) {
+        return wrapped.findAllMoreSpecific(key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(IpInterval<?> key) {
+        return wrapped.findExactAndAllMoreSpecific(key);
+    }
+
+    /**
+     * @return the number of cached addresses, summed over both protocols
+     */
+    int cachedCount() {
+        return ipv4Cache.size + ipv6Cache.size;
+    }
+
+    /**
+     * Open-addressing hash table with linear probing and CLOCK eviction, of which the subclasses hold the keys. The
+     * table is at most half full, and removals shift the following entries back instead of leaving tombstones.
+     */
+    private abstract static class ClockTable {
+        final int bits;
+        final int mask;
+        private final int maxEntries;
+        final boolean[] used;
+        final boolean[] referenced;
+        final Object[] values;
+        int size;
+        private int hand;
+
+        ClockTable(int maxEntries) {
+            int capacity = Integer.highestOneBit(2 * maxEntries - 1) << 1;
+            this.bits = Integer.numberOfTrailingZeros(capacity);
+            this.mask = capacity - 1;
+            this.maxEntries = maxEntries;
+            this.used = new boolean[capacity];
+            this.referenced = new boolean[capacity];
+            this.values = new Object[capacity];
+        }
+
+        /**
+         * @return the slot the key in <code>slot</code> hashes to
+         */
+        abstract int homeOf(int slot);
+
+        abstract void moveKey(int from, int to);
+
+        /**
+         * Removes the key in <code>slot</code> from the index of cached addresses.
+         */
+        abstract void unindex(int slot);
+
+        Object getAt(int slot) {
+            if (slot < 0) return null;
+            referenced[slot] = true;
+            return values[slot];
+        }
+
+        void putAt(int slot, Object value) {
+            used[slot] = true;
+            values[slot] = value;
+            size++;
+        }
+
+        // evicts the first entry not referenced since the hand last passed it
+        void makeRoom() {
+            while (size >= maxEntries) {
+                if (used[hand]) {
+                    if (referenced[hand]) {
+                        referenced[hand] = false;
+                    } else {
+                        unindex(hand);
+                        remove(hand);
+                        continue;
+                    }
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        void remove(int slot) {
+            int hole = slot;
+            for (int next = (slot + 1) & mask; used[next]; next = (next + 1) & mask) {
+                if (((next - homeOf(next)) & mask) >= ((next - hole) & mask)) {
+                    moveKey(next, hole);
+                    values[hole] = values[next];
+                    referenced[hole] = referenced[next];
+                    hole = next;
+                }
+            }
+            used[hole] = false;
+            referenced[hole] = false;
+            values[hole] = null;
+            size--;
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            Arrays.fill(referenced, false);
+            Arrays.fill(values, null);
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    private static final class Ipv4Cache extends ClockTable {
+        private final int[] keys;
+        private final NavigableSet<Long> index = new TreeSet<>();
+
+        Ipv4Cache(int maxEntries) {
+            super(maxEntries);
+            this.keys = new int[mask + 1];
+        }
+
+        private int hash(int address) {
+            return (address * 0x9E3779B9) >>> (32 - bits);
+        }
+
+        // the slot holding address, or the complement of the free slot to put it in
+        private int find(int address) {
+            for (int slot = hash(address); ; slot = (slot + 1) & mask) {
+                if (!used[slot]) return ~slot;
+                if (keys[slot] == address) return slot;
+            }
+        }
+
+        Object get(int address) {
+            return getAt(find(address));
+        }
+
+        void put(int address, Object value) {
+            makeRoom();
+            int slot = ~find(address);
+            keys[slot] = address;
+            putAt(slot, value);
+            index.add(address & 0xffffffffL);
+        }
+
+        void invalidate(Ipv4Interval range) {
+            NavigableSet<Long> covered = index.subSet(range.begin(), true, range.end(), true);
+            for (Long address : covered) {
+                remove(find(address.intValue()));
+            }
+            covered.clear();
+        }
+
+        @Override
+        int homeOf(int slot) {
+            return hash(keys[slot]);
+        }
+
+        @Override
+        void moveKey(int from, int to) {
+            keys[to] = keys[from];
+        }
+
+        @Override
+        void unindex(int slot) {
+            index.remove(keys[slot] & 0xffffffffL);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            index.clear();
+        }
+    }
+
+    private static final class Ipv6Cache extends ClockTable {
+        private final long[] msbs;
+        private final long[] lsbs;
+        private final NavigableSet<Ipv6Interval> index = new TreeSet<>();
+
+        Ipv6Cache(int maxEntries) {
+            super(maxEntries);
+            this.msbs = new long[mask + 1];
+            this.lsbs = new long[mask + 1];
+        }
+
+        private int hash(long msb, long lsb) {
+            return (int) ((msb * 0x9E3779B97F4A7C15L ^ lsb * 0xC2B2AE3D27D4EB4FL) >>> (64 - bits));
+        }
+
+        // the slot holding the address, or the complement of the free slot to put it in
+        private int find(long msb, long lsb) {
+            for (int slot = hash(msb, lsb); ; slot = (slot + 1) & mask) {
+                if (!used[slot]) return ~slot;
+                if (msbs[slot] == msb && lsbs[slot] == lsb) return slot;
+            }
+        }
+
+        Object get(long msb, long lsb) {
+            return getAt(find(msb, lsb));
+        }
+
+        void put(long msb, long lsb, Object value) {
+            makeRoom();
+            int slot = ~find(msb, lsb);
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            putAt(slot, value);
+            index.add(new Ipv6Interval(msb, lsb, 128));
+        }
+
+        // singleton intervals are ordered by their address
+        void invalidate(Ipv6Interval range) {
+            NavigableSet<Ipv6Interval> covered = index.subSet(range.singletonIntervalAtLowerBound(), true, new Ipv6Interval(range.endMsb(), range.endLsb(), 128), true);
+            for (Ipv6Interval address : covered) {
+                remove(find(address.beginMsb(), address.beginLsb()));
+            }
+            covered.clear();
+        }
+
+        @Override
+        int homeOf(int slot) {
+            return hash(msbs[slot], lsbs[slot]);
+        }
+
+        @Override
+        void moveKey(int from, int to) {
+            msbs[to] = msbs[from];
+            lsbs[to] = lsbs[from];
+        }
+
+        @Override
+        void unindex(int slot) {
+            index.remove(new Ipv6Interval(msbs[slot], lsbs[slot], 128));
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            index.clear();
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.ConcurrentNestedIntervalMap;
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.IntervalMap;
+import com.bol.ipresource.util.CollectionHelper;
+import com.bol.ipresource.util.Validate;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe protocol-independent tree, like {@link IpTree}, of which writers to different parts of the address
+ * space do not contend, and readers never block.
+ * <p/>
+ * The address space of each protocol is partitioned into shards: IPv4 by the leading bits of the address, and IPv6
+ * by the /32 allocation of the address, hashed onto a fixed number of shards. Each shard is a
+ * {@link ConcurrentNestedIntervalMap}, so a writer only locks the shard it modifies. Intervals spanning more than one
+ * partition (like 0/0, or 2001::/16) are kept in a separate spine map per protocol. Such an interval can never be
+ * contained in an interval of a shard, so lookups combine the less specifics from the spine with the result from the
+ * single shard of the key, and more specific lookups for a spanning interval merge the shards it covers.
+ * <p/>
+ * Putting an interval in the spine has to check the shards for intersecting intervals, and vice versa, so spine
+ * modifications exclude shard modifications of the same protocol; these are expected to be rare. A lookup sees every
+ * map it consults as of some moment during the lookup, so a lookup combining the spine with a shard may see a
+ * concurrent modification of one but not yet of the other.
+ *
+ * @param <V> the type of the values to store
+ */
+public final class ConcurrentIpTree<V> implements IntervalMap<IpInterval<?>, V> {
+    private final ShardedMap<Ipv4Interval, V> ipv4Map;
+    private final ShardedMap<Ipv6Interval, V> ipv6Map;
+
+    /**
+     * Construct an empty {@link ConcurrentIpTree}, with IPv4 sharded by /8, and IPv6 by /32 onto 256 shards.
+     */
+    public ConcurrentIpTree() {
+        this(8, 8);
+    }
+
+    /**
+     * Construct an empty {@link ConcurrentIpTree}.
+     *
+     * @param ipv4ShardBits the number of leading address bits selecting the shard of an IPv4 interval
+     * @param ipv6ShardBits the number of bits of the shard number an IPv6 /32 is hashed onto
+     */
+    public ConcurrentIpTree(int ipv4ShardBits, int ipv6ShardBits) {
+        Validate.isTrue(ipv4ShardBits >= 0 && ipv4ShardBits <= 16, "IPv4 shard bits not between 0 and 16: ", ipv4ShardBits);
+        Validate.isTrue(ipv6ShardBits >= 0 && ipv6ShardBits <= 16, "IPv6 shard bits not between 0 and 16: ", ipv6ShardBits);
+        this.ipv4Map = new Ipv4ShardedMap<>(ipv4ShardBits);
+        this.ipv6Map = new Ipv6ShardedMap<>(ipv6ShardBits);
+    }
+
+    @Override
+    public V put(IpInterval<?> key, V value) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.put((Ipv4Interval) key, value);
+        else return ipv6Map.put((Ipv6Interval) key, value);
+    }
+
+    @Override
+    public V remove(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.remove((Ipv4Interval) key);
+        else return ipv6Map.remove((Ipv6Interval) key);
+    }
+
+    @Override
+    public void remove(IpInterval<?> key, V value) {
+        if (key.getClass() == Ipv4Interval.class) ipv4Map.remove((Ipv4Interval) key, value);
+        else ipv6Map.remove((Ipv6Interval) key, value);
+    }
+
+    @Override
+    public void clear() {
+        ipv4Map.clear();
+        ipv6Map.clear();
+    }
+
+    /**
+     * @return the number of mappings, summed over the shards without locking them
+     */
+    public int size() {
+        return ipv4Map.size() + ipv6Map.size();
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findFirstLessSpecific((Ipv4Interval) key);
+        else return ipv6Map.findFirstLessSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findExact(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findExact((Ipv4Interval) key);
+        else return ipv6Map.findExact((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findExactOrFirstLessSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findExactOrFirstLessSpecific((Ipv4Interval) key);
+        else return ipv6Map.findExactOrFirstLessSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findAllLessSpecific((Ipv4Interval) key);
+        else return ipv6Map.findAllLessSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findExactAndAllLessSpecific((Ipv4Interval) key);
+        else return ipv6Map.findExactAndAllLessSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findFirstMoreSpecific((Ipv4Interval) key);
+        else return ipv6Map.findFirstMoreSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findAllMoreSpecific((Ipv4Interval) key);
+        else return ipv6Map.findAllMoreSpecific((Ipv6Interval) key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(IpInterval<?> key) {
+        if (key.getClass() == Ipv4Interval.class) return ipv4Map.findExactAndAllMoreSpecific((Ipv4Interval) key);
+        else return ipv6Map.findExactAndAllMoreSpecific((Ipv6Interval) key);
+    }
+
+    /**
+     * The shards and spine of a single protocol. The maps store the key along with the value, as merging and the
+     * intersection checks between the spine and the shards need the keys of the mappings found.
+     */
+    private abstract static class ShardedMap<K extends IpInterval<K> & Comparable<K>, V> {
+        static final int SPINE = -1;
+
+        private final ConcurrentNestedIntervalMap<K, Map.Entry<K, V>>[] shards;
+        private final ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> spine = new ConcurrentNestedIntervalMap<>();
+
+        // shard writers share the read lock, as they only need to exclude spine writers
+        private final ReadWriteLock spineLock = new ReentrantReadWriteLock();
+
+        @SuppressWarnings("unchecked")
+        ShardedMap(int shardCount) {
+            shards = (ConcurrentNestedIntervalMap<K, Map.Entry<K, V>>[]) new ConcurrentNestedIntervalMap<?, ?>[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new ConcurrentNestedIntervalMap<>();
+            }
+        }
+
+        /**
+         * @return the index of the shard of <code>key</code>, or {@link #SPINE} if it spans more than one partition
+         */
+        abstract int shardOf(K key);
+
+        /**
+         * @return the shards that may hold intervals contained in <code>range</code>, which spans more than one partition
+         */
+        abstract BitSet shardsWithin(K range);
+
+        abstract K singletonIntervalAtUpperBound(K key);
+
+        final int shardCount() {
+            return shards.length;
+        }
+
+        private ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> mapOf(K key) {
+            int shard = shardOf(key);
+            return shard == SPINE ? spine : shards[shard];
+        }
+
+        V put(K key, V value) {
+            Validate.notNull(key);
+            Validate.notNull(value);
+
+            boolean spanning = shardOf(key) == SPINE;
+            Lock lock = spanning ? spineLock.writeLock() : spineLock.readLock();
+            lock.lock();
+            try {
+                K lowerBound = key.singletonIntervalAtLowerBound();
+                K upperBound = singletonIntervalAtUpperBound(key);
+                List<K> intersections = new ArrayList<>();
+                addIntersections(intersections, key, lowerBound, spine);
+                addIntersections(intersections, key, upperBound, spine);
+                if (spanning) {
+                    addIntersections(intersections, key, lowerBound, shards[shardOf(lowerBound)]);
+                    addIntersections(intersections, key, upperBound, shards[shardOf(upperBound)]);
+                }
+                if (!intersections.isEmpty()) {
+                    throw new IntersectingIntervalException(key, intersections);
+                }
+                return valueOf(mapOf(key).put(key, new AbstractMap.SimpleImmutableEntry<>(key, value)));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // an interval intersecting key without nesting contains one of the end points of key
+        private void addIntersections(List<K> intersections, K key, K point, ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> map) {
+            for (Map.Entry<K, V> entry : map.findExactAndAllLessSpecific(point)) {
+                K interval = entry.getKey();
+                if (!interval.contains(key) && !key.contains(interval) && !intersections.contains(interval)) {
+                    intersections.add(interval);
+                }
+            }
+        }
+
+        // removing a mapping can not introduce an intersection, so it only needs the lock of the map holding it
+        V remove(K key) {
+            Validate.notNull(key);
+            return valueOf(mapOf(key).remove(key));
+        }
+
+        void remove(K key, V value) {
+            Validate.notNull(key);
+            Validate.notNull(value);
+            ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> map = mapOf(key);
+            synchronized (map) {
+                Map.Entry<K, V> entry = CollectionHelper.uniqueResult(map.findExact(key));
+                if (entry != null && value.equals(entry.getValue())) {
+                    map.remove(key);
+                }
+            }
+        }
+
+        void clear() {
+            spineLock.writeLock().lock();
+            try {
+                spine.clear();
+                for (ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> shard : shards) {
+                    shard.clear();
+                }
+            } finally {
+                spineLock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            int size = spine.size();
+            for (ConcurrentNestedIntervalMap<K, Map.Entry<K, V>> shard : shards) {
+                size += shard.size();
+            }
+            return size;
+        }
+
+        List<V> findExact(K key) {
+            return values(mapOf(key).findExact(key));
+        }
+
+        List<V> findExactOrFirstLessSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard != SPINE) {
+                List<Map.Entry<K, V>> result = shards[shard].findExactOrFirstLessSpecific(key);
+                if (!result.isEmpty()) {
+                    return values(result);
+                }
+            }
+            return values(spine.findExactOrFirstLessSpecific(key));
+        }
+
+        List<V> findFirstLessSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard == SPINE) {
+                return values(spine.findFirstLessSpecific(key));
+            }
+            List<Map.Entry<K, V>> result = shards[shard].findFirstLessSpecific(key);
+            return values(result.isEmpty() ? spine.findExactOrFirstLessSpecific(key) : result);
+        }
+
+        List<V> findAllLessSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard == SPINE) {
+                return values(spine.findAllLessSpecific(key));
+            }
+            List<V> result = values(spine.findAllLessSpecific(key));
+            result.addAll(values(shards[shard].findAllLessSpecific(key)));
+            return result;
+        }
+
+        List<V> findExactAndAllLessSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard == SPINE) {
+                return values(spine.findExactAndAllLessSpecific(key));
+            }
+            List<V> result = values(spine.findAllLessSpecific(key));
+            result.addAll(values(shards[shard].findExactAndAllLessSpecific(key)));
+            return result;
+        }
+
+        List<V> findFirstMoreSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard != SPINE) {
+                return values(shards[shard].findFirstMoreSpecific(key));
+            }
+
+            // a shard interval never contains a spine interval, so it is a first more specific unless a spine interval
+            // within the key contains it
+            List<Map.Entry<K, V>> spineResult = spine.findFirstMoreSpecific(key);
+            List<Map.Entry<K, V>> result = new ArrayList<>(spineResult);
+            BitSet within = shardsWithin(key);
+            for (shard = within.nextSetBit(0); shard >= 0; shard = within.nextSetBit(shard + 1)) {
+                for (Map.Entry<K, V> entry : shards[shard].findFirstMoreSpecific(key)) {
+                    if (!isContained(spineResult, entry.getKey())) {
+                        result.add(entry);
+                    }
+                }
+            }
+            result.sort(Comparator.comparing(Map.Entry::getKey));
+            return values(result);
+        }
+
+        /**
+         * @param siblings non-intersecting entries in the natural order of their keys
+         * @return whether <code>key</code> is contained in the key of one of <code>siblings</code>
+         */
+        private boolean isContained(List<Map.Entry<K, V>> siblings, K key) {
+            // the only candidate is the last sibling ordered before key
+            int low = 0;
+            int high = siblings.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (siblings.get(mid).getKey().compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low > 0 && siblings.get(low - 1).getKey().contains(key);
+        }
+
+        List<V> findAllMoreSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard != SPINE) {
+                return values(shards[shard].findAllMoreSpecific(key));
+            }
+            return values(mergeAllMoreSpecific(key, false));
+        }
+
+        List<V> findExactAndAllMoreSpecific(K key) {
+            int shard = shardOf(key);
+            if (shard != SPINE) {
+                return values(shards[shard].findExactAndAllMoreSpecific(key));
+            }
+            return values(mergeAllMoreSpecific(key, true));
+        }
+
+        // the natural order of the keys is the pre-order of the tree
+        private List<Map.Entry<K, V>> mergeAllMoreSpecific(K range, boolean exact) {
+            List<Map.Entry<K, V>> result = new ArrayList<>(exact ? spine.findExactAndAllMoreSpecific(range) : spine.findAllMoreSpecific(range));
+            BitSet within = shardsWithin(range);
+            for (int shard = within.nextSetBit(0); shard >= 0; shard = within.nextSetBit(shard + 1)) {
+                result.addAll(shards[shard].findAllMoreSpecific(range));
+            }
+            result.sort(Comparator.comparing(Map.Entry::getKey));
+            return result;
+        }
+
+        private static <K, V> V valueOf(Map.Entry<K, V> entry) {
+            return entry == null ? null : entry.getValue();
+        }
+
+        private static <K, V> List<V> values(List<Map.Entry<K, V>> entries) {
+            List<V> result = new ArrayList<>(entries.size());
+            for (Map.Entry<K, V> entry : entries) {
+                result.add(entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    private static final class Ipv4ShardedMap<V> extends ShardedMap<Ipv4Interval, V> {
+        private final int shift;
+
+        Ipv4ShardedMap(int shardBits) {
+            super(1 << shardBits);
+            this.shift = 32 - shardBits;
+        }
+
+        @Override
+        int shardOf(Ipv4Interval key) {
+            long shard = key.begin() >>> shift;
+            return shard == key.end() >>> shift ? (int) shard : SPINE;
+        }
+
+        @Override
+        BitSet shardsWithin(Ipv4Interval range) {
+            BitSet result = new BitSet(shardCount());
+            result.set((int) (range.begin() >>> shift), (int) (range.end() >>> shift) + 1);
+            return result;
+        }
+
+        @Override
+        Ipv4Interval singletonIntervalAtUpperBound(Ipv4Interval key) {
+            return new Ipv4Interval(key.end(), key.end());
+        }
+    }
+
+    private static final class Ipv6ShardedMap<V> extends ShardedMap<Ipv6Interval, V> {
+        private final int mask;
+
+        Ipv6ShardedMap(int shardBits) {
+            super(1 << shardBits);
+            this.mask = (1 << shardBits) - 1;
+        }
+
+        @Override
+        int shardOf(Ipv6Interval key) {
+            long block = key.beginMsb() >>> 32;
+            return block == key.endMsb() >>> 32 ? shardOf(block) : SPINE;
+        }
+
+        // consecutive allocations are spread over the shards
+        private int shardOf(long block) {
+            return (int) (block * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+
+        @Override
+        BitSet shardsWithin(Ipv6Interval range) {
+            BitSet result = new BitSet(shardCount());
+            long first = range.beginMsb() >>> 32;
+            long last = range.endMsb() >>> 32;
+            if (last - first >= shardCount()) {
+                result.set(0, shardCount());
+            } else {
+                for (long block = first; block <= last; block++) {
+                    result.set(shardOf(block));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Ipv6Interval singletonIntervalAtUpperBound(Ipv6Interval key) {
+            return new Ipv6Interval(key.endMsb(), key.endLsb(), 128);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.bol.ipresource.ip;
 
 import com.bol.ipresource.etree.NestedIntervalMap;
 
+import java.math.BigInteger;
+
 /**
  * An interval with a lower-bound and upper-bound. Both bounds are considered to
  * be <em>inclusive</em>.
@@ -63,4 +65,39 @@ public interface Interval<K> {
      *         upper-bound is greater than that upper-bound
      */
     int compareUpperBound(K that);
+
+    /**
+     * Compare the lower-bound of this interval with the upper-bound of
+     * <code>that</code>. This is used by the {@link NestedIntervalMap}
+     * implementation to find the first interval that may intersect this one,
+     * without allocating an interval with {@link #singletonIntervalAtLowerBound()}
+     * on every level of the tree.
+     * <p/>
+     * The default implementation does allocate such an interval, so
+     * implementations should override it.
+     *
+     * @param that the interval to compare the upper-bound of
+     * @return &lt;0 if this lower-bound is less than that upper-bound,<br> =0 if
+     *         this lower-bound equals that upper-bound,<br> &gt;0 if this
+     *         lower-bound is greater than that upper-bound
+     */
+    @SuppressWarnings("unchecked")
+    default int compareLowerBoundToUpperBound(K that) {
+        return ((Interval<K>) singletonIntervalAtLowerBound()).compareUpperBound(that);
+    }
+
+    /**
+     * The number of points in this interval, which is used by
+     * {@link NestedIntervalMap#coveredAddressCount(Interval)} to compute the
+     * number of points covered by nested intervals. Intervals that are never
+     * queried for coverage need not implement it.
+     *
+     * @return the number of points between the lower- and upper-bound,
+     *         inclusive
+     * @throws UnsupportedOperationException if this interval does not support
+     *         counting its points
+     */
+    default BigInteger size() {
+        throw new UnsupportedOperationException("size");
+    }
 }
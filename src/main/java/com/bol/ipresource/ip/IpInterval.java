@@ -2,10 +2,37 @@ package com.bol.ipresource.ip;
 
 import com.bol.ipresource.util.Validate;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 public abstract class IpInterval<K> implements Interval<K> {
+    private static final ThreadLocal<AsciiAppender> ASCII_APPENDERS = ThreadLocal.withInitial(AsciiAppender::new);
+
+    /**
+     * The text forms of an interval.
+     */
+    public enum Format {
+        /**
+         * Prefix format if the interval is a prefix, range format otherwise, as returned by `toString()`
+         */
+        DEFAULT,
+        /**
+         * Range format ("X - Y"), as returned by `toRangeString()`
+         */
+        RANGE,
+        /**
+         * Prefix format ("X/Y"), as returned by `toPrefixString()`
+         */
+        PREFIX,
+        /**
+         * Fully qualified reverse domain, as returned by `toReverseDomain()`
+         */
+        REVERSE_DOMAIN
+    }
+
     public static IpInterval<?> parse(String addressPrefixOrRange) {
         if (addressPrefixOrRange.indexOf(':') == -1) {
             return Ipv4Interval.parse(addressPrefixOrRange);
@@ -28,15 +55,10 @@ public abstract class IpInterval<K> implements Interval<K> {
 
     public static IpInterval<?> parseReverseDomain(String reverse) {
         Validate.notEmpty(reverse);
-        String cleanAddress = reverse.trim().toLowerCase();
-
-        int reverseDomainIndex = Ipv4Interval.reverseDomainIndex(cleanAddress);
-        if (reverseDomainIndex >= 0) return Ipv4Interval.parseReverseDomain(cleanAddress, reverseDomainIndex);
+        if (Ipv4TextParser.isReverseDomain(reverse)) return Ipv4Interval.parseReverseDomain(reverse);
+        if (Ipv6TextParser.isReverseDomain(reverse)) return Ipv6Interval.parseReverseDomain(reverse);
 
-        reverseDomainIndex = Ipv6Interval.reverseDomainIndex(cleanAddress);
-        if (reverseDomainIndex >= 0) return Ipv6Interval.parseReverseDomain(cleanAddress, reverseDomainIndex);
-
-        throw new IllegalArgumentException("Invalid reverse domain: " + cleanAddress);
+        throw new IllegalArgumentException("Invalid reverse domain: " + reverse.trim());
     }
 
     public static IpInterval<?> asIpInterval(InetAddress address) {
@@ -47,20 +69,142 @@ public abstract class IpInterval<K> implements Interval<K> {
         return Ipv6Interval.parse(address);
     }
 
+    @Override
+    public String toString() {
+        return format(Format.DEFAULT);
+    }
+
     /**
      * @returns a fully qualifies reverse domain, with trailing dot, e.g. 66.152.in-addr.arpa.
+     * @throws IllegalArgumentException if this interval is not a prefix
      */
-    public abstract String toReverseDomain();
+    public String toReverseDomain() {
+        return format(Format.REVERSE_DOMAIN);
+    }
 
     /**
      * @returns same as `toString()`, but forced into range format ("X - Y")
      */
-    public abstract String toRangeString();
+    public String toRangeString() {
+        return format(Format.RANGE);
+    }
 
     /**
      * @returns same as `toString()`, but forced into prefix format ("X/Y")
+     * @throws IllegalStateException if this interval is not a prefix
+     */
+    public String toPrefixString() {
+        return format(Format.PREFIX);
+    }
+
+    private String format(Format format) {
+        StringBuilder sb = new StringBuilder();
+        formatTo(sb, format);
+        return sb.toString();
+    }
+
+    /**
+     * Appends `toString()` to <code>out</code>.
+     */
+    public void formatTo(Appendable out) throws IOException {
+        formatTo(out, Format.DEFAULT);
+    }
+
+    /**
+     * Appends this interval in the given format to <code>out</code>, one character at a time, without creating
+     * temporary objects. Nothing is appended if this interval cannot be represented in the format.
+     *
+     * @throws IllegalStateException    if the format is {@link Format#PREFIX} and this interval is not a prefix
+     * @throws IllegalArgumentException if the format is {@link Format#REVERSE_DOMAIN} and this interval is not a prefix
+     */
+    public void formatTo(Appendable out, Format format) throws IOException {
+        Validate.notNull(out);
+        Validate.notNull(format);
+
+        int prefixLength = getPrefixLength();
+        switch (format) {
+            case RANGE:
+                appendRange(out);
+                break;
+            case PREFIX:
+                if (prefixLength < 0) throw new IllegalStateException(toRangeString() + " cannot be converted to prefix");
+                appendPrefix(out, prefixLength);
+                break;
+            case REVERSE_DOMAIN:
+                appendReverseDomain(out, prefixLength);
+                break;
+            default:
+                if (prefixLength < 0) appendRange(out);
+                else appendPrefix(out, prefixLength);
+        }
+    }
+
+    /**
+     * Appends `toString()` to <code>sb</code>.
+     */
+    public void formatTo(StringBuilder sb) {
+        formatTo(sb, Format.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #formatTo(Appendable, Format)}, for callers that do not need to handle an {@link IOException}.
      */
-    public abstract String toPrefixString();
+    public void formatTo(StringBuilder sb, Format format) {
+        try {
+            formatTo((Appendable) sb, format);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes `toString()` as ASCII bytes to <code>buffer</code>.
+     */
+    public void writeAscii(ByteBuffer buffer) {
+        writeAscii(buffer, Format.DEFAULT);
+    }
+
+    /**
+     * Writes this interval in the given format as ASCII bytes at the position of <code>buffer</code>, and advances
+     * the position past them. If the text does not fit, the position is left unchanged.
+     *
+     * @throws BufferOverflowException if there are not enough bytes remaining in <code>buffer</code>
+     * @see #formatTo(Appendable, Format)
+     */
+    public void writeAscii(ByteBuffer buffer, Format format) {
+        Validate.notNull(buffer);
+        AsciiAppender appender = ASCII_APPENDERS.get();
+        int position = buffer.position();
+        appender.buffer = buffer;
+        try {
+            formatTo(appender, format);
+        } catch (BufferOverflowException e) {
+            buffer.position(position);
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            appender.buffer = null;
+        }
+    }
+
+    abstract void appendPrefix(Appendable out, int prefixLength) throws IOException;
+
+    abstract void appendRange(Appendable out) throws IOException;
+
+    /**
+     * @throws IllegalArgumentException if <code>prefixLength</code> is negative, before anything is appended
+     */
+    abstract void appendReverseDomain(Appendable out, int prefixLength) throws IOException;
+
+    /**
+     * Appends a non-negative int below 1000 in decimal.
+     */
+    static void appendDecimal(Appendable out, int value) throws IOException {
+        if (value >= 100) out.append((char) ('0' + value / 100));
+        if (value >= 10) out.append((char) ('0' + value / 10 % 10));
+        out.append((char) ('0' + value % 10));
+    }
 
     /**
      * @returns `toString()` on the begin address of this interval
@@ -81,4 +225,30 @@ public abstract class IpInterval<K> implements Interval<K> {
     public abstract byte[] endAsByteArray();
 
     public abstract int getPrefixLength();
+
+    /**
+     * Writes the characters appended to it into {@link #buffer}; reused per thread, as formatting does not nest.
+     */
+    private static final class AsciiAppender implements Appendable {
+        private ByteBuffer buffer;
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                buffer.put((byte) csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            buffer.put((byte) c);
+            return this;
+        }
+    }
 }
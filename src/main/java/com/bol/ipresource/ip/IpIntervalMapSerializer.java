@@ -0,0 +1,338 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+import com.bol.ipresource.util.ValueCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary serialization of a {@link NestedIntervalMap} of IPv4 or IPv6 intervals.
+ * <p/>
+ * Mappings are written one by one while traversing the map in pre-order, and read back one by one while building the
+ * nesting with {@link NestedIntervalMap#bulkLoadSorted(Iterator)}, so no intermediate collections are built.
+ * Since pre-order visits intervals by ascending lower-bound, a lower-bound is written as the difference with the
+ * previous one. Upper-bounds of prefixes are written as a single prefix length byte, other upper-bounds as the
+ * difference with their lower-bound. Values are converted with a {@link ValueCodec}. A typical prefix takes two to
+ * five bytes plus its value.
+ * <p/>
+ * The stream starts with the magic number <code>0x49504d53</code>, followed by a version and address family byte.
+ * Every mapping starts with a tag byte: a prefix length plus one, or {@value #RANGE} for a range that is not a prefix.
+ * It is followed by the lower-bound difference, the range size minus one in case of a range, and the value as its
+ * length followed by its encoded bytes. The tag {@value #END} ends the stream. Numbers are unsigned variable-length
+ * quantities of 7 bits per byte, least significant first; IPv6 differences are written as two such numbers, most
+ * significant first.
+ */
+public final class IpIntervalMapSerializer {
+    static final int MAGIC = 0x49504d53;
+    static final int VERSION = 1;
+    static final int END = 0;
+    static final int RANGE = 0xff;
+
+    private IpIntervalMapSerializer() {
+    }
+
+    /**
+     * Writes all mappings of <code>map</code> to <code>out</code>.
+     *
+     * @param map   the map to write
+     * @param codec the codec used to write the values
+     * @param out   the output to write to
+     * @throws IOException if writing to <code>out</code> fails
+     */
+    public static <V> void writeIpv4(NestedIntervalMap<Ipv4Interval, V> map, ValueCodec<? super V> codec, DataOutput out) throws IOException {
+        Validate.notNull(map);
+        Validate.notNull(codec);
+        Validate.notNull(out);
+        writeHeader(out, 4);
+        final long[] previous = {0};
+        try {
+            map.forEach((interval, value) -> {
+                try {
+                    long begin = interval.begin();
+                    long end = interval.end();
+                    long hostBits = begin ^ end;
+                    if ((hostBits & (hostBits + 1)) == 0 && (begin & hostBits) == 0) {
+                        out.writeByte(32 - Long.bitCount(hostBits) + 1);
+                        writeUnsigned(out, begin - previous[0]);
+                    } else {
+                        out.writeByte(RANGE);
+                        writeUnsigned(out, begin - previous[0]);
+                        writeUnsigned(out, end - begin);
+                    }
+                    previous[0] = begin;
+                    writeValue(out, codec, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(END);
+    }
+
+    /**
+     * Writes all mappings of <code>map</code> to <code>out</code>.
+     *
+     * @param map   the map to write
+     * @param codec the codec used to write the values
+     * @param out   the output to write to
+     * @throws IOException if writing to <code>out</code> fails
+     */
+    public static <V> void writeIpv6(NestedIntervalMap<Ipv6Interval, V> map, ValueCodec<? super V> codec, DataOutput out) throws IOException {
+        Validate.notNull(map);
+        Validate.notNull(codec);
+        Validate.notNull(out);
+        writeHeader(out, 6);
+        final long[] previous = {0, 0};
+        try {
+            map.forEach((interval, value) -> {
+                try {
+                    long beginMsb = interval.beginMsb();
+                    long beginLsb = interval.beginLsb();
+                    long endMsb = interval.endMsb();
+                    long endLsb = interval.endLsb();
+                    long hostMsb = beginMsb ^ endMsb;
+                    long hostLsb = beginLsb ^ endLsb;
+                    boolean isPrefix = (hostMsb == 0 ? (hostLsb & (hostLsb + 1)) == 0 : hostLsb == -1 && (hostMsb & (hostMsb + 1)) == 0)
+                            && (beginMsb & hostMsb) == 0 && (beginLsb & hostLsb) == 0;
+                    out.writeByte(isPrefix ? 128 - Long.bitCount(hostMsb) - Long.bitCount(hostLsb) + 1 : RANGE);
+                    writeDifference(out, beginMsb, beginLsb, previous[0], previous[1]);
+                    if (!isPrefix) {
+                        writeDifference(out, endMsb, endLsb, beginMsb, beginLsb);
+                    }
+                    previous[0] = beginMsb;
+                    previous[1] = beginLsb;
+                    writeValue(out, codec, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(END);
+    }
+
+    /**
+     * Reads a map written by {@link #writeIpv4(NestedIntervalMap, ValueCodec, DataOutput)}.
+     *
+     * @param in    the input to read from
+     * @param codec the codec the values were written with
+     * @return a new map holding the mappings read from <code>in</code>
+     * @throws IOException if reading from <code>in</code> fails, or it does not hold a valid IPv4 map
+     */
+    public static <V> NestedIntervalMap<Ipv4Interval, V> readIpv4(DataInput in, ValueCodec<V> codec) throws IOException {
+        Validate.notNull(in);
+        Validate.notNull(codec);
+        readHeader(in, 4);
+        return load(new EntryReader<Ipv4Interval, V>(in, codec) {
+            private long begin;
+
+            @Override
+            Ipv4Interval readKey(int tag) throws IOException {
+                begin += readUnsigned(in);
+                long end;
+                if (tag == RANGE) {
+                    end = begin + readUnsigned(in);
+                } else if (tag <= 33) {
+                    end = begin | (1L << (33 - tag)) - 1;
+                } else {
+                    throw new IOException("Invalid tag: " + tag);
+                }
+                if (begin > Ipv4Interval.MAX_RANGE.end() || end > Ipv4Interval.MAX_RANGE.end() || (tag != RANGE && (begin & (end - begin)) != 0)) {
+                    throw new IOException("Invalid interval at " + begin);
+                }
+                return new Ipv4Interval(begin, end);
+            }
+        });
+    }
+
+    /**
+     * Reads a map written by {@link #writeIpv6(NestedIntervalMap, ValueCodec, DataOutput)}.
+     *
+     * @param in    the input to read from
+     * @param codec the codec the values were written with
+     * @return a new map holding the mappings read from <code>in</code>
+     * @throws IOException if reading from <code>in</code> fails, or it does not hold a valid IPv6 map
+     */
+    public static <V> NestedIntervalMap<Ipv6Interval, V> readIpv6(DataInput in, ValueCodec<V> codec) throws IOException {
+        Validate.notNull(in);
+        Validate.notNull(codec);
+        readHeader(in, 6);
+        return load(new EntryReader<Ipv6Interval, V>(in, codec) {
+            private long beginMsb;
+            private long beginLsb;
+
+            @Override
+            Ipv6Interval readKey(int tag) throws IOException {
+                long deltaMsb = readUnsigned(in);
+                long deltaLsb = readUnsigned(in);
+                long lsb = beginLsb + deltaLsb;
+                beginMsb += deltaMsb + (Long.compareUnsigned(lsb, beginLsb) < 0 ? 1 : 0);
+                beginLsb = lsb;
+
+                long endMsb;
+                long endLsb;
+                if (tag == RANGE) {
+                    deltaMsb = readUnsigned(in);
+                    deltaLsb = readUnsigned(in);
+                    endLsb = beginLsb + deltaLsb;
+                    endMsb = beginMsb + deltaMsb + (Long.compareUnsigned(endLsb, beginLsb) < 0 ? 1 : 0);
+                    if (Ipv6Interval.compare(endMsb, endLsb, beginMsb, beginLsb) < 0) {
+                        throw new IOException("Invalid interval at " + new Ipv6Interval(beginMsb, beginLsb, 128));
+                    }
+                } else if (tag <= 129) {
+                    int hostBits = 129 - tag;
+                    long hostMsb = hostBits <= 64 ? 0 : -1L >>> (128 - hostBits);
+                    long hostLsb = hostBits == 0 ? 0 : -1L >>> (64 - Math.min(hostBits, 64));
+                    if ((beginMsb & hostMsb) != 0 || (beginLsb & hostLsb) != 0) {
+                        throw new IOException("Invalid interval at " + new Ipv6Interval(beginMsb, beginLsb, 128));
+                    }
+                    endMsb = beginMsb | hostMsb;
+                    endLsb = beginLsb | hostLsb;
+                } else {
+                    throw new IOException("Invalid tag: " + tag);
+                }
+                return new Ipv6Interval(beginMsb, beginLsb, endMsb, endLsb);
+            }
+        });
+    }
+
+    /**
+     * The entries were written in pre-order, so the nesting is built while reading them.
+     */
+    private static <K extends IpInterval<K> & Comparable<K>, V> NestedIntervalMap<K, V> load(EntryReader<K, V> entries) throws IOException {
+        try {
+            return NestedIntervalMap.bulkLoadSorted(entries);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IntersectingIntervalException e) {
+            throw new IOException("Invalid interval " + e.getInterval(), e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static void writeHeader(DataOutput out, int family) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(family);
+    }
+
+    private static void readHeader(DataInput in, int family) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a serialized interval map");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        int actualFamily = in.readUnsignedByte();
+        if (actualFamily != family) {
+            throw new IOException("Stream holds IPv" + actualFamily + " intervals");
+        }
+    }
+
+    private static void writeDifference(DataOutput out, long msb, long lsb, long fromMsb, long fromLsb) throws IOException {
+        long deltaLsb = lsb - fromLsb;
+        long deltaMsb = msb - fromMsb - (Long.compareUnsigned(lsb, fromLsb) < 0 ? 1 : 0);
+        writeUnsigned(out, deltaMsb);
+        writeUnsigned(out, deltaLsb);
+    }
+
+    private static <V> void writeValue(DataOutput out, ValueCodec<? super V> codec, V value) throws IOException {
+        byte[] bytes = codec.encode(value);
+        writeUnsigned(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static <V> V readValue(DataInput in, ValueCodec<V> codec) throws IOException {
+        long length = readUnsigned(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid value length: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return codec.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static void writeUnsigned(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readUnsigned(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Variable-length number too long");
+    }
+
+    /**
+     * Reads the mappings of a stream one at a time, for {@link NestedIntervalMap#bulkLoadSorted(Iterator)}. As an
+     * iterator cannot throw an {@link IOException}, read failures are thrown as an {@link UncheckedIOException}.
+     */
+    private abstract static class EntryReader<K, V> implements Iterator<Map.Entry<K, V>> {
+        final DataInput in;
+        private final ValueCodec<V> codec;
+        private Map.Entry<K, V> next;
+        private boolean ended;
+
+        EntryReader(DataInput in, ValueCodec<V> codec) {
+            this.in = in;
+            this.codec = codec;
+        }
+
+        /**
+         * @return the key of the mapping starting with <code>tag</code>, read from {@link #in}
+         */
+        abstract K readKey(int tag) throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !ended) {
+                try {
+                    int tag = in.readUnsignedByte();
+                    if (tag == END) {
+                        ended = true;
+                    } else {
+                        K key = readKey(tag);
+                        next = new AbstractMap.SimpleImmutableEntry<>(key, readValue(in, codec));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> result = next;
+            next = null;
+            return result;
+        }
+    }
+}
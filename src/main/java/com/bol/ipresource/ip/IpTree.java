@@ -4,6 +4,9 @@ import com.bol.ipresource.etree.IntervalMap;
 import com.bol.ipresource.etree.NestedIntervalMap;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Stream;
 
 /**
  * Handy tiny little wrapper around {@link com.bol.ipresource.etree.NestedIntervalMap} to allow for a protocol-independent tree.
@@ -14,6 +17,14 @@ public class IpTree<V> implements IntervalMap<IpInterval<?>, V> {
     protected NestedIntervalMap<Ipv4Interval, V> ipv4Tree = new NestedIntervalMap<>();
     protected NestedIntervalMap<Ipv6Interval, V> ipv6Tree = new NestedIntervalMap<>();
 
+    public IpTree() {
+    }
+
+    IpTree(NestedIntervalMap<Ipv4Interval, V> ipv4Tree, NestedIntervalMap<Ipv6Interval, V> ipv6Tree) {
+        this.ipv4Tree = ipv4Tree;
+        this.ipv6Tree = ipv6Tree;
+    }
+
     @Override
     public V put(IpInterval<?> key, V value) {
         if (key.getClass() == Ipv4Interval.class) return ipv4Tree.put((Ipv4Interval) key, value);
@@ -86,6 +97,65 @@ public class IpTree<V> implements IntervalMap<IpInterval<?>, V> {
         else return ipv6Tree.findExactAndAllMoreSpecific((Ipv6Interval) key);
     }
 
+    /**
+     * @return a lazy spliterator over all mappings, IPv4 before IPv6, each in pre-order
+     * @see NestedIntervalMap#spliterator()
+     */
+    public Spliterator<Map.Entry<IpInterval<?>, V>> spliterator() {
+        return entryStream().spliterator();
+    }
+
+    /**
+     * @param range the range to restrict the mappings to
+     * @return a lazy spliterator over the mappings of which the key equals or is contained in <code>range</code>
+     * @see NestedIntervalMap#spliterator(Interval)
+     */
+    public Spliterator<Map.Entry<IpInterval<?>, V>> spliterator(IpInterval<?> range) {
+        return entryStream(range).spliterator();
+    }
+
+    /**
+     * @return a sequential stream over all mappings, IPv4 before IPv6, each in pre-order
+     * @see NestedIntervalMap#entryStream()
+     */
+    public Stream<Map.Entry<IpInterval<?>, V>> entryStream() {
+        return Stream.concat(IpTree.<Ipv4Interval, V>widen(ipv4Tree.entryStream()), IpTree.<Ipv6Interval, V>widen(ipv6Tree.entryStream()));
+    }
+
+    /**
+     * @param range the range to restrict the mappings to
+     * @return a sequential stream over the mappings of which the key equals or is contained in <code>range</code>
+     * @see NestedIntervalMap#entryStream(Interval)
+     */
+    public Stream<Map.Entry<IpInterval<?>, V>> entryStream(IpInterval<?> range) {
+        if (range.getClass() == Ipv4Interval.class) return widen(ipv4Tree.entryStream((Ipv4Interval) range));
+        else return widen(ipv6Tree.entryStream((Ipv6Interval) range));
+    }
+
+    /**
+     * @return a sequential stream over all values, IPv4 before IPv6, each in pre-order
+     * @see NestedIntervalMap#stream()
+     */
+    public Stream<V> stream() {
+        return Stream.concat(ipv4Tree.stream(), ipv6Tree.stream());
+    }
+
+    /**
+     * @param range the range to restrict the values to
+     * @return a sequential stream over the values of which the key equals or is contained in <code>range</code>
+     * @see NestedIntervalMap#stream(Interval)
+     */
+    public Stream<V> stream(IpInterval<?> range) {
+        if (range.getClass() == Ipv4Interval.class) return ipv4Tree.stream((Ipv4Interval) range);
+        else return ipv6Tree.stream((Ipv6Interval) range);
+    }
+
+    // entries are immutable, so they can safely be viewed with a wider key type
+    @SuppressWarnings("unchecked")
+    private static <K extends IpInterval<K>, V> Stream<Map.Entry<IpInterval<?>, V>> widen(Stream<Map.Entry<K, V>> entries) {
+        return (Stream<Map.Entry<IpInterval<?>, V>>) (Stream<?>) entries;
+    }
+
     @Override
     public String toString() {
         return ipv4Tree.toString() + ", " + ipv6Tree.toString();
@@ -0,0 +1,512 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+import com.bol.ipresource.util.ValueCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads an {@link IpTree} from a text dump, parsing it in parallel straight from a memory-mapped file.
+ * <p/>
+ * The file is mapped in windows of at most 1 GiB that end on a record boundary. Each window is parsed by a fork-join
+ * task, which splits its part of the window in two at a record boundary until parts are small enough to parse
+ * directly from the bytes with {@link Ipv4TextParser} and {@link Ipv6TextParser}. The value of a record is decoded
+ * from the bytes of the whole record by a {@link ValueCodec}; {@link ValueCodec#utf8()} gives the text of the record.
+ * <p/>
+ * The parsed records are sorted, and records intersecting a previous record without either containing the other are
+ * left out and reported as a {@link Conflict}, with the file offsets of both records. The remaining records are
+ * loaded with {@link NestedIntervalMap#bulkLoad(Iterator)}, so if the same interval occurs more than once, the record
+ * that comes last in the file wins.
+ */
+public final class IpTreeLoader {
+    static final int WINDOW_SIZE = 1 << 30;
+    static final int SPLIT_THRESHOLD = 1 << 20;
+
+    private static final byte[][] RPSL_ATTRIBUTES = {bytes("inetnum"), bytes("inet6num"), bytes("route"), bytes("route6")};
+
+    /**
+     * The formats of the files that can be loaded.
+     */
+    public enum Format {
+        /**
+         * RPSL objects (RFC 2622), separated by blank lines. The key of an object is the value of its first
+         * <code>inetnum</code>, <code>inet6num</code>, <code>route</code> or <code>route6</code> attribute; objects
+         * without one, like comment blocks, are skipped.
+         */
+        RPSL,
+        /**
+         * Lines of comma-separated values, of which the first is the address, prefix or range. Blank lines and lines
+         * starting with <code>#</code> are skipped, as is the first line if it does not start with an interval, as it
+         * is taken to be a header.
+         */
+        CSV
+    }
+
+    private IpTreeLoader() {
+    }
+
+    /**
+     * Loads <code>file</code> using the common fork-join pool.
+     *
+     * @see #load(Path, Format, ValueCodec, ForkJoinPool)
+     */
+    public static <V> Result<V> load(Path file, Format format, ValueCodec<? extends V> values) throws IOException {
+        return load(file, format, values, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads all records of <code>file</code>.
+     *
+     * @param file   the file to load
+     * @param format the format of the file
+     * @param values the codec used to decode the value of a record from its bytes
+     * @param pool   the pool to parse the file in
+     * @return the loaded tree, and the records that were left out
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a record cannot be parsed; the message holds its file offset
+     */
+    public static <V> Result<V> load(Path file, Format format, ValueCodec<? extends V> values, ForkJoinPool pool) throws IOException {
+        return load(file, format, values, pool, WINDOW_SIZE, SPLIT_THRESHOLD);
+    }
+
+    static <V> Result<V> load(Path file, Format format, ValueCodec<? extends V> values, ForkJoinPool pool, int windowSize, int splitThreshold) throws IOException {
+        Validate.notNull(file);
+        Validate.notNull(format);
+        Validate.notNull(values);
+        Validate.notNull(pool);
+
+        Records<V> records = new Records<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; ) {
+                int length = (int) Math.min(windowSize, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = position + length == size ? length : lastRecordStart(window, format, length);
+                if (end <= 0) throw new IllegalArgumentException("Record at offset " + position + " does not fit in a window");
+
+                records.addAll(pool.invoke(new ParseTask<V>(window, position, 0, end, format, values, splitThreshold)));
+                position += end;
+            }
+        }
+
+        List<Conflict> conflicts = new ArrayList<>();
+        NestedIntervalMap<Ipv4Interval, V> ipv4Map = NestedIntervalMap.bulkLoad(withoutConflicts(records.ipv4, conflicts).iterator());
+        NestedIntervalMap<Ipv6Interval, V> ipv6Map = NestedIntervalMap.bulkLoad(withoutConflicts(records.ipv6, conflicts).iterator());
+        conflicts.sort(Comparator.comparingLong(Conflict::getOffset));
+        return new Result<>(new IpTree<>(ipv4Map, ipv6Map), records.ipv4.size() + records.ipv6.size() - conflicts.size(), conflicts);
+    }
+
+    /**
+     * Sorts the records in the order of {@link NestedIntervalMap#bulkLoad(Iterator)}, with records of the same
+     * interval by file offset, and leaves out records intersecting a previous record. A rejected record does not
+     * close the records it intersects, so these are still checked against the records after it.
+     */
+    private static <K extends IpInterval<K> & Comparable<K>, V> List<Record<K, V>> withoutConflicts(List<Record<K, V>> records, List<Conflict> conflicts) {
+        @SuppressWarnings("unchecked")
+        Record<K, V>[] sorted = (Record<K, V>[]) records.toArray(new Record<?, ?>[records.size()]);
+        Arrays.parallelSort(sorted, (o1, o2) -> {
+            int result = o1.key.compareTo(o2.key);
+            return result != 0 ? result : Long.compare(o1.offset, o2.offset);
+        });
+
+        List<Record<K, V>> result = new ArrayList<>(sorted.length);
+        Deque<Record<K, V>> open = new ArrayDeque<>();
+        for (Record<K, V> record : sorted) {
+            Record<K, V> intersecting = null;
+            for (Record<K, V> parent : open) {
+                if (parent.key.contains(record.key)) break;
+                if (parent.key.intersects(record.key)) {
+                    intersecting = parent;
+                    break;
+                }
+            }
+            if (intersecting != null) {
+                conflicts.add(new Conflict(record.offset, record.key, intersecting.offset, intersecting.key));
+                continue;
+            }
+
+            // the closed records end before this one, so also before all records after it
+            while (!open.isEmpty() && !open.peek().key.contains(record.key)) {
+                open.pop();
+            }
+            open.push(record);
+            result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the last record in the first <code>length</code> bytes of <code>window</code>, or 0 if
+     * there is only one
+     */
+    private static int lastRecordStart(ByteBuffer window, Format format, int length) {
+        for (int index = length - 1; index > 0; index--) {
+            if (isRecordStart(window, format, 0, index)) return index;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the index of the first record in <code>(from, to)</code>, or -1 if there is none
+     */
+    private static int nextRecordStart(ByteBuffer window, Format format, int start, int from, int to) {
+        for (int index = from + 1; index < to; index++) {
+            if (isRecordStart(window, format, start, index)) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Records start after a line feed, and RPSL objects also after a blank line. The window always starts with a
+     * record, so <code>start</code> counts as the start of a line.
+     */
+    private static boolean isRecordStart(ByteBuffer window, Format format, int start, int index) {
+        if (index == start) return true;
+        if (window.get(index - 1) != '\n') return false;
+        if (format == Format.CSV) return true;
+
+        for (int i = index - 2; i >= start && window.get(i) != '\n'; i--) {
+            if (!isWhitespace(window.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static int lineEnd(ByteBuffer window, int index, int to) {
+        while (index < to && window.get(index) != '\n') index++;
+        return index;
+    }
+
+    /**
+     * @return the end of the line without trailing whitespace, like a carriage return
+     */
+    private static int trimEnd(ByteBuffer window, int from, int to) {
+        while (to > from && isWhitespace(window.get(to - 1))) to--;
+        return to;
+    }
+
+    /**
+     * @return the index after the colon if the line starts with a key attribute, -1 otherwise
+     */
+    private static int keyAttributeValue(ByteBuffer window, int from, int to) {
+        for (byte[] attribute : RPSL_ATTRIBUTES) {
+            int colon = from + attribute.length;
+            if (colon < to && window.get(colon) == ':' && startsWithIgnoreCase(window, from, attribute)) return colon + 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreCase(ByteBuffer window, int from, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            if ((window.get(from + i) | 0x20) != lowerCase[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer window, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (window.get(i) == c) return i;
+        }
+        return to;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static byte[] bytes(String ascii) {
+        byte[] result = new byte[ascii.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) ascii.charAt(i);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the records in <code>[from, to)</code> of a window, forking off the second half as long as it is larger
+     * than the split threshold.
+     */
+    private static final class ParseTask<V> extends RecursiveTask<Records<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer window;
+        private final long windowOffset;
+        private final int from;
+        private final int to;
+        private final Format format;
+        private final ValueCodec<? extends V> values;
+        private final int splitThreshold;
+
+        ParseTask(ByteBuffer window, long windowOffset, int from, int to, Format format, ValueCodec<? extends V> values, int splitThreshold) {
+            this.window = window;
+            this.windowOffset = windowOffset;
+            this.from = from;
+            this.to = to;
+            this.format = format;
+            this.values = values;
+            this.splitThreshold = splitThreshold;
+        }
+
+        @Override
+        protected Records<V> compute() {
+            if (to - from > splitThreshold) {
+                int split = nextRecordStart(window, format, 0, from + (to - from) / 2, to);
+                if (split > 0) {
+                    ParseTask<V> second = new ParseTask<V>(window, windowOffset, split, to, format, values, splitThreshold);
+                    second.fork();
+                    Records<V> result = new ParseTask<V>(window, windowOffset, from, split, format, values, splitThreshold).compute();
+                    result.addAll(second.join());
+                    return result;
+                }
+            }
+
+            RecordParser<V> parser = new RecordParser<>(window, windowOffset, values);
+            if (format == Format.CSV) parser.parseCsv(from, to);
+            else parser.parseRpsl(from, to);
+            return parser.records;
+        }
+    }
+
+    /**
+     * Parses records from its own view of a window, as the text parsers read between the position and the limit.
+     */
+    private static final class RecordParser<V> {
+        private final ByteBuffer window;
+        private final long windowOffset;
+        private final ValueCodec<? extends V> values;
+        private final ByteBuffer view;
+        private final Ipv4TextParser ipv4Parser = new Ipv4TextParser();
+        private final Ipv6TextParser ipv6Parser = new Ipv6TextParser();
+        private final Records<V> records = new Records<>();
+
+        RecordParser(ByteBuffer window, long windowOffset, ValueCodec<? extends V> values) {
+            this.window = window;
+            this.windowOffset = windowOffset;
+            this.values = values;
+            this.view = window.duplicate();
+        }
+
+        void parseCsv(int from, int to) {
+            for (int index = from; index < to; ) {
+                int lineEnd = lineEnd(window, index, to);
+                int contentEnd = trimEnd(window, index, lineEnd);
+                int keyStart = index;
+                while (keyStart < contentEnd && isWhitespace(window.get(keyStart))) keyStart++;
+
+                if (keyStart < contentEnd && window.get(keyStart) != '#') {
+                    int keyEnd = indexOf(window, ',', keyStart, contentEnd);
+                    IpInterval<?> key;
+                    try {
+                        key = parseKey(keyStart, keyEnd);
+                    } catch (IllegalArgumentException e) {
+                        if (windowOffset + index != 0) throw invalidRecord(windowOffset + index, e);
+                        key = null; // header
+                    }
+                    if (key != null) add(key, index, contentEnd);
+                }
+                index = lineEnd + 1;
+            }
+        }
+
+        void parseRpsl(int from, int to) {
+            int recordStart = -1;
+            int recordEnd = -1;
+            int keyStart = -1;
+            int keyEnd = -1;
+            for (int index = from; index < to; ) {
+                int lineEnd = lineEnd(window, index, to);
+                int contentEnd = trimEnd(window, index, lineEnd);
+                if (contentEnd == index) {
+                    if (recordStart >= 0 && keyStart >= 0) add(recordStart, recordEnd, keyStart, keyEnd);
+                    recordStart = -1;
+                    keyStart = -1;
+                } else {
+                    if (recordStart < 0) recordStart = index;
+                    recordEnd = contentEnd;
+                    if (keyStart < 0) {
+                        int value = keyAttributeValue(window, index, contentEnd);
+                        if (value >= 0) {
+                            keyStart = value;
+                            keyEnd = indexOf(window, '#', value, contentEnd);
+                        }
+                    }
+                }
+                index = lineEnd + 1;
+            }
+            if (recordStart >= 0 && keyStart >= 0) add(recordStart, recordEnd, keyStart, keyEnd);
+        }
+
+        private void add(int recordStart, int recordEnd, int keyStart, int keyEnd) {
+            IpInterval<?> key;
+            try {
+                key = parseKey(keyStart, keyEnd);
+            } catch (IllegalArgumentException e) {
+                throw invalidRecord(windowOffset + recordStart, e);
+            }
+            add(key, recordStart, recordEnd);
+        }
+
+        private void add(IpInterval<?> key, int recordStart, int recordEnd) {
+            long offset = windowOffset + recordStart;
+            V value;
+            try {
+                value = values.decode(window, recordStart, recordEnd - recordStart);
+            } catch (IllegalArgumentException e) {
+                throw invalidRecord(offset, e);
+            }
+            if (key instanceof Ipv6Interval) {
+                records.ipv6.add(new Record<>((Ipv6Interval) key, value, offset));
+            } else {
+                records.ipv4.add(new Record<>((Ipv4Interval) key, value, offset));
+            }
+        }
+
+        private IpInterval<?> parseKey(int keyStart, int keyEnd) {
+            view.limit(keyEnd);
+            view.position(keyStart);
+            if (indexOf(window, ':', keyStart, keyEnd) < keyEnd) {
+                // rejected like Ipv6Interval#parse does, as they denote IPv4 resources
+                Validate.isTrue(!ipv6Parser.parse(view).isIpv4Mapped(), "IPv4-mapped address");
+                return ipv6Parser.toInterval();
+            }
+            long interval = ipv4Parser.parseInterval(view);
+            return new Ipv4Interval(Ipv4TextParser.begin(interval), Ipv4TextParser.end(interval));
+        }
+
+        private static IllegalArgumentException invalidRecord(long offset, IllegalArgumentException cause) {
+            return new IllegalArgumentException("Invalid record at offset " + offset + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private static final class Records<V> {
+        private final List<Record<Ipv4Interval, V>> ipv4 = new ArrayList<>();
+        private final List<Record<Ipv6Interval, V>> ipv6 = new ArrayList<>();
+
+        void addAll(Records<V> records) {
+            ipv4.addAll(records.ipv4);
+            ipv6.addAll(records.ipv6);
+        }
+    }
+
+    private static final class Record<K, V> implements Map.Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final long offset;
+
+        Record(K key, V value, long offset) {
+            this.key = key;
+            this.value = value;
+            this.offset = offset;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A record that was left out, as its interval intersects the interval of a previous record without either
+     * containing the other.
+     */
+    public static final class Conflict {
+        private final long offset;
+        private final IpInterval<?> interval;
+        private final long intersectingOffset;
+        private final IpInterval<?> intersectingInterval;
+
+        Conflict(long offset, IpInterval<?> interval, long intersectingOffset, IpInterval<?> intersectingInterval) {
+            this.offset = offset;
+            this.interval = interval;
+            this.intersectingOffset = intersectingOffset;
+            this.intersectingInterval = intersectingInterval;
+        }
+
+        /**
+         * @return the file offset of the record that was left out
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public IpInterval<?> getInterval() {
+            return interval;
+        }
+
+        /**
+         * @return the file offset of the loaded record it intersects with
+         */
+        public long getIntersectingOffset() {
+            return intersectingOffset;
+        }
+
+        public IpInterval<?> getIntersectingInterval() {
+            return intersectingInterval;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at offset %d intersects with %s at offset %d", interval, offset, intersectingInterval, intersectingOffset);
+        }
+    }
+
+    /**
+     * The outcome of loading a file.
+     */
+    public static final class Result<V> {
+        private final IpTree<V> tree;
+        private final int recordCount;
+        private final List<Conflict> conflicts;
+
+        Result(IpTree<V> tree, int recordCount, List<Conflict> conflicts) {
+            this.tree = tree;
+            this.recordCount = recordCount;
+            this.conflicts = Collections.unmodifiableList(conflicts);
+        }
+
+        public IpTree<V> getTree() {
+            return tree;
+        }
+
+        /**
+         * @return the number of records loaded into the tree, including records of which the interval occurs again
+         * later in the file
+         */
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return the records that were left out, by file offset
+         */
+        public List<Conflict> getConflicts() {
+            return conflicts;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only IPv4 longest-match table in DIR-24-8 layout, compiled from a {@link NestedIntervalMap}.
+ * <p/>
+ * The first level is a 2<sup>24</sup> entry array indexed by the top 24 bits of an address. An entry either holds the
+ * index of the value that applies to the whole /24, or points to a 256 entry second-level block holding one value
+ * index per address of that /24. A lookup is therefore one or two array reads, regardless of the depth of the
+ * source tree.
+ * <p/>
+ * The source tree is first flattened into disjoint address segments, each carrying the value of the most specific
+ * interval that covers it. This resolves ranges that are not valid prefixes exactly like the source tree would.
+ * <p/>
+ * The first level takes 64MB of heap, every second-level block another 1KB. A block is needed for each /24 that
+ * contains an interval boundary that is not aligned to /24.
+ *
+ * @param <V> the type of the values to store.
+ */
+public final class Ipv4Dir24Table<V> {
+    private static final int BLOCK_FLAG = 0x80000000;
+    private static final int BLOCK_SIZE = 256;
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_SIZE;
+
+    private final int[] tbl24;
+    private final int[] tbl8;
+    private final Object[] values;
+
+    private Ipv4Dir24Table(int[] tbl24, int[] tbl8, Object[] values) {
+        this.tbl24 = tbl24;
+        this.tbl8 = tbl8;
+        this.values = values;
+    }
+
+    /**
+     * Compiles <code>source</code> into a lookup table. Later modifications of <code>source</code> are not reflected
+     * in the table.
+     *
+     * @param source the tree to compile
+     * @return the compiled table
+     * @throws IllegalStateException if the tree needs more second-level blocks than fit in a single array
+     */
+    public static <V> Ipv4Dir24Table<V> compile(NestedIntervalMap<Ipv4Interval, V> source) {
+        Validate.notNull(source);
+        Compiler<V> compiler = new Compiler<>();
+        source.forEach(compiler);
+        return compiler.finish();
+    }
+
+    /**
+     * Finds the value associated with the most specific interval that contains <code>address</code>.
+     *
+     * @param address the IPv4 address, as a signed <code>int</code>
+     * @return the matching value, or <code>null</code> if no interval contains <code>address</code>
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(int address) {
+        int entry = tbl24[address >>> 8];
+        if (entry < 0) {
+            entry = tbl8[((entry & ~BLOCK_FLAG) << 8) | (address & 0xff)];
+        }
+        return (V) values[entry];
+    }
+
+    /**
+     * Finds the value associated with the most specific interval that contains <code>address</code>.
+     *
+     * @param address the IPv4 address, as "unsigned" <code>long</code>
+     * @return the matching value, or <code>null</code> if no interval contains <code>address</code>
+     */
+    public V lookup(long address) {
+        if (address < 0 || address > Ipv4Interval.MAX_RANGE.end()) {
+            throw new IllegalArgumentException("Address out of range: " + address);
+        }
+        return lookup((int) address);
+    }
+
+    /**
+     * Equivalent of {@link NestedIntervalMap#findExactOrFirstLessSpecific(com.bol.ipresource.ip.Interval)} for single
+     * addresses.
+     *
+     * @param key a single address interval
+     * @return the value associated with <code>key</code> or its closest containing interval, or an empty list if no
+     * such value exists
+     * @throws IllegalArgumentException if <code>key</code> is not a single address
+     */
+    public List<V> findExactOrFirstLessSpecific(Ipv4Interval key) {
+        Validate.notNull(key);
+        Validate.isTrue(key.begin() == key.end(), "Not a single address: ", key);
+        V value = lookup(key.begin());
+        return value == null ? Collections.<V>emptyList() : Collections.singletonList(value);
+    }
+
+    /**
+     * @return the number of second-level blocks allocated by this table
+     */
+    public int blockCount() {
+        return tbl8.length / BLOCK_SIZE;
+    }
+
+    private static final class Compiler<V> implements BiConsumer<Ipv4Interval, V> {
+        private final int[] tbl24 = new int[1 << 24];
+        private int[] tbl8 = new int[BLOCK_SIZE * 1024];
+        private int blocks;
+        private final List<Object> values = new ArrayList<>();
+
+        // intervals enclosing the current position, outermost first
+        private long[] ends = new long[32];
+        private int[] valueIndexes = new int[32];
+        private int depth;
+
+        // first address not yet written to the table
+        private long next;
+
+        Compiler() {
+            values.add(null);
+        }
+
+        @Override
+        public void accept(Ipv4Interval interval, V value) {
+            long begin = interval.begin();
+            closeIntervalsEndingBefore(begin);
+            if (next < begin) {
+                fill(next, begin - 1, currentValueIndex());
+                next = begin;
+            }
+
+            if (depth == ends.length) {
+                ends = Arrays.copyOf(ends, depth * 2);
+                valueIndexes = Arrays.copyOf(valueIndexes, depth * 2);
+            }
+            ends[depth] = interval.end();
+            valueIndexes[depth] = values.size();
+            depth++;
+            values.add(value);
+        }
+
+        Ipv4Dir24Table<V> finish() {
+            long max = Ipv4Interval.MAX_RANGE.end();
+            closeIntervalsEndingBefore(max + 1);
+            if (next <= max) {
+                fill(next, max, 0);
+            }
+            return new Ipv4Dir24Table<>(tbl24, Arrays.copyOf(tbl8, blocks * BLOCK_SIZE), values.toArray());
+        }
+
+        private int currentValueIndex() {
+            return depth == 0 ? 0 : valueIndexes[depth - 1];
+        }
+
+        private void closeIntervalsEndingBefore(long address) {
+            while (depth > 0 && ends[depth - 1] < address) {
+                long end = ends[depth - 1];
+                if (next <= end) {
+                    fill(next, end, valueIndexes[depth - 1]);
+                    next = end + 1;
+                }
+                depth--;
+            }
+        }
+
+        private void fill(long begin, long end, int valueIndex) {
+            long firstSlot = begin >>> 8;
+            long lastSlot = end >>> 8;
+            boolean alignedBegin = (begin & 0xff) == 0;
+            boolean alignedEnd = (end & 0xff) == 0xff;
+
+            if (firstSlot == lastSlot) {
+                if (alignedBegin && alignedEnd) {
+                    tbl24[(int) firstSlot] = valueIndex;
+                } else {
+                    fillBlock(firstSlot, begin, end, valueIndex);
+                }
+                return;
+            }
+
+            long firstFullSlot = firstSlot;
+            if (!alignedBegin) {
+                fillBlock(firstSlot, begin, begin | 0xff, valueIndex);
+                firstFullSlot++;
+            }
+            long lastFullSlot = lastSlot;
+            if (!alignedEnd) {
+                fillBlock(lastSlot, lastSlot << 8, end, valueIndex);
+                lastFullSlot--;
+            }
+            if (firstFullSlot <= lastFullSlot) {
+                Arrays.fill(tbl24, (int) firstFullSlot, (int) lastFullSlot + 1, valueIndex);
+            }
+        }
+
+        private void fillBlock(long slot, long begin, long end, int valueIndex) {
+            int entry = tbl24[(int) slot];
+            int block;
+            if (entry < 0) {
+                block = entry & ~BLOCK_FLAG;
+            } else {
+                if (blocks == MAX_BLOCKS) {
+                    throw new IllegalStateException("Too many second-level blocks needed (" + blocks + ")");
+                }
+                block = blocks++;
+                if (blocks * BLOCK_SIZE > tbl8.length) {
+                    tbl8 = Arrays.copyOf(tbl8, (int) Math.min((long) tbl8.length * 2, (long) MAX_BLOCKS * BLOCK_SIZE));
+                }
+                tbl24[(int) slot] = BLOCK_FLAG | block;
+            }
+
+            int offset = block * BLOCK_SIZE;
+            Arrays.fill(tbl8, offset + (int) (begin & 0xff), offset + (int) (end & 0xff) + 1, valueIndex);
+        }
+    }
+}
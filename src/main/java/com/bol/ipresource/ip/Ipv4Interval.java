@@ -1,17 +1,13 @@
 package com.bol.ipresource.ip;
 
 import com.bol.ipresource.util.Validate;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Lists;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Ints;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Efficient representation of an IPv4 address range. Internally IPv4 addresses
@@ -22,8 +18,6 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
     public static final String IPV4_DOTLESS_REVERSE_DOMAIN = ".in-addr.arpa";
     public static final String IPV4_REVERSE_DOMAIN = ".in-addr.arpa.";
 
-    private static final Splitter IPV4_TEXT_SPLITTER = Splitter.on('.');
-
     private static final long MINIMUM_NUMBER = 0;
     private static final long MAXIMUM_NUMBER = (1L << 32) - 1;
 
@@ -33,8 +27,6 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
      */
     public static final Ipv4Interval MAX_RANGE = new Ipv4Interval(MINIMUM_NUMBER, MAXIMUM_NUMBER);
 
-    private static final Splitter SPLIT_ON_DOT = Splitter.on('.');
-    private static final Pattern OCTET_PATTERN = Pattern.compile("^(?:[0-9]|[1-9][0-9]+)(?:-(?:[0-9]|[1-9][0-9]+)+)?$");
 
     private final int begin;
     private final int end;
@@ -80,35 +72,16 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
         return new Ipv4Interval(address, address);
     }
 
+    /**
+     * @see Ipv4TextParser#parseInterval(CharSequence)
+     */
     public static Ipv4Interval parse(String resource) {
-        int indexOfSlash = resource.indexOf('/');
-        if (indexOfSlash >= 0) {
-            int begin = textToNumericFormat(resource.substring(0, indexOfSlash).trim());
-            int prefixLength = -1;
-            try {
-                prefixLength = Integer.parseInt(resource.substring(indexOfSlash + 1).trim());
-            } catch (NumberFormatException e) {}
-            if (prefixLength < 0 || prefixLength > 32) {
-                throw new IllegalArgumentException("prefix length " + prefixLength + " is invalid");
-            }
-            int mask = (int) ((1L << (32 - prefixLength)) - 1);
-            int end = begin | mask;
-            begin = begin & ~mask;
-            return new Ipv4Interval(begin, end);
-        }
-
-        int indexOfDash = resource.indexOf('-');
-        if (indexOfDash >= 0) {
-            long begin = ((long) textToNumericFormat(resource.substring(0, indexOfDash).trim())) & 0xffffffffL;
-            long end = ((long) textToNumericFormat(resource.substring(indexOfDash + 1).trim())) & 0xffffffffL;
-            return new Ipv4Interval(begin, end);
-        }
-
-        return parseIpAddress(resource);
+        long interval = Ipv4TextParser.parseInterval(resource);
+        return new Ipv4Interval((int) (interval >>> 32), (int) interval);
     }
 
     public static Ipv4Interval parseIpAddress(String ipAddress) {
-        int begin = textToNumericFormat(ipAddress.trim());
+        int begin = Ipv4TextParser.parseAddress(ipAddress);
         return new Ipv4Interval(begin, begin);
     }
 
@@ -117,66 +90,13 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
         return new Ipv4Interval((prefix & ~mask) & 0xFFFFFFFFL, (prefix | mask) & 0xFFFFFFFFL);
     }
 
-    static int reverseDomainIndex(String cleanAddress) {
-        int index = cleanAddress.length() - IPV4_REVERSE_DOMAIN.length();
-        if (cleanAddress.startsWith(IPV4_REVERSE_DOMAIN, index)) return index;
-
-        index = cleanAddress.length() - IPV4_DOTLESS_REVERSE_DOMAIN.length();
-        if (cleanAddress.startsWith(IPV4_DOTLESS_REVERSE_DOMAIN, index)) return index;
-
-        return -1;
-    }
-
+    /**
+     * @see Ipv4TextParser#parseReverseDomain(CharSequence)
+     */
     public static Ipv4Interval parseReverseDomain(String address) {
         Validate.notEmpty(address);
-        String cleanAddress = address.trim().toLowerCase();
-
-        int reverseDomainIndex = reverseDomainIndex(cleanAddress);
-        Validate.isTrue(reverseDomainIndex >= 0, "Invalid reverse domain: ", address);
-
-        return parseReverseDomain(cleanAddress, reverseDomainIndex);
-    }
-
-    static Ipv4Interval parseReverseDomain(String cleanAddress, int reverseDomainIndex) {
-        cleanAddress = cleanAddress.substring(0, reverseDomainIndex);
-
-        ArrayList<String> reverseParts = Lists.newArrayList(SPLIT_ON_DOT.split(cleanAddress));
-        Validate.isTrue(!reverseParts.isEmpty() && reverseParts.size() <= 4, "Reverse address doesn't have between 1 and 4 octets: ", cleanAddress);
-
-        List<String> parts = Lists.reverse(reverseParts);
-
-        boolean hasDash = false;
-        if (cleanAddress.contains("-")) {
-            Validate.isTrue(reverseParts.get(0).contains("-"), "Dash notation not on last octet: ", cleanAddress);
-            Validate.isTrue(cleanAddress.indexOf('-') == cleanAddress.lastIndexOf('-'), "Only one dash allowed: ", cleanAddress);
-            hasDash = true;
-        }
-
-        StringBuilder builder = new StringBuilder();
-        for (String part : parts) {
-            if (builder.length() > 0) {
-                builder.append('.');
-            }
-            Validate.isTrue(OCTET_PATTERN.matcher(part).matches(), "Invalid octet: ", part);
-            // [EB]: Check for A-B && B <= A ?
-
-            builder.append(part);
-        }
-
-        if (hasDash) {
-            // [EB]: Some magic here, copy the 'start' of the string before the '-'
-            // to get an expanded range: [1.1.1.]1-2 becomes 1.1.1.1-[1.1.1.]2
-            int range = builder.indexOf("-");
-            if (range != -1) {
-                builder.insert(range + 1, builder.substring(0, builder.lastIndexOf(".") + 1));
-            }
-        }
-
-        if (parts.size() < 4) {
-            builder.append('/').append(parts.size() * 8);
-        }
-
-        return parse(builder.toString());
+        long interval = Ipv4TextParser.parseReverseDomain(address);
+        return new Ipv4Interval((int) (interval >>> 32), (int) interval);
     }
 
     /**
@@ -241,70 +161,62 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
     }
 
     public static String numericToTextFormat(int src) {
-        return (src >> 24 & 0xff) + "." + (src >> 16 & 0xff) + "." + (src >> 8 & 0xff) + "." + (src & 0xff);
+        StringBuilder sb = new StringBuilder(15);
+        try {
+            appendAddress(sb, src);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
     }
 
-    public static int textToNumericFormat(String src) {
-        int result = 0;
-        Iterator<String> it = IPV4_TEXT_SPLITTER.split(src).iterator();
-        for (int octet = 0; octet < 4; octet++) {
-            result <<= 8;
-            int value = -1;
-            try {
-                value = it.hasNext() ? Integer.parseInt(it.next()) : 0;
-            } catch (NumberFormatException e) {}
-            if (value < 0 || value > 255) {
-                throw new IllegalArgumentException(src + " is not a valid ipv4 address");
-            }
-            result |= value & 0xff;
-        }
-        if (it.hasNext()) {
-            throw new IllegalArgumentException(src + " has more than 4 octets");
-        }
-        return result;
+    private static void appendAddress(Appendable out, int address) throws IOException {
+        appendDecimal(out, address >>> 24);
+        out.append('.');
+        appendDecimal(out, address >> 16 & 0xff);
+        out.append('.');
+        appendDecimal(out, address >> 8 & 0xff);
+        out.append('.');
+        appendDecimal(out, address & 0xff);
     }
 
-    @Override
-    public String toString() {
-        int prefixLength = getPrefixLength();
-        if (prefixLength < 0) {
-            return toRangeString();
-        } else {
-            return numericToTextFormat(begin) + "/" + prefixLength;
-        }
+    public static int textToNumericFormat(String src) {
+        return Ipv4TextParser.parseAddress(src);
     }
 
-    public String toRangeString() {
-        return numericToTextFormat(begin) + " - " + numericToTextFormat(end);
+    @Override
+    void appendPrefix(Appendable out, int prefixLength) throws IOException {
+        appendAddress(out, begin);
+        out.append('/');
+        appendDecimal(out, prefixLength);
     }
 
     @Override
-    public String toPrefixString() {
-        int prefixLength = getPrefixLength();
-        if (prefixLength < 0) throw new IllegalStateException(toRangeString() + " cannot be converted to prefix");
-        return numericToTextFormat(begin) + "/" + prefixLength;
+    void appendRange(Appendable out) throws IOException {
+        appendAddress(out, begin);
+        out.append(" - ");
+        appendAddress(out, end);
     }
 
-    public String toReverseDomain() {
-        int prefixLength = getPrefixLength();
+    @Override
+    void appendReverseDomain(Appendable out, int prefixLength) throws IOException {
         if (prefixLength < 0) throw new IllegalArgumentException("Ipv4Interval " + toRangeString() + " is not a prefix");
 
-        byte[] b = Ints.toByteArray(begin);
-        byte[] e = Ints.toByteArray(end);
-
-        StringBuilder sb = new StringBuilder();
         // if prefixlength == 0, -1 >> 3 = -1, so this will not run
-        for (int nibble = (prefixLength - 1) >> 3; nibble >= 0; nibble--) {
-            // ' & 0xff' is used to convert unsigned byte to signed int... :facepalm:
-            if (b[nibble] == e[nibble]) sb.append(b[nibble] & 0xff);
-            else sb.append(b[nibble] & 0xff).append('-').append(e[nibble] & 0xff);
+        for (int octet = (prefixLength - 1) >> 3; octet >= 0; octet--) {
+            int shift = 24 - 8 * octet;
+            int b = begin >>> shift & 0xff;
+            int e = end >>> shift & 0xff;
+            appendDecimal(out, b);
+            if (b != e) {
+                out.append('-');
+                appendDecimal(out, e);
+            }
 
-            if (nibble > 0) sb.append('.');
+            if (octet > 0) out.append('.');
         }
 
-        sb.append(IPV4_REVERSE_DOMAIN);
-
-        return sb.toString();
+        out.append(IPV4_REVERSE_DOMAIN);
     }
 
     public String beginAddressAsString() {
@@ -346,6 +258,18 @@ public class Ipv4Interval extends IpInterval<Ipv4Interval> implements Comparable
         return thisEnd < thatEnd ? -1 : thisEnd > thatEnd ? 1 : 0;
     }
 
+    @Override
+    public int compareLowerBoundToUpperBound(Ipv4Interval that) {
+        long thisBegin = begin();
+        long thatEnd = that.end();
+        return thisBegin < thatEnd ? -1 : thisBegin > thatEnd ? 1 : 0;
+    }
+
+    @Override
+    public BigInteger size() {
+        return BigInteger.valueOf(end() - begin() + 1);
+    }
+
     @Override
     public InetAddress beginAsInetAddress() {
         return InetAddresses.fromInteger(begin);
@@ -0,0 +1,344 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Read-only IPv4 interval map keyed by primitive addresses, compiled from a {@link NestedIntervalMap}.
+ * <p/>
+ * Addresses are passed as <code>int</code>, holding the 32 bits of the address (so 255.255.255.255 is -1). Bounds are
+ * inclusive. Queries have the same semantics as the equally named methods of {@link NestedIntervalMap}, but take
+ * primitive bounds, return single results as a value or <code>null</code>, and pass multiple results to a
+ * {@link Consumer}. No objects are allocated during a lookup.
+ * <p/>
+ * Intervals are stored as two <code>int</code>s per entry in breadth-first order, so the children of every node occupy
+ * a consecutive slice of the arrays, ordered by upper-bound. An entry costs about 16 bytes plus its value, where a
+ * {@link NestedIntervalMap} needs a tree map entry, a node and an {@link Ipv4Interval} object.
+ *
+ * @param <V> the type of the values to store.
+ */
+public final class Ipv4IntervalMap<V> {
+    private static final int ROOT = BreadthFirstLayout.ROOT;
+
+    private final int[] begins;
+    private final int[] ends;
+    private final Object[] values;
+    // children of node i are at [firstChild[i], firstChild[i + 1]), the roots are at [0, rootCount)
+    private final int[] firstChild;
+    private final int rootCount;
+
+    private Ipv4IntervalMap(int[] begins, int[] ends, Object[] values, int[] firstChild, int rootCount) {
+        this.begins = begins;
+        this.ends = ends;
+        this.values = values;
+        this.firstChild = firstChild;
+        this.rootCount = rootCount;
+    }
+
+    /**
+     * Creates a primitive copy of <code>source</code>. Later modifications of <code>source</code> are not reflected in
+     * the copy.
+     *
+     * @param source the map to copy
+     * @return the compiled map
+     */
+    public static <V> Ipv4IntervalMap<V> copyOf(NestedIntervalMap<Ipv4Interval, V> source) {
+        Validate.notNull(source);
+        Builder<V> builder = new Builder<>();
+        source.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        return begins.length;
+    }
+
+    /**
+     * @param begin first address of the interval
+     * @param end   last address of the interval
+     * @return the value associated with exactly this interval, or <code>null</code>
+     */
+    public V findExact(int begin, int end) {
+        validate(begin, end);
+        int node = findExactOrFirstLessSpecificIndex(begin, end);
+        return node != ROOT && begins[node] == begin && ends[node] == end ? value(node) : null;
+    }
+
+    /**
+     * @param begin first address of the interval
+     * @param end   last address of the interval
+     * @return the value associated with this interval or else its closest enclosing interval, or <code>null</code>
+     */
+    public V findExactOrFirstLessSpecific(int begin, int end) {
+        validate(begin, end);
+        return valueOrNull(findExactOrFirstLessSpecificIndex(begin, end));
+    }
+
+    /**
+     * @param address the address to look up
+     * @return the value associated with the most specific interval containing <code>address</code>, or
+     * <code>null</code>
+     */
+    public V findExactOrFirstLessSpecific(int address) {
+        return valueOrNull(findExactOrFirstLessSpecificIndex(address, address));
+    }
+
+    /**
+     * @param begin first address of the interval
+     * @param end   last address of the interval
+     * @return the value associated with the closest interval enclosing, but not equal to, this interval, or
+     * <code>null</code>
+     */
+    public V findFirstLessSpecific(int begin, int end) {
+        validate(begin, end);
+        int result = ROOT;
+        int from = 0;
+        int to = rootCount;
+        for (int node; (node = findChildContaining(from, to, begin, end)) != ROOT && !(begins[node] == begin && ends[node] == end); ) {
+            result = node;
+            from = firstChild[node];
+            to = firstChild[node + 1];
+        }
+        return valueOrNull(result);
+    }
+
+    /**
+     * @param address the address to look up
+     * @return the value associated with the most specific interval containing, but not equal to, the single address
+     * interval <code>address</code>, or <code>null</code>
+     */
+    public V findFirstLessSpecific(int address) {
+        return findFirstLessSpecific(address, address);
+    }
+
+    /**
+     * Passes the values of all intervals enclosing, but not equal to, this interval to <code>action</code>, from least
+     * to most specific.
+     *
+     * @param begin  first address of the interval
+     * @param end    last address of the interval
+     * @param action receives the matching values
+     */
+    public void findAllLessSpecific(int begin, int end, Consumer<? super V> action) {
+        validate(begin, end);
+        Validate.notNull(action);
+        int from = 0;
+        int to = rootCount;
+        for (int node; (node = findChildContaining(from, to, begin, end)) != ROOT && !(begins[node] == begin && ends[node] == end); ) {
+            action.accept(value(node));
+            from = firstChild[node];
+            to = firstChild[node + 1];
+        }
+    }
+
+    /**
+     * Passes the values of all intervals enclosing or equal to this interval to <code>action</code>, from least to
+     * most specific.
+     *
+     * @param begin  first address of the interval
+     * @param end    last address of the interval
+     * @param action receives the matching values
+     */
+    public void findExactAndAllLessSpecific(int begin, int end, Consumer<? super V> action) {
+        validate(begin, end);
+        Validate.notNull(action);
+        int from = 0;
+        int to = rootCount;
+        for (int node; (node = findChildContaining(from, to, begin, end)) != ROOT; ) {
+            action.accept(value(node));
+            from = firstChild[node];
+            to = firstChild[node + 1];
+        }
+    }
+
+    /**
+     * Passes the values of the outermost intervals contained in, but not equal to, this interval to
+     * <code>action</code>, in ascending order.
+     *
+     * @param begin  first address of the interval
+     * @param end    last address of the interval
+     * @param action receives the matching values
+     */
+    public void findFirstMoreSpecific(int begin, int end, Consumer<? super V> action) {
+        validate(begin, end);
+        Validate.notNull(action);
+        addFirstMoreSpecific(action, findExactOrFirstLessSpecificIndex(begin, end), begin, end);
+    }
+
+    /**
+     * Passes the values of all intervals contained in, but not equal to, this interval to <code>action</code>, in
+     * pre-order.
+     *
+     * @param begin  first address of the interval
+     * @param end    last address of the interval
+     * @param action receives the matching values
+     */
+    public void findAllMoreSpecific(int begin, int end, Consumer<? super V> action) {
+        validate(begin, end);
+        Validate.notNull(action);
+        addExactAndAllMoreSpecific(action, findExactOrFirstLessSpecificIndex(begin, end), begin, end);
+    }
+
+    /**
+     * Passes the values of this interval and all intervals contained in it to <code>action</code>, in pre-order.
+     *
+     * @param begin  first address of the interval
+     * @param end    last address of the interval
+     * @param action receives the matching values
+     */
+    public void findExactAndAllMoreSpecific(int begin, int end, Consumer<? super V> action) {
+        validate(begin, end);
+        Validate.notNull(action);
+        int container = findExactOrFirstLessSpecificIndex(begin, end);
+        if (container != ROOT && begins[container] == begin && ends[container] == end) {
+            action.accept(value(container));
+        }
+        addExactAndAllMoreSpecific(action, container, begin, end);
+    }
+
+    private static void validate(int begin, int end) {
+        if (Integer.compareUnsigned(begin, end) > 0) {
+            throw new IllegalArgumentException("Begin must be before end");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int node) {
+        return (V) values[node];
+    }
+
+    private V valueOrNull(int node) {
+        return node == ROOT ? null : value(node);
+    }
+
+    private int findExactOrFirstLessSpecificIndex(int begin, int end) {
+        int result = ROOT;
+        int from = 0;
+        int to = rootCount;
+        for (int node; (node = findChildContaining(from, to, begin, end)) != ROOT; ) {
+            result = node;
+            from = firstChild[node];
+            to = firstChild[node + 1];
+        }
+        return result;
+    }
+
+    /*
+     * Siblings never intersect, so the only candidate that can contain [begin, end] is the first sibling with an
+     * upper-bound not below end.
+     */
+    private int findChildContaining(int from, int to, int begin, int end) {
+        int candidate = ceiling(from, to, end);
+        if (candidate < to && Integer.compareUnsigned(begins[candidate], begin) <= 0) {
+            return candidate;
+        }
+        return ROOT;
+    }
+
+    /*
+     * Returns the first index in [from, to) with an upper-bound not below address, or 'to' if no such index exists.
+     */
+    private int ceiling(int from, int to, int address) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(ends[mid], address) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addFirstMoreSpecific(Consumer<? super V> action, int parent, int begin, int end) {
+        int from = parent == ROOT ? 0 : firstChild[parent];
+        int to = parent == ROOT ? rootCount : firstChild[parent + 1];
+        for (int node = ceiling(from, to, begin); node < to && Integer.compareUnsigned(begins[node], end) <= 0; node++) {
+            if (Integer.compareUnsigned(begins[node], begin) >= 0 && Integer.compareUnsigned(ends[node], end) <= 0) {
+                action.accept(value(node));
+            } else {
+                addFirstMoreSpecific(action, node, begin, end);
+            }
+        }
+    }
+
+    private void addExactAndAllMoreSpecific(Consumer<? super V> action, int parent, int begin, int end) {
+        int from = parent == ROOT ? 0 : firstChild[parent];
+        int to = parent == ROOT ? rootCount : firstChild[parent + 1];
+        for (int node = ceiling(from, to, begin); node < to && Integer.compareUnsigned(begins[node], end) <= 0; node++) {
+            if (Integer.compareUnsigned(begins[node], begin) >= 0 && Integer.compareUnsigned(ends[node], end) <= 0) {
+                action.accept(value(node));
+                addAllChildren(action, node);
+            } else {
+                addExactAndAllMoreSpecific(action, node, begin, end);
+            }
+        }
+    }
+
+    private void addAllChildren(Consumer<? super V> action, int parent) {
+        for (int node = firstChild[parent]; node < firstChild[parent + 1]; node++) {
+            action.accept(value(node));
+            addAllChildren(action, node);
+        }
+    }
+
+    /*
+     * Collects the pre-order traversal of the source and lays it out breadth-first.
+     */
+    private static final class Builder<V> {
+        private int[] begins = new int[1024];
+        private int[] ends = new int[1024];
+        private Object[] values = new Object[1024];
+        private int[] parents = new int[1024];
+        private int size;
+
+        // intervals enclosing the current position, outermost first
+        private int[] open = new int[32];
+        private int depth;
+
+        void add(Ipv4Interval interval, V value) {
+            int begin = (int) interval.begin();
+            while (depth > 0 && Integer.compareUnsigned(ends[open[depth - 1]], begin) < 0) {
+                depth--;
+            }
+
+            if (size == begins.length) {
+                begins = Arrays.copyOf(begins, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+            }
+            begins[size] = begin;
+            ends[size] = (int) interval.end();
+            values[size] = value;
+            parents[size] = depth == 0 ? ROOT : open[depth - 1];
+
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+            }
+            open[depth++] = size++;
+        }
+
+        Ipv4IntervalMap<V> build() {
+            BreadthFirstLayout layout = new BreadthFirstLayout(parents, size);
+            int[] resultBegins = new int[size];
+            int[] resultEnds = new int[size];
+            Object[] resultValues = new Object[size];
+            for (int i = 0; i < size; i++) {
+                int node = layout.order[i];
+                resultBegins[i] = begins[node];
+                resultEnds[i] = ends[node];
+                resultValues[i] = values[node];
+            }
+            return new Ipv4IntervalMap<>(resultBegins, resultEnds, resultValues, layout.firstChild, layout.rootCount);
+        }
+    }
+}
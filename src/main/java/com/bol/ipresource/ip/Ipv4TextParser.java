@@ -0,0 +1,371 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.util.Validate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single-pass parser of IPv4 addresses (<code>1.2.3.4</code>), prefixes (<code>1.2.3/24</code>), ranges
+ * (<code>1.2.3.4 - 1.2.3.5</code>) and reverse domains (<code>3.2.1.in-addr.arpa</code>) that does not allocate unless
+ * the text is invalid.
+ * <p/>
+ * The text is accepted like {@link Ipv4Interval#parse(String)} does: surrounding whitespace is ignored, as is
+ * whitespace around the <code>/</code> and <code>-</code> separators, and missing trailing octets are taken as zero.
+ * <p/>
+ * A parsed interval is returned as a single <code>long</code>, holding the begin address in the upper and the end
+ * address in the lower 32 bits; see {@link #begin(long)} and {@link #end(long)}. Text can be parsed from a
+ * {@link CharSequence} with the static methods, or from ASCII bytes with an instance, which is reusable but not
+ * thread-safe.
+ */
+public final class Ipv4TextParser {
+    private static final long INVALID = -1;
+
+    private final AsciiSequence ascii = new AsciiSequence();
+
+    /**
+     * @param interval an interval as returned by one of the parse methods
+     * @return the start address as "unsigned" <code>long</code>
+     */
+    public static long begin(long interval) {
+        return interval >>> 32;
+    }
+
+    /**
+     * @param interval an interval as returned by one of the parse methods
+     * @return the end address as "unsigned" <code>long</code>
+     */
+    public static long end(long interval) {
+        return interval & 0xffffffffL;
+    }
+
+    public static long parseInterval(CharSequence text) {
+        return parseInterval(text, 0, text.length());
+    }
+
+    /**
+     * Parses an address, prefix or range.
+     *
+     * @param text the text to parse
+     * @param from the index of the first character to parse
+     * @param to   the index after the last character to parse
+     * @return the begin address in the upper and the end address in the lower 32 bits
+     * @throws IllegalArgumentException if the text is not a valid address, prefix or range
+     */
+    public static long parseInterval(CharSequence text, int from, int to) {
+        Validate.notNull(text);
+        int end = trimEnd(text, from, to);
+        long scanned = scanAddress(text, skipWhitespace(text, from, end), end);
+        if (scanned == INVALID) throw invalidAddress(text, from, to);
+
+        int begin = (int) scanned;
+        int index = skipWhitespace(text, (int) (scanned >>> 32), end);
+        if (index == end) {
+            return pack(begin, begin);
+        }
+
+        switch (text.charAt(index)) {
+            case '/':
+                int prefixLength = parsePrefixLength(text, skipWhitespace(text, index + 1, end), end, from, to);
+                int mask = (int) ((1L << (32 - prefixLength)) - 1);
+                return pack(begin & ~mask, begin | mask);
+            case '-':
+                scanned = scanAddress(text, skipWhitespace(text, index + 1, end), end);
+                if (scanned == INVALID || (int) (scanned >>> 32) != end) throw invalidAddress(text, from, to);
+                if ((begin & 0xffffffffL) > (scanned & 0xffffffffL)) {
+                    throw new IllegalArgumentException("Begin: " + (begin & 0xffffffffL) + " not before End: " + (scanned & 0xffffffffL));
+                }
+                return upper(begin) | (scanned & 0xffffffffL);
+            default:
+                throw invalidAddress(text, from, to);
+        }
+    }
+
+    public static int parseAddress(CharSequence text) {
+        return parseAddress(text, 0, text.length());
+    }
+
+    /**
+     * Parses a single address.
+     *
+     * @param text the text to parse
+     * @param from the index of the first character to parse
+     * @param to   the index after the last character to parse
+     * @return the address as a signed <code>int</code>
+     * @throws IllegalArgumentException if the text is not a valid address
+     */
+    public static int parseAddress(CharSequence text, int from, int to) {
+        Validate.notNull(text);
+        int end = trimEnd(text, from, to);
+        long scanned = scanAddress(text, skipWhitespace(text, from, end), end);
+        if (scanned == INVALID || (int) (scanned >>> 32) != end) throw invalidAddress(text, from, to);
+        return (int) scanned;
+    }
+
+    public static long parseReverseDomain(CharSequence text) {
+        return parseReverseDomain(text, 0, text.length());
+    }
+
+    /**
+     * Parses a reverse domain of one to four octets, like <code>3.2.1.in-addr.arpa.</code> for 1.2.3/24. The first
+     * label of a domain with four octets may be a range, like <code>4-5.3.2.1.in-addr.arpa</code> for
+     * 1.2.3.4 - 1.2.3.5. The suffix is matched ignoring case, and the trailing dot is optional.
+     *
+     * @param text the text to parse
+     * @param from the index of the first character to parse
+     * @param to   the index after the last character to parse
+     * @return the begin address in the upper and the end address in the lower 32 bits
+     * @throws IllegalArgumentException if the text is not a valid reverse domain
+     */
+    public static long parseReverseDomain(CharSequence text, int from, int to) {
+        Validate.notNull(text);
+        int end = trimEnd(text, from, to);
+        int index = skipWhitespace(text, from, end);
+        int suffix = reverseDomainIndex(text, index, end, Ipv4Interval.IPV4_DOTLESS_REVERSE_DOMAIN);
+        if (suffix < 0) throw invalidReverseDomain(text, from, to);
+
+        // the labels start with the least significant octet, so each one is shifted in from the top
+        int address = 0;
+        int octets = 0;
+        int last = -1;
+        while (true) {
+            long scanned = scanOctet(text, index, suffix);
+            if (scanned == INVALID || octets == 4) throw invalidReverseDomain(text, from, to);
+            int value = (int) scanned;
+            index = (int) (scanned >>> 32);
+
+            if (octets == 0 && index < suffix && text.charAt(index) == '-') {
+                scanned = scanOctet(text, index + 1, suffix);
+                if (scanned == INVALID || (int) scanned < value) throw invalidReverseDomain(text, from, to);
+                last = (int) scanned;
+                index = (int) (scanned >>> 32);
+            }
+
+            address = address >>> 8 | value << 24;
+            octets++;
+            if (index == suffix) break;
+            if (text.charAt(index) != '.') throw invalidReverseDomain(text, from, to);
+            index++;
+        }
+
+        if (last >= 0) {
+            if (octets != 4) throw invalidReverseDomain(text, from, to);
+            return pack(address, address & ~0xff | last);
+        }
+        int mask = (int) ((1L << (32 - 8 * octets)) - 1);
+        return pack(address, address | mask);
+    }
+
+    static boolean isReverseDomain(CharSequence text) {
+        int end = trimEnd(text, 0, text.length());
+        return reverseDomainIndex(text, skipWhitespace(text, 0, end), end, Ipv4Interval.IPV4_DOTLESS_REVERSE_DOMAIN) >= 0;
+    }
+
+    /**
+     * @param dotlessSuffix the lower case suffix, starting with a dot
+     * @return the index of the suffix, which may be followed by a dot and is matched ignoring case, or -1
+     */
+    static int reverseDomainIndex(CharSequence text, int from, int end, String dotlessSuffix) {
+        if (end > from && text.charAt(end - 1) == '.') end--;
+        int index = end - dotlessSuffix.length();
+        if (index < from) return -1;
+        for (int i = 0; i < dotlessSuffix.length(); i++) {
+            char c = text.charAt(index + i);
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != dotlessSuffix.charAt(i)) return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Parses an address, prefix or range from ASCII bytes.
+     *
+     * @see #parseInterval(CharSequence, int, int)
+     */
+    public long parseInterval(byte[] bytes, int offset, int length) {
+        try {
+            return parseInterval(ascii.of(bytes, offset, length), 0, length);
+        } finally {
+            ascii.release();
+        }
+    }
+
+    /**
+     * Parses an address, prefix or range from the ASCII bytes between the position and the limit of
+     * <code>buffer</code>, without changing its position.
+     *
+     * @see #parseInterval(CharSequence, int, int)
+     */
+    public long parseInterval(ByteBuffer buffer) {
+        try {
+            return parseInterval(ascii.of(buffer), 0, buffer.remaining());
+        } finally {
+            ascii.release();
+        }
+    }
+
+    /**
+     * Parses a single address from ASCII bytes.
+     *
+     * @see #parseAddress(CharSequence, int, int)
+     */
+    public int parseAddress(byte[] bytes, int offset, int length) {
+        try {
+            return parseAddress(ascii.of(bytes, offset, length), 0, length);
+        } finally {
+            ascii.release();
+        }
+    }
+
+    /**
+     * Parses a single address from the ASCII bytes between the position and the limit of <code>buffer</code>,
+     * without changing its position.
+     *
+     * @see #parseAddress(CharSequence, int, int)
+     */
+    public int parseAddress(ByteBuffer buffer) {
+        try {
+            return parseAddress(ascii.of(buffer), 0, buffer.remaining());
+        } finally {
+            ascii.release();
+        }
+    }
+
+    private static long pack(int begin, int end) {
+        return upper(begin) | (end & 0xffffffffL);
+    }
+
+    private static long upper(int address) {
+        return (long) address << 32;
+    }
+
+    private static int parsePrefixLength(CharSequence text, int index, int end, int from, int to) {
+        int prefixLength = 0;
+        int digits = 0;
+        for (; index < end && isDigit(text.charAt(index)) && prefixLength <= 32; index++, digits++) {
+            prefixLength = prefixLength * 10 + text.charAt(index) - '0';
+        }
+        if (digits == 0 || index != end || prefixLength > 32) {
+            throw new IllegalArgumentException("Invalid prefix length: " + text.subSequence(from, to));
+        }
+        return prefixLength;
+    }
+
+    /**
+     * @return the address in the lower and the index after it in the upper 32 bits, or {@link #INVALID}
+     */
+    static long scanAddress(CharSequence text, int index, int end) {
+        int address = 0;
+        int octets = 0;
+        while (true) {
+            int value = 0;
+            int start = index;
+            for (; index < end && isDigit(text.charAt(index)); index++) {
+                value = value * 10 + text.charAt(index) - '0';
+                if (value > 255) return INVALID;
+            }
+            if (index == start) return INVALID;
+
+            address = address << 8 | value;
+            if (++octets == 4 || index == end || text.charAt(index) != '.') break;
+            index++;
+        }
+        return (long) index << 32 | ((address << 8 * (4 - octets)) & 0xffffffffL);
+    }
+
+    /**
+     * Scans a decimal octet without leading zeros, as these are ambiguous.
+     *
+     * @return the octet in the lower and the index after it in the upper 32 bits, or {@link #INVALID}
+     */
+    private static long scanOctet(CharSequence text, int index, int end) {
+        int start = index;
+        int value = 0;
+        for (; index < end && isDigit(text.charAt(index)); index++) {
+            value = value * 10 + text.charAt(index) - '0';
+            if (value > 255) return INVALID;
+        }
+        if (index == start || (index - start > 1 && text.charAt(start) == '0')) return INVALID;
+        return (long) index << 32 | value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipWhitespace(CharSequence text, int index, int end) {
+        while (index < end && text.charAt(index) <= ' ') index++;
+        return index;
+    }
+
+    private static int trimEnd(CharSequence text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    private static IllegalArgumentException invalidReverseDomain(CharSequence text, int from, int to) {
+        return new IllegalArgumentException("Invalid reverse domain: " + text.subSequence(from, to));
+    }
+
+    private static IllegalArgumentException invalidAddress(CharSequence text, int from, int to) {
+        return new IllegalArgumentException(text.subSequence(from, to) + " is not a valid ipv4 address");
+    }
+
+    /**
+     * Reusable view of ASCII bytes, either in an array or in a buffer, as characters.
+     */
+    static final class AsciiSequence implements CharSequence {
+        private byte[] bytes;
+        private ByteBuffer buffer;
+        private int offset;
+        private int length;
+
+        AsciiSequence of(byte[] bytes, int offset, int length) {
+            Validate.notNull(bytes);
+            if (offset < 0 || length < 0 || offset + length > bytes.length) {
+                throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+            }
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        AsciiSequence of(ByteBuffer buffer) {
+            Validate.notNull(buffer);
+            this.buffer = buffer;
+            this.offset = buffer.position();
+            this.length = buffer.remaining();
+            return this;
+        }
+
+        void release() {
+            bytes = null;
+            buffer = null;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) ((bytes != null ? bytes[offset + index] : buffer.get(offset + index)) & 0xff);
+        }
+
+        // only used for error messages, so copying is fine
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder builder = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                builder.append(charAt(i));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+}
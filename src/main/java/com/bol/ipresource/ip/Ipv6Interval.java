@@ -1,13 +1,12 @@
 package com.bol.ipresource.ip;
 
 import com.bol.ipresource.util.Validate;
-import com.google.common.net.InetAddresses;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.regex.Pattern;
 
 /**
  * Efficient representation of an IPv6 address range. Internally IPv6 addresses are stored as 2 signed 64-bit <code>long</code>s.
@@ -17,7 +16,6 @@ import java.util.regex.Pattern;
 public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable<Ipv6Interval> {
     public static final String IPV6_DOTLESS_REVERSE_DOMAIN = ".ip6.arpa";
     public static final String IPV6_REVERSE_DOMAIN = ".ip6.arpa.";
-    private static final Pattern REVERSE_PATTERN = Pattern.compile("(?i)^[0-9a-f](?:[.][0-9a-f]){0,31}$");
     private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
     private static final int LONG_BITCOUNT = 64;
@@ -25,6 +23,7 @@ public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable
 
     public static final Ipv6Interval MAX_RANGE = new Ipv6Interval(0, 0, 0);
     private static final BigInteger MASK = BigInteger.ONE.shiftLeft(LONG_BITCOUNT).subtract(BigInteger.ONE);
+    private static final ThreadLocal<Ipv6TextParser> PARSERS = ThreadLocal.withInitial(Ipv6TextParser::new);
 
     private final long beginMsb;
     private final long beginLsb;
@@ -108,82 +107,57 @@ public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable
         return new Ipv6Interval(res[0], res[1], prefixLength);
     }
 
+    /**
+     * Parses an IPv6 address or prefix. IPv4-mapped addresses (<code>::ffff:0:0/96</code>) are rejected, as they
+     * denote IPv4 resources.
+     *
+     * @see Ipv6TextParser#parse(CharSequence)
+     */
     public static Ipv6Interval parse(String prefixOrAddress) {
-        String trimmedPrefixOrAddress = prefixOrAddress.trim();
-        int slashIndex = trimmedPrefixOrAddress.indexOf('/');
-
-        if (slashIndex > 0) {
-            int prefixLength = -1;
-            try {
-                prefixLength = Integer.parseInt(trimmedPrefixOrAddress.substring(slashIndex + 1));
-            } catch (NumberFormatException e) {}
-            if (prefixLength < 0 || prefixLength > 128) {
-                throw new IllegalArgumentException("Invalid prefix length: " + prefixOrAddress);
-            }
-            return parse(InetAddresses.forString(trimmedPrefixOrAddress.substring(0, slashIndex)), prefixLength);
-        } else {
-            return parse(InetAddresses.forString(trimmedPrefixOrAddress), IPV6_BITCOUNT);
-        }
+        Ipv6TextParser parser = PARSERS.get().parse(prefixOrAddress);
+        Validate.isTrue(!parser.isIpv4Mapped(), "IPv4-mapped address: ", prefixOrAddress);
+        return parser.toInterval();
     }
 
     public static Ipv6Interval parseIpAddress(String ipAddress) {
-        String trimmedPrefixOrAddress = ipAddress.trim();
-        return parse(InetAddresses.forString(trimmedPrefixOrAddress), IPV6_BITCOUNT);
-    }
-
-    static int reverseDomainIndex(String cleanAddress) {
-        int index = cleanAddress.length() - IPV6_REVERSE_DOMAIN.length();
-        if (cleanAddress.startsWith(IPV6_REVERSE_DOMAIN, index)) return index;
-
-        index = cleanAddress.length() - IPV6_DOTLESS_REVERSE_DOMAIN.length();
-        if (cleanAddress.startsWith(IPV6_DOTLESS_REVERSE_DOMAIN, index)) return index;
-
-        return -1;
+        Validate.isTrue(ipAddress.indexOf('/') < 0, "Not a single address: ", ipAddress);
+        return parse(ipAddress);
     }
 
+    /**
+     * @see Ipv6TextParser#parseReverseDomain(CharSequence)
+     */
     public static Ipv6Interval parseReverseDomain(String address) {
         Validate.notEmpty(address);
-        String cleanAddress = address.trim().toLowerCase();
-
-        int reverseDomainIndex = reverseDomainIndex(cleanAddress);
-        Validate.isTrue(reverseDomainIndex >= 0, "Invalid reverse domain: ", address);
-
-        return parseReverseDomain(cleanAddress, reverseDomainIndex);
+        return PARSERS.get().parseReverseDomain(address).toInterval();
     }
 
-    static Ipv6Interval parseReverseDomain(String cleanAddress, int reverseDomainIndex) {
-        cleanAddress = cleanAddress.substring(0, reverseDomainIndex);
-
-        // FIXME: this translates reverse domain address into a forward address; write a proper parser for performance
-        Validate.isTrue(REVERSE_PATTERN.matcher(cleanAddress).matches(), "Invalid reverse domain: ", cleanAddress);
-
-        StringBuilder builder = new StringBuilder();
-        int netmask = 0;
-
-        for (int index = cleanAddress.length() - 1; index >= 0; index -= 2) {
-            builder.append(cleanAddress.charAt(index));
-
-            netmask += 4;
-
-            if (netmask % 16 == 0 && index > 0) {
-                builder.append(':');
-            }
-        }
-
-        if (netmask % 16 != 0) {
-            for (int i = 4 - ((netmask / 4) % 4); i > 0; i--) {
-                builder.append('0');
-            }
-        }
+    /**
+     * @return the most significant 64 bits of the start address.
+     */
+    public long beginMsb() {
+        return beginMsb;
+    }
 
-        if (netmask <= 112) {
-            builder.append("::");
-        }
+    /**
+     * @return the least significant 64 bits of the start address.
+     */
+    public long beginLsb() {
+        return beginLsb;
+    }
 
-        builder.append('/');
-        builder.append(netmask);
+    /**
+     * @return the most significant 64 bits of the end address.
+     */
+    public long endMsb() {
+        return endMsb;
+    }
 
-        return parse(builder.toString());
+    /**
+     * @return the least significant 64 bits of the end address.
+     */
+    public long endLsb() {
+        return endLsb;
     }
 
     public BigInteger beginAsBigInteger() {
@@ -270,6 +244,16 @@ public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable
         return compare(endMsb, endLsb, that.endMsb, that.endLsb);
     }
 
+    @Override
+    public int compareLowerBoundToUpperBound(Ipv6Interval that) {
+        return compare(beginMsb, beginLsb, that.endMsb, that.endLsb);
+    }
+
+    @Override
+    public BigInteger size() {
+        return endAsBigInteger().subtract(beginAsBigInteger()).add(BigInteger.ONE);
+    }
+
     @Override
     public InetAddress beginAsInetAddress() {
         try {
@@ -311,116 +295,99 @@ public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable
         return res;
     }
 
-    private static void numericToTextFormat(StringBuilder sb, long msb, long lsb, int prefixLength) {
-        int[] nibbles = new int[8];
-        int maxZeroIndex = -1, maxZeroCount = -1;
-        int actZeroIndex = -1, actZeroCount = 0;
-
-        // convert to nibbles, mark location of longest nibble
-        for (int i = 0; i < prefixLength; i += 16) {
-            long act = (i < LONG_BITCOUNT) ? msb : lsb;
-            int remainingPrefix = prefixLength - i;
-            int mask = 0xFFFF;
-
-            if (remainingPrefix < 16) {
-                mask &= ~((1 << (16 - remainingPrefix)) - 1);
-            }
-
-            nibbles[i >>> 4] = (int) (act >> (48 - (i & 63))) & mask;
-        }
-
-        // look for longest nibble location
-        for (int i = 0; i < 8; i++) {
-            if (nibbles[i] == 0) {
-                if (actZeroIndex >= 0) {
-                    actZeroCount++;
-                } else {
-                    actZeroIndex = i;
-                    actZeroCount = 1;
+    private static void appendAddress(Appendable out, long msb, long lsb, int prefixLength) throws IOException {
+        // mark location of longest run of zero groups; of equally long runs, the last one is compressed
+        int maxZeroIndex = -1, maxZeroCount = 0;
+        for (int i = 0, zeroCount = 0; i < 8; i++) {
+            if (group(msb, lsb, i, prefixLength) == 0) {
+                zeroCount++;
+                if (zeroCount >= maxZeroCount) {
+                    maxZeroCount = zeroCount;
+                    maxZeroIndex = i - zeroCount + 1;
                 }
             } else {
-                if (actZeroIndex >= 0) {
-                    if (actZeroCount >= maxZeroCount) {
-                        maxZeroCount = actZeroCount;
-                        maxZeroIndex = actZeroIndex;
-                    }
-                }
-                actZeroIndex = -1;
+                zeroCount = 0;
             }
         }
 
-        if ((actZeroIndex >= 0) && (actZeroCount >= maxZeroCount)) {
-            maxZeroCount = actZeroCount;
-            maxZeroIndex = actZeroIndex;
-        }
-
-        // convert to string
         for (int i = 0; i < 8; i++) {
             if (maxZeroIndex == i) {
                 if (i == 0) {
-                    sb.append("::");
+                    out.append("::");
                 } else {
-                    sb.append(':');
+                    out.append(':');
                 }
                 i += maxZeroCount - 1;
             } else {
-                sb.append(Integer.toHexString(nibbles[i]));
+                appendHex(out, group(msb, lsb, i, prefixLength));
                 if (i < 7) {
-                    sb.append(':');
+                    out.append(':');
                 }
             }
         }
     }
 
-    @Override
-    public String toString() {
-        int prefixLength = getPrefixLength();
-        if (prefixLength < 0) return toRangeString();
+    /**
+     * @return the 16-bit group at <code>index</code>, with the bits after <code>prefixLength</code> cleared
+     */
+    private static int group(long msb, long lsb, int index, int prefixLength) {
+        int i = index << 4;
+        if (i >= prefixLength) return 0;
 
-        StringBuilder sb = new StringBuilder();
-        numericToTextFormat(sb, beginMsb, beginLsb, prefixLength);
-        sb.append('/').append(prefixLength);
-        return sb.toString();
+        int group = (int) (((i < LONG_BITCOUNT) ? msb : lsb) >> (48 - (i & 63))) & 0xFFFF;
+        int remainingPrefix = prefixLength - i;
+        if (remainingPrefix < 16) {
+            group &= ~((1 << (16 - remainingPrefix)) - 1);
+        }
+        return group;
     }
 
-    @Override
-    public String toRangeString() {
-        StringBuilder sb = new StringBuilder();
-        numericToTextFormat(sb, beginMsb, beginLsb, 128);
-        sb.append(" - ");
-        numericToTextFormat(sb, endMsb, endLsb, 128);
+    private static void appendHex(Appendable out, int value) throws IOException {
+        int shift = value == 0 ? 0 : (31 - Integer.numberOfLeadingZeros(value)) & ~3;
+        for (; shift >= 0; shift -= 4) {
+            out.append(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
+    }
+
+    private static String addressToString(long msb, long lsb) {
+        StringBuilder sb = new StringBuilder(39);
+        try {
+            appendAddress(sb, msb, lsb, IPV6_BITCOUNT);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
         return sb.toString();
     }
 
     @Override
-    public String toPrefixString() {
-        int prefixLength = getPrefixLength();
-        if (prefixLength < 0) throw new IllegalStateException(toRangeString() + " cannot be converted to prefix");
+    void appendPrefix(Appendable out, int prefixLength) throws IOException {
+        appendAddress(out, beginMsb, beginLsb, prefixLength);
+        out.append('/');
+        appendDecimal(out, prefixLength);
+    }
 
-        StringBuilder sb = new StringBuilder();
-        numericToTextFormat(sb, beginMsb, beginLsb, prefixLength);
-        sb.append('/').append(prefixLength);
-        return sb.toString();
+    @Override
+    void appendRange(Appendable out) throws IOException {
+        appendAddress(out, beginMsb, beginLsb, IPV6_BITCOUNT);
+        out.append(" - ");
+        appendAddress(out, endMsb, endLsb, IPV6_BITCOUNT);
     }
 
-    public String toReverseDomain() {
-        int prefixLength = getPrefixLength();
+    @Override
+    void appendReverseDomain(Appendable out, int prefixLength) throws IOException {
         if (prefixLength < 0) throw new IllegalArgumentException("Ipv6Interval " + toRangeString() + " is not a prefix");
 
-        StringBuilder sb = new StringBuilder();
         // if prefixlength == 0, -1 >> 3 = -1, so this will not run
         for (int digit = 31 - ((prefixLength - 1) >> 2); digit < 32; digit++) {
             int b = reverseDomainDigit(beginMsb, beginLsb, digit);
             int e = reverseDomainDigit(endMsb, endLsb, digit);
-            if (b == e) sb.append(HEX_DIGITS[b]);
-            else sb.append(HEX_DIGITS[b]).append('-').append(HEX_DIGITS[e]);
+            out.append(HEX_DIGITS[b]);
+            if (b != e) out.append('-').append(HEX_DIGITS[e]);
 
-            if (digit < 31) sb.append('.');
+            if (digit < 31) out.append('.');
         }
 
-        sb.append(IPV6_REVERSE_DOMAIN);
-
-        return sb.toString();
+        out.append(IPV6_REVERSE_DOMAIN);
     }
 
     // ipv6 address in reverse domain format consists of 32 hexadecimal digits
@@ -432,16 +399,12 @@ public class Ipv6Interval extends IpInterval<Ipv6Interval> implements Comparable
 
     @Override
     public String beginAddressAsString() {
-        StringBuilder sb = new StringBuilder();
-        numericToTextFormat(sb, beginMsb, beginLsb, 128);
-        return sb.toString();
+        return addressToString(beginMsb, beginLsb);
     }
 
     @Override
     public String endAddressAsString() {
-        StringBuilder sb = new StringBuilder();
-        numericToTextFormat(sb, endMsb, endLsb, 128);
-        return sb.toString();
+        return addressToString(endMsb, endLsb);
     }
 
     @Override
@@ -0,0 +1,320 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only IPv6 longest-match table in poptrie layout, compiled from a {@link NestedIntervalMap}.
+ * <p/>
+ * The address is consumed in 6 bit strides, so every node has 64 slots. A slot either points to a child node or holds
+ * a leaf, and each node keeps one 64 bit vector marking its children and one marking the slots where a run of equal
+ * leaves begins. Children and leaves of a node are stored contiguously, so the index of a child or leaf is the base
+ * index of the node plus the number of bits set below the slot, which is a single {@link Long#bitCount(long)}.
+ * <p/>
+ * A lookup reads at most 22 nodes (3 longs each) and one leaf, without comparing or allocating any interval.
+ * <p/>
+ * The source tree is first flattened into disjoint address segments, each carrying the value of the most specific
+ * interval that covers it. This resolves ranges that are not valid prefixes exactly like the source tree would.
+ *
+ * @param <V> the type of the values to store.
+ */
+public final class Ipv6Poptrie<V> {
+    private static final int STRIDE = 6;
+    private static final int SLOTS = 1 << STRIDE;
+    private static final int NODE_SIZE = 3;
+    private static final int VECTOR = 0;
+    private static final int LEAFVEC = 1;
+    private static final int BASE = 2;
+
+    // per node: child vector, leaf vector and (leaf base << 32 | child base)
+    private final long[] nodes;
+    private final int[] leaves;
+    private final Object[] values;
+
+    private Ipv6Poptrie(long[] nodes, int[] leaves, Object[] values) {
+        this.nodes = nodes;
+        this.leaves = leaves;
+        this.values = values;
+    }
+
+    /**
+     * Compiles <code>source</code> into a lookup table. Later modifications of <code>source</code> are not reflected
+     * in the table.
+     *
+     * @param source the tree to compile
+     * @return the compiled table
+     */
+    public static <V> Ipv6Poptrie<V> compile(NestedIntervalMap<Ipv6Interval, V> source) {
+        Validate.notNull(source);
+        Segmenter segmenter = new Segmenter();
+        List<Object> values = new ArrayList<>();
+        values.add(null);
+        source.forEach((interval, value) -> {
+            segmenter.accept(interval, values.size());
+            values.add(value);
+        });
+        segmenter.finish();
+        return new Builder(segmenter).build(values.toArray());
+    }
+
+    /**
+     * Finds the value associated with the most specific interval that contains the address
+     * <code>msb</code>:<code>lsb</code>.
+     *
+     * @param msb the most significant 64 bits of the address
+     * @param lsb the least significant 64 bits of the address
+     * @return the matching value, or <code>null</code> if no interval contains the address
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(long msb, long lsb) {
+        int node = 0;
+        for (int offset = 0; ; offset += STRIDE) {
+            int index = node * NODE_SIZE;
+            long bit = 1L << chunk(msb, lsb, offset);
+            long vector = nodes[index + VECTOR];
+            long base = nodes[index + BASE];
+            if ((vector & bit) == 0) {
+                int leaf = (int) (base >>> 32) + Long.bitCount(nodes[index + LEAFVEC] & ((bit << 1) - 1)) - 1;
+                return (V) values[leaves[leaf]];
+            }
+            node = (int) base + Long.bitCount(vector & (bit - 1));
+        }
+    }
+
+    /**
+     * Equivalent of {@link NestedIntervalMap#findExactOrFirstLessSpecific(com.bol.ipresource.ip.Interval)} for single
+     * addresses.
+     *
+     * @param key a single address interval
+     * @return the value associated with <code>key</code> or its closest containing interval, or an empty list if no
+     * such value exists
+     * @throws IllegalArgumentException if <code>key</code> is not a single address
+     */
+    public List<V> findExactOrFirstLessSpecific(Ipv6Interval key) {
+        Validate.notNull(key);
+        Validate.isTrue(key.beginMsb() == key.endMsb() && key.beginLsb() == key.endLsb(), "Not a single address: ", key);
+        V value = lookup(key.beginMsb(), key.beginLsb());
+        return value == null ? Collections.<V>emptyList() : Collections.singletonList(value);
+    }
+
+    /**
+     * @return the number of trie nodes allocated by this table
+     */
+    public int nodeCount() {
+        return nodes.length / NODE_SIZE;
+    }
+
+    /*
+     * Number of address bits below the slot selected at offset; negative for the last, partial, stride.
+     */
+    private static int slotBits(int offset) {
+        return 128 - STRIDE - offset;
+    }
+
+    /*
+     * Extracts the 6 bits of the address starting at bit offset (counted from the most significant bit). Bits past the
+     * end of the address read as zero.
+     */
+    private static int chunk(long msb, long lsb, int offset) {
+        int shift = slotBits(offset);
+        if (shift >= 64) {
+            return (int) (msb >>> (shift - 64)) & (SLOTS - 1);
+        } else if (shift > 64 - STRIDE) {
+            return (int) ((msb << (64 - shift)) | (lsb >>> shift)) & (SLOTS - 1);
+        } else if (shift >= 0) {
+            return (int) (lsb >>> shift) & (SLOTS - 1);
+        }
+        return (int) (lsb << -shift) & (SLOTS - 1);
+    }
+
+    /*
+     * Flattens the pre-order traversal of the tree into the start addresses of segments with a distinct value index.
+     * The first segment always starts at address 0.
+     */
+    private static final class Segmenter {
+        long[] startMsb = new long[1024];
+        long[] startLsb = new long[1024];
+        int[] valueIndexes = new int[1024];
+        int count = 1;
+
+        // intervals enclosing the current position, outermost first
+        private long[] endMsb = new long[32];
+        private long[] endLsb = new long[32];
+        private int[] enclosingValueIndexes = new int[32];
+        private int depth;
+
+        void accept(Ipv6Interval interval, int valueIndex) {
+            closeIntervalsEndingBefore(interval.beginMsb(), interval.beginLsb());
+            start(interval.beginMsb(), interval.beginLsb(), valueIndex);
+
+            if (depth == endMsb.length) {
+                endMsb = Arrays.copyOf(endMsb, depth * 2);
+                endLsb = Arrays.copyOf(endLsb, depth * 2);
+                enclosingValueIndexes = Arrays.copyOf(enclosingValueIndexes, depth * 2);
+            }
+            endMsb[depth] = interval.endMsb();
+            endLsb[depth] = interval.endLsb();
+            enclosingValueIndexes[depth] = valueIndex;
+            depth++;
+        }
+
+        void finish() {
+            while (depth > 0) {
+                close();
+            }
+        }
+
+        private void closeIntervalsEndingBefore(long msb, long lsb) {
+            while (depth > 0 && Ipv6Interval.compare(endMsb[depth - 1], endLsb[depth - 1], msb, lsb) < 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            depth--;
+            long msb = endMsb[depth];
+            long lsb = endLsb[depth];
+            if (msb == -1 && lsb == -1) {
+                return;
+            }
+            lsb++;
+            if (lsb == 0) {
+                msb++;
+            }
+            start(msb, lsb, depth == 0 ? 0 : enclosingValueIndexes[depth - 1]);
+        }
+
+        private void start(long msb, long lsb, int valueIndex) {
+            int last = count - 1;
+            if (startMsb[last] == msb && startLsb[last] == lsb) {
+                valueIndexes[last] = valueIndex;
+                if (last > 0 && valueIndexes[last - 1] == valueIndex) {
+                    count--;
+                }
+                return;
+            }
+            if (valueIndexes[last] == valueIndex) {
+                return;
+            }
+
+            if (count == startMsb.length) {
+                startMsb = Arrays.copyOf(startMsb, count * 2);
+                startLsb = Arrays.copyOf(startLsb, count * 2);
+                valueIndexes = Arrays.copyOf(valueIndexes, count * 2);
+            }
+            startMsb[count] = msb;
+            startLsb[count] = lsb;
+            valueIndexes[count] = valueIndex;
+            count++;
+        }
+    }
+
+    private static final class Builder {
+        private final long[] startMsb;
+        private final long[] startLsb;
+        private final int[] valueIndexes;
+        private final int segments;
+
+        private long[] nodes = new long[NODE_SIZE * 1024];
+        private int nodeCount = 1;
+        private int[] leaves = new int[1024];
+        private int leafCount;
+
+        Builder(Segmenter segmenter) {
+            this.startMsb = segmenter.startMsb;
+            this.startLsb = segmenter.startLsb;
+            this.valueIndexes = segmenter.valueIndexes;
+            this.segments = segmenter.count;
+        }
+
+        <V> Ipv6Poptrie<V> build(Object[] values) {
+            buildNode(0, 0, 0, 0, 0);
+            return new Ipv6Poptrie<>(Arrays.copyOf(nodes, nodeCount * NODE_SIZE), Arrays.copyOf(leaves, leafCount), values);
+        }
+
+        /*
+         * Builds the node covering the addresses starting with prefixMsb:prefixLsb, of which only the first offset bits
+         * are significant. segment is the segment containing the first address of the node.
+         */
+        private void buildNode(int node, int offset, long prefixMsb, long prefixLsb, int segment) {
+            int shift = slotBits(offset);
+            long vector = 0;
+            long leafvec = 0;
+            int leafBase = leafCount;
+            int lastLeaf = -1;
+
+            long[] childMsb = new long[SLOTS];
+            long[] childLsb = new long[SLOTS];
+            int[] childSegment = new int[SLOTS];
+            int children = 0;
+
+            int step = shift < 0 ? 1 << -shift : 1;
+            for (int slot = 0; slot < SLOTS; slot += step) {
+                long beginMsb = prefixMsb | slotMsb(slot, shift);
+                long beginLsb = prefixLsb | slotLsb(slot, shift);
+                long endMsb = beginMsb | (shift > 64 ? (1L << (shift - 64)) - 1 : 0);
+                long endLsb = beginLsb | (shift >= 64 ? -1 : shift > 0 ? (1L << shift) - 1 : 0);
+
+                while (segment + 1 < segments && Ipv6Interval.compare(startMsb[segment + 1], startLsb[segment + 1], beginMsb, beginLsb) <= 0) {
+                    segment++;
+                }
+
+                if (segment + 1 < segments && Ipv6Interval.compare(startMsb[segment + 1], startLsb[segment + 1], endMsb, endLsb) <= 0) {
+                    vector |= 1L << slot;
+                    childMsb[children] = beginMsb;
+                    childLsb[children] = beginLsb;
+                    childSegment[children] = segment;
+                    children++;
+                } else if (valueIndexes[segment] != lastLeaf) {
+                    leafvec |= 1L << slot;
+                    lastLeaf = valueIndexes[segment];
+                    addLeaf(lastLeaf);
+                }
+            }
+
+            int childBase = nodeCount;
+            nodeCount += children;
+            if (nodeCount * NODE_SIZE > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, nodeCount * NODE_SIZE));
+            }
+            int index = node * NODE_SIZE;
+            nodes[index + VECTOR] = vector;
+            nodes[index + LEAFVEC] = leafvec;
+            nodes[index + BASE] = ((long) leafBase << 32) | (childBase & 0xffffffffL);
+
+            for (int i = 0; i < children; i++) {
+                buildNode(childBase + i, offset + STRIDE, childMsb[i], childLsb[i], childSegment[i]);
+            }
+        }
+
+        private void addLeaf(int valueIndex) {
+            if (leafCount == leaves.length) {
+                leaves = Arrays.copyOf(leaves, leafCount * 2);
+            }
+            leaves[leafCount++] = valueIndex;
+        }
+
+        private static long slotMsb(long slot, int shift) {
+            if (shift >= 64) {
+                return slot << (shift - 64);
+            } else if (shift > 64 - STRIDE) {
+                return slot >>> (64 - shift);
+            }
+            return 0;
+        }
+
+        private static long slotLsb(long slot, int shift) {
+            if (shift >= 64) {
+                return 0;
+            } else if (shift >= 0) {
+                return slot << shift;
+            }
+            return slot >>> -shift;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.util.Validate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single-pass parser of IPv6 addresses and prefixes in the text representations of RFC 4291 (section 2.2 and 2.3),
+ * and of reverse domains (<code>8.b.d.0.1.0.0.2.ip6.arpa</code>), that does not allocate unless the text is invalid.
+ * <p/>
+ * Accepted are groups of hexadecimal digits in either case, a single <code>::</code> to compress one or more groups of
+ * zeros, a trailing dotted-quad IPv4 address in place of the last two groups (like <code>::ffff:192.0.2.1</code>), and
+ * a <code>/</code> followed by the prefix length. Whitespace is only allowed around the text.
+ * <p/>
+ * The parser holds the result of the last successful parse, so it is reusable but not thread-safe.
+ */
+public final class Ipv6TextParser {
+    private static final int GROUPS = 8;
+    private static final int ADDRESS_LENGTH = 128;
+
+    private final Ipv4TextParser.AsciiSequence ascii = new Ipv4TextParser.AsciiSequence();
+    private final int[] groups = new int[GROUPS];
+
+    private long msb;
+    private long lsb;
+    private int prefixLength;
+
+    /**
+     * @return the most significant 64 bits of the last parsed address
+     */
+    public long msb() {
+        return msb;
+    }
+
+    /**
+     * @return the least significant 64 bits of the last parsed address
+     */
+    public long lsb() {
+        return lsb;
+    }
+
+    /**
+     * @return the prefix length of the last parsed text, or 128 if it was a single address
+     */
+    public int prefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * @return whether the last parsed address is IPv4-mapped (<code>::ffff:0:0/96</code>), which denotes an IPv4
+     * resource
+     */
+    public boolean isIpv4Mapped() {
+        return msb == 0 && lsb >>> 32 == 0xffff;
+    }
+
+    /**
+     * @return a new interval of the last parsed address and prefix length
+     */
+    public Ipv6Interval toInterval() {
+        return new Ipv6Interval(msb, lsb, prefixLength);
+    }
+
+    public Ipv6TextParser parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses an address, or a prefix if followed by a prefix length.
+     *
+     * @param text the text to parse
+     * @param from the index of the first character to parse
+     * @param to   the index after the last character to parse
+     * @return this parser, holding the result
+     * @throws IllegalArgumentException if the text is not a valid address or prefix
+     */
+    public Ipv6TextParser parse(CharSequence text, int from, int to) {
+        Validate.notNull(text);
+        int end = trimEnd(text, from, to);
+        int index = parseAddress(text, skipWhitespace(text, from, end), end, from, to);
+        if (index == end) {
+            prefixLength = ADDRESS_LENGTH;
+            return this;
+        }
+
+        // parseAddress only stops early at a slash
+        int length = 0;
+        int start = ++index;
+        for (; index < end && isDigit(text.charAt(index)) && length <= ADDRESS_LENGTH; index++) {
+            length = length * 10 + text.charAt(index) - '0';
+        }
+        if (index == start || index != end || length > ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("Invalid prefix length: " + text.subSequence(from, to));
+        }
+        prefixLength = length;
+        return this;
+    }
+
+    public Ipv6TextParser parseReverseDomain(CharSequence text) {
+        return parseReverseDomain(text, 0, text.length());
+    }
+
+    /**
+     * Parses a reverse domain of one to 32 nibbles, like <code>8.b.d.0.1.0.0.2.ip6.arpa.</code> for 2001:db8::/32.
+     * The nibbles and the suffix are matched ignoring case, and the trailing dot is optional.
+     *
+     * @param text the text to parse
+     * @param from the index of the first character to parse
+     * @param to   the index after the last character to parse
+     * @return this parser, holding the result
+     * @throws IllegalArgumentException if the text is not a valid reverse domain
+     */
+    public Ipv6TextParser parseReverseDomain(CharSequence text, int from, int to) {
+        Validate.notNull(text);
+        int end = trimEnd(text, from, to);
+        int index = skipWhitespace(text, from, end);
+        int suffix = Ipv4TextParser.reverseDomainIndex(text, index, end, Ipv6Interval.IPV6_DOTLESS_REVERSE_DOMAIN);
+        if (suffix < 0) throw invalidReverseDomain(text, from, to);
+
+        // the labels start with the least significant nibble, so each one is shifted in from the top
+        long high = 0;
+        long low = 0;
+        int nibbles = 0;
+        while (true) {
+            int digit = index < suffix ? hexDigit(text.charAt(index)) : -1;
+            if (digit < 0 || nibbles == ADDRESS_LENGTH / 4) throw invalidReverseDomain(text, from, to);
+            low = low >>> 4 | high << 60;
+            high = high >>> 4 | (long) digit << 60;
+            nibbles++;
+
+            if (++index == suffix) break;
+            if (text.charAt(index) != '.') throw invalidReverseDomain(text, from, to);
+            index++;
+        }
+
+        msb = high;
+        lsb = low;
+        prefixLength = 4 * nibbles;
+        return this;
+    }
+
+    static boolean isReverseDomain(CharSequence text) {
+        int end = trimEnd(text, 0, text.length());
+        return Ipv4TextParser.reverseDomainIndex(text, skipWhitespace(text, 0, end), end, Ipv6Interval.IPV6_DOTLESS_REVERSE_DOMAIN) >= 0;
+    }
+
+    /**
+     * Parses an address, or a prefix if followed by a prefix length, from ASCII bytes.
+     *
+     * @see #parse(CharSequence, int, int)
+     */
+    public Ipv6TextParser parse(byte[] bytes, int offset, int length) {
+        try {
+            return parse(ascii.of(bytes, offset, length), 0, length);
+        } finally {
+            ascii.release();
+        }
+    }
+
+    /**
+     * Parses an address, or a prefix if followed by a prefix length, from the ASCII bytes between the position and the
+     * limit of <code>buffer</code>, without changing its position.
+     *
+     * @see #parse(CharSequence, int, int)
+     */
+    public Ipv6TextParser parse(ByteBuffer buffer) {
+        try {
+            return parse(ascii.of(buffer), 0, buffer.remaining());
+        } finally {
+            ascii.release();
+        }
+    }
+
+    /**
+     * Parses the address into {@link #msb} and {@link #lsb}.
+     *
+     * @return the index after the address, which is either <code>end</code> or the index of a slash
+     */
+    private int parseAddress(CharSequence text, int index, int end, int from, int to) {
+        int count = 0;
+        int compressed = -1;
+
+        if (startsWithColons(text, index, end)) {
+            compressed = 0;
+            index += 2;
+        }
+
+        while (index < end && text.charAt(index) != '/') {
+            int start = index;
+            int group = 0;
+            for (int digit; index < end && index - start < 4 && (digit = hexDigit(text.charAt(index))) >= 0; index++) {
+                group = group << 4 | digit;
+            }
+            if (index == start || count == GROUPS) throw invalidAddress(text, from, to);
+
+            if (index < end && text.charAt(index) == '.') {
+                if (count > GROUPS - 2) throw invalidAddress(text, from, to);
+                long scanned = scanDottedQuad(text, start, end);
+                if (scanned < 0) throw invalidAddress(text, from, to);
+                groups[count++] = (int) (scanned >>> 16) & 0xffff;
+                groups[count++] = (int) scanned & 0xffff;
+                index = (int) (scanned >>> 32);
+                break;
+            }
+            groups[count++] = group;
+
+            if (index == end || text.charAt(index) == '/') break;
+            if (text.charAt(index) != ':' || ++index == end) throw invalidAddress(text, from, to);
+            if (text.charAt(index) == ':') {
+                if (compressed >= 0) throw invalidAddress(text, from, to);
+                compressed = count;
+                index++;
+            }
+        }
+
+        if (index < end && text.charAt(index) != '/') throw invalidAddress(text, from, to);
+        if (compressed < 0 ? count != GROUPS : count == GROUPS) throw invalidAddress(text, from, to);
+
+        if (compressed >= 0) {
+            int tail = count - compressed;
+            System.arraycopy(groups, compressed, groups, GROUPS - tail, tail);
+            for (int i = compressed; i < GROUPS - tail; i++) {
+                groups[i] = 0;
+            }
+        }
+        msb = (long) groups[0] << 48 | (long) groups[1] << 32 | (long) groups[2] << 16 | groups[3];
+        lsb = (long) groups[4] << 48 | (long) groups[5] << 32 | (long) groups[6] << 16 | groups[7];
+        return index;
+    }
+
+    private static boolean startsWithColons(CharSequence text, int index, int end) {
+        return end - index >= 2 && text.charAt(index) == ':' && text.charAt(index + 1) == ':';
+    }
+
+    /**
+     * Scans four decimal octets without leading zeros, as these are ambiguous.
+     *
+     * @return the address in the lower and the index after it in the upper 32 bits, or -1
+     */
+    private static long scanDottedQuad(CharSequence text, int index, int end) {
+        long address = 0;
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0) {
+                if (index == end || text.charAt(index) != '.') return -1;
+                index++;
+            }
+            int start = index;
+            int value = 0;
+            for (; index < end && isDigit(text.charAt(index)); index++) {
+                value = value * 10 + text.charAt(index) - '0';
+                if (value > 255) return -1;
+            }
+            if (index == start || (index - start > 1 && text.charAt(start) == '0')) return -1;
+            address = address << 8 | value;
+        }
+        return (long) index << 32 | address;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipWhitespace(CharSequence text, int index, int end) {
+        while (index < end && text.charAt(index) <= ' ') index++;
+        return index;
+    }
+
+    private static int trimEnd(CharSequence text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    private static IllegalArgumentException invalidReverseDomain(CharSequence text, int from, int to) {
+        return new IllegalArgumentException("Invalid reverse domain: " + text.subSequence(from, to));
+    }
+
+    private static IllegalArgumentException invalidAddress(CharSequence text, int from, int to) {
+        return new IllegalArgumentException(text.subSequence(from, to) + " is not a valid ipv6 address");
+    }
+}
@@ -0,0 +1,657 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntervalMap;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.Validate;
+import com.bol.ipresource.util.ValueCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read-only {@link IntervalMap} of which the intervals and values are stored in a single direct {@link ByteBuffer},
+ * outside of the Java heap. The garbage collector only sees the buffer and a few objects referring to it, regardless
+ * of the number of mappings.
+ * <p/>
+ * The buffer starts with a header, followed by one fixed-width record per node and the encoded values. Records are in
+ * breadth-first order, so the children of every node occupy consecutive records, ordered by upper-bound, and every
+ * level of a lookup is a binary search over such a slice. A record holds the interval bounds, the index and number of
+ * its child records, and the offset of its value. Values are converted with a {@link ValueCodec}, and only decoded
+ * for the mappings that are returned.
+ * <p/>
+ * Query methods return the same results as the source map did at the time of the copy. Mutating methods throw
+ * {@link UnsupportedOperationException}. Instances are immutable and thus safe to share between threads without
+ * synchronization. A {@link ByteBuffer} is indexed by <code>int</code>, which limits a single map to 2GB.
+ * <p/>
+ * The buffer doubles as a snapshot file format: {@link #writeTo(Path)} stores the buffer as is, and
+ * {@link #openIpv4(Path, ValueCodec)} and {@link #openIpv6(Path, ValueCodec)} memory-map such a file. Opening only
+ * validates the header, so it takes constant time regardless of the size of the map; pages are loaded by the
+ * operating system as lookups touch them, and are shared between all processes mapping the same file.
+ * <p/>
+ * All numbers are stored big-endian. The header consists of eight <code>int</code>s: the magic number
+ * <code>0x49505452</code>, the format version, the address family (4 or 6), the number of records, the number of
+ * root records, the offset of the values and two reserved fields. IPv4 records hold the lower- and upper-bound as
+ * <code>int</code>s, IPv6 records as two <code>long</code>s each, most significant first. Both are followed by the
+ * index of the first child record, the number of child records and the offset of the value. A value is stored as
+ * its length followed by its encoded bytes.
+ *
+ * @param <K> the type of the interval, {@link Ipv4Interval} or {@link Ipv6Interval}.
+ * @param <V> the type of the values to store.
+ */
+public final class OffHeapIntervalMap<K extends IpInterval<K>, V> implements IntervalMap<K, V> {
+    private static final int ROOT = BreadthFirstLayout.ROOT;
+
+    static final int MAGIC = 0x49505452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int FAMILY_OFFSET = 8;
+    private static final int NODE_COUNT_OFFSET = 12;
+    private static final int ROOT_COUNT_OFFSET = 16;
+    private static final int VALUES_OFFSET = 20;
+
+    // record layout, relative to the end of the interval bounds
+    private static final int FIRST_CHILD = 0;
+    private static final int CHILD_COUNT = 4;
+    private static final int VALUE = 8;
+    private static final int RECORD_TAIL = 12;
+
+    private final ByteBuffer buffer;
+    private final ValueCodec<V> codec;
+    private final Family<K> family;
+    private final int recordSize;
+    private final int nodeCount;
+    private final int rootCount;
+
+    private OffHeapIntervalMap(ByteBuffer buffer, ValueCodec<V> codec, Family<K> family) {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.family = family;
+        this.recordSize = family.keySize + RECORD_TAIL;
+        this.nodeCount = buffer.getInt(NODE_COUNT_OFFSET);
+        this.rootCount = buffer.getInt(ROOT_COUNT_OFFSET);
+    }
+
+    /**
+     * Copies <code>source</code> into a new direct buffer. Later modifications of <code>source</code> are not
+     * reflected in the copy.
+     *
+     * @param source the map to copy
+     * @param codec  the codec used to store the values
+     * @return the off-heap copy of <code>source</code>
+     * @throws IllegalStateException if the copy does not fit in a single buffer
+     */
+    public static <V> OffHeapIntervalMap<Ipv4Interval, V> copyOfIpv4(NestedIntervalMap<Ipv4Interval, V> source, ValueCodec<V> codec) {
+        return copyOf(source, codec, Family.IPV4);
+    }
+
+    /**
+     * Copies <code>source</code> into a new direct buffer. Later modifications of <code>source</code> are not
+     * reflected in the copy.
+     *
+     * @param source the map to copy
+     * @param codec  the codec used to store the values
+     * @return the off-heap copy of <code>source</code>
+     * @throws IllegalStateException if the copy does not fit in a single buffer
+     */
+    public static <V> OffHeapIntervalMap<Ipv6Interval, V> copyOfIpv6(NestedIntervalMap<Ipv6Interval, V> source, ValueCodec<V> codec) {
+        return copyOf(source, codec, Family.IPV6);
+    }
+
+    /**
+     * Memory-maps a file written by {@link #writeTo(Path)} from an IPv4 map. The file is not read beyond its header,
+     * and must not be modified while the map is in use.
+     *
+     * @param path  the snapshot file
+     * @param codec the codec the values were stored with
+     * @return the map stored in <code>path</code>
+     * @throws IOException if the file cannot be mapped, or is not an IPv4 snapshot of a supported version
+     */
+    public static <V> OffHeapIntervalMap<Ipv4Interval, V> openIpv4(Path path, ValueCodec<V> codec) throws IOException {
+        return open(path, codec, Family.IPV4);
+    }
+
+    /**
+     * Memory-maps a file written by {@link #writeTo(Path)} from an IPv6 map. The file is not read beyond its header,
+     * and must not be modified while the map is in use.
+     *
+     * @param path  the snapshot file
+     * @param codec the codec the values were stored with
+     * @return the map stored in <code>path</code>
+     * @throws IOException if the file cannot be mapped, or is not an IPv6 snapshot of a supported version
+     */
+    public static <V> OffHeapIntervalMap<Ipv6Interval, V> openIpv6(Path path, ValueCodec<V> codec) throws IOException {
+        return open(path, codec, Family.IPV6);
+    }
+
+    private static <K extends IpInterval<K>, V> OffHeapIntervalMap<K, V> open(Path path, ValueCodec<V> codec, Family<K> family) throws IOException {
+        Validate.notNull(path);
+        Validate.notNull(codec);
+
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not an interval map snapshot: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not an interval map snapshot: " + path);
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(VERSION_OFFSET) + ": " + path);
+        }
+        if (buffer.getInt(FAMILY_OFFSET) != family.id) {
+            throw new IOException("Snapshot holds IPv" + buffer.getInt(FAMILY_OFFSET) + " intervals: " + path);
+        }
+        long nodeCount = buffer.getInt(NODE_COUNT_OFFSET);
+        long rootCount = buffer.getInt(ROOT_COUNT_OFFSET);
+        long valuesOffset = HEADER_SIZE + nodeCount * (family.keySize + RECORD_TAIL);
+        if (nodeCount < 0 || rootCount < 0 || rootCount > nodeCount || buffer.getInt(VALUES_OFFSET) != valuesOffset || valuesOffset > buffer.capacity()) {
+            throw new IOException("Corrupt snapshot header: " + path);
+        }
+
+        return new OffHeapIntervalMap<>(buffer, codec, family);
+    }
+
+    private static <K extends IpInterval<K>, V> OffHeapIntervalMap<K, V> copyOf(NestedIntervalMap<K, V> source, ValueCodec<V> codec, Family<K> family) {
+        Validate.notNull(source);
+        Validate.notNull(codec);
+
+        Builder<K> builder = new Builder<>();
+        source.forEach((key, value) -> builder.add(key, codec.encode(value)));
+        List<K> keys = builder.keys;
+        List<byte[]> values = builder.values;
+
+        int size = keys.size();
+        int recordSize = family.keySize + RECORD_TAIL;
+        long valuesOffset = HEADER_SIZE + (long) size * recordSize;
+        long totalSize = valuesOffset;
+        for (byte[] value : values) {
+            totalSize += 4 + value.length;
+        }
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Map does not fit in a single buffer (" + totalSize + " bytes)");
+        }
+
+        BreadthFirstLayout layout = new BreadthFirstLayout(builder.parents, size);
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) totalSize);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(FAMILY_OFFSET, family.id);
+        buffer.putInt(NODE_COUNT_OFFSET, size);
+        buffer.putInt(ROOT_COUNT_OFFSET, layout.rootCount);
+        buffer.putInt(VALUES_OFFSET, (int) valuesOffset);
+
+        int valueOffset = (int) valuesOffset;
+        for (int i = 0; i < size; i++) {
+            int node = layout.order[i];
+            int offset = HEADER_SIZE + i * recordSize;
+            family.write(buffer, offset, keys.get(node));
+            offset += family.keySize;
+            buffer.putInt(offset + FIRST_CHILD, layout.firstChild[i]);
+            buffer.putInt(offset + CHILD_COUNT, layout.firstChild[i + 1] - layout.firstChild[i]);
+            buffer.putInt(offset + VALUE, valueOffset);
+
+            byte[] value = values.get(node);
+            buffer.putInt(valueOffset, value.length);
+            for (int j = 0; j < value.length; j++) {
+                buffer.put(valueOffset + 4 + j, value[j]);
+            }
+            valueOffset += 4 + value.length;
+        }
+
+        return new OffHeapIntervalMap<>(buffer, codec, family);
+    }
+
+    /**
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of bytes used by this map
+     */
+    public int byteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Writes this map to <code>path</code>, replacing the file if it exists. The file can be opened with
+     * {@link #openIpv4(Path, ValueCodec)} or {@link #openIpv6(Path, ValueCodec)}, using the same codec.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path path) throws IOException {
+        Validate.notNull(path);
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(K key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<V> findFirstLessSpecific(K key) {
+        Validate.notNull(key);
+        return mapToValues(findFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public void findFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public List<V> findExact(K key) {
+        Validate.notNull(key);
+        return mapToValues(findExactIndex(key));
+    }
+
+    @Override
+    public void findExact(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findExactIndex(key));
+    }
+
+    @Override
+    public List<V> findExactOrFirstLessSpecific(K key) {
+        Validate.notNull(key);
+        return mapToValues(findExactOrFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public void findExactOrFirstLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        acceptValue(action, findExactOrFirstLessSpecificIndex(key));
+    }
+
+    @Override
+    public List<V> findAllLessSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findAllLessSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT && !isEqual(node, key); ) {
+            action.accept(value(node));
+            from = firstChild(node);
+            count = childCount(node);
+        }
+    }
+
+    @Override
+    public List<V> findExactAndAllLessSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findExactAndAllLessSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findExactAndAllLessSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT; ) {
+            action.accept(value(node));
+            from = firstChild(node);
+            count = childCount(node);
+        }
+    }
+
+    @Override
+    public List<V> findFirstMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findFirstMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findFirstMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        addFirstMoreSpecific(action, findExactOrFirstLessSpecificIndex(key), key);
+    }
+
+    @Override
+    public List<V> findAllMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findAllMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        addExactAndAllMoreSpecific(action, findExactOrFirstLessSpecificIndex(key), key);
+    }
+
+    @Override
+    public List<V> findExactAndAllMoreSpecific(K key) {
+        List<V> result = new ArrayList<>();
+        findExactAndAllMoreSpecific(key, result::add);
+        return result;
+    }
+
+    @Override
+    public void findExactAndAllMoreSpecific(K key, Consumer<? super V> action) {
+        Validate.notNull(key);
+        Validate.notNull(action);
+        int container = findExactOrFirstLessSpecificIndex(key);
+        if (container != ROOT && isEqual(container, key)) {
+            action.accept(value(container));
+        }
+        addExactAndAllMoreSpecific(action, container, key);
+    }
+
+    private int offset(int node) {
+        return HEADER_SIZE + node * recordSize;
+    }
+
+    private int firstChild(int node) {
+        return buffer.getInt(offset(node) + family.keySize + FIRST_CHILD);
+    }
+
+    private int childCount(int node) {
+        return buffer.getInt(offset(node) + family.keySize + CHILD_COUNT);
+    }
+
+    private V value(int node) {
+        int valueOffset = buffer.getInt(offset(node) + family.keySize + VALUE);
+        return codec.decode(buffer, valueOffset + 4, buffer.getInt(valueOffset));
+    }
+
+    private boolean isEqual(int node, K key) {
+        int offset = offset(node);
+        return family.compareBegin(buffer, offset, key) == 0 && family.compareEnd(buffer, offset, key) == 0;
+    }
+
+    private List<V> mapToValues(int node) {
+        if (node == ROOT) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(value(node));
+    }
+
+    private void acceptValue(Consumer<? super V> action, int node) {
+        if (node != ROOT) {
+            action.accept(value(node));
+        }
+    }
+
+    private int findFirstLessSpecificIndex(K key) {
+        int result = ROOT;
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT && !isEqual(node, key); ) {
+            result = node;
+            from = firstChild(node);
+            count = childCount(node);
+        }
+        return result;
+    }
+
+    private int findExactIndex(K key) {
+        int node = findExactOrFirstLessSpecificIndex(key);
+        return node != ROOT && isEqual(node, key) ? node : ROOT;
+    }
+
+    private int findExactOrFirstLessSpecificIndex(K key) {
+        int result = ROOT;
+        int from = 0;
+        int count = rootCount;
+        for (int node; (node = findChildContaining(from, count, key)) != ROOT; ) {
+            result = node;
+            from = firstChild(node);
+            count = childCount(node);
+        }
+        return result;
+    }
+
+    /*
+     * Siblings never intersect, so the only candidate that can contain range is the first sibling with an upper-bound
+     * not below the upper-bound of range.
+     */
+    private int findChildContaining(int from, int count, K range) {
+        int to = from + count;
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (family.compareEnd(buffer, offset(mid), range) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < to && family.compareBegin(buffer, offset(low), range) <= 0) {
+            return low;
+        }
+        return ROOT;
+    }
+
+    /*
+     * Returns the first index in [from, to) with an upper-bound not below the lower-bound of range, or 'to' if no such
+     * index exists.
+     */
+    private int lowerBoundCeiling(int from, int to, K range) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (family.compareEndToBegin(buffer, offset(mid), range) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addFirstMoreSpecific(Consumer<? super V> action, int parent, K range) {
+        int from = parent == ROOT ? 0 : firstChild(parent);
+        int to = from + (parent == ROOT ? rootCount : childCount(parent));
+        for (int node = lowerBoundCeiling(from, to, range); node < to; node++) {
+            int offset = offset(node);
+            if (family.compareBeginToEnd(buffer, offset, range) > 0) {
+                break;
+            }
+            if (family.compareBegin(buffer, offset, range) >= 0 && family.compareEnd(buffer, offset, range) <= 0) {
+                action.accept(value(node));
+            } else {
+                addFirstMoreSpecific(action, node, range);
+            }
+        }
+    }
+
+    private void addExactAndAllMoreSpecific(Consumer<? super V> action, int parent, K range) {
+        int from = parent == ROOT ? 0 : firstChild(parent);
+        int to = from + (parent == ROOT ? rootCount : childCount(parent));
+        for (int node = lowerBoundCeiling(from, to, range); node < to; node++) {
+            int offset = offset(node);
+            if (family.compareBeginToEnd(buffer, offset, range) > 0) {
+                break;
+            }
+            if (family.compareBegin(buffer, offset, range) >= 0 && family.compareEnd(buffer, offset, range) <= 0) {
+                action.accept(value(node));
+                addAllChildren(action, node);
+            } else {
+                addExactAndAllMoreSpecific(action, node, range);
+            }
+        }
+    }
+
+    private void addAllChildren(Consumer<? super V> action, int parent) {
+        int from = firstChild(parent);
+        int to = from + childCount(parent);
+        for (int node = from; node < to; node++) {
+            action.accept(value(node));
+            addAllChildren(action, node);
+        }
+    }
+
+    /*
+     * Encoding of the interval bounds of an address family, and comparison of encoded bounds against interval objects.
+     */
+    private abstract static class Family<K extends IpInterval<K>> {
+        static final Family<Ipv4Interval> IPV4 = new Family<Ipv4Interval>(4, 8) {
+            @Override
+            void write(ByteBuffer buffer, int offset, Ipv4Interval key) {
+                buffer.putInt(offset, (int) key.begin());
+                buffer.putInt(offset + 4, (int) key.end());
+            }
+
+            @Override
+            int compareBegin(ByteBuffer buffer, int offset, Ipv4Interval key) {
+                return Integer.compareUnsigned(buffer.getInt(offset), (int) key.begin());
+            }
+
+            @Override
+            int compareBeginToEnd(ByteBuffer buffer, int offset, Ipv4Interval key) {
+                return Integer.compareUnsigned(buffer.getInt(offset), (int) key.end());
+            }
+
+            @Override
+            int compareEnd(ByteBuffer buffer, int offset, Ipv4Interval key) {
+                return Integer.compareUnsigned(buffer.getInt(offset + 4), (int) key.end());
+            }
+
+            @Override
+            int compareEndToBegin(ByteBuffer buffer, int offset, Ipv4Interval key) {
+                return Integer.compareUnsigned(buffer.getInt(offset + 4), (int) key.begin());
+            }
+        };
+
+        static final Family<Ipv6Interval> IPV6 = new Family<Ipv6Interval>(6, 32) {
+            @Override
+            void write(ByteBuffer buffer, int offset, Ipv6Interval key) {
+                buffer.putLong(offset, key.beginMsb());
+                buffer.putLong(offset + 8, key.beginLsb());
+                buffer.putLong(offset + 16, key.endMsb());
+                buffer.putLong(offset + 24, key.endLsb());
+            }
+
+            @Override
+            int compareBegin(ByteBuffer buffer, int offset, Ipv6Interval key) {
+                return Ipv6Interval.compare(buffer.getLong(offset), buffer.getLong(offset + 8), key.beginMsb(), key.beginLsb());
+            }
+
+            @Override
+            int compareBeginToEnd(ByteBuffer buffer, int offset, Ipv6Interval key) {
+                return Ipv6Interval.compare(buffer.getLong(offset), buffer.getLong(offset + 8), key.endMsb(), key.endLsb());
+            }
+
+            @Override
+            int compareEnd(ByteBuffer buffer, int offset, Ipv6Interval key) {
+                return Ipv6Interval.compare(buffer.getLong(offset + 16), buffer.getLong(offset + 24), key.endMsb(), key.endLsb());
+            }
+
+            @Override
+            int compareEndToBegin(ByteBuffer buffer, int offset, Ipv6Interval key) {
+                return Ipv6Interval.compare(buffer.getLong(offset + 16), buffer.getLong(offset + 24), key.beginMsb(), key.beginLsb());
+            }
+        };
+
+        final int id;
+        final int keySize;
+
+        Family(int id, int keySize) {
+            this.id = id;
+            this.keySize = keySize;
+        }
+
+        abstract void write(ByteBuffer buffer, int offset, K key);
+
+        // lower-bound of the record at offset compared to the lower-bound of key
+        abstract int compareBegin(ByteBuffer buffer, int offset, K key);
+
+        // lower-bound of the record at offset compared to the upper-bound of key
+        abstract int compareBeginToEnd(ByteBuffer buffer, int offset, K key);
+
+        // upper-bound of the record at offset compared to the upper-bound of key
+        abstract int compareEnd(ByteBuffer buffer, int offset, K key);
+
+        // upper-bound of the record at offset compared to the lower-bound of key
+        abstract int compareEndToBegin(ByteBuffer buffer, int offset, K key);
+    }
+
+    /*
+     * Collects the pre-order traversal of the source, with the parent of every interval.
+     */
+    private static final class Builder<K extends IpInterval<K>> {
+        private final List<K> keys = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private int[] parents = new int[1024];
+
+        // intervals enclosing the current position, outermost first
+        private int[] open = new int[32];
+        private int depth;
+
+        void add(K key, byte[] value) {
+            while (depth > 0 && !keys.get(open[depth - 1]).contains(key)) {
+                depth--;
+            }
+
+            int index = keys.size();
+            if (index == parents.length) {
+                parents = Arrays.copyOf(parents, index * 2);
+            }
+            parents[index] = depth == 0 ? ROOT : open[depth - 1];
+
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+            }
+            open[depth++] = index;
+            keys.add(key);
+            values.add(value);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.bol.ipresource.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values to and from bytes, for maps that keep their values outside of the Java heap.
+ *
+ * @param <V> the type of the values.
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * @param value the value to encode, never <code>null</code>
+     * @return the encoded value
+     */
+    byte[] encode(V value);
+
+    /**
+     * Decodes a value written by {@link #encode(Object)}. Implementations must only use absolute reads, so the
+     * position and limit of <code>buffer</code> are left untouched and the buffer can be shared between threads.
+     *
+     * @param buffer the buffer holding the encoded value
+     * @param offset the absolute index of the first byte of the encoded value
+     * @param length the number of bytes of the encoded value
+     * @return the decoded value
+     */
+    V decode(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * @return a codec storing strings as UTF-8.
+     */
+    static ValueCodec<String> utf8() {
+        return new ValueCodec<String>() {
+            @Override
+            public byte[] encode(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer, int offset, int length) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(offset + i);
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests shared by the thread-safe {@link IntervalMap} implementations.
+ */
+public abstract class AbstractConcurrentIntervalMapTest {
+
+    protected final long seed = System.currentTimeMillis();
+    protected final Random random = new Random(seed);
+
+    /**
+     * @return the map under test, the same instance on every call
+     */
+    protected abstract IntervalMap<Ipv4Interval, Ipv4Interval> subject();
+
+    @Test
+    public void readers_see_consistent_tree_during_updates() throws InterruptedException {
+        final IntervalMap<Ipv4Interval, Ipv4Interval> subject = subject();
+        final Ipv4Interval parent = Ipv4Interval.parse("10/8");
+        final Ipv4Interval child = Ipv4Interval.parse("10.1/16");
+        subject.put(parent, parent);
+        subject.put(child, child);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            List<Ipv4Interval> lessSpecific = subject.findExactAndAllLessSpecific(Ipv4Interval.parse("10.1.1.1"));
+                            if (lessSpecific.size() < 2 || !lessSpecific.get(0).equals(parent) || !lessSpecific.get(1).equals(child)) {
+                                throw new AssertionError("unexpected " + lessSpecific);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            Ipv4Interval interval = randomIpv4Interval(random, child, 9);
+            if (interval.equals(child)) {
+                continue;
+            }
+            if (random.nextBoolean()) {
+                putUnlessIntersecting(subject, interval, interval);
+            } else {
+                subject.remove(interval);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat("failed with seed: " + seed + ": " + failure.get(), failure.get(), is(nullValue()));
+    }
+}
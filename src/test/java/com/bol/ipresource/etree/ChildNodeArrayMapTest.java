@@ -0,0 +1,166 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ChildNodeArrayMapTest {
+
+    private final InternalNode<Ipv4Interval, String> parent = new InternalNode<>(Ipv4Interval.parse("10/8"), "10/8");
+
+    @Test
+    public void add_and_find() {
+        ChildNodeArrayMap<Ipv4Interval, String> subject = new ChildNodeArrayMap<>();
+        subject.addChild(node("10.0.2/24"));
+        subject.addChild(node("10.0.0/24"));
+        subject.addChild(node("10.0.1/24"));
+        subject.addChild(node("10.0.1.128/25"));
+
+        assertThat(subject.size(), is(3));
+        assertThat(subject.nodeCount(), is(4));
+        assertThat(subject.coverage(), is(BigInteger.valueOf(768)));
+        assertThat(subject.getChildContaining(Ipv4Interval.parse("10.0.1.1")).getInterval(), is(Ipv4Interval.parse("10.0.1/24")));
+        assertThat(intervals(subject.valuesEndingWithin(Ipv4Interval.parse("10.0.0.128 - 10.0.2.0"))), contains(Ipv4Interval.parse("10.0.0/24"), Ipv4Interval.parse("10.0.1/24")));
+        assertThat(subject.getChildEndingAfter(Ipv4Interval.parse("10.0.1.255")).getInterval(), is(Ipv4Interval.parse("10.0.2/24")));
+    }
+
+    @Test
+    public void add_transfers_contained_children() {
+        ChildNodeArrayMap<Ipv4Interval, String> subject = new ChildNodeArrayMap<>();
+        subject.addChild(node("10.0.0/24"));
+        subject.addChild(node("10.0.1/24"));
+        subject.addChild(node("10.0.3/24"));
+        subject.addChild(node("10.0.0/23"));
+
+        assertThat(intervals(subject.values()), contains(Ipv4Interval.parse("10.0.0/23"), Ipv4Interval.parse("10.0.3/24")));
+        assertThat(subject.nodeCount(), is(4));
+        assertThat(subject.coverage(), is(BigInteger.valueOf(768)));
+    }
+
+    @Test
+    public void sums_children_ending_within() {
+        ChildNodeArrayMap<Ipv4Interval, String> subject = new ChildNodeArrayMap<>();
+        subject.addChild(node("10.0.0/24"));
+        subject.addChild(node("10.0.1/24"));
+        subject.addChild(node("10.0.1.128/25"));
+        subject.addChild(node("10.0.2/24"));
+
+        Ipv4Interval range = Ipv4Interval.parse("10.0.0.128 - 10.0.1.255");
+        assertThat(subject.nodeCountEndingWithin(range), is(3));
+        assertThat(subject.coverageEndingWithin(range), is(BigInteger.valueOf(512)));
+
+        subject.addChild(node("10.0.1.0/25"));
+        subject.removeChild(Ipv4Interval.parse("10.0.0/24"));
+        assertThat(subject.nodeCountEndingWithin(range), is(3));
+        assertThat(subject.coverageEndingWithin(range), is(BigInteger.valueOf(256)));
+        assertThat(subject.nodeCountEndingWithin(Ipv4Interval.parse("10.0.3/24")), is(0));
+    }
+
+    @Test
+    public void add_intersecting() {
+        ChildNodeArrayMap<Ipv4Interval, String> subject = new ChildNodeArrayMap<>();
+        subject.addChild(node("10.0.0/24"));
+        try {
+            subject.addChild(node("10.0.0.128 - 10.0.1.127"));
+            fail();
+        } catch (IntersectingIntervalException expected) {
+            assertThat(expected.getIntersections(), contains(Ipv4Interval.parse("10.0.0/24")));
+        }
+        assertThat(subject.size(), is(1));
+    }
+
+    @Test
+    public void remove_promotes_children() {
+        ChildNodeArrayMap<Ipv4Interval, String> subject = new ChildNodeArrayMap<>();
+        subject.addChild(node("10.0.0/23"));
+        subject.addChild(node("10.0.0/24"));
+        subject.addChild(node("10.0.1/24"));
+        subject.addChild(node("10.0.2/24"));
+
+        assertThat(subject.removeChild(Ipv4Interval.parse("10.0.0/23")), is("10.0.0/23"));
+        assertThat(intervals(subject.values()), contains(Ipv4Interval.parse("10.0.0/24"), Ipv4Interval.parse("10.0.1/24"), Ipv4Interval.parse("10.0.2/24")));
+        assertThat(subject.nodeCount(), is(3));
+        assertThat(subject.removeChild(Ipv4Interval.parse("10.0.3/24")), is((String) null));
+    }
+
+    @Test
+    public void children_switch_representation() {
+        for (int i = 0; i <= ChildNodeArrayMap.MAX_SIZE; i++) {
+            assertThat(parent.getChildren(), i == 0 ? sameInstance(ChildNodeTreeMap.EMPTY) : instanceOf(ChildNodeArrayMap.class));
+            parent.addChild(node(i));
+        }
+        assertThat(parent.getChildren(), instanceOf(ChildNodeChunkMap.class));
+        assertThat(parent.getChildren().nodeCount(), is(ChildNodeArrayMap.MAX_SIZE + 1));
+
+        for (int i = ChildNodeArrayMap.MAX_SIZE; i >= ChildNodeArrayMap.MIN_TREE_SIZE; i--) {
+            assertThat(parent.getChildren(), instanceOf(ChildNodeChunkMap.class));
+            parent.removeChild(node(i).getInterval());
+        }
+        assertThat(parent.getChildren(), instanceOf(ChildNodeChunkMap.class));
+        parent.removeChild(node(ChildNodeArrayMap.MIN_TREE_SIZE - 1).getInterval());
+        assertThat(parent.getChildren(), instanceOf(ChildNodeArrayMap.class));
+        assertThat(parent.getChildren().nodeCount(), is(ChildNodeArrayMap.MIN_TREE_SIZE - 1));
+
+        for (int i = ChildNodeArrayMap.MIN_TREE_SIZE - 2; i >= 0; i--) {
+            parent.removeChild(node(i).getInterval());
+        }
+        assertThat(parent.getChildren(), sameInstance(ChildNodeTreeMap.EMPTY));
+    }
+
+    @Test
+    public void equals_regardless_of_representation() {
+        ChildNodeArrayMap<Ipv4Interval, String> array = new ChildNodeArrayMap<>();
+        ChildNodeTreeMap<Ipv4Interval, String> tree = new ChildNodeTreeMap<>();
+        for (int i = 0; i < 10; i++) {
+            array.addChild(node(i));
+            tree.addChild(node(i));
+        }
+
+        assertEquals(tree, array);
+        assertEquals(array, tree);
+        assertEquals(tree.hashCode(), array.hashCode());
+        assertEquals(tree.toString(), array.toString());
+        assertEquals(new ChildNodeArrayMap<Ipv4Interval, String>(), ChildNodeTreeMap.EMPTY);
+    }
+
+    @Test
+    public void copy_keeps_representation_by_size() {
+        for (int i = 0; i <= ChildNodeArrayMap.MAX_SIZE; i++) {
+            parent.addChild(node(i));
+        }
+        InternalNode<Ipv4Interval, String> copy = new InternalNode<>(parent);
+
+        assertEquals(parent, copy);
+        assertThat(copy.getChildren(), instanceOf(ChildNodeChunkMap.class));
+        assertThat(ChildNodeArrayMap.modifiableCopyOf(copy.getChildren()), instanceOf(ChildNodeChunkMap.class));
+        assertThat(ChildNodeArrayMap.modifiableCopyOf(ChildNodeTreeMap.<Ipv4Interval, String>empty()), instanceOf(ChildNodeArrayMap.class));
+    }
+
+    private static InternalNode<Ipv4Interval, String> node(String prefix) {
+        return new InternalNode<>(Ipv4Interval.parse(prefix), prefix);
+    }
+
+    private static InternalNode<Ipv4Interval, String> node(int index) {
+        Ipv4Interval interval = Ipv4Interval.parsePrefixWithLength(0x0a000000L + (index << 8), 24);
+        return new InternalNode<>(interval, interval.toString());
+    }
+
+    private static List<Ipv4Interval> intervals(Iterable<InternalNode<Ipv4Interval, String>> nodes) {
+        List<Ipv4Interval> result = new ArrayList<>();
+        for (InternalNode<Ipv4Interval, String> node : nodes) {
+            result.add(node.getInterval());
+        }
+        return result;
+    }
+}
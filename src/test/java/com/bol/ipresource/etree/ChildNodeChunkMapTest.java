@@ -0,0 +1,140 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ChildNodeChunkMapTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void add_transfers_contained_children() {
+        ChildNodeChunkMap<Ipv4Interval, String> subject = new ChildNodeChunkMap<>();
+        subject.addChild(node("10.0.0/24"));
+        subject.addChild(node("10.0.1/24"));
+        subject.addChild(node("10.0.3/24"));
+        subject.addChild(node("10.0.0/23"));
+
+        assertThat(intervals(subject.values()), contains(Ipv4Interval.parse("10.0.0/23"), Ipv4Interval.parse("10.0.3/24")));
+        assertThat(subject.nodeCount(), is(4));
+
+        assertThat(subject.removeChild(Ipv4Interval.parse("10.0.0/23")), is("10.0.0/23"));
+        assertThat(intervals(subject.values()), contains(Ipv4Interval.parse("10.0.0/24"), Ipv4Interval.parse("10.0.1/24"), Ipv4Interval.parse("10.0.3/24")));
+        assertThat(subject.nodeCount(), is(3));
+    }
+
+    @Test
+    public void should_match_tree_map() {
+        ChildNodeChunkMap<Ipv4Interval, String> subject = new ChildNodeChunkMap<>();
+        ChildNodeTreeMap<Ipv4Interval, String> expected = new ChildNodeTreeMap<>();
+        List<Ipv4Interval> keys = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            if (keys.isEmpty() || random.nextInt(3) > 0) {
+                Ipv4Interval interval = randomInterval();
+                try {
+                    expected.addChild(new InternalNode<>(interval, interval.toString()));
+                } catch (IntersectingIntervalException e) {
+                    continue;
+                }
+                subject.addChild(new InternalNode<>(interval, interval.toString()));
+                keys.add(interval);
+            } else {
+                Ipv4Interval key = keys.remove(random.nextInt(keys.size()));
+                assertEquals("failed with seed: " + seed, expected.removeChild(key), subject.removeChild(key));
+            }
+
+            if (i % 1000 == 0) {
+                assertSameChildren(expected, subject);
+            }
+        }
+        assertSameChildren(expected, subject);
+        for (int i = 0; i < 1000; i++) {
+            Ipv4Interval range = randomInterval();
+            String message = "range: " + range + ", seed: " + seed;
+            assertEquals(message, intervals(expected.valuesEndingWithin(range)), intervals(subject.valuesEndingWithin(range)));
+            assertEquals(message, expected.getChildContaining(range), subject.getChildContaining(range));
+            assertEquals(message, expected.getChildEndingAfter(range), subject.getChildEndingAfter(range));
+            assertEquals(message, expected.nodeCountEndingWithin(range), subject.nodeCountEndingWithin(range));
+            assertEquals(message, expected.coverageEndingWithin(range), subject.coverageEndingWithin(range));
+            List<InternalNode<Ipv4Interval, String>> expectedNodes = new ArrayList<>();
+            List<InternalNode<Ipv4Interval, String>> nodes = new ArrayList<>();
+            expected.findExactAndAllMoreSpecific(expectedNodes, range);
+            subject.findExactAndAllMoreSpecific(nodes, range);
+            assertEquals(message, expectedNodes, nodes);
+        }
+    }
+
+    @Test
+    public void copy_shares_chunks_without_changing_source() {
+        ChildNodeChunkMap<Ipv4Interval, String> source = new ChildNodeChunkMap<>();
+        for (int i = 0; i < 5000; i++) {
+            source.addChild(node(i));
+        }
+        String before = source.toString();
+
+        ChildNodeChunkMap<Ipv4Interval, String> copy = ChildNodeChunkMap.copyOf(source);
+        for (int i = 0; i < 5000; i += 2) {
+            copy.removeChild(node(i).getInterval());
+        }
+        copy.addChild(new InternalNode<>(Ipv4Interval.parse("10/8"), "10/8"));
+
+        assertEquals(before, source.toString());
+        assertThat(source.size(), is(5000));
+        assertThat(copy.size(), is(1));
+        assertThat(copy.nodeCount(), is(2501));
+    }
+
+    @Test
+    public void copy_of_other_map() {
+        ChildNodeTreeMap<Ipv4Interval, String> tree = new ChildNodeTreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            tree.addChild(node(i));
+        }
+        ChildNodeChunkMap<Ipv4Interval, String> copy = ChildNodeChunkMap.copyOf(tree);
+
+        assertEquals(tree, copy);
+        assertEquals(copy, tree);
+        assertEquals(tree.hashCode(), copy.hashCode());
+        assertThat(copy.nodeCount(), is(1000));
+        assertEquals(tree.coverage(), copy.coverage());
+    }
+
+    private void assertSameChildren(ChildNodeTreeMap<Ipv4Interval, String> expected, ChildNodeChunkMap<Ipv4Interval, String> subject) {
+        String message = "failed with seed: " + seed;
+        assertEquals(message, intervals(expected.values()), intervals(subject.values()));
+        assertEquals(message, expected.nodeCount(), subject.nodeCount());
+        assertEquals(message, expected.coverage(), subject.coverage());
+    }
+
+    private Ipv4Interval randomInterval() {
+        long begin = random.nextInt(1 << 20);
+        return new Ipv4Interval(begin, begin + random.nextInt(1 << random.nextInt(12)));
+    }
+
+    private static InternalNode<Ipv4Interval, String> node(String prefix) {
+        return new InternalNode<>(Ipv4Interval.parse(prefix), prefix);
+    }
+
+    private static InternalNode<Ipv4Interval, String> node(int index) {
+        Ipv4Interval interval = Ipv4Interval.parsePrefixWithLength(0x0a000000L + (index << 8), 24);
+        return new InternalNode<>(interval, interval.toString());
+    }
+
+    private static List<Ipv4Interval> intervals(Iterable<InternalNode<Ipv4Interval, String>> nodes) {
+        List<Ipv4Interval> result = new ArrayList<>();
+        for (InternalNode<Ipv4Interval, String> node : nodes) {
+            result.add(node.getInterval());
+        }
+        return result;
+    }
+}
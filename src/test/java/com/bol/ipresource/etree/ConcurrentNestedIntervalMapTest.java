@@ -0,0 +1,93 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConcurrentNestedIntervalMapTest extends AbstractConcurrentIntervalMapTest {
+
+    private final ConcurrentNestedIntervalMap<Ipv4Interval, Ipv4Interval> subject = new ConcurrentNestedIntervalMap<>();
+
+    @Override
+    protected IntervalMap<Ipv4Interval, Ipv4Interval> subject() {
+        return subject;
+    }
+
+    @Test
+    public void put_and_remove_nested() {
+        Ipv4Interval parent = Ipv4Interval.parse("10/8");
+        Ipv4Interval child = Ipv4Interval.parse("10.1/16");
+        Ipv4Interval grandChild = Ipv4Interval.parse("10.1.1/24");
+
+        assertThat(subject.put(grandChild, grandChild), is(nullValue()));
+        assertThat(subject.put(parent, parent), is(nullValue()));
+        assertThat(subject.put(child, child), is(nullValue()));
+        assertThat(subject.findAllLessSpecific(grandChild), contains(parent, child));
+
+        assertThat(subject.put(child, grandChild), is(child));
+        assertThat(subject.findExact(child), contains(grandChild));
+        assertThat(subject.findAllMoreSpecific(parent), contains(grandChild, grandChild));
+
+        assertThat(subject.remove(child), is(grandChild));
+        assertThat(subject.findFirstMoreSpecific(parent), contains(grandChild));
+        assertThat(subject.remove(grandChild), is(grandChild));
+        assertThat(subject.findAllMoreSpecific(parent), empty());
+        assertThat(subject.remove(grandChild), is(nullValue()));
+    }
+
+    @Test
+    public void failed_put_leaves_map_untouched() {
+        Ipv4Interval parent = Ipv4Interval.parse("10/8");
+        Ipv4Interval child = Ipv4Interval.parse("10.0.0.0 - 10.0.0.100");
+        subject.put(parent, parent);
+        subject.put(child, child);
+        String before = subject.toString();
+
+        try {
+            subject.put(Ipv4Interval.parse("10.0.0.50 - 10.0.0.200"), parent);
+            fail();
+        } catch (IntersectingIntervalException expected) {
+        }
+        assertEquals(before, subject.toString());
+    }
+
+    @Test
+    public void should_match_nested_interval_map() {
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> expected = new NestedIntervalMap<>();
+        List<Ipv4Interval> added = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            if (!added.isEmpty() && random.nextInt(3) == 0) {
+                Ipv4Interval interval = added.remove(random.nextInt(added.size()));
+                assertEquals("failed with seed: " + seed, expected.remove(interval), subject.remove(interval));
+            } else {
+                Ipv4Interval interval = randomIpv4Interval(random);
+                if (putUnlessIntersecting(expected, interval, interval)) {
+                    subject.put(interval, interval);
+                    added.add(interval);
+                }
+            }
+        }
+
+        assertEquals("failed with seed: " + seed, expected.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE));
+        assertEquals("failed with seed: " + seed, expected.size(), subject.size());
+        for (Ipv4Interval interval : added) {
+            assertEquals("failed with seed: " + seed, expected.findAllLessSpecific(interval), subject.findAllLessSpecific(interval));
+            assertEquals("failed with seed: " + seed, expected.findAllMoreSpecific(interval), subject.findAllMoreSpecific(interval));
+            assertEquals("failed with seed: " + seed, subject.findAllMoreSpecific(interval).size(), subject.countAllMoreSpecific(interval));
+            assertEquals("failed with seed: " + seed, expected.coveredAddressCount(interval), subject.coveredAddressCount(interval));
+        }
+        assertEquals("failed with seed: " + seed, expected.toString(), subject.toString());
+    }
+}
@@ -0,0 +1,164 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+import com.bol.ipresource.ip.Ipv4Interval;
+import com.bol.ipresource.ip.Ipv6Interval;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static com.bol.ipresource.etree.RandomIntervals.putRandom;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ImmutableNestedIntervalMapTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private NestedIntervalMap<Ipv4Interval, Ipv4Interval> source;
+    private List<Ipv4Interval> everything;
+    private ImmutableNestedIntervalMap<Ipv4Interval, Ipv4Interval> subject;
+
+    @Before
+    public void setup() {
+        source = new NestedIntervalMap<>();
+        everything = putRandom(source, () -> randomIpv4Interval(random), 2000);
+        subject = ImmutableNestedIntervalMap.copyOf(source);
+    }
+
+    @Test
+    public void should_find_everything() {
+        assertEquals("failed with seed: " + seed, source.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE));
+        assertEquals(source.findAllMoreSpecific(Ipv4Interval.MAX_RANGE).size(), subject.size());
+    }
+
+    @Test
+    public void should_match_source_for_stored_intervals() {
+        for (Ipv4Interval interval : everything) {
+            assertSameResults(interval);
+        }
+    }
+
+    @Test
+    public void should_match_source_for_random_intervals() {
+        for (int i = 0; i < 2000; i++) {
+            assertSameResults(randomIpv4Interval(random));
+        }
+    }
+
+    @Test
+    public void should_not_see_later_modifications() {
+        Ipv4Interval interval = everything.get(0);
+        source.remove(interval);
+        assertThat(subject.findExact(interval), contains(interval));
+
+        subject = ImmutableNestedIntervalMap.copyOf(source);
+        assertThat(subject.findExact(interval), empty());
+    }
+
+    @Test
+    public void should_match_source_for_ipv6_keys() {
+        // the IPv4 bounds shifted into the upper half of both longs, so unsigned comparison matters
+        assertSameResultsForConvertedKeys(interval -> new Ipv6Interval(
+                interval.begin() << 32, interval.begin() << 32, interval.end() << 32 | 0xffffffffL, interval.end() << 32 | 0xffffffffL));
+    }
+
+    @Test
+    public void should_match_source_for_other_keys() {
+        assertSameResultsForConvertedKeys(interval -> new Span(interval.begin(), interval.end()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void put_is_unsupported() {
+        subject.put(Ipv4Interval.MAX_RANGE, Ipv4Interval.MAX_RANGE);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void remove_is_unsupported() {
+        subject.remove(Ipv4Interval.MAX_RANGE);
+    }
+
+    private <K extends Interval<K>> void assertSameResultsForConvertedKeys(Function<Ipv4Interval, K> convert) {
+        NestedIntervalMap<K, Ipv4Interval> converted = new NestedIntervalMap<>();
+        for (Ipv4Interval interval : everything) {
+            converted.put(convert.apply(interval), interval);
+        }
+        ImmutableNestedIntervalMap<K, Ipv4Interval> copy = ImmutableNestedIntervalMap.copyOf(converted);
+        assertEquals("failed with seed: " + seed, converted.toString(), copy.toString());
+        for (int i = 0; i < 2000; i++) {
+            K key = convert.apply(i % 2 == 0 ? everything.get(random.nextInt(everything.size())) : randomIpv4Interval(random));
+            assertSameResults(converted, copy, key);
+        }
+    }
+
+    private void assertSameResults(Ipv4Interval key) {
+        assertSameResults(source, subject, key);
+    }
+
+    private <K extends Interval<K>> void assertSameResults(NestedIntervalMap<K, Ipv4Interval> source, ImmutableNestedIntervalMap<K, Ipv4Interval> subject, K key) {
+        String message = "key: " + key + ", seed: " + seed;
+        assertEquals(message, source.findExact(key), subject.findExact(key));
+        assertEquals(message, source.findFirstLessSpecific(key), subject.findFirstLessSpecific(key));
+        assertEquals(message, source.findExactOrFirstLessSpecific(key), subject.findExactOrFirstLessSpecific(key));
+        assertEquals(message, source.findAllLessSpecific(key), subject.findAllLessSpecific(key));
+        assertEquals(message, source.findExactAndAllLessSpecific(key), subject.findExactAndAllLessSpecific(key));
+        assertEquals(message, source.findFirstMoreSpecific(key), subject.findFirstMoreSpecific(key));
+        assertEquals(message, source.findAllMoreSpecific(key), subject.findAllMoreSpecific(key));
+        assertEquals(message, source.findExactAndAllMoreSpecific(key), subject.findExactAndAllMoreSpecific(key));
+    }
+
+    /*
+     * Interval of a type the snapshot knows nothing about.
+     */
+    private static final class Span implements Interval<Span> {
+        private final long begin;
+        private final long end;
+
+        private Span(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public boolean contains(Span that) {
+            return begin <= that.begin && end >= that.end;
+        }
+
+        @Override
+        public boolean intersects(Span that) {
+            return begin <= that.end && end >= that.begin;
+        }
+
+        @Override
+        public Span singletonIntervalAtLowerBound() {
+            return new Span(begin, begin);
+        }
+
+        @Override
+        public int compareUpperBound(Span that) {
+            return Long.compare(end, that.end);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Span && begin == ((Span) obj).begin && end == ((Span) obj).end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(begin) * 31 + Long.hashCode(end);
+        }
+
+        @Override
+        public String toString() {
+            return begin + "-" + end;
+        }
+    }
+}
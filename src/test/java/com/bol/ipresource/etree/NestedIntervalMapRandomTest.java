@@ -5,6 +5,8 @@ import com.bol.ipresource.util.CollectionHelper;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.math.BigInteger;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -13,6 +15,7 @@ import java.util.Map;
 import java.util.Random;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -90,6 +93,52 @@ public class NestedIntervalMapRandomTest {
         assertEquals("failed with seed: " + seed, everything, subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE));
     }
 
+    @Test
+    public void bulk_load_should_build_same_tree() {
+        List<Map.Entry<Ipv4Interval, Ipv4Interval>> entries = new ArrayList<>();
+        for (Ipv4Interval interval : everything) {
+            entries.add(new AbstractMap.SimpleEntry<>(interval, interval));
+        }
+        Collections.shuffle(entries, random);
+        assertEquals("failed with seed: " + seed, subject, NestedIntervalMap.bulkLoad(entries.iterator()));
+    }
+
+    @Test
+    public void exact_index_should_match_tree() {
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> indexed = new NestedIntervalMap<>(true);
+        List<Ipv4Interval> shuffled = new ArrayList<>(everything);
+        Collections.shuffle(shuffled, random);
+        for (Ipv4Interval interval : shuffled) {
+            indexed.put(interval, interval);
+        }
+        for (Ipv4Interval interval : shuffled.subList(0, shuffled.size() / 2)) {
+            subject.remove(interval);
+            indexed.remove(interval);
+        }
+        for (Ipv4Interval interval : shuffled.subList(0, shuffled.size() / 4)) {
+            Ipv4Interval value = randomIpv4Interval();
+            subject.put(interval, value);
+            indexed.put(interval, value);
+        }
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> copy = new NestedIntervalMap<>(indexed);
+
+        assertEquals("failed with seed: " + seed, subject, indexed);
+        List<Ipv4Interval> keys = new ArrayList<>(everything);
+        for (int i = 0; i < 100; i++) {
+            keys.add(randomIpv4Interval());
+        }
+        for (Ipv4Interval key : keys) {
+            String message = "key: " + key + ", seed: " + seed;
+            assertEquals(message, subject.findExact(key), indexed.findExact(key));
+            assertEquals(message, subject.findExactOrFirstLessSpecific(key), indexed.findExactOrFirstLessSpecific(key));
+            assertEquals(message, subject.findAllMoreSpecific(key), indexed.findAllMoreSpecific(key));
+            assertEquals(message, subject.findExact(key), copy.findExact(key));
+        }
+
+        indexed.clear();
+        assertThat(indexed.findExact(everything.get(0)), is(Collections.<Ipv4Interval>emptyList()));
+    }
+
     @Test
     public void should_find_every_interval_individually() {
         for (Ipv4Interval interval : everything) {
@@ -135,6 +184,38 @@ public class NestedIntervalMapRandomTest {
         }
     }
 
+    @Test
+    public void should_count_all_more_specific() {
+        List<Ipv4Interval> ranges = new ArrayList<>(everything);
+        for (int i = 0; i < 100; ++i) {
+            ranges.add(randomIpv4Interval());
+        }
+        assertCounts(subject, ranges);
+        assertCounts(new NestedIntervalMap<>(subject), ranges);
+
+        Collections.shuffle(everything, random);
+        for (Ipv4Interval interval : everything.subList(0, everything.size() / 2)) {
+            subject.remove(interval);
+        }
+        assertCounts(subject, ranges);
+        for (Ipv4Interval interval : everything.subList(0, everything.size() / 2)) {
+            subject.put(interval, interval);
+        }
+        assertCounts(subject, ranges);
+    }
+
+    private void assertCounts(NestedIntervalMap<Ipv4Interval, Ipv4Interval> map, List<Ipv4Interval> ranges) {
+        assertEquals("failed with seed: " + seed, map.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE).size(), map.size());
+        for (Ipv4Interval range : ranges) {
+            assertEquals("range: " + range + ", seed: " + seed, map.findAllMoreSpecific(range).size(), map.countAllMoreSpecific(range));
+            BigInteger coverage = BigInteger.ZERO;
+            for (Ipv4Interval interval : map.findFirstMoreSpecific(range)) {
+                coverage = coverage.add(interval.size());
+            }
+            assertEquals("range: " + range + ", seed: " + seed, coverage, map.coveredAddressCount(range));
+        }
+    }
+
     @Test
     public void should_promote_children_of_delete_node_to_parent() {
         for (int i = 0; i < 10; ) {
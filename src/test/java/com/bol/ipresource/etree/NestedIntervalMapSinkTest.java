@@ -0,0 +1,165 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import com.bol.ipresource.ip.Ipv6Interval;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static com.bol.ipresource.etree.RandomIntervals.putRandom;
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.junit.Assert.assertEquals;
+
+public class NestedIntervalMapSinkTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private NestedIntervalMap<Ipv4Interval, Ipv4Interval> subject;
+    private List<Ipv4Interval> keys;
+
+    @Before
+    public void setup() {
+        subject = new NestedIntervalMap<>();
+        keys = putRandom(subject, () -> randomIpv4Interval(random), 2000);
+        for (int i = 0; i < 2000; i++) {
+            keys.add(randomIpv4Interval(random));
+        }
+    }
+
+    @Test
+    public void sinks_should_receive_same_values_as_lists() {
+        for (IntervalMap<Ipv4Interval, Ipv4Interval> map : new IntervalMap[]{subject, ImmutableNestedIntervalMap.copyOf(subject), new ConcurrentNestedIntervalMap<>(subject)}) {
+            for (Ipv4Interval key : keys) {
+                String message = "key: " + key + ", seed: " + seed;
+                List<Ipv4Interval> result = new ArrayList<>();
+                map.findFirstLessSpecific(key, result::add);
+                assertEquals(message, subject.findFirstLessSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findExact(key, result::add);
+                assertEquals(message, subject.findExact(key), result);
+
+                result = new ArrayList<>();
+                map.findExactOrFirstLessSpecific(key, result::add);
+                assertEquals(message, subject.findExactOrFirstLessSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findAllLessSpecific(key, result::add);
+                assertEquals(message, subject.findAllLessSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findExactAndAllLessSpecific(key, result::add);
+                assertEquals(message, subject.findExactAndAllLessSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findFirstMoreSpecific(key, result::add);
+                assertEquals(message, subject.findFirstMoreSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findAllMoreSpecific(key, result::add);
+                assertEquals(message, subject.findAllMoreSpecific(key), result);
+
+                result = new ArrayList<>();
+                map.findExactAndAllMoreSpecific(key, result::add);
+                assertEquals(message, subject.findExactAndAllMoreSpecific(key), result);
+            }
+        }
+    }
+
+    @Test
+    public void less_specific_sinks_should_not_allocate() {
+        Counter counter = new Counter();
+        Ipv4Interval[] lookups = keys.toArray(new Ipv4Interval[keys.size()]);
+
+        assertNotAllocating(() -> lookup(lookups, counter));
+    }
+
+    @Test
+    public void ipv6_sinks_below_top_level_should_not_allocate() {
+        // few enough children per node to keep them in arrays, and lookups below the top level
+        NestedIntervalMap<Ipv6Interval, Ipv6Interval> map = new NestedIntervalMap<>();
+        List<Ipv6Interval> lookups = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            long msb = 0x20010db800000000L + ((long) i << 32);
+            map.put(new Ipv6Interval(msb, 0, 32), new Ipv6Interval(msb, 0, 32));
+            for (int j = 0; j < 60; j++) {
+                Ipv6Interval interval = new Ipv6Interval(msb | (random.nextLong() >>> 32), random.nextLong(), 40 + random.nextInt(89));
+                lookups.add(interval);
+                putUnlessIntersecting(map, interval, interval);
+            }
+        }
+        Ipv6Counter counter = new Ipv6Counter();
+        Ipv6Interval[] keys = lookups.toArray(new Ipv6Interval[lookups.size()]);
+
+        assertNotAllocating(() -> lookup(map, keys, counter));
+    }
+
+    /*
+     * The first rounds may allocate while classes are loaded and code is compiled, so a few rounds are allowed.
+     */
+    private void assertNotAllocating(Runnable lookups) {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = -1;
+        for (int round = 0; round < 5 && allocated != 0; round++) {
+            lookups.run();
+
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            lookups.run();
+            long after = threadMXBean.getThreadAllocatedBytes(threadId);
+            allocated = (after - before) - (before - start);
+        }
+
+        assertEquals("failed with seed: " + seed, 0, allocated);
+    }
+
+    private void lookup(NestedIntervalMap<Ipv6Interval, Ipv6Interval> map, Ipv6Interval[] lookups, Ipv6Counter counter) {
+        for (Ipv6Interval key : lookups) {
+            map.findExactAndAllLessSpecific(key, counter);
+            map.findExactOrFirstLessSpecific(key, counter);
+            map.findFirstMoreSpecific(key, counter);
+            map.findAllMoreSpecific(key, counter);
+            map.findExactAndAllMoreSpecific(key, counter);
+        }
+    }
+
+    private void lookup(Ipv4Interval[] lookups, Counter counter) {
+        for (Ipv4Interval key : lookups) {
+            subject.findFirstLessSpecific(key, counter);
+            subject.findExact(key, counter);
+            subject.findExactOrFirstLessSpecific(key, counter);
+            subject.findAllLessSpecific(key, counter);
+            subject.findExactAndAllLessSpecific(key, counter);
+        }
+    }
+
+    private static final class Counter implements Consumer<Ipv4Interval> {
+        private long count;
+
+        @Override
+        public void accept(Ipv4Interval interval) {
+            count++;
+        }
+    }
+
+    private static final class Ipv6Counter implements Consumer<Ipv6Interval> {
+        private long count;
+
+        @Override
+        public void accept(Ipv6Interval interval) {
+            count++;
+        }
+    }
+}
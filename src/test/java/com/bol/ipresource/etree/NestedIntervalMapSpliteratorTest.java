@@ -0,0 +1,159 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static com.bol.ipresource.etree.RandomIntervals.putRandom;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class NestedIntervalMapSpliteratorTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private NestedIntervalMap<Ipv4Interval, Ipv4Interval> subject;
+    private List<Ipv4Interval> keys;
+
+    @Before
+    public void setup() {
+        subject = new NestedIntervalMap<>();
+        keys = putRandom(subject, () -> randomIpv4Interval(random), 5000);
+        for (int i = 0; i < 1000; i++) {
+            keys.add(randomIpv4Interval(random));
+        }
+    }
+
+    @Test
+    public void empty_map() {
+        NestedIntervalMap<Ipv4Interval, String> map = new NestedIntervalMap<>();
+
+        assertThat(map.stream().collect(Collectors.toList()), empty());
+        assertThat(map.entryStream(Ipv4Interval.parse("10/8")).collect(Collectors.toList()), empty());
+    }
+
+    @Test
+    public void stream_nested() {
+        NestedIntervalMap<Ipv4Interval, String> map = new NestedIntervalMap<>();
+        map.put(Ipv4Interval.parse("10/8"), "10/8");
+        map.put(Ipv4Interval.parse("10.0.0.0 - 10.0.0.100"), "range");
+        map.put(Ipv4Interval.parse("10.0.0.50"), "10.0.0.50");
+        map.put(Ipv4Interval.parse("10.0.0.200"), "10.0.0.200");
+        map.put(Ipv4Interval.parse("11/8"), "11/8");
+
+        assertThat(map.stream().collect(Collectors.toList()), contains("10/8", "range", "10.0.0.50", "10.0.0.200", "11/8"));
+        assertThat(map.stream(Ipv4Interval.parse("10.0.0.40 - 10.0.0.255")).collect(Collectors.toList()), contains("10.0.0.50", "10.0.0.200"));
+        assertThat(map.stream(Ipv4Interval.parse("10.0.0.0 - 10.0.0.100")).collect(Collectors.toList()), contains("range", "10.0.0.50"));
+        assertThat(map.entryStream(Ipv4Interval.parse("11/8")).map(Map.Entry::getKey).collect(Collectors.toList()), contains(Ipv4Interval.parse("11/8")));
+    }
+
+    @Test
+    public void stream_should_match_find_exact_and_all_more_specific() {
+        assertEquals("failed with seed: " + seed, subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), subject.stream().collect(Collectors.toList()));
+        for (Ipv4Interval key : keys) {
+            assertEquals("key: " + key + ", seed: " + seed, subject.findExactAndAllMoreSpecific(key), subject.stream(key).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void iterators_should_match_lists() {
+        for (Ipv4Interval key : keys) {
+            String message = "key: " + key + ", seed: " + seed;
+            List<Ipv4Interval> result = new ArrayList<>();
+            subject.iterateAllMoreSpecific(key).forEachRemaining(result::add);
+            assertEquals(message, subject.findAllMoreSpecific(key), result);
+
+            List<Ipv4Interval> expected = subject.findExactAndAllMoreSpecific(key);
+            int limit = random.nextInt(10);
+            assertEquals(message, expected.subList(0, Math.min(limit, expected.size())), subject.findExactAndAllMoreSpecific(key, limit));
+        }
+    }
+
+    @Test
+    public void entry_stream_keys_match_values() {
+        for (Map.Entry<Ipv4Interval, Ipv4Interval> entry : subject.entryStream().collect(Collectors.toList())) {
+            assertEquals(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Test
+    public void parallel_stream_should_keep_order() {
+        assertEquals("failed with seed: " + seed, subject.stream().collect(Collectors.toList()), subject.stream().parallel().collect(Collectors.toList()));
+        for (int i = 0; i < 100; i++) {
+            Ipv4Interval key = keys.get(random.nextInt(keys.size()));
+            assertEquals("key: " + key + ", seed: " + seed, subject.findExactAndAllMoreSpecific(key), subject.stream(key).parallel().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void splitting_should_keep_order() {
+        List<Ipv4Interval> result = new ArrayList<>();
+        collectSplit(subject.spliterator(), result);
+
+        assertEquals("failed with seed: " + seed, subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), result);
+    }
+
+    @Test
+    public void split_sizes_should_be_exact() {
+        assertEquals("failed with seed: " + seed, subject.size(), checkSplitSizes(subject.spliterator()));
+        for (int i = 0; i < 100; i++) {
+            // the keys in the map come first
+            Ipv4Interval key = keys.get(random.nextInt(keys.size() - 1000));
+            assertEquals("key: " + key + ", seed: " + seed, subject.findExactAndAllMoreSpecific(key).size(), checkSplitSizes(subject.spliterator(key)));
+        }
+    }
+
+    @Test
+    public void small_maps_are_not_split() {
+        NestedIntervalMap<Ipv4Interval, String> map = new NestedIntervalMap<>();
+        for (int i = 0; i < NodeSpliterator.MIN_SPLIT_SIZE - 1; i++) {
+            map.put(new Ipv4Interval(i, i), "value");
+        }
+        assertNull(map.spliterator().trySplit());
+    }
+
+    private long checkSplitSizes(Spliterator<Map.Entry<Ipv4Interval, Ipv4Interval>> spliterator) {
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        long expected = spliterator.estimateSize();
+        Spliterator<Map.Entry<Ipv4Interval, Ipv4Interval>> prefix = spliterator.trySplit();
+        long count = prefix == null ? 0 : checkSplitSizes(prefix);
+        if (random.nextBoolean() && spliterator.tryAdvance(entry -> { })) {
+            count++;
+        }
+        count += prefix == null ? countRemaining(spliterator) : checkSplitSizes(spliterator);
+        assertEquals("failed with seed: " + seed, expected, count);
+        return count;
+    }
+
+    private static long countRemaining(Spliterator<?> spliterator) {
+        long[] count = new long[1];
+        spliterator.forEachRemaining(element -> count[0]++);
+        return count[0];
+    }
+
+    private void collectSplit(Spliterator<Map.Entry<Ipv4Interval, Ipv4Interval>> spliterator, List<Ipv4Interval> result) {
+        if (random.nextInt(4) == 0) {
+            spliterator.tryAdvance(entry -> result.add(entry.getValue()));
+        }
+        Spliterator<Map.Entry<Ipv4Interval, Ipv4Interval>> prefix = spliterator.trySplit();
+        if (prefix == null) {
+            spliterator.forEachRemaining(entry -> result.add(entry.getValue()));
+        } else {
+            collectSplit(prefix, result);
+            collectSplit(spliterator, result);
+        }
+    }
+}
@@ -4,9 +4,14 @@ import com.bol.ipresource.ip.Ipv4Interval;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.math.BigInteger;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
@@ -229,6 +234,104 @@ public class NestedIntervalMapTest {
         assertEquals(asList(N1_4, N1_1, N2_2, N3_4, N3_3, N4_4), subject.findExactAndAllMoreSpecific(N1_4));
     }
 
+    @Test
+    public void find_exact_entry() {
+        NestedIntervalMap.Entry<Ipv4Interval, Ipv4Interval> entry = subject.findExactEntry(N5_8);
+
+        assertThat(entry.getKey(), is(N5_8));
+        assertThat(entry.getValue(), is(N5_8));
+        assertThat(entry.parent().getKey(), is(N5_10));
+        assertThat(entry.parent().parent().getKey(), is(N1_12));
+        assertThat(entry.parent().parent().parent(), nullValue());
+        assertThat(keys(entry.children()), contains(N5_5, N6_6, N7_7));
+        assertThat(keys(entry.parent().children()), contains(N5_8, N9_10));
+        assertThat(entry.children().get(0).parent(), is(entry));
+        assertEquals(new AbstractMap.SimpleImmutableEntry<>(N5_8, N5_8), entry);
+
+        assertThat(subject.findExactEntry(N8_8), nullValue());
+        assertThat(subject.findExactOrFirstLessSpecificEntry(N8_8).getKey(), is(N5_8));
+    }
+
+    @Test
+    public void entry_reflects_new_value() {
+        NestedIntervalMap.Entry<Ipv4Interval, Ipv4Interval> entry = subject.findExactEntry(N1_4);
+        subject.put(N1_4, N1_1);
+
+        assertThat(entry.getValue(), is(N1_1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void entry_set_value_not_supported() {
+        subject.findExactEntry(N1_4).setValue(N1_1);
+    }
+
+    private static List<Ipv4Interval> keys(List<NestedIntervalMap.Entry<Ipv4Interval, Ipv4Interval>> entries) {
+        List<Ipv4Interval> result = new ArrayList<>();
+        for (NestedIntervalMap.Entry<Ipv4Interval, Ipv4Interval> entry : entries) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    @Test
+    public void count_all_more_specific() {
+        assertThat(subject.size(), is(all.size()));
+        assertThat(subject.countAllMoreSpecific(N1_12), is(all.size() - 1));
+        assertThat(subject.countAllMoreSpecific(N5_10), is(7));
+        assertThat(subject.countAllMoreSpecific(new Ipv4Interval(3, 7)), is(6));
+        assertThat(subject.countAllMoreSpecific(N8_8), is(0));
+
+        subject.remove(N5_8);
+        assertThat(subject.countAllMoreSpecific(N5_10), is(6));
+        subject.put(N8_8, N8_8);
+        assertThat(subject.countAllMoreSpecific(N1_12), is(all.size() - 1));
+    }
+
+    @Test
+    public void covered_address_count() {
+        assertThat(subject.coveredAddressCount(N1_12), is(BigInteger.valueOf(12)));
+        assertThat(subject.coveredAddressCount(N5_10), is(BigInteger.valueOf(6)));
+        assertThat(subject.coveredAddressCount(N5_8), is(BigInteger.valueOf(3)));
+        assertThat(subject.coveredAddressCount(new Ipv4Interval(3, 7)), is(BigInteger.valueOf(5)));
+
+        subject.remove(N5_8);
+        assertThat(subject.coveredAddressCount(N5_10), is(BigInteger.valueOf(5)));
+    }
+
+    @Test
+    public void find_more_specific_with_limit() {
+        assertEquals(all.subList(1, 4), subject.findAllMoreSpecific(N1_12, 3));
+        assertEquals(asList(N1_4, N1_1), subject.findExactAndAllMoreSpecific(N1_4, 2));
+        assertEquals(asList(N3_4, N3_3, N4_4, N5_5, N6_6, N7_7), subject.findAllMoreSpecific(new Ipv4Interval(3, 7), 100));
+        assertThat(subject.findAllMoreSpecific(N1_12, 0), hasSize(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void find_more_specific_with_negative_limit() {
+        subject.findAllMoreSpecific(N1_12, -1);
+    }
+
+    @Test
+    public void iterate_more_specific() {
+        Iterator<Ipv4Interval> iterator = subject.iterateAllMoreSpecific(new Ipv4Interval(8, 9));
+        assertThat(iterator.next(), is(N9_9));
+        assertFalse(iterator.hasNext());
+
+        List<Ipv4Interval> result = new ArrayList<>();
+        subject.iterateExactAndAllMoreSpecific(N1_12).forEachRemaining(result::add);
+        assertEquals(all, result);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iterate_more_specific_fails_on_modification() {
+        Iterator<Ipv4Interval> iterator = subject.iterateAllMoreSpecific(N1_12);
+        iterator.next();
+        iterator.next();
+        subject.remove(N2_2);
+        subject.put(N8_8, N8_8);
+        iterator.next();
+    }
+
     @Test
     public void detect_intersect_on_lower_bound_of_new_interval() {
         Ipv4Interval child1 = new Ipv4Interval(1, 10);
@@ -294,4 +397,58 @@ public class NestedIntervalMapTest {
 
         assertThat(subject.findExact(intersect), hasSize(0));
     }
+
+    @Test
+    public void bulk_load() {
+        List<Map.Entry<Ipv4Interval, Ipv4Interval>> entries = new ArrayList<>();
+        for (Ipv4Interval n : all) {
+            entries.add(new AbstractMap.SimpleEntry<>(n, n));
+        }
+        Collections.reverse(entries);
+        entries.add(new AbstractMap.SimpleEntry<>(N5_8, N1_1));
+
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> loaded = NestedIntervalMap.bulkLoad(entries.iterator());
+
+        subject.put(N5_8, N1_1);
+        assertEquals(subject, loaded);
+        assertThat(loaded.findExact(N5_8), contains(N1_1));
+    }
+
+    @Test
+    public void bulk_load_sorted() {
+        List<Map.Entry<Ipv4Interval, Ipv4Interval>> entries = new ArrayList<>();
+        for (Ipv4Interval n : all) {
+            entries.add(new AbstractMap.SimpleEntry<>(n, n));
+        }
+        Collections.sort(entries, (o1, o2) -> o1.getKey().compareTo(o2.getKey()));
+
+        assertEquals(subject, NestedIntervalMap.bulkLoadSorted(entries.iterator()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulk_load_sorted_fails_on_unsorted_entries() {
+        List<Map.Entry<Ipv4Interval, Ipv4Interval>> entries = new ArrayList<>();
+        entries.add(new AbstractMap.SimpleEntry<>(N1_1, N1_1));
+        entries.add(new AbstractMap.SimpleEntry<>(N1_12, N1_12));
+
+        NestedIntervalMap.bulkLoadSorted(entries.iterator());
+    }
+
+    @Test
+    public void bulk_load_fails_on_intersecting_siblings() {
+        Ipv4Interval intersect = new Ipv4Interval(8, 13);
+        List<Map.Entry<Ipv4Interval, Ipv4Interval>> entries = new ArrayList<>();
+        entries.add(new AbstractMap.SimpleEntry<>(intersect, intersect));
+        for (Ipv4Interval n : all) {
+            entries.add(new AbstractMap.SimpleEntry<>(n, n));
+        }
+
+        try {
+            NestedIntervalMap.bulkLoad(entries.iterator());
+            fail("Exception expected");
+        } catch (IntersectingIntervalException expected) {
+            assertEquals(intersect, expected.getInterval());
+            assertEquals(asList(N5_8, N5_10, N1_12), expected.getIntersections());
+        }
+    }
 }
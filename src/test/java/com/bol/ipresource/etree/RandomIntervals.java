@@ -0,0 +1,85 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Interval;
+import com.bol.ipresource.ip.Ipv4Interval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Random keys and map contents shared by the tests that compare interval maps on random data. Callers pass in their
+ * own seeded {@link Random} so failures can be reproduced from the seed in the assertion message.
+ */
+public final class RandomIntervals {
+
+    private RandomIntervals() {
+    }
+
+    /**
+     * @return an interval starting anywhere in the IPv4 address space, of at most 2^27 addresses
+     */
+    public static Ipv4Interval randomIpv4Interval(Random random) {
+        return randomIpv4Interval(random, Ipv4Interval.MAX_RANGE, 28);
+    }
+
+    /**
+     * @param range       the interval the result is kept within
+     * @param maxSizeBits the result has at most 2^(maxSizeBits - 1) addresses, at most 31
+     * @return an interval starting anywhere in <code>range</code>, cut off at its end
+     */
+    public static Ipv4Interval randomIpv4Interval(Random random, Ipv4Interval range, int maxSizeBits) {
+        long begin = range.begin() + (random.nextLong() >>> 1) % (range.end() - range.begin() + 1);
+        long size = 1L << random.nextInt(maxSizeBits);
+        return new Ipv4Interval(begin, Math.min(begin + random.nextInt((int) size), range.end()));
+    }
+
+    /**
+     * @return a prefix of any length anywhere in the IPv4 address space
+     */
+    public static Ipv4Interval randomIpv4Prefix(Random random) {
+        return randomIpv4Prefix(random, Ipv4Interval.MAX_RANGE);
+    }
+
+    /**
+     * @param range a prefix
+     * @return <code>range</code> or a more specific prefix of it
+     */
+    public static Ipv4Interval randomIpv4Prefix(Random random, Ipv4Interval range) {
+        int prefixLength = range.getPrefixLength();
+        long begin = range.begin() + (random.nextLong() >>> 1) % (range.end() - range.begin() + 1);
+        return Ipv4Interval.parsePrefixWithLength(begin, prefixLength + random.nextInt(33 - prefixLength));
+    }
+
+    /**
+     * Puts <code>key</code> in <code>map</code>, unless it intersects with a key already in the map.
+     *
+     * @return false if the key was rejected with an {@link IntersectingIntervalException}
+     */
+    public static <K extends Interval<?>, V> boolean putUnlessIntersecting(IntervalMap<? super K, ? super V> map, K key, V value) {
+        try {
+            map.put(key, value);
+            return true;
+        } catch (IntersectingIntervalException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Puts <code>count</code> keys from <code>keys</code> in <code>map</code>, each mapped to itself, skipping the
+     * ones that intersect with a key already in the map.
+     *
+     * @return the keys that were put, in the order they were generated
+     */
+    public static <K extends Interval<?>> List<K> putRandom(IntervalMap<? super K, ? super K> map, Supplier<K> keys, int count) {
+        List<K> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            K key = keys.get();
+            if (putUnlessIntersecting(map, key, key)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+}
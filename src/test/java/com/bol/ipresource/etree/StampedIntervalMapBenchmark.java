@@ -0,0 +1,91 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+
+/**
+ * Compares the throughput of {@link StampedIntervalMap} with {@link SynchronizedIntervalMap} and
+ * {@link ConcurrentNestedIntervalMap} on a read-mostly workload: every thread looks up the first less specific of random
+ * addresses, and one in {@value #WRITE_INTERVAL} of its operations puts or removes a random /24 instead.
+ * <p/>
+ * Not run as part of the build; run <code>main</code> from the test classpath, optionally with the number of seconds
+ * to measure per run (2 by default) and the maximum number of threads (the number of processors by default). Each
+ * map is measured with 1, 2, 4, ... threads up to that maximum.
+ */
+public final class StampedIntervalMapBenchmark {
+    private static final int PREFIXES = 200_000;
+    private static final int WRITE_INTERVAL = 1000;
+
+    private StampedIntervalMapBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 2) * 1000;
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> source = new NestedIntervalMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < PREFIXES; i++) {
+            Ipv4Interval prefix = Ipv4Interval.parsePrefixWithLength(random.nextInt() & 0xffffffffL, 8 + random.nextInt(17));
+            putUnlessIntersecting(source, prefix, prefix);
+        }
+
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("synchronized", threads, millis, () -> SynchronizedIntervalMap.synchronizedMap(new NestedIntervalMap<>(source)));
+            report("stamped     ", threads, millis, () -> StampedIntervalMap.stampedMap(source));
+            report("concurrent  ", threads, millis, () -> new ConcurrentNestedIntervalMap<>(source));
+        }
+    }
+
+    private static void report(String name, int threads, long millis, Supplier<IntervalMap<Ipv4Interval, Ipv4Interval>> maps) throws InterruptedException {
+        // once to warm up, once to measure
+        run(maps.get(), threads, millis / 2);
+        long operations = run(maps.get(), threads, millis);
+        System.out.printf("%s %2d threads %8.2f M ops/s%n", name, threads, operations / (millis * 1e3));
+    }
+
+    private static long run(IntervalMap<Ipv4Interval, Ipv4Interval> map, int threads, long millis) throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder operations = new LongAdder();
+        CountDownLatch started = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread worker = new Thread(() -> {
+                started.countDown();
+                long count = 0;
+                while (!done.get()) {
+                    long address = random.nextInt() & 0xffffffffL;
+                    if (++count % WRITE_INTERVAL == 0) {
+                        Ipv4Interval prefix = Ipv4Interval.parsePrefixWithLength(address, 24);
+                        if (random.nextBoolean()) {
+                            putUnlessIntersecting(map, prefix, prefix);
+                        } else {
+                            map.remove(prefix);
+                        }
+                    } else {
+                        map.findExactOrFirstLessSpecific(new Ipv4Interval(address, address));
+                    }
+                }
+                operations.add(count);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        started.await();
+        Thread.sleep(millis);
+        done.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum();
+    }
+}
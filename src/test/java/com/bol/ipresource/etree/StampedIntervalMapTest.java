@@ -0,0 +1,92 @@
+package com.bol.ipresource.etree;
+
+import com.bol.ipresource.ip.Ipv4Interval;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Interval;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class StampedIntervalMapTest extends AbstractConcurrentIntervalMapTest {
+
+    private final IntervalMap<Ipv4Interval, Ipv4Interval> subject = StampedIntervalMap.stampedMap(new NestedIntervalMap<Ipv4Interval, Ipv4Interval>());
+
+    @Override
+    protected IntervalMap<Ipv4Interval, Ipv4Interval> subject() {
+        return subject;
+    }
+
+    @Test
+    public void queries_see_modifications() {
+        Ipv4Interval parent = Ipv4Interval.parse("10/8");
+        Ipv4Interval child = Ipv4Interval.parse("10.1/16");
+        subject.put(parent, parent);
+        subject.put(child, child);
+
+        assertThat(subject.findFirstLessSpecific(child), contains(parent));
+        assertThat(subject.findExactAndAllLessSpecific(child), contains(parent, child));
+        assertThat(subject.findAllMoreSpecific(parent), contains(child));
+
+        subject.remove(child, parent);
+        assertThat(subject.findExact(child), contains(child));
+        assertThat(subject.remove(child), is(child));
+        assertThat(subject.findExact(child), empty());
+
+        subject.clear();
+        assertThat(subject.findExactOrFirstLessSpecific(child), empty());
+    }
+
+    @Test
+    public void source_is_copied() {
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> source = new NestedIntervalMap<>();
+        Ipv4Interval parent = Ipv4Interval.parse("10/8");
+        source.put(parent, parent);
+
+        IntervalMap<Ipv4Interval, Ipv4Interval> copy = StampedIntervalMap.stampedMap(source);
+        source.clear();
+        copy.put(Ipv4Interval.parse("10.1/16"), Ipv4Interval.parse("10.1/16"));
+
+        assertThat(copy.findExact(parent), contains(parent));
+        assertThat(source.findAllMoreSpecific(Ipv4Interval.MAX_RANGE), empty());
+    }
+
+    @Test
+    public void should_match_nested_interval_map() {
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> expected = new NestedIntervalMap<>();
+        List<Ipv4Interval> added = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            if (!added.isEmpty() && random.nextInt(3) == 0) {
+                Ipv4Interval interval = added.remove(random.nextInt(added.size()));
+                assertEquals("failed with seed: " + seed, expected.remove(interval), subject.remove(interval));
+            } else {
+                Ipv4Interval interval = randomIpv4Interval(random);
+                if (putUnlessIntersecting(expected, interval, interval)) {
+                    subject.put(interval, interval);
+                    added.add(interval);
+                }
+            }
+        }
+
+        assertEquals("failed with seed: " + seed, expected.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE));
+        for (Ipv4Interval interval : added) {
+            String message = "interval: " + interval + ", seed: " + seed;
+            assertEquals(message, expected.findAllLessSpecific(interval), subject.findAllLessSpecific(interval));
+            assertEquals(message, expected.findFirstMoreSpecific(interval), subject.findFirstMoreSpecific(interval));
+
+            List<Ipv4Interval> result = new ArrayList<>();
+            subject.findExactAndAllLessSpecific(interval, result::add);
+            assertEquals(message, expected.findExactAndAllLessSpecific(interval), result);
+
+            result = new ArrayList<>();
+            subject.findAllMoreSpecific(interval, result::add);
+            assertEquals(message, expected.findAllMoreSpecific(interval), result);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Prefix;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class CachingIpTreeTest {
+
+    private static final Ipv4Interval TEN_20 = Ipv4Interval.parse("10.0.0.0/20");
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void lookup_after_modifications() {
+        CachingIpTree<String> subject = new CachingIpTree<>(16);
+        assertThat(subject.lookup(0x0a000001), is(nullValue()));
+
+        subject.put(Ipv4Interval.parse("10/8"), "10/8");
+        assertThat(subject.lookup(0x0a000001), is("10/8"));
+
+        subject.put(Ipv4Interval.parse("10.0.0/24"), "10.0.0/24");
+        assertThat(subject.lookup(0x0a000001), is("10.0.0/24"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("10.0.0.1")), contains("10.0.0/24"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("10.0.0.0 - 10.0.0.1")), contains("10.0.0/24"));
+
+        subject.remove(Ipv4Interval.parse("10.0.0/24"), "other");
+        assertThat(subject.lookup(0x0a000001), is("10.0.0/24"));
+        subject.remove(Ipv4Interval.parse("10.0.0/24"));
+        assertThat(subject.lookup(0x0a000001), is("10/8"));
+
+        subject.clear();
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("10.0.0.1")), empty());
+    }
+
+    @Test
+    public void ipv6_lookup_after_modifications() {
+        CachingIpTree<String> subject = new CachingIpTree<>(16);
+        assertThat(subject.lookup(0x20010db800000000L, 1), is(nullValue()));
+
+        subject.put(Ipv6Interval.parse("2001:db8::/32"), "2001:db8::/32");
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::1")), contains("2001:db8::/32"));
+
+        subject.put(Ipv6Interval.parse("2001:db8::1"), "2001:db8::1");
+        assertThat(subject.lookup(0x20010db800000000L, 1), is("2001:db8::1"));
+        assertThat(subject.lookup(0x20010db800000000L, 2), is("2001:db8::/32"));
+    }
+
+    @Test
+    public void modification_invalidates_contained_addresses_only() {
+        CachingIpTree<String> subject = new CachingIpTree<>(16);
+        subject.put(Ipv4Interval.parse("10/8"), "10/8");
+        subject.lookup(0x0a000001);
+        subject.lookup(0x0a000101);
+        subject.lookup(0x0b000001);
+        subject.lookup(0x20010db800000000L, 1);
+        assertThat(subject.cachedCount(), is(4));
+
+        subject.put(Ipv4Interval.parse("10.0.1/24"), "10.0.1/24");
+        assertThat(subject.cachedCount(), is(3));
+
+        try {
+            subject.put(Ipv4Interval.parse("10.0.1.128 - 10.0.2.127"), "intersecting");
+        } catch (IntersectingIntervalException ignored) {
+        }
+        assertThat(subject.cachedCount(), is(3));
+
+        subject.remove(Ipv4Interval.parse("10/8"));
+        assertThat(subject.cachedCount(), is(2));
+    }
+
+    @Test
+    public void eviction_bounds_cache() {
+        CachingIpTree<String> subject = new CachingIpTree<>(4);
+        subject.put(Ipv4Interval.parse("0/0"), "0/0");
+        for (int i = 0; i < 100; i++) {
+            assertThat(subject.lookup(i), is("0/0"));
+            assertThat(subject.lookup(0), is("0/0"));
+        }
+        assertThat(subject.cachedCount(), is(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalid_max_entries() {
+        new CachingIpTree<String>(0);
+    }
+
+    @Test
+    public void should_match_tree_for_random_modifications() {
+        CachingIpTree<Ipv4Interval> subject = new CachingIpTree<>(64);
+        IpTree<Ipv4Interval> expected = new IpTree<>();
+        for (int i = 0; i < 20000; i++) {
+            int address = 0x0a000000 | random.nextInt(1 << 12);
+            switch (random.nextInt(8)) {
+                case 0:
+                    Ipv4Interval interval = randomIpv4Prefix(random, TEN_20);
+                    if (putUnlessIntersecting(expected, interval, interval)) {
+                        subject.put(interval, interval);
+                    }
+                    break;
+                case 1:
+                    Ipv4Interval key = randomIpv4Prefix(random, TEN_20);
+                    assertEquals("failed with seed: " + seed, expected.remove(key), subject.remove(key));
+                    break;
+                default:
+                    Ipv4Interval probe = new Ipv4Interval(address & 0xffffffffL, address & 0xffffffffL);
+                    assertEquals("address: " + probe + ", seed: " + seed, expected.findExactOrFirstLessSpecific(probe), subject.findExactOrFirstLessSpecific(probe));
+            }
+        }
+    }
+}
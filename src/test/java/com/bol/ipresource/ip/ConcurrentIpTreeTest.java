@@ -0,0 +1,177 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.RandomIntervals;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.bol.ipresource.etree.RandomIntervals.putUnlessIntersecting;
+import static com.bol.ipresource.etree.RandomIntervals.randomIpv4Prefix;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConcurrentIpTreeTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void spine_and_shards_combine() {
+        ConcurrentIpTree<String> subject = new ConcurrentIpTree<>();
+        subject.put(Ipv4Interval.parse("0/0"), "0/0");
+        subject.put(Ipv4Interval.parse("10/7"), "10/7");
+        subject.put(Ipv4Interval.parse("10/8"), "10/8");
+        subject.put(Ipv4Interval.parse("11.0.0/24"), "11.0.0/24");
+        subject.put(Ipv4Interval.parse("12/8"), "12/8");
+
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("11.0.0.1")), contains("11.0.0/24"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("11.0.1.1")), contains("10/7"));
+        assertThat(subject.findFirstLessSpecific(Ipv4Interval.parse("10/8")), contains("10/7"));
+        assertThat(subject.findAllLessSpecific(Ipv4Interval.parse("10.0.0/24")), contains("0/0", "10/7", "10/8"));
+        assertThat(subject.findFirstMoreSpecific(Ipv4Interval.parse("0/0")), contains("10/7", "12/8"));
+        assertThat(subject.findAllMoreSpecific(Ipv4Interval.parse("10/7")), contains("10/8", "11.0.0/24"));
+        assertThat(subject.findExactAndAllMoreSpecific(Ipv4Interval.parse("10/7")), contains("10/7", "10/8", "11.0.0/24"));
+        assertThat(subject.size(), is(5));
+
+        assertThat(subject.remove(Ipv4Interval.parse("10/7")), is("10/7"));
+        assertThat(subject.findFirstMoreSpecific(Ipv4Interval.parse("0/0")), contains("10/8", "11.0.0/24", "12/8"));
+
+        subject.clear();
+        assertThat(subject.size(), is(0));
+        assertThat(subject.findAllMoreSpecific(Ipv4Interval.parse("0/0")), empty());
+    }
+
+    @Test
+    public void spine_put_intersecting_shard() {
+        ConcurrentIpTree<String> subject = new ConcurrentIpTree<>();
+        subject.put(Ipv4Interval.parse("10.255.0.0 - 11.0.0.255"), "spanning");
+        subject.put(Ipv4Interval.parse("12.0.0/24"), "12.0.0/24");
+        try {
+            subject.put(Ipv4Interval.parse("11.0.0.128 - 12.0.0.127"), "intersecting");
+            fail();
+        } catch (IntersectingIntervalException expected) {
+            assertThat(expected.getIntersections(), contains(Ipv4Interval.parse("10.255.0.0 - 11.0.0.255"), Ipv4Interval.parse("12.0.0/24")));
+        }
+    }
+
+    @Test
+    public void shard_put_intersecting_spine() {
+        ConcurrentIpTree<String> subject = new ConcurrentIpTree<>();
+        subject.put(Ipv6Interval.parse("2001::/16"), "2001::/16");
+        subject.put(new Ipv6Interval(0x2001000000000000L, 0, 0x2002000000000000L, 0xffffL), "spanning");
+        try {
+            subject.put(Ipv6Interval.parse("2002::/32"), "intersecting");
+            fail();
+        } catch (IntersectingIntervalException expected) {
+            assertThat(expected.getIntersections(), contains(new Ipv6Interval(0x2001000000000000L, 0, 0x2002000000000000L, 0xffffL)));
+        }
+        assertThat(subject.findExact(Ipv6Interval.parse("2002::/32")), empty());
+    }
+
+    @Test
+    public void remove_with_value() {
+        ConcurrentIpTree<String> subject = new ConcurrentIpTree<>();
+        subject.put(Ipv4Interval.parse("10/8"), "10/8");
+
+        subject.remove(Ipv4Interval.parse("10/8"), "other");
+        assertThat(subject.findExact(Ipv4Interval.parse("10/8")), contains("10/8"));
+
+        subject.remove(Ipv4Interval.parse("10/8"), "10/8");
+        assertThat(subject.findExact(Ipv4Interval.parse("10/8")), empty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalid_shard_bits() {
+        new ConcurrentIpTree<String>(17, 8);
+    }
+
+    @Test
+    public void should_match_tree_for_random_intervals() {
+        ConcurrentIpTree<IpInterval<?>> subject = new ConcurrentIpTree<>(4, 2);
+        IpTree<IpInterval<?>> expected = new IpTree<>();
+        List<IpInterval<?>> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            IpInterval<?> interval = random.nextBoolean() ? randomIpv4Interval() : randomIpv6Interval();
+            keys.add(interval);
+            boolean put = putUnlessIntersecting(expected, interval, interval);
+            assertThat("put " + interval + " failed with seed: " + seed, putUnlessIntersecting(subject, interval, interval), is(put));
+        }
+        for (int i = 0; i < 500; i++) {
+            IpInterval<?> key = keys.get(random.nextInt(keys.size()));
+            assertEquals(expected.remove(key), subject.remove(key));
+        }
+
+        for (IpInterval<?> key : keys) {
+            String message = "key: " + key + ", seed: " + seed;
+            assertEquals(message, expected.findExact(key), subject.findExact(key));
+            assertEquals(message, expected.findExactOrFirstLessSpecific(key), subject.findExactOrFirstLessSpecific(key));
+            assertEquals(message, expected.findFirstLessSpecific(key), subject.findFirstLessSpecific(key));
+            assertEquals(message, expected.findAllLessSpecific(key), subject.findAllLessSpecific(key));
+            assertEquals(message, expected.findExactAndAllLessSpecific(key), subject.findExactAndAllLessSpecific(key));
+            assertEquals(message, expected.findFirstMoreSpecific(key), subject.findFirstMoreSpecific(key));
+            assertEquals(message, expected.findAllMoreSpecific(key), subject.findAllMoreSpecific(key));
+            assertEquals(message, expected.findExactAndAllMoreSpecific(key), subject.findExactAndAllMoreSpecific(key));
+        }
+        assertEquals("failed with seed: " + seed, expected.entryStream().count(), subject.size());
+    }
+
+    @Test
+    public void concurrent_writers_to_different_shards() throws InterruptedException {
+        final ConcurrentIpTree<Ipv4Interval> subject = new ConcurrentIpTree<>();
+        subject.put(Ipv4Interval.parse("0/0"), Ipv4Interval.parse("0/0"));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long block = (long) t << 24;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            Ipv4Interval interval = Ipv4Interval.parsePrefixWithLength(block + ((long) i << 8), 24);
+                            subject.put(interval, interval);
+                            if (!subject.findExactOrFirstLessSpecific(Ipv4Interval.parsePrefixWithLength(block + ((long) i << 8) + 1, 32)).contains(interval)) {
+                                throw new AssertionError("missing " + interval);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(writer);
+            writer.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(String.valueOf(failure.get()), failure.get() == null, is(true));
+        assertThat(subject.size(), is(4001));
+        assertThat(subject.findFirstMoreSpecific(Ipv4Interval.parse("0/0")).size(), is(4000));
+    }
+
+    private Ipv4Interval randomIpv4Interval() {
+        return random.nextBoolean() ? randomIpv4Prefix(random) : RandomIntervals.randomIpv4Interval(random, Ipv4Interval.MAX_RANGE, 31);
+    }
+
+    // concentrated around a few allocations, so that intervals nest and span the /32 boundaries
+    private Ipv6Interval randomIpv6Interval() {
+        long msb = 0x2001000000000000L + ((long) random.nextInt(8) << 32) + (random.nextInt(16) << 20);
+        int prefixLength = 20 + random.nextInt(40);
+        long mask = -1L << (64 - prefixLength);
+        if (random.nextInt(4) == 0) {
+            return new Ipv6Interval(msb & mask, 0, (msb & mask) + (random.nextLong() & 0x3ffffffffL), -1L);
+        }
+        return new Ipv6Interval(msb & mask, 0, msb | ~mask, -1L);
+    }
+}
@@ -0,0 +1,135 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.ValueCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the size and the write and read times of {@link IpIntervalMapSerializer} with Java serialization of the
+ * same mappings, on a generated IPv4 routing table with AS numbers as values.
+ * <p/>
+ * As the intervals are not serializable, Java serialization writes a list of entries with the bounds of the interval
+ * in a <code>long[]</code>, and reading loads the entries with {@link NestedIntervalMap#bulkLoad(java.util.Iterator)}.
+ * <p/>
+ * Not run as part of the build; run <code>main</code> from the test classpath, optionally with the number of prefixes
+ * (1 million by default).
+ */
+public final class IpIntervalMapSerializerBenchmark {
+    private static final int ROUNDS = 5;
+
+    static final ValueCodec<Integer> AS_NUMBERS = new ValueCodec<Integer>() {
+        @Override
+        public byte[] encode(Integer value) {
+            int v = value;
+            int length = v >>> 24 != 0 ? 4 : v >>> 16 != 0 ? 3 : v >>> 8 != 0 ? 2 : 1;
+            byte[] result = new byte[length];
+            for (int i = 0; i < length; i++) {
+                result[i] = (byte) (v >>> (8 * i));
+            }
+            return result;
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset, int length) {
+            int result = 0;
+            for (int i = 0; i < length; i++) {
+                result |= (buffer.get(offset + i) & 0xff) << (8 * i);
+            }
+            return result;
+        }
+    };
+
+    private IpIntervalMapSerializerBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int prefixes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        NestedIntervalMap<Ipv4Interval, Integer> map = routingTable(new Random(1), prefixes);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            byte[] compact = write(map);
+            long compactWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            NestedIntervalMap<Ipv4Interval, Integer> compactRead = read(compact);
+            long compactReadTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[] java = writeJava(map);
+            long javaWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            NestedIntervalMap<Ipv4Interval, Integer> javaRead = readJava(java);
+            long javaReadTime = System.nanoTime() - start;
+
+            if (!compactRead.equals(map) || !javaRead.equals(map)) throw new IllegalStateException("round trip failed");
+            System.out.printf("compact %5.1f MB, write %4d ms, read %4d ms; java %5.1f MB, write %4d ms, read %4d ms (%d mappings)%n",
+                    compact.length / 1e6, compactWrite / 1_000_000, compactReadTime / 1_000_000,
+                    java.length / 1e6, javaWrite / 1_000_000, javaReadTime / 1_000_000, map.size());
+        }
+    }
+
+    /**
+     * @return allocations of /8 to /24, with more specifics down to /24 in a quarter of them, each mapped to an AS number
+     */
+    static NestedIntervalMap<Ipv4Interval, Integer> routingTable(Random random, int prefixes) {
+        NestedIntervalMap<Ipv4Interval, Integer> result = new NestedIntervalMap<>();
+        for (int i = 0; i < prefixes; i++) {
+            Ipv4Interval prefix = Ipv4Interval.parsePrefixWithLength(random.nextInt() & 0xffffffffL, random.nextInt(4) > 0 ? 24 : 8 + random.nextInt(17));
+            try {
+                result.put(prefix, 1 + random.nextInt(400_000));
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+        return result;
+    }
+
+    static byte[] write(NestedIntervalMap<Ipv4Interval, Integer> map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        IpIntervalMapSerializer.writeIpv4(map, AS_NUMBERS, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static NestedIntervalMap<Ipv4Interval, Integer> read(byte[] bytes) throws IOException {
+        return IpIntervalMapSerializer.readIpv4(new DataInputStream(new ByteArrayInputStream(bytes)), AS_NUMBERS);
+    }
+
+    static byte[] writeJava(NestedIntervalMap<Ipv4Interval, Integer> map) throws IOException {
+        ArrayList<Map.Entry<long[], Integer>> entries = new ArrayList<>(map.size());
+        map.forEach((interval, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(new long[]{interval.begin(), interval.end()}, value)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entries);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static NestedIntervalMap<Ipv4Interval, Integer> readJava(byte[] bytes) throws IOException, ClassNotFoundException {
+        List<Map.Entry<long[], Integer>> entries;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            entries = (List<Map.Entry<long[], Integer>>) in.readObject();
+        }
+        List<Map.Entry<Ipv4Interval, Integer>> result = new ArrayList<>(entries.size());
+        for (Map.Entry<long[], Integer> entry : entries) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(new Ipv4Interval(entry.getKey()[0], entry.getKey()[1]), entry.getValue()));
+        }
+        return NestedIntervalMap.bulkLoad(result.iterator());
+    }
+}
@@ -0,0 +1,171 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.ValueCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class IpIntervalMapSerializerTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void round_trip_ipv4() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv4Interval.MAX_RANGE, "all");
+        source.put(Ipv4Interval.parse("10/8"), "10/8");
+        source.put(Ipv4Interval.parse("10.0.0.0 - 10.0.0.100"), "range");
+        source.put(Ipv4Interval.parse("10.1/16"), "10.1/16");
+        source.put(Ipv4Interval.parse("255.255.255.255"), "broadcast");
+
+        byte[] bytes = writeIpv4(source);
+        NestedIntervalMap<Ipv4Interval, String> subject = readIpv4(bytes);
+
+        assertEquals(source, subject);
+        assertThat(subject.findExactAndAllLessSpecific(Ipv4Interval.parse("10.0.0.1")), contains("all", "10/8", "range"));
+        assertThat(subject.findExact(Ipv4Interval.parse("255.255.255.255")), contains("broadcast"));
+    }
+
+    @Test
+    public void round_trip_ipv6() throws IOException {
+        NestedIntervalMap<Ipv6Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv6Interval.MAX_RANGE, "all");
+        source.put(Ipv6Interval.parse("2001::/16"), "2001::/16");
+        source.put(Ipv6Interval.parse("2001:db8::/64"), "2001:db8::/64");
+        source.put(new Ipv6Interval(0x20010db800000001L, 5, 0x20010db800000002L, 3), "range");
+        source.put(Ipv6Interval.parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"), "last");
+
+        byte[] bytes = writeIpv6(source);
+        NestedIntervalMap<Ipv6Interval, String> subject = readIpv6(bytes);
+
+        assertEquals(source, subject);
+        assertThat(subject.findExactAndAllLessSpecific(Ipv6Interval.parse("2001:db8::1")), contains("all", "2001::/16", "2001:db8::/64"));
+    }
+
+    @Test
+    public void round_trip_random_ipv4() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        for (int i = 0; i < 5000; i++) {
+            long begin = random.nextInt() & 0xffffffffL;
+            Ipv4Interval interval = random.nextBoolean()
+                    ? Ipv4Interval.parsePrefixWithLength(begin, 8 + random.nextInt(25))
+                    : new Ipv4Interval(begin, Math.min(begin + random.nextInt(1 << random.nextInt(28)), Ipv4Interval.MAX_RANGE.end()));
+            try {
+                source.put(interval, interval.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        assertEquals("failed with seed: " + seed, source, readIpv4(writeIpv4(source)));
+    }
+
+    @Test
+    public void round_trip_random_ipv6() throws IOException {
+        NestedIntervalMap<Ipv6Interval, String> source = new NestedIntervalMap<>();
+        for (int i = 0; i < 5000; i++) {
+            long msb = random.nextLong() >>> 1;
+            long lsb = random.nextLong();
+            Ipv6Interval interval;
+            if (random.nextBoolean()) {
+                interval = new Ipv6Interval(msb, lsb, 16 + random.nextInt(113));
+            } else {
+                long endMsb = msb + random.nextInt(1 << random.nextInt(24));
+                interval = new Ipv6Interval(msb, lsb, endMsb, endMsb == msb ? lsb | random.nextInt(1 << 16) : random.nextLong());
+            }
+            try {
+                source.put(interval, interval.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        assertEquals("failed with seed: " + seed, source, readIpv6(writeIpv6(source)));
+    }
+
+    @Test
+    public void prefixes_are_compact() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        for (int i = 0; i < 1000; i++) {
+            source.put(Ipv4Interval.parsePrefixWithLength(0x0a000000L + (i << 8), 24), "");
+        }
+
+        // tag, lower-bound difference and value length
+        assertThat(writeIpv4(source).length, lessThan(1000 * 5));
+    }
+
+    @Test
+    public void smaller_than_java_serialization() throws IOException {
+        NestedIntervalMap<Ipv4Interval, Integer> source = IpIntervalMapSerializerBenchmark.routingTable(random, 20000);
+
+        byte[] bytes = IpIntervalMapSerializerBenchmark.write(source);
+        assertEquals("failed with seed: " + seed, source, IpIntervalMapSerializerBenchmark.read(bytes));
+        assertThat("failed with seed: " + seed, bytes.length * 5, lessThan(IpIntervalMapSerializerBenchmark.writeJava(source).length));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_out_of_order() throws IOException {
+        // 10.0.0.0/24 followed by 10.0.0.0/16, which should have come first
+        readIpv4(new byte[]{0x49, 0x50, 0x4d, 0x53, 1, 4, 25, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x50, 0, 17, 0, 0, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void read_other_family() throws IOException {
+        readIpv6(writeIpv4(new NestedIntervalMap<Ipv4Interval, String>()));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_garbage() throws IOException {
+        readIpv4(new byte[]{1, 2, 3, 4, 5, 6, 7});
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncated() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv4Interval.parse("10/8"), "10/8");
+        byte[] bytes = writeIpv4(source);
+
+        readIpv4(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void empty_map() throws IOException {
+        byte[] bytes = writeIpv4(new NestedIntervalMap<Ipv4Interval, String>());
+
+        assertThat(bytes.length, is(7));
+        assertEquals(new NestedIntervalMap<Ipv4Interval, String>(), readIpv4(bytes));
+    }
+
+    private static byte[] writeIpv4(NestedIntervalMap<Ipv4Interval, String> map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IpIntervalMapSerializer.writeIpv4(map, ValueCodec.utf8(), new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static NestedIntervalMap<Ipv4Interval, String> readIpv4(byte[] bytes) throws IOException {
+        return IpIntervalMapSerializer.readIpv4(new DataInputStream(new ByteArrayInputStream(bytes)), ValueCodec.utf8());
+    }
+
+    private static byte[] writeIpv6(NestedIntervalMap<Ipv6Interval, String> map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IpIntervalMapSerializer.writeIpv6(map, ValueCodec.utf8(), new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static NestedIntervalMap<Ipv6Interval, String> readIpv6(byte[] bytes) throws IOException {
+        return IpIntervalMapSerializer.readIpv6(new DataInputStream(new ByteArrayInputStream(bytes)), ValueCodec.utf8());
+    }
+}
@@ -1,11 +1,20 @@
 package com.bol.ipresource.ip;
 
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class IpIntervalTest {
     @Test
@@ -45,4 +54,101 @@ public class IpIntervalTest {
         final IpInterval<?> subject = IpInterval.asIpInterval(InetAddress.getByName("3ffe:6a88:85a3:08d3:1319:8a2e:0370:7344"));
         assertThat(subject.toString(), is("3ffe:6a88:85a3:8d3:1319:8a2e:370:7344/128"));
     }
+
+    @Test
+    public void formatTo() throws IOException {
+        assertFormats("10.0.0.0/8", "10.0.0.0/8", "10.0.0.0 - 10.255.255.255", "10.0.0.0/8", "10.in-addr.arpa.");
+        assertFormats("10.0.0.4 - 10.0.0.31", "10.0.0.4 - 10.0.0.31", "10.0.0.4 - 10.0.0.31", null, null);
+        assertFormats("0/0", "0.0.0.0/0", "0.0.0.0 - 255.255.255.255", "0.0.0.0/0", ".in-addr.arpa.");
+        assertFormats("2001:db8::/32", "2001:db8::/32", "2001:db8:: - 2001:db8:ffff:ffff:ffff:ffff:ffff:ffff", "2001:db8::/32",
+                "8.b.d.0.1.0.0.2.ip6.arpa.");
+        assertFormats("::1", "::1/128", "::1 - ::1", "::1/128", "1.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.ip6.arpa.");
+    }
+
+    private static void assertFormats(String interval, String text, String range, String prefix, String reverseDomain) throws IOException {
+        IpInterval<?> subject = IpInterval.parse(interval);
+        assertFormat(subject, IpInterval.Format.DEFAULT, text);
+        assertFormat(subject, IpInterval.Format.RANGE, range);
+        assertFormat(subject, IpInterval.Format.PREFIX, prefix);
+        assertFormat(subject, IpInterval.Format.REVERSE_DOMAIN, reverseDomain);
+    }
+
+    private static void assertFormat(IpInterval<?> subject, IpInterval.Format format, String expected) throws IOException {
+        StringBuilder sb = new StringBuilder(">");
+        StringWriter writer = new StringWriter();
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        try {
+            subject.formatTo(sb, format);
+            subject.formatTo(writer, format);
+            subject.writeAscii(buffer, format);
+            if (expected == null) fail(subject + " formatted as " + format);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            if (expected != null) throw e;
+            assertThat(sb.toString(), is(">"));
+            assertThat(buffer.position(), is(0));
+            return;
+        }
+
+        assertThat(sb.toString(), is(">" + expected));
+        assertThat(writer.toString(), is(expected));
+        buffer.flip();
+        assertThat(StandardCharsets.US_ASCII.decode(buffer).toString(), is(expected));
+    }
+
+    @Test
+    public void writeAscii_overflow_leaves_position() {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.put((byte) '>');
+        try {
+            IpInterval.parse("212.219.1.0/24").writeAscii(buffer);
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+        assertThat(buffer.position(), is(1));
+
+        IpInterval.parse("10/8").writeAscii(buffer);
+        assertThat(buffer.position(), is(1 + "10.0.0.0/8".length()));
+    }
+
+    @Test
+    public void formatting_should_not_allocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        IpInterval<?>[] intervals = {IpInterval.parse("212.219.1.0/24"), IpInterval.parse("10.0.0.4 - 10.0.0.31"),
+                IpInterval.parse("2001:db8::ff00:42:8329"), IpInterval.parse("2001:db8::/32")};
+        StringBuilder sb = new StringBuilder(1024);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = -1;
+        for (int round = 0; round < 5 && allocated != 0; round++) {
+            format(intervals, sb, buffer);
+
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            format(intervals, sb, buffer);
+            long after = threadMXBean.getThreadAllocatedBytes(threadId);
+            allocated = (after - before) - (before - start);
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    private static void format(IpInterval<?>[] intervals, StringBuilder sb, ByteBuffer buffer) {
+        for (int n = 0; n < 10000; n++) {
+            for (IpInterval<?> interval : intervals) {
+                sb.setLength(0);
+                interval.formatTo(sb);
+                interval.formatTo(sb, IpInterval.Format.RANGE);
+                buffer.clear();
+                interval.writeAscii(buffer);
+                interval.writeAscii(buffer, IpInterval.Format.RANGE);
+                if (interval.getPrefixLength() >= 0) {
+                    interval.writeAscii(buffer, IpInterval.Format.REVERSE_DOMAIN);
+                }
+            }
+        }
+    }
 }
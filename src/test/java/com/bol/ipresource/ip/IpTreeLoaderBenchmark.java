@@ -0,0 +1,102 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.util.ValueCodec;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the lines per second of {@link IpTreeLoader} with reading the same file line by line and putting every
+ * parsed interval in an {@link IpTree}, on generated CSV and RPSL dumps.
+ * <p/>
+ * Not run as part of the build; run <code>main</code> from the test classpath, optionally with the number of records
+ * to generate (4 million by default).
+ */
+public final class IpTreeLoaderBenchmark {
+    private static final int ROUNDS = 3;
+
+    private IpTreeLoaderBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        Path csv = Files.createTempFile("prefixes", ".csv");
+        Path rpsl = Files.createTempFile("dump", ".rpsl");
+        try {
+            generate(records, csv, rpsl);
+            for (int round = 0; round < ROUNDS; round++) {
+                report("csv ", csv, IpTreeLoader.Format.CSV);
+                report("rpsl", rpsl, IpTreeLoader.Format.RPSL);
+            }
+        } finally {
+            Files.delete(csv);
+            Files.delete(rpsl);
+        }
+    }
+
+    private static void generate(int records, Path csv, Path rpsl) throws IOException {
+        Random random = new Random(1);
+        try (BufferedWriter csvOut = Files.newBufferedWriter(csv, StandardCharsets.US_ASCII);
+             BufferedWriter rpslOut = Files.newBufferedWriter(rpsl, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < records; i++) {
+                IpInterval<?> interval = random.nextInt(4) > 0
+                        ? Ipv4Interval.parsePrefixWithLength(random.nextInt() & 0xffffffffL, 8 + random.nextInt(25))
+                        : new Ipv6Interval(random.nextLong(), random.nextLong(), 16 + random.nextInt(113));
+                csvOut.write(interval + ",AS" + i + "\n");
+                rpslOut.write((interval instanceof Ipv4Interval ? "route:          " : "route6:         ") + interval
+                        + "\ndescr:          generated\norigin:         AS" + i + "\nmnt-by:         MNT\nsource:         TEST\n\n");
+            }
+        }
+    }
+
+    private static void report(String name, Path file, IpTreeLoader.Format format) throws IOException {
+        long start = System.nanoTime();
+        int lines = format == IpTreeLoader.Format.CSV ? naiveCsv(file) : naiveRpsl(file);
+        long naive = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(file, format, ValueCodec.utf8());
+        long loader = System.nanoTime() - start;
+
+        System.out.printf("%s naive %.2f M lines/s, loader %.2f M lines/s (%d records)%n",
+                name, lines * 1e3 / naive, lines * 1e3 / loader, result.getRecordCount());
+    }
+
+    private static int naiveCsv(Path file) throws IOException {
+        IpTree<String> tree = new IpTree<>();
+        int lines = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            for (String line; (line = in.readLine()) != null; lines++) {
+                tree.put(IpInterval.parse(line.substring(0, line.indexOf(','))), line);
+            }
+        }
+        return lines;
+    }
+
+    private static int naiveRpsl(Path file) throws IOException {
+        IpTree<String> tree = new IpTree<>();
+        int lines = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            StringBuilder record = new StringBuilder();
+            IpInterval<?> key = null;
+            for (String line; (line = in.readLine()) != null; lines++) {
+                if (line.isEmpty()) {
+                    if (key != null) tree.put(key, record.toString());
+                    record.setLength(0);
+                    key = null;
+                } else {
+                    record.append(line).append('\n');
+                    if (key == null && (line.startsWith("route:") || line.startsWith("route6:"))) {
+                        key = IpInterval.parse(line.substring(line.indexOf(':') + 1).trim());
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,202 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.util.ValueCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class IpTreeLoaderTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void load_rpsl() throws IOException {
+        String inetnum = "inetnum:        10.0.0.0 - 10.0.255.255\nnetname:        TEN";
+        String route = "ROUTE:          10.0.1.0/24 # comment\r\norigin:         AS1";
+        String inet6num = "inet6num:       2001:db8::/32\nnetname:        DOC";
+        String route6 = "route6:         2001:db8:1::/48\norigin:         AS2";
+        Path file = write("% comment\n% block\n\n" + inetnum + "\n\n\n" + route + "\r\n\r\nperson: No Key\n \n" + inet6num + "\n\n" + route6);
+
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(file, IpTreeLoader.Format.RPSL, ValueCodec.utf8());
+
+        assertThat(result.getRecordCount(), is(4));
+        assertThat(result.getConflicts(), is(empty()));
+        IpTree<String> tree = result.getTree();
+        assertThat(tree.findExactOrFirstLessSpecific(IpInterval.parse("10.0.0.1")), contains(inetnum));
+        assertThat(tree.findExactOrFirstLessSpecific(IpInterval.parse("10.0.1.1")), contains(route));
+        assertThat(tree.findExactOrFirstLessSpecific(IpInterval.parse("2001:db8::1")), contains(inet6num));
+        assertThat(tree.findExactOrFirstLessSpecific(IpInterval.parse("2001:db8:1::1")), contains(route6));
+    }
+
+    @Test
+    public void load_csv() throws IOException {
+        Path file = write("prefix,origin\n10.0.0.0/8,AS1\r\n\n# comment\n 10.0.0.0 - 10.0.0.3 ,AS2\n2001:db8::/32\n");
+
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(file, IpTreeLoader.Format.CSV, ValueCodec.utf8());
+
+        assertThat(result.getRecordCount(), is(3));
+        IpTree<String> tree = result.getTree();
+        assertThat(tree.findExact(IpInterval.parse("10/8")), contains("10.0.0.0/8,AS1"));
+        assertThat(tree.findExact(IpInterval.parse("10.0.0.0 - 10.0.0.3")), contains(" 10.0.0.0 - 10.0.0.3 ,AS2"));
+        assertThat(tree.findExact(IpInterval.parse("2001:db8::/32")), contains("2001:db8::/32"));
+    }
+
+    @Test
+    public void first_record_with_invalid_value_is_not_a_header() throws IOException {
+        ValueCodec<String> failing = new ValueCodec<String>() {
+            @Override
+            public byte[] encode(String value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer, int offset, int length) {
+                throw new IllegalArgumentException("bad value");
+            }
+        };
+        try {
+            IpTreeLoader.load(write("10.0.0.0/8,AS1\n"), IpTreeLoader.Format.CSV, failing);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("offset 0: bad value"));
+        }
+    }
+
+    @Test
+    public void load_empty() throws IOException {
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(write(""), IpTreeLoader.Format.CSV, ValueCodec.utf8());
+        assertThat(result.getRecordCount(), is(0));
+        assertThat(result.getTree().entryStream().count(), is(0L));
+    }
+
+    @Test
+    public void conflicts_are_reported_with_offsets() throws IOException {
+        String text = "10.0.0.0/24,first\n10.0.0.128 - 10.0.1.127,intersecting\n10.0.0.64/26,contained\n10.0.0.192 - 10.0.1.0,also\n";
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(write(text), IpTreeLoader.Format.CSV, ValueCodec.utf8());
+
+        assertThat(result.getRecordCount(), is(2));
+        List<IpTreeLoader.Conflict> conflicts = result.getConflicts();
+        assertThat(conflicts.size(), is(2));
+        assertThat(conflicts.get(0).getOffset(), is((long) text.indexOf("10.0.0.128")));
+        assertThat(conflicts.get(0).getInterval(), is(IpInterval.parse("10.0.0.128 - 10.0.1.127")));
+        assertThat(conflicts.get(0).getIntersectingOffset(), is(0L));
+        assertThat(conflicts.get(0).getIntersectingInterval(), is(IpInterval.parse("10.0.0.0/24")));
+        assertThat(conflicts.get(1).getOffset(), is((long) text.indexOf("10.0.0.192")));
+        assertThat(conflicts.get(1).toString(), is("10.0.0.192 - 10.0.1.0 at offset 78 intersects with 10.0.0.0/24 at offset 0"));
+        assertThat(result.getTree().findExactOrFirstLessSpecific(IpInterval.parse("10.0.0.65")), contains("10.0.0.64/26,contained"));
+    }
+
+    @Test
+    public void last_duplicate_wins() throws IOException {
+        IpTreeLoader.Result<String> result = IpTreeLoader.load(write("10/8,a\n10/8,b\n"), IpTreeLoader.Format.CSV, ValueCodec.utf8());
+        assertThat(result.getTree().findExact(IpInterval.parse("10/8")), contains("10/8,b"));
+    }
+
+    @Test
+    public void invalid_record_reports_offset() throws IOException {
+        String text = "inetnum: 10/8\n\ninetnum: 10.0.0.256\n";
+        try {
+            IpTreeLoader.load(write(text), IpTreeLoader.Format.RPSL, ValueCodec.utf8());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("offset " + text.indexOf("inetnum: 10.0.0.256")));
+        }
+    }
+
+    @Test
+    public void small_windows_should_match_tree() throws IOException {
+        for (IpTreeLoader.Format format : IpTreeLoader.Format.values()) {
+            IpTree<String> expected = new IpTree<>();
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                IpInterval<?> interval = random.nextBoolean()
+                        ? Ipv4Interval.parsePrefixWithLength(random.nextInt() & 0xffffffffL, random.nextInt(33))
+                        : new Ipv6Interval(random.nextLong(), random.nextLong(), random.nextInt(129));
+                String record = format == IpTreeLoader.Format.CSV
+                        ? interval + "," + i
+                        : (interval instanceof Ipv4Interval ? "route: " : "route6: ") + interval + "\norigin: AS" + i;
+                text.append(record).append(format == IpTreeLoader.Format.CSV ? "\n" : "\n\n");
+                expected.put(interval, record);
+            }
+            Path file = write(text.toString());
+
+            for (int windowSize : new int[]{text.length(), 1000, 97}) {
+                IpTreeLoader.Result<String> result = IpTreeLoader.load(file, format, ValueCodec.utf8(), ForkJoinPool.commonPool(), windowSize, 16);
+                assertThat(result.getConflicts(), is(empty()));
+                assertEquals("failed with seed: " + seed, entries(expected), entries(result.getTree()));
+            }
+        }
+    }
+
+    @Test
+    public void small_windows_should_match_conflicts() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            long begin = 0x0a000000L | random.nextInt(1 << 16);
+            text.append(new Ipv4Interval(begin, begin + random.nextInt(256)).toRangeString()).append(',').append(i).append('\n');
+        }
+        Path file = write(text.toString());
+
+        IpTreeLoader.Result<String> expected = IpTreeLoader.load(file, IpTreeLoader.Format.CSV, ValueCodec.utf8());
+        ForkJoinPool pool = new ForkJoinPool(3);
+        IpTreeLoader.Result<String> result;
+        try {
+            result = IpTreeLoader.load(file, IpTreeLoader.Format.CSV, ValueCodec.utf8(), pool, 101, 16);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals("failed with seed: " + seed, entries(expected.getTree()), entries(result.getTree()));
+        assertEquals("failed with seed: " + seed, expected.getConflicts().toString(), result.getConflicts().toString());
+        assertEquals(2000, result.getRecordCount() + result.getConflicts().size());
+    }
+
+    @Test
+    public void ipv4_mapped_key_is_rejected() throws IOException {
+        String text = "10/8,a\n::ffff:10.0.0.1,b\n";
+        try {
+            IpTreeLoader.load(write(text), IpTreeLoader.Format.CSV, ValueCodec.utf8());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("offset " + text.indexOf("::ffff")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void record_larger_than_window() throws IOException {
+        IpTreeLoader.load(write("inetnum: 10/8\nnetname: TEN\n\n"), IpTreeLoader.Format.RPSL, ValueCodec.utf8(), ForkJoinPool.commonPool(), 8, 16);
+    }
+
+    private static List<String> entries(IpTree<String> tree) {
+        return tree.entryStream().map(Map.Entry::toString).collect(Collectors.toList());
+    }
+
+    private Path write(String text) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
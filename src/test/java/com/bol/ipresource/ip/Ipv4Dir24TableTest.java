@@ -0,0 +1,94 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.CollectionHelper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class Ipv4Dir24TableTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void empty_tree() {
+        Ipv4Dir24Table<String> subject = Ipv4Dir24Table.compile(new NestedIntervalMap<Ipv4Interval, String>());
+        assertThat(subject.lookup(0), is(nullValue()));
+        assertThat(subject.lookup(-1), is(nullValue()));
+        assertThat(subject.blockCount(), is(0));
+    }
+
+    @Test
+    public void nested_prefixes_and_ranges() {
+        NestedIntervalMap<Ipv4Interval, String> map = new NestedIntervalMap<>();
+        map.put(Ipv4Interval.parse("0/0"), "default");
+        map.put(Ipv4Interval.parse("192.168/16"), "private");
+        map.put(Ipv4Interval.parse("192.168.1.10 - 192.168.2.20"), "range");
+        map.put(Ipv4Interval.parse("192.168.1.15"), "host");
+        map.put(Ipv4Interval.parse("255.255.255.255"), "broadcast");
+
+        Ipv4Dir24Table<String> subject = Ipv4Dir24Table.compile(map);
+
+        assertThat(subject.lookup(Ipv4Interval.parse("10.0.0.1").begin()), is("default"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.0.1").begin()), is("private"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.1.9").begin()), is("private"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.1.10").begin()), is("range"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.1.15").begin()), is("host"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.1.16").begin()), is("range"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.2.0").begin()), is("range"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.2.20").begin()), is("range"));
+        assertThat(subject.lookup(Ipv4Interval.parse("192.168.2.21").begin()), is("private"));
+        assertThat(subject.lookup(Ipv4Interval.parse("255.255.255.254").begin()), is("default"));
+        assertThat(subject.lookup(-1), is("broadcast"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("192.168.1.15")), contains("host"));
+        assertThat(subject.blockCount(), is(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lookup_of_range_fails() {
+        Ipv4Dir24Table.compile(new NestedIntervalMap<Ipv4Interval, String>()).findExactOrFirstLessSpecific(Ipv4Interval.parse("10/8"));
+    }
+
+    @Test
+    public void should_match_tree_for_random_intervals() {
+        NestedIntervalMap<Ipv4Interval, Ipv4Interval> map = new NestedIntervalMap<>();
+        List<Ipv4Interval> everything = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            long begin = random.nextInt() & 0xffffffffL;
+            long end = Math.min(begin + random.nextInt(1 << random.nextInt(28)), Ipv4Interval.MAX_RANGE.end());
+            Ipv4Interval interval = new Ipv4Interval(begin, end);
+            try {
+                map.put(interval, interval);
+                everything.add(interval);
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        Ipv4Dir24Table<Ipv4Interval> subject = Ipv4Dir24Table.compile(map);
+
+        for (Ipv4Interval interval : everything) {
+            assertSameResult(map, subject, interval.begin());
+            assertSameResult(map, subject, interval.end());
+            assertSameResult(map, subject, Math.max(interval.begin() - 1, 0));
+            assertSameResult(map, subject, Math.min(interval.end() + 1, Ipv4Interval.MAX_RANGE.end()));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertSameResult(map, subject, random.nextInt() & 0xffffffffL);
+        }
+    }
+
+    private void assertSameResult(NestedIntervalMap<Ipv4Interval, Ipv4Interval> map, Ipv4Dir24Table<Ipv4Interval> subject, long address) {
+        Ipv4Interval expected = CollectionHelper.uniqueResult(map.findExactOrFirstLessSpecific(new Ipv4Interval(address, address)));
+        assertEquals("address: " + address + ", seed: " + seed, expected, subject.lookup(address));
+    }
+}
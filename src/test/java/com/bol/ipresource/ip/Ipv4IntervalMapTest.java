@@ -0,0 +1,115 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.etree.RandomIntervals;
+import com.bol.ipresource.util.CollectionHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.bol.ipresource.etree.RandomIntervals.putRandom;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class Ipv4IntervalMapTest {
+
+    private static final Ipv4Interval BELOW_HIGHEST_ADDRESS = new Ipv4Interval(0, Ipv4Interval.MAX_RANGE.end() - 1);
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private NestedIntervalMap<Ipv4Interval, Ipv4Interval> source;
+    private List<Ipv4Interval> everything;
+    private Ipv4IntervalMap<Ipv4Interval> subject;
+
+    @Before
+    public void setup() {
+        source = new NestedIntervalMap<>();
+        source.put(Ipv4Interval.parse("255.255.255.255"), Ipv4Interval.parse("255.255.255.255"));
+        everything = putRandom(source, this::randomIpv4Interval, 2000);
+        subject = Ipv4IntervalMap.copyOf(source);
+    }
+
+    @Test
+    public void should_find_everything() {
+        List<Ipv4Interval> result = new ArrayList<>();
+        subject.findExactAndAllMoreSpecific(0, -1, result::add);
+        assertEquals("failed with seed: " + seed, source.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), result);
+        assertEquals(result.size(), subject.size());
+    }
+
+    @Test
+    public void should_find_highest_address() {
+        assertThat(subject.findExact(-1, -1), is(Ipv4Interval.parse("255.255.255.255")));
+        assertThat(subject.findFirstLessSpecific(-1), is(nullValue()));
+    }
+
+    @Test
+    public void empty_map() {
+        Ipv4IntervalMap<String> empty = Ipv4IntervalMap.copyOf(new NestedIntervalMap<Ipv4Interval, String>());
+        assertThat(empty.findExactOrFirstLessSpecific(0), is(nullValue()));
+        assertThat(empty.size(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void begin_after_end() {
+        subject.findExact(-1, 0);
+    }
+
+    @Test
+    public void should_match_source_for_stored_intervals() {
+        for (Ipv4Interval interval : everything) {
+            assertSameResults(interval);
+        }
+    }
+
+    @Test
+    public void should_match_source_for_random_intervals() {
+        for (int i = 0; i < 2000; i++) {
+            assertSameResults(randomIpv4Interval());
+            Ipv4Interval address = randomIpv4Interval().singletonIntervalAtLowerBound();
+            String message = "key: " + address + ", seed: " + seed;
+            assertEquals(message, CollectionHelper.uniqueResult(source.findExactOrFirstLessSpecific(address)), subject.findExactOrFirstLessSpecific((int) address.begin()));
+            assertEquals(message, CollectionHelper.uniqueResult(source.findFirstLessSpecific(address)), subject.findFirstLessSpecific((int) address.begin()));
+        }
+    }
+
+    private void assertSameResults(Ipv4Interval key) {
+        String message = "key: " + key + ", seed: " + seed;
+        int begin = (int) key.begin();
+        int end = (int) key.end();
+        assertEquals(message, CollectionHelper.uniqueResult(source.findExact(key)), subject.findExact(begin, end));
+        assertEquals(message, CollectionHelper.uniqueResult(source.findFirstLessSpecific(key)), subject.findFirstLessSpecific(begin, end));
+        assertEquals(message, CollectionHelper.uniqueResult(source.findExactOrFirstLessSpecific(key)), subject.findExactOrFirstLessSpecific(begin, end));
+
+        List<Ipv4Interval> result = new ArrayList<>();
+        subject.findAllLessSpecific(begin, end, result::add);
+        assertEquals(message, source.findAllLessSpecific(key), result);
+
+        result = new ArrayList<>();
+        subject.findExactAndAllLessSpecific(begin, end, result::add);
+        assertEquals(message, source.findExactAndAllLessSpecific(key), result);
+
+        result = new ArrayList<>();
+        subject.findFirstMoreSpecific(begin, end, result::add);
+        assertEquals(message, source.findFirstMoreSpecific(key), result);
+
+        result = new ArrayList<>();
+        subject.findAllMoreSpecific(begin, end, result::add);
+        assertEquals(message, source.findAllMoreSpecific(key), result);
+
+        result = new ArrayList<>();
+        subject.findExactAndAllMoreSpecific(begin, end, result::add);
+        assertEquals(message, source.findExactAndAllMoreSpecific(key), result);
+    }
+
+    private Ipv4Interval randomIpv4Interval() {
+        // leave 255.255.255.255 free for should_find_highest_address
+        return RandomIntervals.randomIpv4Interval(random, BELOW_HIGHEST_ADDRESS, 28);
+    }
+}
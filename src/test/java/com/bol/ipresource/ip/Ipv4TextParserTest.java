@@ -0,0 +1,189 @@
+package com.bol.ipresource.ip;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class Ipv4TextParserTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private final Ipv4TextParser subject = new Ipv4TextParser();
+
+    @Test
+    public void parse_address() {
+        assertInterval("1.2.3.4", 0x01020304L, 0x01020304L);
+        assertInterval(" 255.255.255.255\r\n", 0xffffffffL, 0xffffffffL);
+        assertInterval("10", 0x0a000000L, 0x0a000000L);
+        assertInterval("010.1.2.3", 0x0a010203L, 0x0a010203L);
+        assertThat(Ipv4TextParser.parseAddress("192.168.0.1"), is(0xc0a80001));
+    }
+
+    @Test
+    public void parse_prefix() {
+        assertInterval("212.219.1.0/24", 0xd4db0100L, 0xd4db01ffL);
+        assertInterval("151.64.0.1/21", 0x97400000L, 0x974007ffL);
+        assertInterval("11.22.33 / 16", 0x0b160000L, 0x0b16ffffL);
+        assertInterval("0/0", 0, 0xffffffffL);
+        assertInterval("1.2.3.4/32", 0x01020304L, 0x01020304L);
+    }
+
+    @Test
+    public void parse_range() {
+        assertInterval("212.219.1.0 - 212.219.1.255", 0xd4db0100L, 0xd4db01ffL);
+        assertInterval("1.2.3.4-1.2.3.4", 0x01020304L, 0x01020304L);
+    }
+
+    @Test
+    public void parse_part_of_text() {
+        String line = "inetnum: 10.0.0.0 - 10.0.0.255 # comment";
+        long interval = Ipv4TextParser.parseInterval(line, 8, line.indexOf('#'));
+        assertThat(Ipv4TextParser.begin(interval), is(0x0a000000L));
+        assertThat(Ipv4TextParser.end(interval), is(0x0a0000ffL));
+
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        assertThat(subject.parseInterval(bytes, 8, line.indexOf('#') - 8), is(interval));
+        assertThat(subject.parseAddress(bytes, 9, 8), is(0x0a000000));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.position(8).limit(line.indexOf('#'));
+        assertThat(subject.parseInterval(buffer), is(interval));
+        assertThat(buffer.position(), is(8));
+    }
+
+    @Test
+    public void invalid() {
+        for (String text : new String[]{"", " ", "invalid resource", "::0", "1.2.3.4.5", "1..2", "1.2.3.", "256.0.0.0", "1.2.3.4/33",
+                "1.2.3.4/", "1.2.3.4/-1", "1.2.3.4/8x", "1.2.3.4 -", "1.2.3.5 - 1.2.3.4", "1.2.3.4 - 1.2.3.4/8", "+1.2.3.4", "1.2.3.4 1"}) {
+            try {
+                Ipv4TextParser.parseInterval(text);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                subject.parseInterval(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void address_rejects_prefix() {
+        Ipv4TextParser.parseAddress("10/8");
+    }
+
+    @Test
+    public void parse_reverse_domain() {
+        assertReverseDomain("111.in-addr.arpa", 0x6f000000L, 0x6fffffffL);
+        assertReverseDomain("22.111.IN-ADDR.ARPA.", 0x6f160000L, 0x6f16ffffL);
+        assertReverseDomain(" 3.22.111.in-addr.arpa.\n", 0x6f160300L, 0x6f1603ffL);
+        assertReverseDomain("0.3.22.111.in-addr.arpa", 0x6f160300L, 0x6f160300L);
+        assertReverseDomain("44-55.33.22.11.in-addr.arpa.", 0x0b16212cL, 0x0b162137L);
+        assertReverseDomain("0-255.33.22.11.in-addr.arpa.", 0x0b162100L, 0x0b1621ffL);
+
+        String line = "domain: 3.2.1.in-addr.arpa # comment";
+        assertThat(Ipv4TextParser.parseReverseDomain(line, 7, line.indexOf('#')), is(Ipv4TextParser.parseInterval("1.2.3/24")));
+    }
+
+    @Test
+    public void invalid_reverse_domain() {
+        for (String text : new String[]{"", "in-addr.arpa", ".in-addr.arpa.", "1.2.3.4", "1..in-addr.arpa", ".1.in-addr.arpa",
+                "1.in-addr.arpa..", "5.4.3.2.1.in-addr.arpa", "01.in-addr.arpa", "256.in-addr.arpa", "a.in-addr.arpa",
+                "1-2.3.4.in-addr.arpa", "4.3-5.2.1.in-addr.arpa", "1-2-3.3.2.1.in-addr.arpa", "80-28.79.198.195.in-addr.arpa.",
+                "1-.3.2.1.in-addr.arpa", "1.ip6.arpa"}) {
+            try {
+                Ipv4TextParser.parseReverseDomain(text);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void should_match_formatted_reverse_domains() {
+        for (int i = 0; i < 10000; i++) {
+            Ipv4Interval interval = Ipv4Interval.parsePrefixWithLength(random.nextInt() & 0xffffffffL, 8 * (1 + random.nextInt(4)));
+            long parsed = Ipv4TextParser.parseReverseDomain(interval.toReverseDomain());
+            assertEquals("failed with seed: " + seed, interval, new Ipv4Interval(Ipv4TextParser.begin(parsed), Ipv4TextParser.end(parsed)));
+        }
+    }
+
+    @Test
+    public void should_match_formatted_intervals() {
+        for (int i = 0; i < 10000; i++) {
+            long begin = random.nextInt() & 0xffffffffL;
+            Ipv4Interval interval = random.nextBoolean()
+                    ? Ipv4Interval.parsePrefixWithLength(begin, random.nextInt(33))
+                    : new Ipv4Interval(begin, begin + (random.nextLong() & 0xffffffffL) % (0x100000000L - begin));
+            long parsed = Ipv4TextParser.parseInterval(interval.toString());
+            assertEquals("failed with seed: " + seed, interval, new Ipv4Interval(Ipv4TextParser.begin(parsed), Ipv4TextParser.end(parsed)));
+        }
+    }
+
+    @Test
+    public void parsing_should_not_allocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        String[] texts = {"1.2.3.4", "212.219.1.0/24", "212.219.1.0 - 212.219.1.255"};
+        byte[][] bytes = new byte[texts.length][];
+        ByteBuffer[] buffers = new ByteBuffer[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            bytes[i] = texts[i].getBytes(StandardCharsets.US_ASCII);
+            buffers[i] = ByteBuffer.wrap(bytes[i]);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = -1;
+        for (int round = 0; round < 5 && allocated != 0; round++) {
+            parse(texts, bytes, buffers);
+
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            parse(texts, bytes, buffers);
+            long after = threadMXBean.getThreadAllocatedBytes(threadId);
+            allocated = (after - before) - (before - start);
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    private long parse(String[] texts, byte[][] bytes, ByteBuffer[] buffers) {
+        long sum = 0;
+        for (int n = 0; n < 10000; n++) {
+            for (int i = 0; i < texts.length; i++) {
+                sum += Ipv4TextParser.parseInterval(texts[i]);
+                sum += subject.parseInterval(bytes[i], 0, bytes[i].length);
+                sum += subject.parseInterval(buffers[i]);
+                sum += Ipv4TextParser.parseReverseDomain("4-5.3.2.1.in-addr.arpa.");
+            }
+        }
+        return sum;
+    }
+
+    private void assertReverseDomain(String text, long begin, long end) {
+        long interval = Ipv4TextParser.parseReverseDomain(text);
+        assertThat(text, Ipv4TextParser.begin(interval), is(begin));
+        assertThat(text, Ipv4TextParser.end(interval), is(end));
+    }
+
+    private void assertInterval(String text, long begin, long end) {
+        long interval = Ipv4TextParser.parseInterval(text);
+        assertThat(text, Ipv4TextParser.begin(interval), is(begin));
+        assertThat(text, Ipv4TextParser.end(interval), is(end));
+        assertThat(text, Ipv4Interval.parse(text), is(new Ipv4Interval(begin, end)));
+    }
+}
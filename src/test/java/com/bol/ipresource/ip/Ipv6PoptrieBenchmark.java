@@ -0,0 +1,77 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares first-less-specific lookups of single addresses in an {@link Ipv6Poptrie} with
+ * {@link NestedIntervalMap#findExactOrFirstLessSpecific(Interval)} on the tree it was compiled
+ * from, for a generated routing table of nested prefixes.
+ * <p/>
+ * Not run as part of the build; run <code>main</code> from the test classpath, optionally with the number of prefixes
+ * (200 thousand by default) and of lookups per round (1 million by default).
+ */
+public final class Ipv6PoptrieBenchmark {
+    private static final int ROUNDS = 5;
+
+    private Ipv6PoptrieBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int prefixes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Random random = new Random(1);
+
+        NestedIntervalMap<Ipv6Interval, String> tree = new NestedIntervalMap<>();
+        long[] allocations = new long[prefixes];
+        for (int i = 0; i < prefixes; i++) {
+            // allocations of /19 to /48 in 2000::/4, with more specifics of /48 to /64 in a quarter of them
+            long msb = 0x2000000000000000L | (random.nextLong() >>> 4);
+            allocations[i] = msb;
+            Ipv6Interval prefix = random.nextInt(4) > 0
+                    ? new Ipv6Interval(msb, 0, 19 + random.nextInt(30))
+                    : new Ipv6Interval(allocations[random.nextInt(i + 1)] | (random.nextLong() >>> 48), 0, 48 + random.nextInt(17));
+            try {
+                tree.put(prefix, prefix.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        long start = System.nanoTime();
+        Ipv6Poptrie<String> poptrie = Ipv6Poptrie.compile(tree);
+        System.out.printf("compiled %d prefixes into %d nodes in %d ms%n",
+                tree.size(), poptrie.nodeCount(), (System.nanoTime() - start) / 1_000_000);
+
+        long[] msbs = new long[lookups];
+        long[] lsbs = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            long allocation = allocations[random.nextInt(prefixes)];
+            msbs[i] = allocation ^ (random.nextLong() >>> (20 + random.nextInt(44)));
+            lsbs[i] = random.nextLong();
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            start = System.nanoTime();
+            int treeHits = 0;
+            for (int i = 0; i < lookups; i++) {
+                List<String> result = tree.findExactOrFirstLessSpecific(new Ipv6Interval(msbs[i], lsbs[i], 128));
+                if (!result.isEmpty()) treeHits++;
+            }
+            long treeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int poptrieHits = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (poptrie.lookup(msbs[i], lsbs[i]) != null) poptrieHits++;
+            }
+            long poptrieTime = System.nanoTime() - start;
+
+            if (treeHits != poptrieHits) throw new IllegalStateException(treeHits + " != " + poptrieHits);
+            System.out.printf("tree %6.1f ns/op, poptrie %6.1f ns/op (%d hits)%n",
+                    (double) treeTime / lookups, (double) poptrieTime / lookups, poptrieHits);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.CollectionHelper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class Ipv6PoptrieTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Test
+    public void empty_tree() {
+        Ipv6Poptrie<String> subject = Ipv6Poptrie.compile(new NestedIntervalMap<Ipv6Interval, String>());
+        assertThat(subject.lookup(0, 0), is(nullValue()));
+        assertThat(subject.lookup(-1, -1), is(nullValue()));
+        assertThat(subject.nodeCount(), is(1));
+    }
+
+    @Test
+    public void nested_prefixes_and_ranges() {
+        NestedIntervalMap<Ipv6Interval, String> map = new NestedIntervalMap<>();
+        map.put(Ipv6Interval.parse("::/0"), "default");
+        map.put(Ipv6Interval.parse("2001:db8::/32"), "documentation");
+        map.put(new Ipv6Interval(0x20010db800000000L, 0x10000L, 0x20010db800000000L, 0x2ffffL), "range");
+        map.put(Ipv6Interval.parse("2001:db8::1:1"), "host");
+        map.put(Ipv6Interval.parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"), "last");
+
+        Ipv6Poptrie<String> subject = Ipv6Poptrie.compile(map);
+
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("::1")), contains("default"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::")), contains("documentation"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::ffff")), contains("documentation"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::1:0")), contains("range"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::1:1")), contains("host"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::1:2")), contains("range"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::2:ffff")), contains("range"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db8::3:0")), contains("documentation"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("2001:db9::")), contains("default"));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv6Interval.parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe")), contains("default"));
+        assertThat(subject.lookup(-1, -1), is("last"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lookup_of_range_fails() {
+        Ipv6Poptrie.compile(new NestedIntervalMap<Ipv6Interval, String>()).findExactOrFirstLessSpecific(Ipv6Interval.parse("2001::/16"));
+    }
+
+    @Test
+    public void should_match_tree_for_random_intervals() {
+        NestedIntervalMap<Ipv6Interval, Ipv6Interval> map = new NestedIntervalMap<>();
+        List<Ipv6Interval> everything = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Ipv6Interval interval = randomIpv6Interval();
+            try {
+                map.put(interval, interval);
+                everything.add(interval);
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        Ipv6Poptrie<Ipv6Interval> subject = Ipv6Poptrie.compile(map);
+
+        for (Ipv6Interval interval : everything) {
+            assertSameResult(map, subject, interval.beginMsb(), interval.beginLsb());
+            assertSameResult(map, subject, interval.endMsb(), interval.endLsb());
+            assertSameResult(map, subject, interval.beginLsb() == 0 ? interval.beginMsb() - 1 : interval.beginMsb(), interval.beginLsb() - 1);
+            assertSameResult(map, subject, interval.endLsb() == -1 ? interval.endMsb() + 1 : interval.endMsb(), interval.endLsb() + 1);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Ipv6Interval address = randomIpv6Interval().singletonIntervalAtLowerBound();
+            assertSameResult(map, subject, address.beginMsb(), address.beginLsb() + random.nextInt(4));
+        }
+    }
+
+    private Ipv6Interval randomIpv6Interval() {
+        // keep most intervals within a few /48s so they nest deep enough to exercise every level of the trie
+        long msb = 0x20010db800000000L | ((long) random.nextInt(4) << 16) | (random.nextInt(4) == 0 ? random.nextLong() & 0xffffL : 0);
+        long lsb = random.nextInt(2) == 0 ? random.nextLong() : random.nextInt(1 << 16);
+        if (random.nextInt(3) == 0) {
+            long begin = lsb >>> 1;
+            return new Ipv6Interval(msb, begin, msb, begin + random.nextInt(1 << 16));
+        }
+        return new Ipv6Interval(msb, lsb, random.nextInt(129));
+    }
+
+    private void assertSameResult(NestedIntervalMap<Ipv6Interval, Ipv6Interval> map, Ipv6Poptrie<Ipv6Interval> subject, long msb, long lsb) {
+        Ipv6Interval expected = CollectionHelper.uniqueResult(map.findExactOrFirstLessSpecific(new Ipv6Interval(msb, lsb, 128)));
+        assertEquals("address: " + new Ipv6Interval(msb, lsb, 128) + ", seed: " + seed, expected, subject.lookup(msb, lsb));
+    }
+}
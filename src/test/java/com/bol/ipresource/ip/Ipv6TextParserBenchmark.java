@@ -0,0 +1,106 @@
+package com.bol.ipresource.ip;
+
+import com.google.common.net.InetAddresses;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Random;
+
+/**
+ * Compares parsing IPv6 text with {@link Ipv6Interval#parse(String)} and a reused {@link Ipv6TextParser} with the
+ * previous path through Guava's <code>InetAddresses.forString</code>, on generated addresses and prefixes. Prints the
+ * time and the bytes allocated per parsed text.
+ * <p/>
+ * Not run as part of the build; run <code>main</code> from the test classpath, optionally with the number of texts to
+ * generate (1 million by default).
+ */
+public final class Ipv6TextParserBenchmark {
+    private static final int ROUNDS = 5;
+
+    private Ipv6TextParserBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] texts = generate(count);
+        Ipv6TextParser parser = new Ipv6TextParser();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            report("forString", texts, () -> {
+                long sum = 0;
+                for (String text : texts) {
+                    sum += forString(text).beginLsb();
+                }
+                return sum;
+            });
+            report("parse    ", texts, () -> {
+                long sum = 0;
+                for (String text : texts) {
+                    sum += Ipv6Interval.parse(text).beginLsb();
+                }
+                return sum;
+            });
+            report("parser   ", texts, () -> {
+                long sum = 0;
+                for (String text : texts) {
+                    sum += parser.parse(text).lsb();
+                }
+                return sum;
+            });
+        }
+    }
+
+    private static String[] generate(int count) {
+        Random random = new Random(1);
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            long msb = 0x2001000000000000L | (random.nextLong() >>> 16);
+            switch (random.nextInt(3)) {
+                case 0:
+                    // a prefix, so "::" compressed
+                    result[i] = new Ipv6Interval(msb, 0, 16 + random.nextInt(49)).toString();
+                    break;
+                case 1:
+                    result[i] = new Ipv6Interval(msb, random.nextLong(), 128).toString();
+                    break;
+                default:
+                    result[i] = new Ipv6Interval(msb, random.nextInt(1 << 16), 128).toString();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The parsing path of {@link Ipv6Interval#parse(String)} before {@link Ipv6TextParser}.
+     */
+    private static Ipv6Interval forString(String text) {
+        String trimmed = text.trim();
+        int slashIndex = trimmed.indexOf('/');
+        if (slashIndex > 0) {
+            InetAddress address = InetAddresses.forString(trimmed.substring(0, slashIndex));
+            return Ipv6Interval.parse(address, Integer.parseInt(trimmed.substring(slashIndex + 1)));
+        }
+        return Ipv6Interval.parse(InetAddresses.forString(trimmed));
+    }
+
+    private static void report(String name, String[] texts, Run run) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long sum = run.run();
+        long time = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.printf("%s %6.1f ns/op %6.1f bytes/op (%d)%n",
+                name, (double) time / texts.length, (double) allocated / texts.length, sum & 0xff);
+    }
+
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return 0;
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private interface Run {
+        long run();
+    }
+}
@@ -0,0 +1,205 @@
+package com.bol.ipresource.ip;
+
+import com.google.common.net.InetAddresses;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.Inet6Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class Ipv6TextParserTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    private final Ipv6TextParser subject = new Ipv6TextParser();
+
+    @Test
+    public void parse_address() {
+        assertAddress("::", 0, 0);
+        assertAddress("::1", 0, 1);
+        assertAddress("1::", 0x0001000000000000L, 0);
+        assertAddress("2001:db8::ff00:42:8329", 0x20010db800000000L, 0x0000ff0000428329L);
+        assertAddress("2001:0DB8:0000:0000:0000:FF00:0042:8329", 0x20010db800000000L, 0x0000ff0000428329L);
+        assertAddress("1:2:3:4:5:6:7::", 0x0001000200030004L, 0x0005000600070000L);
+        assertAddress("::2:3:4:5:6:7:8", 0x0000000200030004L, 0x0005000600070008L);
+        assertAddress(" 1:2:3:4:5:6:7:8\r\n", 0x0001000200030004L, 0x0005000600070008L);
+    }
+
+    @Test
+    public void parse_embedded_ipv4() {
+        assertAddress("::ffff:192.0.2.128", 0, 0x0000ffffc0000280L);
+        assertAddress("64:ff9b::192.0.2.33", 0x0064ff9b00000000L, 0xc0000221L);
+        assertAddress("1:2:3:4:5:6:1.2.3.4", 0x0001000200030004L, 0x0005000601020304L);
+    }
+
+    @Test
+    public void parse_prefix() {
+        subject.parse("2001:db8::/32");
+        assertThat(subject.msb(), is(0x20010db800000000L));
+        assertThat(subject.prefixLength(), is(32));
+        assertThat(subject.toInterval(), is(new Ipv6Interval(0x20010db800000000L, 0, 32)));
+
+        assertThat(subject.parse("::/0").prefixLength(), is(0));
+        assertThat(subject.parse("::1/128").prefixLength(), is(128));
+        assertThat(subject.parse("::1").prefixLength(), is(128));
+    }
+
+    @Test
+    public void parse_part_of_text() {
+        String line = "inet6num: 2001:db8::/32 # comment";
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+
+        assertThat(subject.parse(line, 10, line.indexOf('#')).prefixLength(), is(32));
+        assertThat(subject.parse(bytes, 10, line.indexOf('#') - 10).msb(), is(0x20010db800000000L));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.position(10).limit(line.indexOf('#'));
+        assertThat(subject.parse(buffer).toInterval(), is(Ipv6Interval.parse("2001:db8::/32")));
+        assertThat(buffer.position(), is(10));
+    }
+
+    @Test
+    public void invalid() {
+        for (String text : new String[]{"", ":", ":::", "1", "1:", ":1", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::",
+                "::1:2:3:4:5:6:7:8", "1::2::3", "1:::2", "12345::", "g::", "12.0.0.1", "::1.2.3", "::1.2.3.4.5", "::01.2.3.4",
+                "::256.0.0.0", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3.4:1", "::/", "::/129", "::/1x", ":: /64", "/64", "2001:: - 2020::",
+                "invalid resource"}) {
+            try {
+                subject.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                subject.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void parse_reverse_domain() {
+        subject.parseReverseDomain("2.ip6.arpa.");
+        assertThat(subject.msb(), is(0x2000000000000000L));
+        assertThat(subject.prefixLength(), is(4));
+
+        assertThat(subject.parseReverseDomain(" 8.B.D.0.1.0.0.2.IP6.ARPA\n").toInterval(), is(Ipv6Interval.parse("2001:db8::/32")));
+        assertThat(subject.parseReverseDomain("b.a.9.8.7.6.5.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.8.b.d.0.1.0.0.2.ip6.arpa.").toInterval(),
+                is(Ipv6Interval.parse("2001:db8::567:89ab")));
+
+        String line = "domain: 8.b.d.0.1.0.0.2.ip6.arpa # comment";
+        assertThat(subject.parseReverseDomain(line, 7, line.indexOf('#')).toInterval(), is(Ipv6Interval.parse("2001:db8::/32")));
+    }
+
+    @Test
+    public void invalid_reverse_domain() {
+        for (String text : new String[]{"", "ip6.arpa", ".ip6.arpa.", "1.2.3.4", "1..ip6.arpa", ".1.ip6.arpa", "10.ip6.arpa", "g.ip6.arpa.",
+                "1-1.1.a.ip6.arpa.", "1.in-addr.arpa", "0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.ip6.arpa"}) {
+            try {
+                subject.parseReverseDomain(text);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void should_match_formatted_reverse_domains() {
+        for (int i = 0; i < 10000; i++) {
+            Ipv6Interval interval = new Ipv6Interval(random.nextLong(), random.nextLong(), 4 * (1 + random.nextInt(32)));
+            assertThat("failed with seed: " + seed, subject.parseReverseDomain(interval.toReverseDomain()).toInterval(), is(interval));
+        }
+    }
+
+    @Test
+    public void should_match_inet_addresses() throws UnknownHostException {
+        for (int i = 0; i < 10000; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            for (int zeros = random.nextInt(16); zeros > 0; zeros--) {
+                bytes[random.nextInt(16)] = 0;
+            }
+            String text = InetAddresses.toAddrString(Inet6Address.getByAddress(null, bytes, -1));
+            if (random.nextBoolean()) {
+                text = text.toUpperCase(Locale.ROOT);
+            }
+            subject.parse(text);
+            assertThat("address: " + text + ", seed: " + seed, subject.msb(), is(msb(bytes)));
+            assertThat("address: " + text + ", seed: " + seed, subject.lsb(), is(lsb(bytes)));
+        }
+    }
+
+    @Test
+    public void parsing_should_not_allocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        String[] texts = {"2001:db8::ff00:42:8329", "2001:db8::/32", "::ffff:192.0.2.128", "1:2:3:4:5:6:7:8"};
+        ByteBuffer[] buffers = new ByteBuffer[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            buffers[i] = ByteBuffer.wrap(texts[i].getBytes(StandardCharsets.US_ASCII));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = -1;
+        for (int round = 0; round < 5 && allocated != 0; round++) {
+            parse(texts, buffers);
+
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            parse(texts, buffers);
+            long after = threadMXBean.getThreadAllocatedBytes(threadId);
+            allocated = (after - before) - (before - start);
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    private long parse(String[] texts, ByteBuffer[] buffers) {
+        long sum = 0;
+        for (int n = 0; n < 10000; n++) {
+            for (int i = 0; i < texts.length; i++) {
+                sum += subject.parse(texts[i]).lsb();
+                sum += subject.parse(buffers[i]).msb();
+                sum += subject.parseReverseDomain("8.b.d.0.1.0.0.2.ip6.arpa.").msb();
+            }
+        }
+        return sum;
+    }
+
+    private void assertAddress(String text, long msb, long lsb) {
+        subject.parse(text);
+        assertThat(text, subject.msb(), is(msb));
+        assertThat(text, subject.lsb(), is(lsb));
+        assertThat(text, subject.prefixLength(), is(128));
+    }
+
+    private static long msb(byte[] bytes) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = result << 8 | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+    private static long lsb(byte[] bytes) {
+        long result = 0;
+        for (int i = 8; i < 16; i++) {
+            result = result << 8 | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,194 @@
+package com.bol.ipresource.ip;
+
+import com.bol.ipresource.etree.IntersectingIntervalException;
+import com.bol.ipresource.etree.IntervalMap;
+import com.bol.ipresource.etree.NestedIntervalMap;
+import com.bol.ipresource.util.ValueCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class OffHeapIntervalMapTest {
+
+    private final long seed = System.currentTimeMillis();
+    private final Random random = new Random(seed);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void empty_map() {
+        OffHeapIntervalMap<Ipv4Interval, String> subject = OffHeapIntervalMap.copyOfIpv4(new NestedIntervalMap<Ipv4Interval, String>(), ValueCodec.utf8());
+
+        assertThat(subject.size(), is(0));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("10/8")), empty());
+        assertThat(subject.findExactAndAllMoreSpecific(Ipv4Interval.MAX_RANGE), empty());
+    }
+
+    @Test
+    public void nested_ipv4() {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv4Interval.parse("10/8"), "10/8");
+        source.put(Ipv4Interval.parse("10.1/16"), "10.1/16");
+        source.put(Ipv4Interval.parse("10.1.1/24"), "10.1.1/24");
+        source.put(Ipv4Interval.parse("10.2/16"), "10.2/16");
+        source.put(Ipv4Interval.parse("255.255.255.255"), "broadcast");
+
+        OffHeapIntervalMap<Ipv4Interval, String> subject = OffHeapIntervalMap.copyOfIpv4(source, ValueCodec.utf8());
+
+        assertThat(subject.size(), is(5));
+        assertThat(subject.findExactOrFirstLessSpecific(Ipv4Interval.parse("10.1.1.1")), contains("10.1.1/24"));
+        assertThat(subject.findAllLessSpecific(Ipv4Interval.parse("10.1.1/24")), contains("10/8", "10.1/16"));
+        assertThat(subject.findFirstMoreSpecific(Ipv4Interval.parse("10/8")), contains("10.1/16", "10.2/16"));
+        assertThat(subject.findAllMoreSpecific(Ipv4Interval.parse("10/8")), contains("10.1/16", "10.1.1/24", "10.2/16"));
+        assertThat(subject.findExact(Ipv4Interval.parse("255.255.255.255")), contains("broadcast"));
+        assertThat(subject.findExact(Ipv4Interval.parse("10.3/16")), empty());
+    }
+
+    @Test
+    public void deeply_nested_ranges() {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        for (int i = 0; i < 2000; i++) {
+            source.put(new Ipv4Interval(i, Ipv4Interval.MAX_RANGE.end() - i), String.valueOf(i));
+        }
+
+        OffHeapIntervalMap<Ipv4Interval, String> subject = OffHeapIntervalMap.copyOfIpv4(source, ValueCodec.utf8());
+
+        assertThat(subject.size(), is(2000));
+        assertThat(subject.findExactOrFirstLessSpecific(new Ipv4Interval(5000, 5000)), contains("1999"));
+        assertThat(subject.findFirstLessSpecific(new Ipv4Interval(1999, Ipv4Interval.MAX_RANGE.end() - 1999)), contains("1998"));
+        assertThat(subject.findFirstMoreSpecific(new Ipv4Interval(1000, Ipv4Interval.MAX_RANGE.end() - 1000)), contains("1001"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void put_not_supported() {
+        OffHeapIntervalMap.copyOfIpv4(new NestedIntervalMap<Ipv4Interval, String>(), ValueCodec.utf8()).put(Ipv4Interval.parse("10/8"), "10/8");
+    }
+
+    @Test
+    public void should_match_nested_interval_map_ipv4() {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        List<Ipv4Interval> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long begin = random.nextInt() & 0xffffffffL;
+            long size = 1L << random.nextInt(28);
+            Ipv4Interval interval = new Ipv4Interval(begin, Math.min(begin + random.nextInt((int) size), Ipv4Interval.MAX_RANGE.end()));
+            keys.add(interval);
+            try {
+                source.put(interval, interval.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        assertSameResults(source, OffHeapIntervalMap.copyOfIpv4(source, ValueCodec.utf8()), keys);
+    }
+
+    @Test
+    public void should_match_nested_interval_map_ipv6() {
+        NestedIntervalMap<Ipv6Interval, String> source = new NestedIntervalMap<>();
+        List<Ipv6Interval> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long msb = random.nextLong() >>> 1;
+            long lsb = random.nextLong() & 0xffL;
+            long endMsb = msb + random.nextInt(1 << random.nextInt(24));
+            Ipv6Interval interval = new Ipv6Interval(msb, lsb, endMsb, endMsb == msb ? lsb + random.nextInt(64) : random.nextLong());
+            keys.add(interval);
+            try {
+                source.put(interval, interval.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+
+        assertSameResults(source, OffHeapIntervalMap.copyOfIpv6(source, ValueCodec.utf8()), keys);
+    }
+
+    @Test
+    public void snapshot_should_match_nested_interval_map() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        List<Ipv4Interval> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long begin = random.nextInt() & 0xffffffffL;
+            long size = 1L << random.nextInt(28);
+            Ipv4Interval interval = new Ipv4Interval(begin, Math.min(begin + random.nextInt((int) size), Ipv4Interval.MAX_RANGE.end()));
+            keys.add(interval);
+            try {
+                source.put(interval, interval.toString());
+            } catch (IntersectingIntervalException ignored) {
+            }
+        }
+        Path snapshot = folder.newFile().toPath();
+        OffHeapIntervalMap.copyOfIpv4(source, ValueCodec.utf8()).writeTo(snapshot);
+
+        assertSameResults(source, OffHeapIntervalMap.openIpv4(snapshot, ValueCodec.utf8()), keys);
+    }
+
+    @Test
+    public void snapshot_ipv6() throws IOException {
+        NestedIntervalMap<Ipv6Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv6Interval.parse("2001::/16"), "2001::/16");
+        source.put(Ipv6Interval.parse("2001:db8::/32"), "2001:db8::/32");
+        Path snapshot = folder.newFile().toPath();
+        OffHeapIntervalMap.copyOfIpv6(source, ValueCodec.utf8()).writeTo(snapshot);
+
+        OffHeapIntervalMap<Ipv6Interval, String> subject = OffHeapIntervalMap.openIpv6(snapshot, ValueCodec.utf8());
+
+        assertThat(subject.size(), is(2));
+        assertThat(subject.findExactAndAllLessSpecific(Ipv6Interval.parse("2001:db8::1")), contains("2001::/16", "2001:db8::/32"));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_snapshot_of_other_family() throws IOException {
+        Path snapshot = folder.newFile().toPath();
+        OffHeapIntervalMap.copyOfIpv4(new NestedIntervalMap<Ipv4Interval, String>(), ValueCodec.utf8()).writeTo(snapshot);
+
+        OffHeapIntervalMap.openIpv6(snapshot, ValueCodec.utf8());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_file_without_magic() throws IOException {
+        Path snapshot = folder.newFile().toPath();
+        Files.write(snapshot, new byte[64]);
+
+        OffHeapIntervalMap.openIpv4(snapshot, ValueCodec.utf8());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_truncated_snapshot() throws IOException {
+        NestedIntervalMap<Ipv4Interval, String> source = new NestedIntervalMap<>();
+        source.put(Ipv4Interval.parse("10/8"), "10/8");
+        Path snapshot = folder.newFile().toPath();
+        OffHeapIntervalMap.copyOfIpv4(source, ValueCodec.utf8()).writeTo(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, 40));
+
+        OffHeapIntervalMap.openIpv4(snapshot, ValueCodec.utf8());
+    }
+
+    private <K extends IpInterval<K>> void assertSameResults(NestedIntervalMap<K, String> expected, IntervalMap<K, String> subject, List<K> keys) {
+        for (K key : keys) {
+            String message = "key: " + key + ", failed with seed: " + seed;
+            assertEquals(message, expected.findFirstLessSpecific(key), subject.findFirstLessSpecific(key));
+            assertEquals(message, expected.findExact(key), subject.findExact(key));
+            assertEquals(message, expected.findExactOrFirstLessSpecific(key), subject.findExactOrFirstLessSpecific(key));
+            assertEquals(message, expected.findAllLessSpecific(key), subject.findAllLessSpecific(key));
+            assertEquals(message, expected.findExactAndAllLessSpecific(key), subject.findExactAndAllLessSpecific(key));
+            assertEquals(message, expected.findFirstMoreSpecific(key), subject.findFirstMoreSpecific(key));
+            assertEquals(message, expected.findAllMoreSpecific(key), subject.findAllMoreSpecific(key));
+            assertEquals(message, expected.findExactAndAllMoreSpecific(key), subject.findExactAndAllMoreSpecific(key));
+        }
+    }
+}